@@ -362,6 +362,17 @@ public class SnapshotPart extends AbstractPersistent {
     }
   }
 
+  public SnapshotPart updateFileName(String fileName) throws EucalyptusCloudException {
+    try (TransactionResource transaction = Entities.transactionFor(SnapshotPart.class)) {
+      SnapshotPart part = Entities.uniqueResult(new SnapshotPart(this.snapshotId, this.bucketName, this.keyName, this.uploadId, this.partNumber));
+      part.setFileName(fileName);
+      transaction.commit();
+      return part;
+    } catch (Exception ex) {
+      throw new EucalyptusCloudException("Failed to update file name for part entity " + this + " to " + fileName, ex);
+    }
+  }
+
   public SnapshotPart updateStateUploading() throws EucalyptusCloudException {
     try (TransactionResource transaction = Entities.transactionFor(SnapshotPart.class)) {
       SnapshotPart part = Entities.uniqueResult(new SnapshotPart(this.snapshotId, this.bucketName, this.keyName, this.uploadId, this.partNumber));
@@ -105,6 +105,7 @@ import com.google.common.base.Predicate;
 @ConfigurableClass(root = "storage", alias = "basic", description = "Basic storage controller configuration.", singleton = false, deferred = true)
 public class StorageInfo extends AbstractPersistent {
   private static final Boolean DEFAULT_SHOULD_TRANSFER_SNAPSHOTS = Boolean.TRUE;
+  private static final Boolean DEFAULT_INCREMENTAL_SNAPSHOTS = Boolean.FALSE;
   private static final Integer DEFAULT_MAX_SNAP_TRANSFER_RETRIES = 50;
   private static final Integer DEFAULT_SNAPSHOT_PART_SIZE_IN_MB = 100;
   private static final Integer DEFAULT_MAX_SNAPSHOT_PARTS_QUEUE_SIZE = 5;
@@ -138,6 +139,11 @@ public class StorageInfo extends AbstractPersistent {
   @Column(name = "system_storage_transfer_snapshots")
   private Boolean shouldTransferSnapshots;
 
+  @ConfigurableField(description = "Upload snapshots incrementally as chunks not stored for a previous snapshot of the volume",
+      displayName = "Incremental snapshots", initial = "false", type = ConfigurableFieldType.BOOLEAN)
+  @Column(name = "incremental_snapshots")
+  private Boolean incrementalSnapshots;
+
   @ConfigurableField(description = "Maximum retry count for snapshot transfer", displayName = "Max Snaphot Transfer Retries", initial = "50")
   @Column(name = "max_snap_transfer_retries")
   private Integer maxSnapTransferRetries;
@@ -159,7 +165,7 @@ public class StorageInfo extends AbstractPersistent {
   @Column(name = "snapshot_part_size_mb")
   private Integer snapshotPartSizeInMB;
 
-  @ConfigurableField(description = "Maximum number of snapshot parts per snapshot that can be spooled on the disk",
+  @ConfigurableField(description = "Maximum number of compressed snapshot parts per snapshot that can be held in memory waiting for upload",
       displayName = "Maximum Queue Size", initial = "5", changeListener = PositiveIntegerChangeListener.class)
   @Column(name = "max_snapshot_parts_queue_size")
   private Integer maxSnapshotPartsQueueSize;
@@ -234,6 +240,14 @@ public class StorageInfo extends AbstractPersistent {
     this.shouldTransferSnapshots = shouldTransferSnapshots;
   }
 
+  public Boolean getIncrementalSnapshots() {
+    return incrementalSnapshots;
+  }
+
+  public void setIncrementalSnapshots(Boolean incrementalSnapshots) {
+    this.incrementalSnapshots = incrementalSnapshots;
+  }
+
   public Integer getMaxSnapTransferRetries() {
     return maxSnapTransferRetries;
   }
@@ -364,6 +378,9 @@ public class StorageInfo extends AbstractPersistent {
     if (shouldTransferSnapshots == null) {
       shouldTransferSnapshots = DEFAULT_SHOULD_TRANSFER_SNAPSHOTS;
     }
+    if (incrementalSnapshots == null) {
+      incrementalSnapshots = DEFAULT_INCREMENTAL_SNAPSHOTS;
+    }
     if (maxSnapTransferRetries == null) {
       maxSnapTransferRetries = DEFAULT_MAX_SNAP_TRANSFER_RETRIES;
     }
@@ -404,6 +421,7 @@ public class StorageInfo extends AbstractPersistent {
     info.setMaxTotalVolumeSizeInGb(StorageProperties.MAX_TOTAL_VOLUME_SIZE);
     info.setMaxVolumeSizeInGB(StorageProperties.MAX_VOLUME_SIZE);
     info.setShouldTransferSnapshots(DEFAULT_SHOULD_TRANSFER_SNAPSHOTS);
+    info.setIncrementalSnapshots(DEFAULT_INCREMENTAL_SNAPSHOTS);
     info.setVolExpiration(DEFAULT_DELETED_VOL_EXPIRATION_TIME);
     info.setSnapExpiration(DEFAULT_DELETED_SNAP_EXPIRATION_TIME);
     info.setMaxSnapTransferRetries(DEFAULT_MAX_SNAP_TRANSFER_RETRIES);
@@ -0,0 +1,605 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.eucalyptus.blockstorage.SnapshotTransferStats.Stage;
+import com.eucalyptus.blockstorage.entities.SnapshotInfo;
+import com.eucalyptus.blockstorage.exceptions.SnapshotTransferException;
+import com.eucalyptus.blockstorage.threadpool.SnapshotTransferThreadPool;
+import com.eucalyptus.blockstorage.util.StorageProperties;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.entities.TransactionResource;
+import com.eucalyptus.util.Pair;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Incremental snapshot transfer using a content addressed chunk store.
+ * 
+ * The snapshot is split into fixed size chunks that are stored once per volume and bucket, keyed by the SHA-256 hash of the chunk data. A
+ * snapshot is a {@link SnapshotManifest} listing the chunks in order. Only chunks not referenced by the latest available snapshot of the volume
+ * are uploaded, chunks that are all zeros are not stored at all. Restoring fetches the chunks in parallel and writes them in order.
+ * 
+ * Chunks are removed when no remaining manifest for the volume references them. This is deferred while a snapshot of the volume is in progress
+ * as the new snapshot may reference chunks of the snapshot being deleted. Deferred removals are only held in memory, volumes with deleted
+ * snapshots are also swept periodically so that chunks are removed after a restart or a failed removal.
+ */
+public class ChunkedSnapshotTransfer extends S3SnapshotTransfer {
+
+  private static Logger LOG = Logger.getLogger(ChunkedSnapshotTransfer.class);
+
+  public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+  public static final int FETCH_WINDOW = 4; // chunks fetched in parallel for each restore
+
+  private static final String MANIFEST_SUFFIX = ".manifest";
+  private static final String CHUNK_INFIX = ".chunk.";
+
+  // unreferenced chunks younger than this are kept, they may belong to a snapshot that is still uploading
+  private static final long CHUNK_REMOVAL_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  // chunk removals to retry by volume, removal is deferred while a snapshot of the volume is in progress
+  private static final ConcurrentMap<String, DeferredRemoval> deferredRemovals = new ConcurrentHashMap<String, DeferredRemoval>();
+
+  // volumes with snapshots deleted since the previous sweep are swept this often, the first sweep covers all deleted snapshots
+  private static final long CHUNK_SWEEP_INTERVAL_MILLIS = CHUNK_REMOVAL_GRACE_MILLIS;
+  private static final AtomicLong lastChunkSweep = new AtomicLong(0);
+
+  private String volumeId;
+
+  /**
+   * For uploading a snapshot of the given volume
+   */
+  public ChunkedSnapshotTransfer(String snapshotId, String volumeId) throws SnapshotTransferException {
+    super(snapshotId, manifestKey(volumeId, snapshotId));
+    this.volumeId = volumeId;
+  }
+
+  /**
+   * For restoring or deleting the snapshot with the given manifest
+   */
+  public ChunkedSnapshotTransfer(String snapshotId, String bucketName, String keyName) throws SnapshotTransferException {
+    super(snapshotId, bucketName, keyName);
+    this.volumeId = volumeIdFromKey(keyName);
+  }
+
+  public static boolean isManifestKey(String keyName) {
+    return keyName != null && keyName.endsWith(MANIFEST_SUFFIX) && keyName.indexOf('.') > 0;
+  }
+
+  static String manifestKey(String volumeId, String snapshotId) {
+    return volumeId + '.' + snapshotId + MANIFEST_SUFFIX;
+  }
+
+  static String chunkKey(String volumeId, String hash) {
+    return volumeId + CHUNK_INFIX + hash;
+  }
+
+  static String volumeIdFromKey(String keyName) {
+    return keyName == null || keyName.indexOf('.') < 0 ? null : keyName.substring(0, keyName.indexOf('.'));
+  }
+
+  /**
+   * Reads and hashes the snapshot, uploading new chunks followed by the manifest. The snapshot is read completely before returning so the
+   * returned future is always done.
+   */
+  @Override
+  public Future<String> upload(StorageResource storageResource, SnapshotProgressCallback progressCallback) throws SnapshotTransferException {
+    validateInput();
+    loadTransferConfig();
+
+    SnapshotTransferStats stats = new SnapshotTransferStats(getSnapshotId());
+    LinkedList<Pair<String, Future<CompressedBlock>>> compressedChunkFutures = new LinkedList<Pair<String, Future<CompressedBlock>>>();
+    InputStream inputStream = null;
+    try {
+      Long uncompressedSize = storageResource.getSize();
+      progressCallback.setUploadSize(uncompressedSize);
+
+      Set<String> storedChunks = new HashSet<String>();
+      SnapshotManifest baseManifest = loadBaseManifest();
+      if (baseManifest != null) {
+        storedChunks.addAll(baseManifest.getChunkHashes());
+      }
+
+      LOG.info("Uploading snapshot " + getSnapshotId() + " to objectstorage incrementally in chunks of " + CHUNK_SIZE + " bytes"
+          + (baseManifest != null ? ", " + storedChunks.size() + " chunks stored for " + volumeId : ""));
+      List<String> chunks = new ArrayList<String>();
+      long bytesRead = 0;
+      int uploadedChunks = 0;
+      int zeroChunks = 0;
+      inputStream = storageResource.getInputStream();
+      int len;
+      do {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long start = System.nanoTime();
+        len = readBlock(inputStream, chunk);
+        stats.record(Stage.Read, len, System.nanoTime() - start);
+        if (len > 0) {
+          bytesRead += len;
+          if (SnapshotManifest.isZero(chunk, len)) {
+            chunks.add(SnapshotManifest.ZERO_CHUNK);
+            zeroChunks++;
+            progressCallback.updateUploadProgress(len);
+          } else {
+            String hash = SnapshotManifest.hash(chunk, len);
+            chunks.add(hash);
+            if (storedChunks.add(hash)) {
+              compressedChunkFutures.add(Pair.pair(hash, SnapshotTransferThreadPool.add(new CompressBlockTask(chunk, len, stats))));
+              uploadedChunks++;
+            } else {
+              progressCallback.updateUploadProgress(len);
+            }
+          }
+        }
+        while (compressedChunkFutures.size() > (len < CHUNK_SIZE ? 0 : COMPRESSION_WINDOW)) {
+          Pair<String, Future<CompressedBlock>> compressedChunkFuture = compressedChunkFutures.removeFirst();
+          uploadChunk(compressedChunkFuture.getLeft(), compressedChunkFuture.getRight().get(), progressCallback, stats);
+        }
+      } while (len == CHUNK_SIZE);
+      inputStream.close();
+
+      String etag = uploadManifest(new SnapshotManifest(volumeId, bytesRead, CHUNK_SIZE, chunks), uncompressedSize);
+      LOG.info("Uploaded snapshot " + getSnapshotId() + " to objectstorage: " + chunks.size() + " chunks, " + uploadedChunks + " uploaded, "
+          + zeroChunks + " zero, " + (chunks.size() - uploadedChunks - zeroChunks) + " unchanged");
+      LOG.info(stats);
+      return Futures.immediateFuture(etag);
+    } catch (SnapshotTransferException e) {
+      throw e;
+    } catch (Exception e) {
+      LOG.error("Failed to upload snapshot " + getSnapshotId() + " due to: ", e);
+      throw new SnapshotTransferException("Failed to upload snapshot " + getSnapshotId() + " due to: ", e);
+    } finally {
+      for (Pair<String, Future<CompressedBlock>> compressedChunkFuture : compressedChunkFutures) {
+        compressedChunkFuture.getRight().cancel(true);
+      }
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (Exception e) {
+
+        }
+      }
+    }
+  }
+
+  /**
+   * Downloads the chunks listed in the manifest in parallel and writes them to the storage resource in order
+   */
+  @Override
+  public void download(StorageResource storageResource) throws SnapshotTransferException {
+    validateInput();
+    loadTransferConfig();
+
+    SnapshotManifest manifest = readManifest(this, getKeyName());
+    BlockingQueue<S3SnapshotTransfer> fetchers = new ArrayBlockingQueue<S3SnapshotTransfer>(FETCH_WINDOW);
+    LinkedList<Pair<Integer, Future<byte[]>>> chunkFutures = new LinkedList<Pair<Integer, Future<byte[]>>>();
+    OutputStream outputStream = null;
+    try {
+      // Each fetcher has its own client so chunks can be fetched concurrently
+      for (int i = 0; i < FETCH_WINDOW; i++) {
+        fetchers.add(new S3SnapshotTransfer(getSnapshotId(), getBucketName(), getKeyName()));
+      }
+
+      byte[] zeros = new byte[manifest.getChunkSize()];
+      outputStream = storageResource.getOutputStream();
+      List<String> chunks = manifest.getChunks();
+      for (int i = 0; i <= chunks.size(); i++) {
+        if (i < chunks.size()) {
+          String chunk = chunks.get(i);
+          Future<byte[]> chunkFuture =
+              SnapshotManifest.ZERO_CHUNK.equals(chunk) ? Futures.<byte[]>immediateFuture(null) : SnapshotTransferThreadPool.add(new FetchChunkTask(
+                  fetchers, chunkKey(manifest.getVolumeId(), chunk), chunk, manifest.getChunkLength(i)));
+          chunkFutures.add(Pair.pair(manifest.getChunkLength(i), chunkFuture));
+        }
+        while (chunkFutures.size() > (i < chunks.size() ? FETCH_WINDOW - 1 : 0)) {
+          Pair<Integer, Future<byte[]>> chunkFuture = chunkFutures.removeFirst();
+          byte[] data = chunkFuture.getRight().get();
+          outputStream.write(data != null ? data : zeros, 0, chunkFuture.getLeft());
+        }
+      }
+      outputStream.close();
+      LOG.info("Downloaded snapshot " + getSnapshotId() + " to storage backend from " + chunks.size() + " chunks");
+    } catch (Exception e) {
+      throw new SnapshotTransferException("Failed to download snapshot " + getSnapshotId() + " to storage backend", e);
+    } finally {
+      for (Pair<Integer, Future<byte[]>> chunkFuture : chunkFutures) {
+        chunkFuture.getRight().cancel(true);
+      }
+      if (outputStream != null) {
+        try {
+          outputStream.close();
+        } catch (Exception e) {
+
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the manifest and any chunks no longer referenced by the volume's remaining manifests
+   */
+  @Override
+  public void delete() throws SnapshotTransferException {
+    super.delete();
+    deleteUnreferencedChunks();
+  }
+
+  /**
+   * There is no multipart upload to abort, the manifest is removed if it was uploaded along with chunks no longer referenced
+   */
+  @Override
+  public void cancelUpload() throws SnapshotTransferException {
+    validateInput();
+    delete();
+  }
+
+  private SnapshotManifest loadBaseManifest() {
+    SnapshotInfo baseSnapshot = null;
+    try (TransactionResource tran = Entities.transactionFor(SnapshotInfo.class)) {
+      List<SnapshotInfo> snapshots =
+          Entities.createCriteria(SnapshotInfo.class).setReadOnly(true).add(Restrictions.eq("volumeId", volumeId))
+              .add(Restrictions.eq("status", StorageProperties.Status.available.toString()))
+              .add(Restrictions.like("snapshotLocation", "%" + MANIFEST_SUFFIX)).addOrder(Order.desc("creationTimestamp")).setMaxResults(1)
+              .list();
+      tran.commit();
+      baseSnapshot = snapshots.isEmpty() ? null : snapshots.get(0);
+    } catch (Exception e) {
+      LOG.debug("Failed to look up previous snapshot of " + volumeId + ", uploading all chunks", e);
+    }
+
+    if (baseSnapshot != null) {
+      try {
+        String[] names = SnapshotInfo.getSnapshotBucketKeyNames(baseSnapshot.getSnapshotLocation());
+        if (getBucketName().equals(names[0])) {
+          SnapshotManifest manifest = readManifest(this, names[1]);
+          if (volumeId.equals(manifest.getVolumeId())) {
+            LOG.debug("Using " + baseSnapshot.getSnapshotId() + " as the base for incremental snapshot " + getSnapshotId());
+            return manifest;
+          }
+        }
+      } catch (Exception e) {
+        LOG.warn("Failed to load manifest for previous snapshot " + baseSnapshot.getSnapshotId() + " of " + volumeId + ", uploading all chunks", e);
+      }
+    }
+    return null;
+  }
+
+  private void uploadChunk(String hash, CompressedBlock compressedChunk, SnapshotProgressCallback progressCallback, SnapshotTransferStats stats)
+      throws SnapshotTransferException {
+    long start = System.nanoTime();
+    putObject(chunkKey(volumeId, hash), compressedChunk.getData(), null);
+    stats.record(Stage.Upload, compressedChunk.getData().size(), System.nanoTime() - start);
+    progressCallback.updateUploadProgress(compressedChunk.getBytesRead());
+  }
+
+  private String uploadManifest(SnapshotManifest manifest, Long uncompressedSize) throws IOException, SnapshotTransferException {
+    DataBuffer manifestData = new DataBuffer(1024 + manifest.getChunks().size() * 8);
+    manifest.write(manifestData);
+    Map<String, String> userMetadataMap = new HashMap<String, String>();
+    userMetadataMap.put(UNCOMPRESSED_SIZE_KEY, String.valueOf(uncompressedSize)); // Send the uncompressed length as the metadata
+    return putObject(getKeyName(), manifestData, userMetadataMap);
+  }
+
+  private String putObject(final String key, final DataBuffer data, Map<String, String> userMetadata) throws SnapshotTransferException {
+    ObjectMetadata objectMetadata = new ObjectMetadata();
+    if (userMetadata != null) {
+      objectMetadata.setUserMetadata(userMetadata);
+    }
+    objectMetadata.setContentLength(data.size());
+    PutObjectResult putResult = retryAfterRefresh(new Function<PutObjectRequest, PutObjectResult>() {
+
+      @Override
+      @Nullable
+      public PutObjectResult apply(@Nullable PutObjectRequest arg0) {
+        getEucaS3Client().refreshEndpoint();
+        arg0.setInputStream(data.getInputStream());
+        return getEucaS3Client().putObject(arg0);
+      }
+    }, new PutObjectRequest(getBucketName(), key, null, objectMetadata), REFRESH_TOKEN_RETRIES);
+    return putResult.getETag();
+  }
+
+  private static SnapshotManifest readManifest(S3SnapshotTransfer transfer, String key) throws SnapshotTransferException {
+    S3Object manifestObject = transfer.getObject(key);
+    try (InputStream manifestStream = manifestObject.getObjectContent()) {
+      return SnapshotManifest.read(manifestStream);
+    } catch (IOException e) {
+      throw new SnapshotTransferException("Failed to read snapshot manifest " + key, e);
+    }
+  }
+
+  /**
+   * Retries removal of unreferenced chunks that was deferred by an earlier snapshot deletion
+   */
+  public static void removeDeferredChunks() {
+    for (DeferredRemoval removal : deferredRemovals.values()) {
+      if (removal.getNotBefore() > System.currentTimeMillis() || !deferredRemovals.remove(removal.getVolumeId(), removal)) {
+        continue;
+      }
+      try {
+        new ChunkedSnapshotTransfer(removal.getSnapshotId(), removal.getBucketName(), removal.getKeyName()).deleteUnreferencedChunks();
+      } catch (Exception e) {
+        LOG.warn("Failed to remove unreferenced chunks stored for " + removal.getVolumeId() + ", will retry later", e);
+        deferRemoval(new DeferredRemoval(removal.getVolumeId(), removal.getSnapshotId(), removal.getBucketName(), removal.getKeyName(),
+            System.currentTimeMillis()));
+      }
+    }
+  }
+
+  /**
+   * Removes unreferenced chunks for volumes with snapshots deleted since the previous sweep. The first sweep covers all deleted snapshots so
+   * that removals deferred or failed before a restart are retried.
+   */
+  public static void sweepUnreferencedChunks() {
+    long now = System.currentTimeMillis();
+    long lastSweep = lastChunkSweep.get();
+    if (lastSweep + CHUNK_SWEEP_INTERVAL_MILLIS > now || !lastChunkSweep.compareAndSet(lastSweep, now)) {
+      return;
+    }
+
+    List<SnapshotInfo> snapshots;
+    try (TransactionResource tran = Entities.transactionFor(SnapshotInfo.class)) {
+      Criteria criteria =
+          Entities.createCriteria(SnapshotInfo.class).setReadOnly(true).add(Restrictions.eq("status", StorageProperties.Status.deleted.toString()))
+              .add(Restrictions.like("snapshotLocation", "%" + MANIFEST_SUFFIX));
+      if (lastSweep > 0) {
+        // overlaps the previous sweep so a deletion completing during that sweep is not missed
+        criteria.add(Restrictions.ge("deletionTime", new Date(lastSweep - CHUNK_SWEEP_INTERVAL_MILLIS)));
+      }
+      snapshots = (List<SnapshotInfo>) criteria.list();
+      tran.commit();
+    } catch (Exception e) {
+      LOG.warn("Failed to look up deleted snapshots for removal of unreferenced chunks, will retry later", e);
+      lastChunkSweep.compareAndSet(now, lastSweep);
+      return;
+    }
+
+    Set<String> sweptVolumes = new HashSet<String>();
+    for (SnapshotInfo snapshot : snapshots) {
+      String[] names;
+      try {
+        names = SnapshotInfo.getSnapshotBucketKeyNames(snapshot.getSnapshotLocation());
+      } catch (Exception e) {
+        LOG.debug("Skipping unreferenced chunk removal for " + snapshot.getSnapshotId() + " with invalid location", e);
+        continue;
+      }
+      String volumeId = volumeIdFromKey(names[1]);
+      // volumes with a deferred removal are handled by removeDeferredChunks
+      if (volumeId == null || !sweptVolumes.add(names[0] + '/' + volumeId) || deferredRemovals.containsKey(volumeId)) {
+        continue;
+      }
+      try {
+        new ChunkedSnapshotTransfer(snapshot.getSnapshotId(), names[0], names[1]).deleteUnreferencedChunks();
+      } catch (Exception e) {
+        LOG.warn("Failed to remove unreferenced chunks stored for " + volumeId + ", will retry later", e);
+        deferRemoval(new DeferredRemoval(volumeId, snapshot.getSnapshotId(), names[0], names[1], System.currentTimeMillis()));
+      }
+    }
+  }
+
+  private static void deferRemoval(DeferredRemoval removal) {
+    DeferredRemoval existing = deferredRemovals.putIfAbsent(removal.getVolumeId(), removal);
+    if (existing != null && existing.getNotBefore() < removal.getNotBefore()) {
+      deferredRemovals.replace(removal.getVolumeId(), existing, removal);
+    }
+  }
+
+  private void deleteUnreferencedChunks() throws SnapshotTransferException {
+    if (isSnapshotInProgress()) {
+      LOG.debug("Snapshot of " + volumeId + " in progress, deferring removal of unreferenced chunks");
+      deferRemoval(new DeferredRemoval(volumeId, getSnapshotId(), getBucketName(), getKeyName(), System.currentTimeMillis()));
+      return;
+    }
+
+    Set<String> referencedChunks = new HashSet<String>();
+    List<S3ObjectSummary> chunkSummaries = new ArrayList<S3ObjectSummary>();
+    for (S3ObjectSummary summary : listObjects(volumeId + '.')) {
+      String key = summary.getKey();
+      if (isManifestKey(key)) {
+        // A manifest that cannot be read fails the removal so that no referenced chunk is removed
+        referencedChunks.addAll(readManifest(this, key).getChunkHashes());
+      } else if (key.startsWith(volumeId + CHUNK_INFIX)) {
+        chunkSummaries.add(summary);
+      }
+    }
+
+    // A snapshot started while listing may reuse chunks of a manifest that was not yet listed
+    if (isSnapshotInProgress()) {
+      LOG.debug("Snapshot of " + volumeId + " started while listing chunks, deferring removal of unreferenced chunks");
+      deferRemoval(new DeferredRemoval(volumeId, getSnapshotId(), getBucketName(), getKeyName(), System.currentTimeMillis()));
+      return;
+    }
+
+    // Recently uploaded chunks may belong to a snapshot whose manifest is not uploaded yet
+    long graceStart = System.currentTimeMillis() - CHUNK_REMOVAL_GRACE_MILLIS;
+    long retryAfter = 0;
+    int removed = 0;
+    for (S3ObjectSummary chunkSummary : chunkSummaries) {
+      String chunkKey = chunkSummary.getKey();
+      if (!referencedChunks.contains(chunkKey.substring(volumeId.length() + CHUNK_INFIX.length()))) {
+        long lastModified = chunkSummary.getLastModified() != null ? chunkSummary.getLastModified().getTime() : System.currentTimeMillis();
+        if (lastModified > graceStart) {
+          retryAfter = Math.max(retryAfter, lastModified + CHUNK_REMOVAL_GRACE_MILLIS);
+          continue;
+        }
+        retryAfterRefresh(new Function<DeleteObjectRequest, String>() {
+
+          @Override
+          @Nullable
+          public String apply(@Nullable DeleteObjectRequest arg0) {
+            getEucaS3Client().refreshEndpoint();
+            getEucaS3Client().deleteObject(arg0);
+            return null;
+          }
+        }, new DeleteObjectRequest(getBucketName(), chunkKey), REFRESH_TOKEN_RETRIES);
+        removed++;
+      }
+    }
+    if (retryAfter > 0) {
+      LOG.debug("Deferring removal of recently uploaded unreferenced chunks stored for " + volumeId);
+      deferRemoval(new DeferredRemoval(volumeId, getSnapshotId(), getBucketName(), getKeyName(), retryAfter));
+    }
+    LOG.debug("Removed " + removed + " of " + chunkSummaries.size() + " chunks stored for " + volumeId);
+  }
+
+  private List<S3ObjectSummary> listObjects(String prefix) throws SnapshotTransferException {
+    List<S3ObjectSummary> summaries = new ArrayList<S3ObjectSummary>();
+    ListObjectsRequest request = new ListObjectsRequest().withBucketName(getBucketName()).withPrefix(prefix);
+    ObjectListing listing;
+    do {
+      listing = retryAfterRefresh(new Function<ListObjectsRequest, ObjectListing>() {
+
+        @Override
+        @Nullable
+        public ObjectListing apply(@Nullable ListObjectsRequest arg0) {
+          getEucaS3Client().refreshEndpoint();
+          return getEucaS3Client().listObjects(arg0);
+        }
+      }, request, REFRESH_TOKEN_RETRIES);
+      summaries.addAll(listing.getObjectSummaries());
+      request.setMarker(listing.getNextMarker() != null ? listing.getNextMarker() : (summaries.isEmpty() ? null : summaries.get(summaries.size() - 1)
+          .getKey()));
+    } while (listing.isTruncated());
+    return summaries;
+  }
+
+  private boolean isSnapshotInProgress() {
+    try (TransactionResource tran = Entities.transactionFor(SnapshotInfo.class)) {
+      List<?> snapshots =
+          Entities.createCriteria(SnapshotInfo.class).setReadOnly(true).add(Restrictions.eq("volumeId", volumeId))
+              .add(Restrictions.in("status", ImmutableList.of(StorageProperties.Status.pending.toString(), StorageProperties.Status.creating.toString())))
+              .setMaxResults(1).list();
+      tran.commit();
+      return !snapshots.isEmpty();
+    } catch (Exception e) {
+      LOG.debug("Failed to look up snapshots in progress for " + volumeId, e);
+      return true;
+    }
+  }
+
+  private static class DeferredRemoval {
+
+    private final String volumeId;
+    private final String snapshotId;
+    private final String bucketName;
+    private final String keyName;
+    private final long notBefore;
+
+    DeferredRemoval(String volumeId, String snapshotId, String bucketName, String keyName, long notBefore) {
+      this.volumeId = volumeId;
+      this.snapshotId = snapshotId;
+      this.bucketName = bucketName;
+      this.keyName = keyName;
+      this.notBefore = notBefore;
+    }
+
+    String getVolumeId() {
+      return volumeId;
+    }
+
+    String getSnapshotId() {
+      return snapshotId;
+    }
+
+    String getBucketName() {
+      return bucketName;
+    }
+
+    String getKeyName() {
+      return keyName;
+    }
+
+    long getNotBefore() {
+      return notBefore;
+    }
+  }
+
+  public static abstract class FetchChunk implements Callable<byte[]> {
+  }
+
+  static class FetchChunkTask extends FetchChunk {
+
+    private BlockingQueue<S3SnapshotTransfer> fetchers;
+    private String key;
+    private String hash;
+    private int length;
+
+    public FetchChunkTask(BlockingQueue<S3SnapshotTransfer> fetchers, String key, String hash, int length) {
+      this.fetchers = fetchers;
+      this.key = key;
+      this.hash = hash;
+      this.length = length;
+    }
+
+    @Override
+    public byte[] call() throws Exception {
+      S3SnapshotTransfer fetcher = fetchers.take();
+      try {
+        S3Object chunkObject = fetcher.getObject(key);
+        byte[] data = new byte[length];
+        try (InputStream chunkStream = new GZIPInputStream(chunkObject.getObjectContent())) {
+          int read = readBlock(chunkStream, data);
+          if (read != length || chunkStream.read() != -1 || !hash.equals(SnapshotManifest.hash(data, length))) {
+            throw new SnapshotTransferException("Snapshot chunk " + key + " does not match the manifest");
+          }
+        }
+        return data;
+      } finally {
+        fetchers.put(fetcher);
+      }
+    }
+  }
+}
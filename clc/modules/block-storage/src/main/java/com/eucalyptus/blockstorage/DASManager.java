@@ -66,10 +66,6 @@
 package com.eucalyptus.blockstorage;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.List;
@@ -124,6 +120,7 @@ public class DASManager implements LogicalStorageManager {
   public static final String EUCA_ROOT_WRAPPER = BaseDirectory.LIBEXEC.toString() + "/euca_rootwrap";
   public static final String EUCA_VAR_RUN_PATH = System.getProperty("euca.run.dir");
   public static final StorageExportManager exportManager = new ISCSIManager();
+  protected static final FileProvisioner fileProvisioner = new FileProvisioner();
   private static String volumeGroup;
   protected ConcurrentHashMap<String, VolumeOpMonitor> volumeOps;
 
@@ -232,12 +229,8 @@ public class DASManager implements LogicalStorageManager {
   }
 
   protected String createFile(String fileName, long size) throws EucalyptusCloudException {
-    if (!DirectStorageInfo.getStorageInfo().getZeroFillVolumes())
-      return SystemUtil.run(new String[] {EUCA_ROOT_WRAPPER, "dd", "if=/dev/zero", "of=" + fileName, "count=1", "bs=" + StorageProperties.blockSize,
-          "seek=" + (size - 1)});
-    else
-      return SystemUtil
-          .run(new String[] {EUCA_ROOT_WRAPPER, "dd", "if=/dev/zero", "of=" + fileName, "count=" + size, "bs=" + StorageProperties.blockSize});
+    fileProvisioner.createFile(fileName, size, DirectStorageInfo.getStorageInfo().getZeroFillVolumes());
+    return "";
   }
 
   protected String createEmptyFile(String fileName, int size) throws EucalyptusCloudException {
@@ -317,35 +310,10 @@ public class DASManager implements LogicalStorageManager {
   public native void registerSignals();
 
   public void dupFile(String oldFileName, String newFileName) {
-    FileOutputStream fileOutputStream = null;
-    FileChannel out = null;
-    FileInputStream fileInputStream = null;
-    FileChannel in = null;
     try {
-      fileOutputStream = new FileOutputStream(new File(newFileName));
-      out = fileOutputStream.getChannel();
-      fileInputStream = new FileInputStream(new File(oldFileName));
-      in = fileInputStream.getChannel();
-      in.transferTo(0, in.size(), out);
-    } catch (Exception ex) {
-      ex.printStackTrace();
-    } finally {
-      if (fileOutputStream != null) {
-        try {
-          out.close();
-          fileOutputStream.close();
-        } catch (IOException e) {
-          LOG.error(e);
-        }
-      }
-      if (fileInputStream != null) {
-        try {
-          in.close();
-          fileInputStream.close();
-        } catch (IOException e) {
-          LOG.error(e);
-        }
-      }
+      fileProvisioner.copyFile(oldFileName, newFileName);
+    } catch (EucalyptusCloudException ex) {
+      LOG.error(ex);
     }
   }
 
@@ -1068,8 +1036,7 @@ public class DASManager implements LogicalStorageManager {
       }
       volumeManager.finish();
       String snapFileName = getStorageRootDirectory() + File.separator + snapshotId;
-      SystemUtil
-          .run(new String[] {StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=" + snapPath, "of=" + snapFileName, "bs=" + StorageProperties.blockSize});
+      fileProvisioner.copyFile(snapPath, snapFileName);
       // volumeManager = new VolumeMetadataManager();
       LVMVolumeInfo snapshotInfo = volumeManager.getVolumeInfo();
       snapshotInfo.setVolumeId(snapshotId);
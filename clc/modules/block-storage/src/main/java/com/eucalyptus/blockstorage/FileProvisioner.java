@@ -0,0 +1,112 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import org.apache.log4j.Logger;
+
+import com.eucalyptus.blockstorage.util.StorageProperties;
+import com.eucalyptus.util.EucalyptusCloudException;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+
+import edu.ucsb.eucalyptus.util.SystemUtil;
+import edu.ucsb.eucalyptus.util.SystemUtil.CommandOutput;
+
+/**
+ * Provisioning of backing files for volumes and snapshots.
+ *
+ * <p>New files are created sparse (truncate) or, when zero filling, fully allocated (fallocate) so that the file content is
+ * not written. Files are copied using cp which will reflink or use copy_file_range where the file system supports it and
+ * preserves holes in the source. When a command is not supported by the file system the previous dd based approach is used.</p>
+ */
+public class FileProvisioner {
+  private static final Logger LOG = Logger.getLogger(FileProvisioner.class);
+
+  private static final Function<String[], CommandOutput> SYSTEM_RUNNER = new Function<String[], CommandOutput>() {
+    @Override
+    public CommandOutput apply(String[] command) {
+      try {
+        return SystemUtil.runWithRawOutput(command);
+      } catch (Exception e) {
+        return new CommandOutput(-1, null, e.getMessage());
+      }
+    }
+  };
+
+  private final Function<String[], CommandOutput> runner;
+
+  public FileProvisioner() {
+    this(SYSTEM_RUNNER);
+  }
+
+  FileProvisioner(Function<String[], CommandOutput> runner) {
+    this.runner = runner;
+  }
+
+  /**
+   * Create a file of the given size.
+   *
+   * @param fileName The file to create
+   * @param sizeInMB The size of the file in MB
+   * @param allocate True to allocate (zero filled) storage for the entire file, false for a sparse file
+   */
+  public void createFile(String fileName, long sizeInMB, boolean allocate) throws EucalyptusCloudException {
+    String sizeInBytes = String.valueOf(sizeInMB * StorageProperties.MB);
+    String[][] commands;
+    if (allocate) {
+      commands = new String[][] {
+          {StorageProperties.EUCA_ROOT_WRAPPER, "fallocate", "-l", sizeInBytes, fileName},
+          {StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=/dev/zero", "of=" + fileName, "count=" + sizeInMB, "bs=" + StorageProperties.blockSize}};
+    } else {
+      commands = new String[][] {
+          {StorageProperties.EUCA_ROOT_WRAPPER, "truncate", "-s", sizeInBytes, fileName},
+          {StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=/dev/zero", "of=" + fileName, "count=1", "bs=" + StorageProperties.blockSize,
+              "seek=" + (sizeInMB - 1)}};
+    }
+    run("create " + fileName + " (" + sizeInMB + "MB)", commands);
+  }
+
+  /**
+   * Copy a file, the destination is created or overwritten.
+   */
+  public void copyFile(String sourceFileName, String destinationFileName) throws EucalyptusCloudException {
+    run("copy " + sourceFileName + " to " + destinationFileName,
+        new String[][] {
+            {StorageProperties.EUCA_ROOT_WRAPPER, "cp", "--reflink=auto", "--sparse=auto", sourceFileName, destinationFileName},
+            {StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=" + sourceFileName, "of=" + destinationFileName, "bs=" + StorageProperties.blockSize}});
+  }
+
+  /**
+   * Run each command in turn until one succeeds.
+   */
+  private void run(String description, String[][] commands) throws EucalyptusCloudException {
+    CommandOutput output = null;
+    for (String[] command : commands) {
+      long start = System.currentTimeMillis();
+      output = runner.apply(command);
+      if (output != null && !output.failed()) {
+        LOG.debug("Completed " + description + " using " + command[1] + " in " + (System.currentTimeMillis() - start) + "ms");
+        return;
+      }
+      LOG.debug("Failed to " + description + " using " + Joiner.on(' ').join(command) + ": " + (output == null ? null : output.error));
+    }
+    throw new EucalyptusCloudException("Failed to " + description + (output == null ? "" : ": " + output.error));
+  }
+}
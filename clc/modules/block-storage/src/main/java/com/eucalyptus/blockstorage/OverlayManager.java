@@ -63,10 +63,6 @@
 package com.eucalyptus.blockstorage;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -328,35 +324,10 @@ public class OverlayManager extends DASManager {
   }
 
   public void dupFile(String oldFileName, String newFileName) {
-    FileOutputStream fileOutputStream = null;
-    FileChannel out = null;
-    FileInputStream fileInputStream = null;
-    FileChannel in = null;
     try {
-      fileOutputStream = new FileOutputStream(new File(newFileName));
-      out = fileOutputStream.getChannel();
-      fileInputStream = new FileInputStream(new File(oldFileName));
-      in = fileInputStream.getChannel();
-      in.transferTo(0, in.size(), out);
-    } catch (Exception ex) {
-      ex.printStackTrace();
-    } finally {
-      if (fileOutputStream != null) {
-        try {
-          out.close();
-          fileOutputStream.close();
-        } catch (IOException e) {
-          LOG.error(e);
-        }
-      }
-      if (fileInputStream != null) {
-        try {
-          in.close();
-          fileInputStream.close();
-        } catch (IOException e) {
-          LOG.error(e);
-        }
-      }
+      fileProvisioner.copyFile(oldFileName, newFileName);
+    } catch (EucalyptusCloudException ex) {
+      LOG.error(ex);
     }
   }
 
@@ -1084,8 +1055,7 @@ public class OverlayManager extends DASManager {
       }
       volumeManager.finish();
       String snapFileName = getStorageRootDirectory() + File.separator + snapshotId;
-      SystemUtil
-          .run(new String[] {StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=" + snapPath, "of=" + snapFileName, "bs=" + StorageProperties.blockSize});
+      fileProvisioner.copyFile(snapPath, snapFileName);
       // volumeManager = new VolumeMetadataManager();
       LVMVolumeInfo snapshotInfo = volumeManager.getVolumeInfo();
       snapshotInfo.setVolumeId(snapshotId);
@@ -63,10 +63,11 @@
 package com.eucalyptus.blockstorage;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -75,6 +76,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -83,6 +85,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -110,6 +113,7 @@ import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
 import com.eucalyptus.auth.principal.BaseRole;
+import com.eucalyptus.blockstorage.SnapshotTransferStats.Stage;
 import com.eucalyptus.blockstorage.async.SnapshotTransferCleaner;
 import com.eucalyptus.blockstorage.entities.SnapshotPart;
 import com.eucalyptus.blockstorage.entities.SnapshotPart.SnapshotPartState;
@@ -168,8 +172,12 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 
   // Constants
   private static final Integer TX_RETRIES = 20;
-  private static final Integer REFRESH_TOKEN_RETRIES = 1;
-  private static final String UNCOMPRESSED_SIZE_KEY = "uncompressedsize";
+  protected static final Integer REFRESH_TOKEN_RETRIES = 1;
+  protected static final String UNCOMPRESSED_SIZE_KEY = "uncompressedsize";
+  static final int COMPRESSION_WINDOW = 2 * Runtime.getRuntime().availableProcessors(); // blocks read ahead for compression
+  static final long MAX_BUFFERED_PART_BYTES = Runtime.getRuntime().maxMemory() / 4; // queued parts held in memory by all uploads
+
+  private static final AtomicLong bufferedPartBytes = new AtomicLong();
 
   public S3SnapshotTransfer() throws SnapshotTransferException {
     initializeEucaS3Client();
@@ -225,6 +233,10 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     this.uploadId = uploadId;
   }
 
+  protected EucaS3Client getEucaS3Client() {
+    return eucaS3Client;
+  }
+
   /**
    * Preparation for upload involves looking up the bucket from the database and creating it in objectstorage gateway. If the bucket is already
    * created, objectstorage gateway should still respond back with 200 OK. Invoke this method before uploading the snapshot using
@@ -243,6 +255,11 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
    * {@link StorageInfo}. Bucket name should be configured before invoking this method. It can be looked up and initialized by
    * {@link #prepareForUpload()} or explicitly set using {@link #setBucketName(String)}
    * 
+   * The snapshot is read in blocks of the read buffer size that are compressed in parallel, each block is a complete gzip member. Compressed blocks
+   * are appended in order to an in memory part until the part size is reached and parts are then handed to the upload task. The number of parts
+   * queued for upload is limited by the parts queue size. Parts being filled and queued parts held in memory by all uploads are counted against
+   * {@link #MAX_BUFFERED_PART_BYTES} of heap, queued parts are spooled to temporary files when the budget would be exceeded.
+   * 
    * @param sourceFileName absolute path to the snapshot on the file system
    */
   @Override
@@ -251,98 +268,79 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     loadTransferConfig(); // Load the transfer configuration parameters from database
 
     Boolean error = Boolean.FALSE;
-    ArrayBlockingQueue<SnapshotPart> partQueue = null;
-    SnapshotPart part = null;
+    ArrayBlockingQueue<CompressedPart> partQueue = null;
+    LinkedList<Future<CompressedBlock>> compressedBlockFutures = new LinkedList<Future<CompressedBlock>>();
     SnapshotUploadInfo snapUploadInfo = null;
     Future<List<PartETag>> uploadPartsFuture = null;
     Future<String> completeUploadFuture = null;
+    SnapshotTransferStats stats = new SnapshotTransferStats(snapshotId);
 
-    byte[] buffer = new byte[readBufferSize];
     Long readOffset = 0L;
     Long bytesRead = 0L;
-    Long bytesWritten = 0L;
-    int len;
-    int partNumber = 1;
+    int partNumber = 0;
+    long partDataBytes = 0L; // heap reserved for the part being filled
+    CompressedPart lastPart = null;
 
     try {
       // Get the uncompressed file size for uploading as metadata
       Long uncompressedSize = storageResource.getSize();
 
-      // Setup the snapshot and part entities.
+      // Setup the snapshot entity
       snapUploadInfo = SnapshotUploadInfo.create(snapshotId, bucketName, keyName);
-      Path zipFilePath = Files.createTempFile(keyName + '-', '-' + String.valueOf(partNumber));
-      part = SnapshotPart.createPart(snapUploadInfo, zipFilePath.toString(), partNumber, readOffset);
 
       InputStream inputStream = storageResource.getInputStream();
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      GZIPOutputStream gzipStream = new GZIPOutputStream(baos);
-      FileOutputStream outputStream = new FileOutputStream(zipFilePath.toString());
+      partDataBytes = partBufferSize(uncompressedSize);
+      bufferedPartBytes.addAndGet(partDataBytes);
+      DataBuffer partData = new DataBuffer((int) partDataBytes);
 
       try {
-        LOG.debug("Reading snapshot " + snapshotId + " and compressing it to disk in chunks of size " + partSize + " bytes or greater");
-        while ((len = inputStream.read(buffer)) > 0) {
-          bytesRead += len;
-          gzipStream.write(buffer, 0, len);
-
-          if ((bytesWritten + baos.size()) < partSize) {
-            baos.writeTo(outputStream);
-            bytesWritten += baos.size();
-            baos.reset();
-          } else {
-            gzipStream.close();
-            baos.writeTo(outputStream); // Order is important. Closing the gzip stream flushes stuff
-            bytesWritten += baos.size();
-            baos.reset();
-            outputStream.close();
+        LOG.debug("Reading snapshot " + snapshotId + " and compressing it in blocks of " + readBufferSize + " bytes into parts of size "
+            + partSize + " bytes or greater");
+        boolean endOfInput = false;
+        boolean emptyInput = true;
+        do {
+          // Keep the compression workers busy
+          while (!endOfInput && compressedBlockFutures.size() < COMPRESSION_WINDOW) {
+            byte[] block = new byte[readBufferSize];
+            long start = System.nanoTime();
+            int len = readBlock(inputStream, block);
+            stats.record(Stage.Read, len, System.nanoTime() - start);
+            endOfInput = len < block.length;
+            if (len > 0 || emptyInput) { // compress an empty block for an empty snapshot so the upload is a valid gzip
+              compressedBlockFutures.add(SnapshotTransferThreadPool.add(new CompressBlockTask(block, len, stats)));
+              emptyInput = false;
+            }
+          }
 
-            if (partNumber > 1) {// Update the part status
-              part = part.updateStateCreated(bytesWritten, bytesRead, Boolean.FALSE);
-            } else {// Initialize multipart upload only once after the first part is created
+          CompressedBlock compressedBlock = compressedBlockFutures.removeFirst().get();
+          if (partData.size() >= partSize) { // There is more data so this is not the last part
+            if (++partNumber == 1) {// Initialize multipart upload only once before the first part is queued
               LOG.info("Uploading snapshot " + snapshotId + " to objectstorage using multipart upload");
               progressCallback.setUploadSize(uncompressedSize);
               uploadId = initiateMulitpartUpload(uncompressedSize);
               snapUploadInfo = snapUploadInfo.updateUploadId(uploadId); // update uploadId so its available for future parts
-              part = part.updateStateCreated(uploadId, bytesWritten, bytesRead, Boolean.FALSE);
-              partQueue = new ArrayBlockingQueue<SnapshotPart>(queueSize);
-              uploadPartsFuture = SnapshotTransferThreadPool.add(new UploadPartTask(partQueue, progressCallback));
+              partQueue = new ArrayBlockingQueue<CompressedPart>(queueSize);
+              uploadPartsFuture = SnapshotTransferThreadPool.add(new UploadPartTask(partQueue, progressCallback, stats));
             }
-
-            // Check for the future task before adding part to the queue.
-            if (uploadPartsFuture != null && uploadPartsFuture.isDone()) {
-              // This task shouldn't be done until the last part is added. If it is done at this point, then something might have gone wrong
-              throw new SnapshotUploadPartException(
-                  "Error uploading parts, aborting part creation process. Check previous log messages for the exact error");
-            }
-
-            // Add part to the queue
-            partQueue.put(part);
+            CompressedPart part = createPart(snapUploadInfo, partNumber, readOffset, partData, partDataBytes, bytesRead, Boolean.FALSE);
+            partDataBytes = 0L;
+            queuePart(partQueue, uploadPartsFuture, part);
 
             // Prep the metadata for the next part
             readOffset += bytesRead;
             bytesRead = 0L;
-            bytesWritten = 0L;
-
-            // Setup the part entity for next part
-            zipFilePath = Files.createTempFile(keyName + '-', '-' + String.valueOf((++partNumber)));
-            part = SnapshotPart.createPart(snapUploadInfo, zipFilePath.toString(), partNumber, readOffset);
-
-            gzipStream = new GZIPOutputStream(baos);
-            outputStream = new FileOutputStream(zipFilePath.toString());
+            partDataBytes = partBufferSize(uncompressedSize - readOffset);
+            bufferedPartBytes.addAndGet(partDataBytes);
+            partData = new DataBuffer((int) partDataBytes);
           }
-        }
+          compressedBlock.getData().writeTo(partData);
+          bytesRead += compressedBlock.getBytesRead();
+        } while (!compressedBlockFutures.isEmpty());
 
-        gzipStream.close();
-        baos.writeTo(outputStream);
-        bytesWritten += baos.size();
-        baos.reset();
-        outputStream.close();
         inputStream.close();
-
-        // Update the part status
-        part = part.updateStateCreated(bytesWritten, bytesRead, Boolean.TRUE);
-
-        // Update the snapshot upload info status
-        snapUploadInfo = snapUploadInfo.updateStateCreatedParts(partNumber);
+      } catch (SnapshotTransferException e) {
+        error = Boolean.TRUE;
+        throw e;
       } catch (Exception e) {
         LOG.error("Failed to upload " + snapshotId + " due to: ", e);
         error = Boolean.TRUE;
@@ -355,41 +353,24 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 
           }
         }
-        if (gzipStream != null) {
-          try {
-            gzipStream.close();
-          } catch (Exception e) {
-
-          }
-        }
-        if (outputStream != null) {
-          try {
-            outputStream.close();
-          } catch (Exception e) {
-
-          }
-        }
-        baos.reset();
       }
 
+      // Update the snapshot upload info status
+      lastPart = createPart(snapUploadInfo, ++partNumber, readOffset, partData, partDataBytes, bytesRead, Boolean.TRUE);
+      partDataBytes = 0L;
+      snapUploadInfo = snapUploadInfo.updateStateCreatedParts(partNumber);
+
       if (partNumber > 1) {
-        // Check for the future task before adding the last part to the queue.
-        if (uploadPartsFuture != null && uploadPartsFuture.isDone()) {
-          // This task shouldn't be done until the last part is added. If it is done at this point, then something might have gone wrong
-          throw new SnapshotUploadPartException(
-              "Error uploading parts, aborting part upload process. Check previous log messages for the exact error");
-        }
         // Add the last part to the queue
-        partQueue.put(part);
+        queuePart(partQueue, uploadPartsFuture, lastPart);
         // Kick off the completion task
-        completeUploadFuture = SnapshotTransferThreadPool.add(new CompleteMpuTask(uploadPartsFuture, snapUploadInfo, partNumber));
+        completeUploadFuture = SnapshotTransferThreadPool.add(new CompleteMpuTask(uploadPartsFuture, snapUploadInfo, partNumber, stats));
       } else {
         try {
-          LOG.info("Uploading snapshot " + snapshotId + " to objectstorage as a single object. Compressed size of snapshot (" + bytesWritten
-              + " bytes) is less than minimum part size (" + partSize + " bytes) for multipart upload");
+          LOG.info("Uploading snapshot " + snapshotId + " to objectstorage as a single object. Compressed size of snapshot (" + partData.size()
+              + " bytes) fits in a single part of size (" + partSize + " bytes) for multipart upload");
           completeUploadFuture =
-              SnapshotTransferThreadPool.add(new UploadObjectTask(part, snapUploadInfo, zipFilePath.toString(), bytesWritten, uncompressedSize,
-                  progressCallback));
+              SnapshotTransferThreadPool.add(new UploadObjectTask(lastPart, snapUploadInfo, uncompressedSize, progressCallback, stats));
         } catch (Exception e) {
           error = Boolean.TRUE;
           LOG.error("Failed to add async task for uploading " + snapshotId + " due to: ", e);
@@ -405,10 +386,19 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
       LOG.error("Failed to upload snapshot " + snapshotId + " due to: ", e);
       throw new SnapshotTransferException("Failed to upload snapshot " + snapshotId + " due to: ", e);
     } finally {
+      if (partDataBytes > 0) {
+        bufferedPartBytes.addAndGet(-partDataBytes);
+      }
       if (error) {
         abortUpload(snapUploadInfo);
+        for (Future<CompressedBlock> compressedBlockFuture : compressedBlockFutures) {
+          compressedBlockFuture.cancel(true);
+        }
+        if (lastPart != null) {
+          lastPart.release();
+        }
         if (partQueue != null) {
-          partQueue.clear();
+          releaseParts(partQueue);
         }
         if (uploadPartsFuture != null && !uploadPartsFuture.isDone()) {
           uploadPartsFuture.cancel(true);
@@ -461,10 +451,10 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     if (snapObj != null && snapObj.getObjectContent() != null) {
       byte[] buffer = new byte[10 * readBufferSize];
       int len;
-      GZIPInputStream gzipInputStream = null;
+      InputStream gzipInputStream = null;
 
       try {
-        gzipInputStream = new GZIPInputStream(new BufferedInputStream(snapObj.getObjectContent(), buffer.length * 3), buffer.length * 2);
+        gzipInputStream = gzipInputStream(new BufferedInputStream(snapObj.getObjectContent(), buffer.length * 3), buffer.length * 2);
 
         if (storageResource.isDownloadSynchronous()) { // Download and unzip snapshot to the storage device directly
           OutputStream outputStream = null;
@@ -675,7 +665,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     }
   }
 
-  private void loadTransferConfig() {
+  protected void loadTransferConfig() {
     StorageInfo info = StorageInfo.getStorageInfo();
     this.partSize = (long) (info.getSnapshotPartSizeInMB() * 1024 * 1024);
     this.queueSize = info.getMaxSnapshotPartsQueueSize();
@@ -685,7 +675,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     this.writeBufferSize = info.getWriteBufferSizeInMB() * 1024 * 1024;
   }
 
-  private void validateInput() throws SnapshotTransferException {
+  protected void validateInput() throws SnapshotTransferException {
     if (StringUtils.isBlank(snapshotId)) {
       throw new SnapshotTransferException("Snapshot ID is invalid. Cannot upload snapshot");
     }
@@ -759,6 +749,10 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
   }
 
   private S3Object download() throws SnapshotTransferException {
+    return getObject(keyName);
+  }
+
+  protected S3Object getObject(String keyName) throws SnapshotTransferException {
     try {
       LOG.debug("Dowloading snapshot from objectstorage: snapshotId=" + snapshotId + ", bucket=" + bucketName + ", key=" + keyName);
       return retryAfterRefresh(new Function<GetObjectRequest, S3Object>() {
@@ -778,8 +772,9 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     }
   }
 
-  private String uploadSnapshotAsSingleObject(final String compressedSnapFileName, Long actualSize, Long uncompressedSize,
-      final SnapshotProgressCallback callback) throws SnapshotUploadObjectException {
+  private String uploadSnapshotAsSingleObject(final CompressedPart compressedPart, Long uncompressedSize, final SnapshotProgressCallback callback,
+      final SnapshotTransferStats stats) throws SnapshotUploadObjectException {
+    final Long actualSize = compressedPart.getPart().getSize();
     callback.setUploadSize(actualSize);
     ObjectMetadata objectMetadata = new ObjectMetadata();
     Map<String, String> userMetadataMap = new HashMap<String, String>();
@@ -788,7 +783,8 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     objectMetadata.setContentLength(actualSize);
 
     try {
-      LOG.debug("Uploading " + compressedSnapFileName);
+      LOG.debug("Uploading " + compressedPart.getPart());
+      long start = System.nanoTime();
       PutObjectResult putResult = retryAfterRefresh(new Function<PutObjectRequest, PutObjectResult>() {
 
         @Override
@@ -796,24 +792,20 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
         public PutObjectResult apply(@Nullable PutObjectRequest arg0) {
           eucaS3Client.refreshEndpoint();
           // EUCA-10311 Set the input stream in put request. Doing it here to ensure that input stream is set before every attempt to put object
-          try {
-            arg0.setInputStream(new FileInputStreamWithCallback(new File(compressedSnapFileName), callback));
-          } catch (Exception e) {
-            LOG.warn("Failed to upload snapshot to objectstorage: snapshotId=" + snapshotId + ", bucket=" + bucketName + ", key=" + keyName
-                + ", reason: unable to initialize FileInputStreamWithCallback for file " + compressedSnapFileName, e);
-            Exceptions.toUndeclared(e);
-          }
+          arg0.setInputStream(compressedPart.getInputStream());
           return eucaS3Client.putObject(arg0);
         }
 
       }, new PutObjectRequest(bucketName, keyName, null, objectMetadata), REFRESH_TOKEN_RETRIES);
+      stats.record(Stage.Upload, actualSize, System.nanoTime() - start);
+      callback.updateUploadProgress(actualSize);
 
       return putResult.getETag();
     } catch (Exception e) {
-      LOG.warn("Failed to upload object " + compressedSnapFileName, e);
-      throw new SnapshotUploadObjectException("Failed to upload object " + compressedSnapFileName, e);
+      LOG.warn("Failed to upload object " + compressedPart.getPart(), e);
+      throw new SnapshotUploadObjectException("Failed to upload object " + compressedPart.getPart(), e);
     } finally {
-      deleteFile(compressedSnapFileName);
+      compressedPart.release();
     }
   }
 
@@ -850,7 +842,8 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     return initResponse.getUploadId();
   }
 
-  private PartETag uploadPart(SnapshotPart part) throws SnapshotUploadPartException {
+  private PartETag uploadPart(final CompressedPart compressedPart, final SnapshotTransferStats stats) throws SnapshotUploadPartException {
+    SnapshotPart part = compressedPart.getPart();
     try {
       part = part.updateStateUploading();
     } catch (Exception e) {
@@ -859,6 +852,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 
     try {
       LOG.debug("Uploading " + part);
+      long start = System.nanoTime();
       UploadPartResult uploadPartResult =
           retryAfterRefresh(new Function<UploadPartRequest, UploadPartResult>() {
 
@@ -866,18 +860,21 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
             @Nullable
             public UploadPartResult apply(@Nullable UploadPartRequest arg0) {
               eucaS3Client.refreshEndpoint();
+              // Set the input stream before every attempt as a previous attempt may have consumed it
+              arg0.setInputStream(compressedPart.getInputStream());
               return eucaS3Client.uploadPart(arg0);
             }
           },
               new UploadPartRequest().withBucketName(part.getBucketName()).withKey(part.getKeyName()).withUploadId(part.getUploadId())
-                  .withPartNumber(part.getPartNumber()).withPartSize(part.getSize()).withFile(new File(part.getFileName())), REFRESH_TOKEN_RETRIES);
+                  .withPartNumber(part.getPartNumber()).withPartSize(part.getSize()), REFRESH_TOKEN_RETRIES);
+      stats.record(Stage.Upload, part.getSize(), System.nanoTime() - start);
 
       return uploadPartResult.getPartETag();
     } catch (Exception e) {
       LOG.warn("Failed to upload part " + part, e);
       throw new SnapshotUploadPartException("Failed to upload part " + part, e);
     } finally {
-      deleteFile(part.getFileName());
+      compressedPart.release();
     }
   }
 
@@ -952,7 +949,125 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     }
   }
 
-  private <F, T> T retryAfterRefresh(Function<F, T> function, F input, int retries) throws SnapshotTransferException {
+  /**
+   * Create the part entity for the filled part data, the heap reserved while filling the part is held by the returned part until it is released
+   */
+  private CompressedPart createPart(SnapshotUploadInfo snapUploadInfo, int partNumber, Long readOffset, DataBuffer partData, long partDataBytes,
+      Long bytesRead, Boolean isLast) throws EucalyptusCloudException {
+    SnapshotPart part = SnapshotPart.createPart(snapUploadInfo, null, partNumber, readOffset);
+    part = part.updateStateCreated((long) partData.size(), bytesRead, isLast);
+    return new CompressedPart(part, partData).reserved(partDataBytes);
+  }
+
+  /**
+   * Hold the part in memory if the heap budget for queued parts allows, otherwise spool it to a temporary file. The heap reserved for the part
+   * while it was filled is replaced by its actual size or released if the part is spooled.
+   */
+  private CompressedPart bufferPart(CompressedPart compressedPart) throws IOException, EucalyptusCloudException {
+    long size = compressedPart.getPart().getSize();
+    long reserved = compressedPart.getReservedBytes();
+    long buffered;
+    do {
+      buffered = bufferedPartBytes.get();
+      if (buffered - reserved + size > MAX_BUFFERED_PART_BYTES) {
+        return spoolPart(compressedPart, buffered);
+      }
+    } while (!bufferedPartBytes.compareAndSet(buffered, buffered - reserved + size));
+    return compressedPart.reserved(size);
+  }
+
+  /**
+   * Write the part data to a temporary file recorded on the part entity so that {@link SnapshotTransferCleaner} can delete it if the upload fails
+   */
+  private CompressedPart spoolPart(CompressedPart compressedPart, long buffered) throws IOException, EucalyptusCloudException {
+    Path filePath = Files.createTempFile(snapshotId + '-', '-' + String.valueOf(compressedPart.getPart().getPartNumber()));
+    SnapshotPart part;
+    try {
+      part = compressedPart.getPart().updateFileName(filePath.toString());
+      try (OutputStream fileStream = Files.newOutputStream(filePath)) {
+        compressedPart.getData().writeTo(fileStream);
+      }
+    } catch (IOException | EucalyptusCloudException e) {
+      deleteFile(filePath);
+      throw e;
+    }
+    compressedPart.release();
+    LOG.debug("Spooled " + part + " to " + filePath + " as " + buffered + " bytes of parts are buffered in memory");
+    return new CompressedPart(part, filePath);
+  }
+
+  private static void releaseParts(ArrayBlockingQueue<CompressedPart> partQueue) {
+    List<CompressedPart> remainingParts = new ArrayList<CompressedPart>();
+    partQueue.drainTo(remainingParts);
+    for (CompressedPart remainingPart : remainingParts) {
+      remainingPart.release();
+    }
+  }
+
+  /**
+   * Initial capacity for a part so that the buffer does not grow while compressed blocks are appended
+   */
+  private int partBufferSize(long remainingSize) {
+    return (int) Math.min(Math.min(partSize, Math.max(remainingSize, 0)) + 2 * readBufferSize, Integer.MAX_VALUE - 8);
+  }
+
+  private void queuePart(ArrayBlockingQueue<CompressedPart> partQueue, Future<List<PartETag>> uploadPartsFuture, CompressedPart part)
+      throws SnapshotUploadPartException, InterruptedException {
+    // Check for the future task before adding part to the queue.
+    if (uploadPartsFuture.isDone()) {
+      // This task shouldn't be done until the last part is added. If it is done at this point, then something might have gone wrong
+      part.release();
+      throw new SnapshotUploadPartException("Error uploading parts, aborting part creation process. Check previous log messages for the exact error");
+    }
+    CompressedPart bufferedPart;
+    try {
+      bufferedPart = bufferPart(part);
+    } catch (IOException | EucalyptusCloudException e) {
+      part.release();
+      throw new SnapshotUploadPartException("Failed to spool " + part.getPart() + " to disk", e);
+    }
+    try {
+      partQueue.put(bufferedPart);
+    } catch (InterruptedException e) {
+      bufferedPart.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Fill the block from the stream
+   * 
+   * @return the number of bytes read, less than the block size only at the end of the stream
+   */
+  static int readBlock(InputStream inputStream, byte[] block) throws IOException {
+    int total = 0;
+    int len;
+    while (total < block.length && (len = inputStream.read(block, total, block.length - total)) > 0) {
+      total += len;
+    }
+    return total;
+  }
+
+  /**
+   * Compress the data as a complete gzip member. Members can be concatenated and read back using {@link #gzipInputStream(InputStream, int)}
+   */
+  static DataBuffer compress(byte[] block, int length) throws IOException {
+    DataBuffer compressed = new DataBuffer(Math.max(length / 2, 512));
+    GZIPOutputStream gzipStream = new GZIPOutputStream(compressed);
+    gzipStream.write(block, 0, length);
+    gzipStream.close();
+    return compressed;
+  }
+
+  /**
+   * Decompresses concatenated gzip members. {@link GZIPInputStream} only reads the next member when the source reports available bytes at the end
+   * of a member, a network stream may report none and the rest of the snapshot would be silently dropped.
+   */
+  static InputStream gzipInputStream(InputStream inputStream, int size) throws IOException {
+    return new GZIPInputStream(new MemberInputStream(inputStream), size);
+  }
+
+  protected <F, T> T retryAfterRefresh(Function<F, T> function, F input, int retries) throws SnapshotTransferException {
     int failedAttempts = 0;
     T output = null;
     do {
@@ -981,16 +1096,19 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 
   class UploadPartTask extends UploadPart {
 
-    private ArrayBlockingQueue<SnapshotPart> partQueue;
+    private ArrayBlockingQueue<CompressedPart> partQueue;
     private SnapshotProgressCallback progressCallback;
+    private SnapshotTransferStats stats;
     private List<PartETag> partETags;
 
-    public UploadPartTask(ArrayBlockingQueue<SnapshotPart> partQueue, SnapshotProgressCallback progressCallback) throws EucalyptusCloudException {
+    public UploadPartTask(ArrayBlockingQueue<CompressedPart> partQueue, SnapshotProgressCallback progressCallback, SnapshotTransferStats stats)
+        throws EucalyptusCloudException {
       if (partQueue == null || progressCallback == null) {
         throw new EucalyptusCloudException("Invalid constructor parameters. Cannot proceed without part queue and or snapshot progress callback");
       }
       this.partQueue = partQueue;
       this.progressCallback = progressCallback;
+      this.stats = stats;
       this.partETags = new ArrayList<PartETag>();
     }
 
@@ -1001,22 +1119,24 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 
       try {
         do {
+          CompressedPart compressedPart = null;
           SnapshotPart part = null;
 
           try {
-            part = partQueue.take();
+            compressedPart = partQueue.take();
           } catch (InterruptedException ex) { // Should rarely happen
             error = Boolean.TRUE;
             LOG.error("Failed to upload snapshot " + snapshotId + " due to an retrieving parts from queue", ex);
             return null;
           }
 
-          if (part != null) {
+          if (compressedPart != null) {
+            part = compressedPart.getPart();
             if (part.getState().equals(SnapshotPartState.created) || part.getState().equals(SnapshotPartState.uploading)
                 || part.getState().equals(SnapshotPartState.failed)) {
               isLast = part.getIsLast();
               try {
-                PartETag partEtag = uploadPart(part);
+                PartETag partEtag = uploadPart(compressedPart, stats);
                 partETags.add(partEtag);
 
                 progressCallback.updateUploadProgress(part.getInputFileBytesRead());
@@ -1055,7 +1175,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
       } finally {
         if (error && partQueue != null) { // drain the queue so the upload process does not hang
           LOG.debug("Clearing part queue for " + snapshotId + " due to a previous error uploading");
-          partQueue.clear();
+          releaseParts(partQueue);
         }
       }
     }
@@ -1069,11 +1189,14 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     private Future<List<PartETag>> uploadTaskFuture;
     private SnapshotUploadInfo snapUploadInfo;
     private Integer totalParts;
+    private SnapshotTransferStats stats;
 
-    public CompleteMpuTask(Future<List<PartETag>> uploadTaskFuture, SnapshotUploadInfo snapUploadInfo, Integer totalParts) {
+    public CompleteMpuTask(Future<List<PartETag>> uploadTaskFuture, SnapshotUploadInfo snapUploadInfo, Integer totalParts,
+        SnapshotTransferStats stats) {
       this.uploadTaskFuture = uploadTaskFuture;
       this.snapUploadInfo = snapUploadInfo;
       this.totalParts = totalParts;
+      this.stats = stats;
     }
 
     @Override
@@ -1092,6 +1215,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
               LOG.debug("Failed to update status in DB for " + snapUploadInfo);
             }
             LOG.debug("Uploaded snapshot " + snapUploadInfo.getSnapshotId() + " to objectstorage");
+            LOG.info(stats);
           } catch (Exception e) {
             error = Boolean.TRUE;
             LOG.error("Failed to upload " + snapshotId + " due to an error completing the upload", e);
@@ -1119,35 +1243,34 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 
   class UploadObjectTask extends CompleteUpload {
 
-    private SnapshotPart part;
+    private CompressedPart compressedPart;
     private SnapshotUploadInfo snapUploadInfo;
-    private String pathToFile;
-    private Long actualSize;
     private Long uncompressedSize;
     private SnapshotProgressCallback callback;
+    private SnapshotTransferStats stats;
 
-    public UploadObjectTask(SnapshotPart part, SnapshotUploadInfo snapUploadInfo, String pathToFile, Long actualSize, Long uncompressedSize,
-        SnapshotProgressCallback callback) {
-      this.part = part;
+    public UploadObjectTask(CompressedPart compressedPart, SnapshotUploadInfo snapUploadInfo, Long uncompressedSize,
+        SnapshotProgressCallback callback, SnapshotTransferStats stats) {
+      this.compressedPart = compressedPart;
       this.snapUploadInfo = snapUploadInfo;
-      this.pathToFile = pathToFile;
-      this.actualSize = actualSize;
       this.uncompressedSize = uncompressedSize;
       this.callback = callback;
+      this.stats = stats;
     }
 
     @Override
     public String call() throws Exception {
       String etag = null;
       try {
-        etag = uploadSnapshotAsSingleObject(pathToFile, actualSize, uncompressedSize, callback);
+        etag = uploadSnapshotAsSingleObject(compressedPart, uncompressedSize, callback, stats);
         try {
-          part = part.updateStateUploaded(etag);
+          compressedPart.getPart().updateStateUploaded(etag);
           snapUploadInfo = snapUploadInfo.updateStateUploaded(etag);
         } catch (Exception e) {
           LOG.debug("Failed to update status in DB for " + snapUploadInfo);
         }
-        LOG.debug("Uploaded " + pathToFile + " to objectstorage");
+        LOG.debug("Uploaded snapshot " + snapshotId + " to objectstorage");
+        LOG.info(stats);
       } catch (Exception e) {
         LOG.warn("Failed to upload " + snapshotId, e);
         abortUpload(snapUploadInfo);
@@ -1156,6 +1279,168 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
     }
   }
 
+  public static abstract class CompressBlock implements Callable<CompressedBlock> {
+  }
+
+  class CompressBlockTask extends CompressBlock {
+
+    private byte[] block;
+    private int length;
+    private SnapshotTransferStats stats;
+
+    public CompressBlockTask(byte[] block, int length, SnapshotTransferStats stats) {
+      this.block = block;
+      this.length = length;
+      this.stats = stats;
+    }
+
+    @Override
+    public CompressedBlock call() throws Exception {
+      long start = System.nanoTime();
+      DataBuffer compressed = compress(block, length);
+      stats.record(Stage.Compress, length, System.nanoTime() - start);
+      block = null;
+      return new CompressedBlock(compressed, length);
+    }
+  }
+
+  /**
+   * A compressed block, a complete gzip member
+   */
+  public static final class CompressedBlock {
+    private final DataBuffer data;
+    private final long bytesRead;
+
+    CompressedBlock(DataBuffer data, long bytesRead) {
+      this.data = data;
+      this.bytesRead = bytesRead;
+    }
+
+    DataBuffer getData() {
+      return data;
+    }
+
+    long getBytesRead() {
+      return bytesRead;
+    }
+  }
+
+  /**
+   * A part entity with its compressed data, held in memory or spooled to a temporary file
+   */
+  static final class CompressedPart {
+    private final SnapshotPart part;
+    private DataBuffer data;
+    private Path file;
+    private long reservedBytes;
+
+    CompressedPart(SnapshotPart part, DataBuffer data) {
+      this.part = part;
+      this.data = data;
+    }
+
+    CompressedPart(SnapshotPart part, Path file) {
+      this.part = part;
+      this.file = file;
+    }
+
+    SnapshotPart getPart() {
+      return part;
+    }
+
+    synchronized DataBuffer getData() {
+      return data;
+    }
+
+    /**
+     * A new stream over the part data for each upload attempt
+     */
+    synchronized InputStream getInputStream() {
+      try {
+        if (data != null) {
+          return data.getInputStream();
+        } else if (file != null) {
+          return new BufferedInputStream(Files.newInputStream(file));
+        } else {
+          throw new IOException("Data for " + part + " was released");
+        }
+      } catch (IOException e) {
+        throw Exceptions.toUndeclared(e);
+      }
+    }
+
+    synchronized CompressedPart reserved(long bytes) {
+      this.reservedBytes = bytes;
+      return this;
+    }
+
+    synchronized long getReservedBytes() {
+      return reservedBytes;
+    }
+
+    /**
+     * Release the data once the part is uploaded (or failed) so it can be collected while other parts are in flight
+     */
+    synchronized void release() {
+      data = null;
+      if (reservedBytes > 0) {
+        bufferedPartBytes.addAndGet(-reservedBytes);
+        reservedBytes = 0;
+      }
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          LOG.debug("Failed to delete file: " + file);
+        }
+        file = null;
+      }
+    }
+  }
+
+  /**
+   * Byte array output stream that can be read without copying the data
+   */
+  static final class DataBuffer extends ByteArrayOutputStream {
+    DataBuffer(int size) {
+      super(size);
+    }
+
+    synchronized InputStream getInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+
+  /**
+   * Reports available bytes until the end of the stream so that {@link GZIPInputStream} always looks for a following member
+   */
+  static final class MemberInputStream extends FilterInputStream {
+    private boolean endOfStream;
+
+    MemberInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      endOfStream = b < 0;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      endOfStream = read < 0;
+      return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return endOfStream ? 0 : Math.max(super.available(), 1);
+    }
+  }
+
   public static abstract class StorageWriter implements Callable<String> {
   }
 
@@ -0,0 +1,178 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Manifest for an incremental snapshot.
+ * 
+ * The volume is split into fixed size chunks and the manifest lists the SHA-256 hash of each chunk in order. Chunks that are all zeros are not
+ * stored and are listed as {@link #ZERO_CHUNK}. The manifest is stored as gzip compressed text:
+ * 
+ * <pre>
+ * eucalyptus-snapshot-manifest 1
+ * volume vol-00000000
+ * size 1073741824
+ * chunk-size 4194304
+ * 0
+ * 9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08
+ * ...
+ * </pre>
+ */
+public class SnapshotManifest {
+
+  public static final String ZERO_CHUNK = "0";
+
+  private static final String HEADER = "eucalyptus-snapshot-manifest";
+  private static final int VERSION = 1;
+
+  private final String volumeId;
+  private final long size;
+  private final int chunkSize;
+  private final List<String> chunks;
+
+  public SnapshotManifest(String volumeId, long size, int chunkSize, List<String> chunks) {
+    this.volumeId = volumeId;
+    this.size = size;
+    this.chunkSize = chunkSize;
+    this.chunks = Collections.unmodifiableList(new ArrayList<String>(chunks));
+  }
+
+  public String getVolumeId() {
+    return volumeId;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public List<String> getChunks() {
+    return chunks;
+  }
+
+  /**
+   * @return length of the chunk at the given index, only the last chunk can be shorter than the chunk size
+   */
+  public int getChunkLength(int index) {
+    return (int) Math.min(chunkSize, size - ((long) index * chunkSize));
+  }
+
+  /**
+   * @return hashes of the stored (non zero) chunks
+   */
+  public Set<String> getChunkHashes() {
+    Set<String> hashes = new LinkedHashSet<String>();
+    for (String chunk : chunks) {
+      if (!ZERO_CHUNK.equals(chunk)) {
+        hashes.add(chunk);
+      }
+    }
+    return hashes;
+  }
+
+  public void write(OutputStream outputStream) throws IOException {
+    GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+    Writer writer = new OutputStreamWriter(gzipStream, StandardCharsets.UTF_8);
+    writer.write(HEADER + ' ' + VERSION + '\n');
+    writer.write("volume " + volumeId + '\n');
+    writer.write("size " + size + '\n');
+    writer.write("chunk-size " + chunkSize + '\n');
+    for (String chunk : chunks) {
+      writer.write(chunk);
+      writer.write('\n');
+    }
+    writer.flush();
+    gzipStream.finish();
+  }
+
+  public static SnapshotManifest read(InputStream inputStream) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(inputStream), StandardCharsets.UTF_8));
+    if (!(HEADER + ' ' + VERSION).equals(reader.readLine())) {
+      throw new IOException("Invalid or unsupported snapshot manifest");
+    }
+    String volumeId = value(reader.readLine(), "volume");
+    long size;
+    int chunkSize;
+    try {
+      size = Long.parseLong(value(reader.readLine(), "size"));
+      chunkSize = Integer.parseInt(value(reader.readLine(), "chunk-size"));
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid snapshot manifest size", e);
+    }
+    if (size < 0 || chunkSize <= 0) {
+      throw new IOException("Invalid snapshot manifest size " + size + " or chunk size " + chunkSize);
+    }
+    List<String> chunks = new ArrayList<String>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.isEmpty()) {
+        chunks.add(line);
+      }
+    }
+    if (chunks.size() != (size + chunkSize - 1) / chunkSize) {
+      throw new IOException("Snapshot manifest has " + chunks.size() + " chunks, expected " + ((size + chunkSize - 1) / chunkSize));
+    }
+    return new SnapshotManifest(volumeId, size, chunkSize, chunks);
+  }
+
+  /**
+   * @return the hash identifying the chunk data
+   */
+  public static String hash(byte[] data, int length) {
+    return Hashing.sha256().hashBytes(data, 0, length).toString();
+  }
+
+  public static boolean isZero(byte[] data, int length) {
+    for (int i = 0; i < length; i++) {
+      if (data[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String value(String line, String name) throws IOException {
+    if (line == null || !line.startsWith(name + ' ')) {
+      throw new IOException("Snapshot manifest missing " + name);
+    }
+    return line.substring(name.length() + 1);
+  }
+}
@@ -0,0 +1,78 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Throughput of the stages of a snapshot transfer.
+ * 
+ * Each stage accumulates the bytes processed and the time spent processing them. Stages that run on multiple threads (compression) accumulate the
+ * time across all threads, so the throughput for such a stage is per thread.
+ */
+public class SnapshotTransferStats {
+
+  public enum Stage {
+    Read, Compress, Upload
+  }
+
+  private final String snapshotId;
+  private final long startNanos;
+  private final AtomicLongArray bytes = new AtomicLongArray(Stage.values().length);
+  private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+
+  public SnapshotTransferStats(String snapshotId) {
+    this.snapshotId = snapshotId;
+    this.startNanos = System.nanoTime();
+  }
+
+  public void record(Stage stage, long bytesProcessed, long nanosElapsed) {
+    bytes.addAndGet(stage.ordinal(), bytesProcessed);
+    nanos.addAndGet(stage.ordinal(), nanosElapsed);
+  }
+
+  public long getBytes(Stage stage) {
+    return bytes.get(stage.ordinal());
+  }
+
+  public long getNanos(Stage stage) {
+    return nanos.get(stage.ordinal());
+  }
+
+  /**
+   * @return throughput for the stage in bytes per second, 0 if nothing was recorded
+   */
+  public double getThroughput(Stage stage) {
+    long elapsed = getNanos(stage);
+    return elapsed > 0 ? (getBytes(stage) * (double) TimeUnit.SECONDS.toNanos(1)) / elapsed : 0d;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("Snapshot transfer stats for ").append(snapshotId).append(':');
+    for (Stage stage : Stage.values()) {
+      builder.append(' ').append(stage.name().toLowerCase()).append(' ').append(getBytes(stage) / (1024 * 1024)).append(" MB at ")
+          .append(String.format("%.1f", getThroughput(stage) / (1024 * 1024))).append(" MB/s,");
+    }
+    builder.append(" elapsed ").append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos)).append(" s");
+    return builder.toString();
+  }
+}
@@ -69,6 +69,7 @@ import java.util.NoSuchElementException;
 
 import org.apache.log4j.Logger;
 
+import com.eucalyptus.blockstorage.ChunkedSnapshotTransfer;
 import com.eucalyptus.blockstorage.LogicalStorageManager;
 import com.eucalyptus.blockstorage.S3SnapshotTransfer;
 import com.eucalyptus.blockstorage.entities.SnapshotInfo;
@@ -150,14 +151,18 @@ public class FailedSnapshotCleaner extends CheckerTask {
     // Delete snapshot from OSG
     try {
       LOG.trace("Deleting snapshot " + snapshotId + " from objectsotrage");
-      if (snapshotTransfer == null) {
-        snapshotTransfer = new S3SnapshotTransfer();
-      }
       String[] names = SnapshotInfo.getSnapshotBucketKeyNames(snapInfo.getSnapshotLocation());
-      snapshotTransfer.setSnapshotId(snapshotId);
-      snapshotTransfer.setBucketName(names[0]);
-      snapshotTransfer.setKeyName(names[1]);
-      snapshotTransfer.cancelUpload();
+      if (ChunkedSnapshotTransfer.isManifestKey(names[1])) {
+        new ChunkedSnapshotTransfer(snapshotId, names[0], names[1]).cancelUpload();
+      } else {
+        if (snapshotTransfer == null) {
+          snapshotTransfer = new S3SnapshotTransfer();
+        }
+        snapshotTransfer.setSnapshotId(snapshotId);
+        snapshotTransfer.setBucketName(names[0]);
+        snapshotTransfer.setKeyName(names[1]);
+        snapshotTransfer.cancelUpload();
+      }
     } catch (Exception e) {
       LOG.debug("Attempt to delete uploaded snapshot " + snapshotId + " from objectstorage failed because: " + e.getMessage());
     }
@@ -68,10 +68,10 @@ import java.util.concurrent.Future;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
+import com.eucalyptus.blockstorage.ChunkedSnapshotTransfer;
 import com.eucalyptus.blockstorage.LogicalStorageManager;
 import com.eucalyptus.blockstorage.S3SnapshotTransfer;
 import com.eucalyptus.blockstorage.SnapshotProgressCallback;
-import com.eucalyptus.blockstorage.SnapshotTransfer;
 import com.eucalyptus.blockstorage.StorageResource;
 import com.eucalyptus.blockstorage.entities.SnapshotInfo;
 import com.eucalyptus.blockstorage.entities.SnapshotTransferConfiguration;
@@ -117,7 +117,7 @@ public class SnapshotCreator implements Runnable {
     try {
       Boolean shouldTransferSnapshots = true;
       StorageResource snapshotResource = null;
-      SnapshotTransfer snapshotTransfer = null;
+      S3SnapshotTransfer snapshotTransfer = null;
       String bucket = null;
       SnapshotProgressCallback progressCallback = null;
 
@@ -127,7 +127,11 @@ public class SnapshotCreator implements Runnable {
       if (shouldTransferSnapshots) {
         // Prepare for the snapshot upload (fetch credentials for snapshot upload to osg, create the bucket). Error out if this fails without
         // creating the snapshot on the blockstorage backend
-        snapshotTransfer = new S3SnapshotTransfer(snapshotId, snapshotId);
+        if (StorageInfo.getStorageInfo().getIncrementalSnapshots()) {
+          snapshotTransfer = new ChunkedSnapshotTransfer(snapshotId, volumeId);
+        } else {
+          snapshotTransfer = new S3SnapshotTransfer(snapshotId, snapshotId);
+        }
         bucket = snapshotTransfer.prepareForUpload();
 
         if (snapshotTransfer == null || StringUtils.isBlank(bucket)) {
@@ -162,7 +166,7 @@ public class SnapshotCreator implements Runnable {
         }
 
         // Update snapshot location in database
-        String snapshotLocation = SnapshotInfo.generateSnapshotLocationURI(SnapshotTransferConfiguration.OSG, bucket, snapshotId);
+        String snapshotLocation = SnapshotInfo.generateSnapshotLocationURI(SnapshotTransferConfiguration.OSG, bucket, snapshotTransfer.getKeyName());
         Entities.asTransaction(SnapshotInfo.class, new Function<String, SnapshotInfo>() {
 
           @Override
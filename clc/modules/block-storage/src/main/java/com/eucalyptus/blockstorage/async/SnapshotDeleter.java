@@ -69,6 +69,7 @@ import java.util.NoSuchElementException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
+import com.eucalyptus.blockstorage.ChunkedSnapshotTransfer;
 import com.eucalyptus.blockstorage.LogicalStorageManager;
 import com.eucalyptus.blockstorage.S3SnapshotTransfer;
 import com.eucalyptus.blockstorage.entities.SnapshotInfo;
@@ -144,13 +145,17 @@ public class SnapshotDeleter extends CheckerTask {
           if (StringUtils.isNotBlank(foundSnapshotInfo.getSnapshotLocation())) {
             try {
               String[] names = SnapshotInfo.getSnapshotBucketKeyNames(foundSnapshotInfo.getSnapshotLocation());
-              if (snapshotTransfer == null) {
-                snapshotTransfer = new S3SnapshotTransfer();
+              if (ChunkedSnapshotTransfer.isManifestKey(names[1])) {
+                new ChunkedSnapshotTransfer(snapshotId, names[0], names[1]).delete();
+              } else {
+                if (snapshotTransfer == null) {
+                  snapshotTransfer = new S3SnapshotTransfer();
+                }
+                snapshotTransfer.setSnapshotId(snapshotId);
+                snapshotTransfer.setBucketName(names[0]);
+                snapshotTransfer.setKeyName(names[1]);
+                snapshotTransfer.delete();
               }
-              snapshotTransfer.setSnapshotId(snapshotId);
-              snapshotTransfer.setBucketName(names[0]);
-              snapshotTransfer.setKeyName(names[1]);
-              snapshotTransfer.delete();
             } catch (Exception e) {
               LOG.warn("Failed to delete snapshot " + snapshotId + " from objectstorage", e);
             } finally {
@@ -163,6 +168,8 @@ public class SnapshotDeleter extends CheckerTask {
       } else {
         LOG.trace("No snapshots marked for deletion");
       }
+      ChunkedSnapshotTransfer.removeDeferredChunks();
+      ChunkedSnapshotTransfer.sweepUnreferencedChunks();
     } catch (Exception e) { // could catch InterruptedException
       LOG.warn("Unable to remove snapshots marked for deletion", e);
       return;
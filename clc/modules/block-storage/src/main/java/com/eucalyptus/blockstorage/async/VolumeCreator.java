@@ -74,6 +74,7 @@ import org.hibernate.criterion.Example;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
 
+import com.eucalyptus.blockstorage.ChunkedSnapshotTransfer;
 import com.eucalyptus.blockstorage.FileResource;
 import com.eucalyptus.blockstorage.LogicalStorageManager;
 import com.eucalyptus.blockstorage.S3SnapshotTransfer;
@@ -178,7 +179,9 @@ public class VolumeCreator implements Runnable {
                 // must be downloaded, unzipped and measured before creating the snapshot holder on the backend. Some SANs (Equallogic) add
                 // arbitrary amount of writable space to the lun and hence the exact size of the snapshot is required for preparing the
                 // holder on the backend
-                SnapshotTransfer snapshotTransfer = new S3SnapshotTransfer(snapshotId, bucket, key);
+                SnapshotTransfer snapshotTransfer =
+                    ChunkedSnapshotTransfer.isManifestKey(key) ? new ChunkedSnapshotTransfer(snapshotId, bucket, key) : new S3SnapshotTransfer(
+                        snapshotId, bucket, key);
                 Long actualSizeInBytes = null;
                 try {
                   actualSizeInBytes = snapshotTransfer.getSizeInBytes();
@@ -72,7 +72,11 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.apache.log4j.Logger;
 
 import com.amazonaws.services.s3.model.PartETag;
+import com.eucalyptus.blockstorage.ChunkedSnapshotTransfer;
+import com.eucalyptus.blockstorage.ChunkedSnapshotTransfer.FetchChunk;
 import com.eucalyptus.blockstorage.S3SnapshotTransfer.CompleteUpload;
+import com.eucalyptus.blockstorage.S3SnapshotTransfer.CompressBlock;
+import com.eucalyptus.blockstorage.S3SnapshotTransfer.CompressedBlock;
 import com.eucalyptus.blockstorage.S3SnapshotTransfer.StorageWriter;
 import com.eucalyptus.blockstorage.S3SnapshotTransfer.UploadPart;
 import com.eucalyptus.blockstorage.Storage;
@@ -84,6 +88,8 @@ public class SnapshotTransferThreadPool {
   private static ThreadPoolExecutor uploadPartPool;
   private static ThreadPoolExecutor completeMpuPool;
   private static ThreadPoolExecutor backendWriterPool;
+  private static ThreadPoolExecutor compressionPool;
+  private static ThreadPoolExecutor fetchChunkPool;
 
   private static final ReentrantLock RLOCK = new ReentrantLock();
 
@@ -104,6 +110,15 @@ public class SnapshotTransferThreadPool {
       backendWriterPool =
           new ThreadPoolExecutor(poolSize, poolSize, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), Threads.lookup(Storage.class,
               StorageWriter.class), new ThreadPoolExecutor.AbortPolicy());
+      // Compression is cpu bound and shared by all transfers so the pool is sized by the number of processors
+      int compressionPoolSize = Runtime.getRuntime().availableProcessors();
+      compressionPool =
+          new ThreadPoolExecutor(compressionPoolSize, compressionPoolSize, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), Threads.lookup(
+              Storage.class, CompressBlock.class), new ThreadPoolExecutor.AbortPolicy());
+      fetchChunkPool =
+          new ThreadPoolExecutor(poolSize * ChunkedSnapshotTransfer.FETCH_WINDOW, poolSize * ChunkedSnapshotTransfer.FETCH_WINDOW, 10,
+              TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), Threads.lookup(Storage.class, FetchChunk.class),
+              new ThreadPoolExecutor.AbortPolicy());
     } finally {
       RLOCK.unlock();
     }
@@ -139,6 +154,26 @@ public class SnapshotTransferThreadPool {
     }
   }
 
+  public static Future<CompressedBlock> add(CompressBlock task) throws ThreadPoolNotInitializedException {
+    if (compressionPool != null && !compressionPool.isShutdown()) {
+      return compressionPool.submit(task);
+    } else {
+      LOG.warn("SC thread pool catering to snapshot transfers (compression pool) is either not initalized or shut down");
+      throw new ThreadPoolNotInitializedException(
+          "SC thread pool catering to snapshot transfers (compression pool) is either not initalized or shut down");
+    }
+  }
+
+  public static Future<byte[]> add(FetchChunk task) throws ThreadPoolNotInitializedException {
+    if (fetchChunkPool != null && !fetchChunkPool.isShutdown()) {
+      return fetchChunkPool.submit(task);
+    } else {
+      LOG.warn("SC thread pool catering to snapshot transfers (fetch chunk pool) is either not initalized or shut down");
+      throw new ThreadPoolNotInitializedException(
+          "SC thread pool catering to snapshot transfers (fetch chunk pool) is either not initalized or shut down");
+    }
+  }
+
   public static Integer getPoolSize() {
     if (uploadPartPool != null && !uploadPartPool.isShutdown() && completeMpuPool != null && !completeMpuPool.isShutdown()
         && backendWriterPool != null && !backendWriterPool.isShutdown()) {
@@ -157,6 +192,10 @@ public class SnapshotTransferThreadPool {
       completeMpuPool.setMaximumPoolSize(newSize);
       backendWriterPool.setCorePoolSize(newSize);
       backendWriterPool.setMaximumPoolSize(newSize);
+      if (fetchChunkPool != null && !fetchChunkPool.isShutdown()) {
+        fetchChunkPool.setCorePoolSize(newSize * ChunkedSnapshotTransfer.FETCH_WINDOW);
+        fetchChunkPool.setMaximumPoolSize(newSize * ChunkedSnapshotTransfer.FETCH_WINDOW);
+      }
     }
   }
 
@@ -184,6 +223,16 @@ public class SnapshotTransferThreadPool {
         LOG.debug("Number of queued snapshots for download: " + awaitingExecution.size());
         backendWriterPool = null;
       }
+      if (fetchChunkPool != null) {
+        LOG.info("Shutting down SC thread pool catering to snapshot transfers (fetch chunk pool)");
+        fetchChunkPool.shutdownNow();
+        fetchChunkPool = null;
+      }
+      if (compressionPool != null) {
+        LOG.info("Shutting down SC thread pool catering to snapshot transfers (compression pool)");
+        compressionPool.shutdownNow();
+        compressionPool = null;
+      }
     } finally {
       RLOCK.unlock();
     }
@@ -0,0 +1,125 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+import edu.ucsb.eucalyptus.util.SystemUtil;
+import edu.ucsb.eucalyptus.util.SystemUtil.CommandOutput;
+
+/**
+ * Volume file create and copy latency using dd only (the previous approach) and using truncate, fallocate and cp.
+ *
+ * <p>Runs the commands directly rather than through the root wrapper. Set benchmark.dir to a directory on the volumes
+ * file system (reflink support depends on it) and benchmark.sizes to a comma separated list of sizes in MB.</p>
+ *
+ * <p>Run with the block-storage test classpath, the name does not match the junit batch pattern so it is not run by the
+ * junit target:</p>
+ *
+ * <pre>java -Dbenchmark.dir=/var/lib/eucalyptus/volumes -cp ... com.eucalyptus.blockstorage.FileProvisionerBenchmark</pre>
+ */
+public class FileProvisionerBenchmark {
+  private static final int ITERATIONS = 3;
+
+  public static void main(String[] args) throws Exception {
+    File dir = new File(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir")));
+    for (String size : System.getProperty("benchmark.sizes", "1024,4096").split(",")) {
+      long sizeInMB = Long.parseLong(size.trim());
+      System.out.println(sizeInMB + "MB in " + dir);
+      benchmark(dir, sizeInMB, "dd", new FileProvisioner(runner("truncate", "fallocate", "cp")));
+      benchmark(dir, sizeInMB, "current", new FileProvisioner(runner()));
+    }
+  }
+
+  private static void benchmark(File dir, long sizeInMB, String name, FileProvisioner provisioner) throws Exception {
+    File source = new File(dir, "benchmark-source");
+    File destination = new File(dir, "benchmark-destination");
+    try {
+      long sparse = 0, sparseCopy = 0, allocated = 0, allocatedCopy = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        delete(source, destination);
+        long start = System.nanoTime();
+        provisioner.createFile(source.getPath(), sizeInMB, false);
+        sync();
+        sparse += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        provisioner.copyFile(source.getPath(), destination.getPath());
+        sync();
+        sparseCopy += System.nanoTime() - start;
+
+        delete(source, destination);
+        start = System.nanoTime();
+        provisioner.createFile(source.getPath(), sizeInMB, true);
+        sync();
+        allocated += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        provisioner.copyFile(source.getPath(), destination.getPath());
+        sync();
+        allocatedCopy += System.nanoTime() - start;
+      }
+      System.out.println(String.format("  %-8s create sparse %6dms, copy sparse %6dms, create allocated %6dms, copy allocated %6dms", name,
+          millis(sparse), millis(sparseCopy), millis(allocated), millis(allocatedCopy)));
+    } finally {
+      delete(source, destination);
+    }
+  }
+
+  private static long millis(long totalNanos) {
+    return totalNanos / ITERATIONS / 1000000L;
+  }
+
+  private static void sync() throws Exception {
+    SystemUtil.runWithRawOutput(new String[] {"sync"});
+  }
+
+  private static void delete(File... files) {
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Runner that skips the root wrapper and fails the given commands as an unsupporting file system would.
+   */
+  private static Function<String[], CommandOutput> runner(final String... unsupported) {
+    final List<String> unsupportedCommands = ImmutableList.copyOf(unsupported);
+    return new Function<String[], CommandOutput>() {
+      @Override
+      public CommandOutput apply(String[] command) {
+        String[] args = Arrays.copyOfRange(command, 1, command.length);
+        if (unsupportedCommands.contains(args[0])) {
+          return new CommandOutput(1, "", "not supported");
+        }
+        try {
+          return SystemUtil.runWithRawOutput(args);
+        } catch (Exception e) {
+          return new CommandOutput(-1, null, e.getMessage());
+        }
+      }
+    };
+  }
+}
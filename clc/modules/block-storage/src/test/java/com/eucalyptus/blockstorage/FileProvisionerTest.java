@@ -0,0 +1,75 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.eucalyptus.util.EucalyptusCloudException;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import edu.ucsb.eucalyptus.util.SystemUtil.CommandOutput;
+
+public class FileProvisionerTest {
+
+  @Test
+  public void testCreateSparse() throws Exception {
+    List<String> commands = Lists.newArrayList();
+    new FileProvisioner(runner(commands)).createFile("/tmp/vol-1", 2, false);
+    assertEquals("Commands", ImmutableList.of("truncate -s 2097152 /tmp/vol-1"), commands);
+  }
+
+  @Test
+  public void testCreateAllocatedFallback() throws Exception {
+    List<String> commands = Lists.newArrayList();
+    new FileProvisioner(runner(commands, "fallocate")).createFile("/tmp/vol-1", 2, true);
+    assertEquals("Commands", ImmutableList.of("fallocate -l 2097152 /tmp/vol-1", "dd if=/dev/zero of=/tmp/vol-1 count=2 bs=1M"), commands);
+  }
+
+  @Test
+  public void testCopyFailure() throws Exception {
+    List<String> commands = Lists.newArrayList();
+    try {
+      new FileProvisioner(runner(commands, "cp", "dd")).copyFile("/tmp/snap-1", "/tmp/vol-1");
+      fail("Expected failure");
+    } catch (EucalyptusCloudException e) {
+      assertEquals("Commands", ImmutableList.of("cp --reflink=auto --sparse=auto /tmp/snap-1 /tmp/vol-1", "dd if=/tmp/snap-1 of=/tmp/vol-1 bs=1M"),
+          commands);
+    }
+  }
+
+  private static Function<String[], CommandOutput> runner(final List<String> commands, final String... failing) {
+    return new Function<String[], CommandOutput>() {
+      @Override
+      public CommandOutput apply(String[] command) {
+        // skip the root wrapper
+        List<String> args = ImmutableList.copyOf(command).subList(1, command.length);
+        commands.add(String.join(" ", args));
+        return new CommandOutput(ImmutableList.copyOf(failing).contains(args.get(0)) ? 1 : 0, "", "not supported");
+      }
+    };
+  }
+}
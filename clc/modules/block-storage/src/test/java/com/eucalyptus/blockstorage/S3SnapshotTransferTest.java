@@ -0,0 +1,139 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import com.eucalyptus.blockstorage.S3SnapshotTransfer.CompressedPart;
+import com.eucalyptus.blockstorage.S3SnapshotTransfer.DataBuffer;
+import com.eucalyptus.blockstorage.entities.SnapshotPart;
+
+public class S3SnapshotTransferTest {
+
+  @Test
+  public void testCompressedBlocksConcatenate() throws Exception {
+    byte[] data = new byte[100000];
+    new Random(42).nextBytes(data);
+    for (int i = 0; i < 50000; i++) {
+      data[i] = 0; // compressible half
+    }
+
+    // Compress in blocks and concatenate as parts are assembled for upload
+    int blockSize = 16384;
+    DataBuffer part = new DataBuffer(1024);
+    for (int offset = 0; offset < data.length; offset += blockSize) {
+      byte[] block = new byte[blockSize];
+      int length = Math.min(blockSize, data.length - offset);
+      System.arraycopy(data, offset, block, 0, length);
+      S3SnapshotTransfer.compress(block, length).writeTo(part);
+    }
+
+    assertArrayEquals("Decompressed data", data, decompress(part));
+  }
+
+  @Test
+  public void testCompressEmptyBlock() throws Exception {
+    DataBuffer compressed = S3SnapshotTransfer.compress(new byte[16], 0);
+    assertEquals("Decompressed length", 0, decompress(compressed).length);
+  }
+
+  @Test
+  public void testRestoreMembersFromNetworkStream() throws Exception {
+    byte[] data = new byte[200000];
+    new Random(7).nextBytes(data);
+
+    int blockSize = 1000;
+    DataBuffer snapshot = new DataBuffer(1024);
+    for (int offset = 0; offset < data.length; offset += blockSize) {
+      byte[] block = new byte[blockSize];
+      System.arraycopy(data, offset, block, 0, blockSize);
+      S3SnapshotTransfer.compress(block, blockSize).writeTo(snapshot);
+    }
+
+    // Deliver the object as a network stream would, in small reads and with nothing reported as available
+    InputStream networkStream = new FilterInputStream(snapshot.getInputStream()) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 97));
+      }
+
+      @Override
+      public int available() {
+        return 0;
+      }
+    };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = S3SnapshotTransfer.gzipInputStream(networkStream, 512)) {
+      byte[] buffer = new byte[4096];
+      int len;
+      while ((len = in.read(buffer)) > 0) {
+        out.write(buffer, 0, len);
+      }
+    }
+    assertArrayEquals("Restored data", data, out.toByteArray());
+  }
+
+  @Test
+  public void testSpooledPartRelease() throws Exception {
+    byte[] data = new byte[1000];
+    new Random(3).nextBytes(data);
+    Path file = Files.createTempFile("snap-test-", "-1");
+    Files.write(file, data);
+
+    CompressedPart part = new CompressedPart(new SnapshotPart(), file);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = part.getInputStream()) {
+      byte[] buffer = new byte[256];
+      int len;
+      while ((len = in.read(buffer)) > 0) {
+        out.write(buffer, 0, len);
+      }
+    }
+    assertArrayEquals("Spooled data", data, out.toByteArray());
+
+    part.release();
+    assertFalse("Spooled file removed", Files.exists(file));
+  }
+
+  private static byte[] decompress(DataBuffer compressed) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(compressed.getInputStream())) {
+      byte[] buffer = new byte[4096];
+      int len;
+      while ((len = in.read(buffer)) > 0) {
+        out.write(buffer, 0, len);
+      }
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,82 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class SnapshotManifestTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    String hash1 = SnapshotManifest.hash(new byte[] {1, 2, 3}, 3);
+    String hash2 = SnapshotManifest.hash(new byte[] {4, 5, 6}, 3);
+    SnapshotManifest manifest =
+        new SnapshotManifest("vol-00000001", 10, 3, Arrays.asList(hash1, SnapshotManifest.ZERO_CHUNK, hash2, hash1));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    manifest.write(out);
+    SnapshotManifest read = SnapshotManifest.read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals("Volume", "vol-00000001", read.getVolumeId());
+    assertEquals("Size", 10, read.getSize());
+    assertEquals("Chunk size", 3, read.getChunkSize());
+    assertEquals("Chunks", manifest.getChunks(), read.getChunks());
+    assertEquals("Chunk hashes", ImmutableSet.of(hash1, hash2), read.getChunkHashes());
+    assertEquals("Chunk length", 3, read.getChunkLength(0));
+    assertEquals("Last chunk length", 1, read.getChunkLength(3));
+  }
+
+  @Test(expected = IOException.class)
+  public void testChunkCountMismatch() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new SnapshotManifest("vol-00000001", 10, 3, Arrays.asList(SnapshotManifest.ZERO_CHUNK)).write(out);
+    SnapshotManifest.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test
+  public void testChunkHashing() {
+    byte[] data = new byte[] {0, 0, 0, 7};
+    assertTrue("Zero prefix", SnapshotManifest.isZero(data, 3));
+    assertFalse("Non zero", SnapshotManifest.isZero(data, 4));
+    assertEquals("Hash", "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", SnapshotManifest.hash("abc".getBytes(), 3));
+  }
+
+  @Test
+  public void testKeys() {
+    String manifestKey = ChunkedSnapshotTransfer.manifestKey("vol-00000001", "snap-00000002");
+    assertTrue("Manifest key", ChunkedSnapshotTransfer.isManifestKey(manifestKey));
+    assertFalse("Snapshot key", ChunkedSnapshotTransfer.isManifestKey("snap-00000002"));
+    assertEquals("Volume", "vol-00000001", ChunkedSnapshotTransfer.volumeIdFromKey(manifestKey));
+    assertEquals("Volume", "vol-00000001", ChunkedSnapshotTransfer.volumeIdFromKey(ChunkedSnapshotTransfer.chunkKey("vol-00000001", "abc")));
+    assertNull("No volume", ChunkedSnapshotTransfer.volumeIdFromKey("snap-00000002"));
+  }
+}
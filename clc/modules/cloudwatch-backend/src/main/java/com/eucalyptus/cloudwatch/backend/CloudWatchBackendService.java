@@ -58,6 +58,7 @@ import com.eucalyptus.cloudwatch.common.internal.domain.alarms.AlarmNotFoundExce
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.Units;
 import com.eucalyptus.cloudwatch.common.policy.CloudWatchPolicySpec;
 import com.eucalyptus.cloudwatch.workflow.DBCleanupService;
+import com.eucalyptus.cloudwatch.workflow.MetricCompactionService;
 import com.eucalyptus.cloudwatch.workflow.alarms.AlarmStateEvaluationDispatcher;
 import com.eucalyptus.component.Faults;
 import com.eucalyptus.context.Context;
@@ -94,6 +95,10 @@ public class CloudWatchBackendService {
         .newSingleThreadScheduledExecutor();
     dbCleanupService.scheduleAtFixedRate(new DBCleanupService(), 1, 24,
         TimeUnit.HOURS);
+    ScheduledExecutorService metricCompactionService = Executors
+        .newSingleThreadScheduledExecutor();
+    metricCompactionService.scheduleWithFixedDelay(new MetricCompactionService(), 1, 5,
+        TimeUnit.MINUTES);
   }
 
   private static final Logger LOG = Logger.getLogger(CloudWatchBackendService.class);
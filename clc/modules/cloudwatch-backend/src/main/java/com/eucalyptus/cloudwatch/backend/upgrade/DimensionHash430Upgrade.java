@@ -0,0 +1,148 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.backend.upgrade;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import groovy.sql.GroovyRowResult;
+import groovy.sql.Sql;
+
+import org.apache.log4j.Logger;
+
+import com.eucalyptus.cloudwatch.common.CloudWatchBackend;
+import com.eucalyptus.cloudwatch.common.internal.hashing.DimensionSetRegistry;
+import com.eucalyptus.cloudwatch.common.internal.hashing.HashUtils;
+import com.eucalyptus.upgrade.Upgrades;
+import com.google.common.collect.Maps;
+
+/**
+ * Rewrite metric data dimension hashes from SHA-1 to dimension set identifiers.
+ *
+ * <p>SHA-1 hashes can not be reversed so dimension sets are taken from list
+ * metrics and alarms. Metric data for dimension sets that are no longer
+ * known is removed, such data could not be listed already.</p>
+ *
+ * <p>The leading character of the hash selects the metric data table, so
+ * rows are moved between tables as they are rehashed.</p>
+ */
+@Upgrades.PostUpgrade( value = CloudWatchBackend.class, since = Upgrades.Version.v4_3_0 )
+public class DimensionHash430Upgrade implements Callable<Boolean> {
+  private static final Logger LOG = Logger.getLogger( DimensionHash430Upgrade.class );
+
+  private static final String MAPPING_TABLE = "metric_data_dimension_hash_upgrade";
+  private static final String COLUMNS =
+      "id, account_id, namespace, metric_name, units, metric_type, timestamp, sample_size, sample_max, sample_min, sample_sum";
+  private static final int SHA1_HASH_LENGTH = 40;
+
+  @Override
+  public Boolean call( ) throws Exception {
+    LOG.info( "Rewriting metric data dimension hashes in cloudwatch_backend" );
+    Sql cloudwatchSql = null;
+    Sql sql = null;
+    try {
+      cloudwatchSql = Upgrades.DatabaseFilters.NEWVERSION.getConnection( "eucalyptus_cloudwatch" );
+      final Map<String, String> hashMapping = Maps.newHashMap( );
+      for ( final String table : new String[]{ "list_metrics", "alarms" } ) {
+        addHashMappings( cloudwatchSql, table, hashMapping );
+      }
+      LOG.info( "Found " + hashMapping.size( ) + " dimension sets" );
+
+      sql = Upgrades.DatabaseFilters.NEWVERSION.getConnection( "eucalyptus_cloudwatch_backend" );
+      sql.execute( "drop table if exists " + MAPPING_TABLE );
+      sql.execute( "create table " + MAPPING_TABLE + " (old_hash varchar(40) primary key, new_hash varchar(16) not null)" );
+      for ( final Map.Entry<String, String> entry : hashMapping.entrySet( ) ) {
+        sql.execute(
+            "insert into " + MAPPING_TABLE + " (old_hash, new_hash) values (?, ?)",
+            Arrays.<Object>asList( entry.getKey( ), entry.getValue( ) ) );
+      }
+
+      for ( final String prefix : new String[]{ "custom", "system" } ) {
+        for ( int i = 0; i < 16; i++ ) {
+          final String table = prefix + "_metric_data_" + Integer.toHexString( i );
+          LOG.info( "Rewriting dimension hashes for " + table );
+          for ( int j = 0; j < 16; j++ ) {
+            if ( i == j ) continue;
+            final String shard = Integer.toHexString( j );
+            final String targetTable = prefix + "_metric_data_" + shard;
+            sql.execute( String.format(
+                "insert into %1$s (%3$s, dimension_hash) " +
+                    "select %4$s, m.new_hash from %2$s s join %5$s m on s.dimension_hash = m.old_hash " +
+                    "where substr(m.new_hash, 1, 1) = '%6$s'",
+                targetTable, table, COLUMNS, "s." + COLUMNS.replace( ", ", ", s." ), MAPPING_TABLE, shard ) );
+            sql.execute( String.format(
+                "delete from %1$s s using %2$s m where s.dimension_hash = m.old_hash and substr(m.new_hash, 1, 1) = '%3$s'",
+                table, MAPPING_TABLE, shard ) );
+          }
+          sql.execute( String.format(
+              "update %1$s s set dimension_hash = m.new_hash from %2$s m where s.dimension_hash = m.old_hash",
+              table, MAPPING_TABLE ) );
+          sql.execute( String.format(
+              "delete from %1$s where length(dimension_hash) = %2$d",
+              table, SHA1_HASH_LENGTH ) );
+        }
+      }
+      sql.execute( "drop table if exists " + MAPPING_TABLE );
+      return true;
+    } catch ( Exception ex ) {
+      LOG.error( "Failed to rewrite metric data dimension hashes in cloudwatch_backend", ex );
+      return false;
+    } finally {
+      if ( cloudwatchSql != null ) {
+        cloudwatchSql.close( );
+      }
+      if ( sql != null ) {
+        sql.close( );
+      }
+    }
+  }
+
+  private static void addHashMappings( final Sql sql,
+                                       final String table,
+                                       final Map<String, String> hashMapping ) throws Exception {
+    final StringBuilder columns = new StringBuilder( );
+    for ( int i = 1; i <= 10; i++ ) {
+      columns.append( i == 1 ? "" : ", " ).append( "dim_" ).append( i ).append( "_name, dim_" ).append( i ).append( "_value" );
+    }
+    for ( final GroovyRowResult row : sql.rows( "select distinct " + columns + " from " + table ) ) {
+      final TreeMap<String, String> dimensionMap = Maps.newTreeMap( );
+      for ( int i = 1; i <= 10; i++ ) {
+        final Object name = row.get( "dim_" + i + "_name" );
+        if ( name != null ) {
+          dimensionMap.put( String.valueOf( name ), String.valueOf( row.get( "dim_" + i + "_value" ) ) );
+        }
+      }
+      hashMapping.put( sha1Hash( dimensionMap ), DimensionSetRegistry.id( dimensionMap ) );
+    }
+  }
+
+  /**
+   * The dimension hash as calculated prior to 4.3.0
+   */
+  private static String sha1Hash( final TreeMap<String, String> dimensionMap ) {
+    final StringBuilder sb = new StringBuilder( );
+    for ( final Map.Entry<String, String> entry : dimensionMap.entrySet( ) ) {
+      sb.append( entry.getKey( ) ).append( "|" ).append( entry.getValue( ) ).append( "|" );
+    }
+    return HashUtils.hash( sb );
+  }
+}
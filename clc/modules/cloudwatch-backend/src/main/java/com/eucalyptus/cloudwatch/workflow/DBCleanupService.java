@@ -25,8 +25,10 @@ import org.apache.log4j.Logger;
 
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.cloudwatch.common.CloudWatchBackend;
+import com.eucalyptus.cloudwatch.common.config.CloudWatchConfigProperties;
 import com.eucalyptus.cloudwatch.common.internal.domain.alarms.AlarmManager;
 import com.eucalyptus.cloudwatch.common.internal.domain.listmetrics.ListMetricManager;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricDataTier;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricManager;
 import com.eucalyptus.component.Topology;
 
@@ -46,11 +48,19 @@ public class DBCleanupService implements Runnable {
     
     Date twoWeeksAgo = new Date(System.currentTimeMillis() - 2 * 7 * 24 * 60 * 60 * 1000L);
     try {
-      MetricManager.deleteMetrics(twoWeeksAgo);
+      MetricManager.deleteMetrics(daysAgo(CloudWatchConfigProperties.METRIC_DATA_RAW_RETENTION_DAYS));
     } catch (Exception ex) {
       LOG.error(ex);
       LOG.error(ex, ex);
     }
+    for (MetricDataTier tier : MetricDataTier.values()) {
+      try {
+        MetricManager.deleteMetrics(tier, daysAgo(tier.getRetentionDays()));
+      } catch (Exception ex) {
+        LOG.error(ex);
+        LOG.error(ex, ex);
+      }
+    }
     try {
       ListMetricManager.deleteMetrics(twoWeeksAgo);
     } catch (Exception ex) {
@@ -66,4 +76,8 @@ public class DBCleanupService implements Runnable {
     LOG.info("Done cleaning up cloudwatch db");
   }
 
+  private static Date daysAgo(int days) {
+    return new Date(System.currentTimeMillis() - days * 24 * 60 * 60 * 1000L);
+  }
+
 }
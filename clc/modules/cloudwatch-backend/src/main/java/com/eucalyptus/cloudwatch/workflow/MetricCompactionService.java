@@ -0,0 +1,68 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.workflow;
+
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.cloudwatch.common.CloudWatchBackend;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricDataTier;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricManager;
+import com.eucalyptus.component.Topology;
+
+/**
+ * Compacts per minute metric data into the five minute and one hour tiers.
+ */
+public class MetricCompactionService implements Runnable {
+  Logger LOG = Logger.getLogger(MetricCompactionService.class);
+  public MetricCompactionService() {
+  }
+
+  @Override
+  public void run() {
+    // compaction is not idempotent so only run where the backend is enabled locally
+    if (!( Bootstrap.isOperational() &&
+        Topology.isEnabledLocally( CloudWatchBackend.class ) )) {
+      LOG.debug("Cloudwatch backend service is not ENABLED locally");
+      return;
+    }
+
+    for (MetricDataTier tier : MetricDataTier.values()) {
+      try {
+        long before = System.currentTimeMillis();
+        Date now = new Date();
+        int periods = MetricManager.compactMetrics(tier, now);
+        // periods that received late data, run before the next tier as this marks its periods
+        int recompactedPeriods = MetricManager.recompactMetrics(tier, now);
+        LOG.debug("Compacted " + periods + " period(s) and recompacted " + recompactedPeriods +
+            " period(s) of metric data for tier " + tier +
+            " in " + (System.currentTimeMillis() - before) + "ms");
+      } catch (Exception ex) {
+        LOG.error(ex);
+        LOG.error(ex, ex);
+        // later tiers are compacted from this one
+        break;
+      }
+    }
+  }
+
+}
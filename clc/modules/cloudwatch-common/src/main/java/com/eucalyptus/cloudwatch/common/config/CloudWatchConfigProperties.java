@@ -30,6 +30,42 @@ public class CloudWatchConfigProperties {
   @ConfigurableField(initial = "1000", description = "Size of the reporting data set that stores cloud watch queues performance info (debug only prop)")
   public static volatile int CLOUDWATCH_MONITORING_HISTORY_SIZE = 1000;
 
+  @ConfigurableField(initial = "10", description = "Maximum number of seconds put metric data is held in a queue shard before it is written")
+  public static volatile int PUT_METRIC_DATA_FLUSH_INTERVAL_SECONDS = 10;
+
+  @ConfigurableField(initial = "5000", description = "Number of aggregated put metric data points in a queue shard that triggers an early write")
+  public static volatile int PUT_METRIC_DATA_FLUSH_SIZE = 5000;
+
+  @ConfigurableField(initial = "50000", description = "Maximum number of pending put metric data points per queue shard before requests are throttled")
+  public static volatile int PUT_METRIC_DATA_SHARD_QUEUE_CAPACITY = 50000;
+
+  @ConfigurableField(initial = "true", description = "Set this to false to read all metric statistics from the database instead of the recent metric data cache")
+  public static volatile Boolean METRIC_STATISTICS_CACHE_ENABLED = true;
+
+  @ConfigurableField(initial = "60", description = "Number of minutes of recent metric data held in memory for metric statistics and alarm evaluation")
+  public static volatile int METRIC_STATISTICS_CACHE_MINUTES = 60;
+
+  @ConfigurableField(initial = "20000", description = "Maximum number of metric series held in memory for metric statistics and alarm evaluation")
+  public static volatile int METRIC_STATISTICS_CACHE_MAX_SERIES = 20000;
+
+  @ConfigurableField(initial = "5", description = "Maximum percentage of the heap used for recent metric data held in memory for metric statistics and alarm evaluation")
+  public static volatile int METRIC_STATISTICS_CACHE_MAX_HEAP_PERCENT = 5;
+
+  @ConfigurableField(initial = "14", description = "Number of days per minute metric data is retained")
+  public static volatile int METRIC_DATA_RAW_RETENTION_DAYS = 14;
+
+  @ConfigurableField(initial = "63", description = "Number of days five minute aggregated metric data is retained")
+  public static volatile int METRIC_DATA_5M_RETENTION_DAYS = 63;
+
+  @ConfigurableField(initial = "455", description = "Number of days one hour aggregated metric data is retained")
+  public static volatile int METRIC_DATA_1H_RETENTION_DAYS = 455;
+
+  @ConfigurableField(initial = "60", description = "Number of minutes to wait for late metric data before it is aggregated into five minute and one hour data")
+  public static volatile int METRIC_DATA_COMPACTION_DELAY_MINUTES = 60;
+
+  @ConfigurableField(initial = "288", description = "Maximum number of periods aggregated per metric data tier on each compaction run")
+  public static volatile int METRIC_DATA_COMPACTION_MAX_PERIODS = 288;
+
   public static Boolean isDisabledCloudWatchService() {
     return DISABLE_CLOUDWATCH_SERVICE;
   }
@@ -0,0 +1,252 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.common.internal.domain.metricdata;
+
+import java.util.Date;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Table;
+
+import com.eucalyptus.cloudwatch.common.config.CloudWatchConfigProperties;
+import com.eucalyptus.component.annotation.RemotablePersistence;
+
+/**
+ * Pre-aggregated (downsampled) metric data tiers.
+ *
+ * <p>Each tier holds metric data aggregated over the tier period, keyed as
+ * for GetMetricStatisticsAggregationKey. Tiers are compacted from the next
+ * finer tier, the five minute tier from the raw per minute data.</p>
+ */
+public enum MetricDataTier {
+
+  FiveMinute( 300, MetricRollupEntity5Minute.class ) {
+    @Override
+    public int getRetentionDays( ) {
+      return CloudWatchConfigProperties.METRIC_DATA_5M_RETENTION_DAYS;
+    }
+
+    @Override
+    public MetricEntity newMetricEntity( ) {
+      return new MetricRollupEntity5Minute( );
+    }
+  },
+
+  OneHour( 3600, MetricRollupEntity1Hour.class ) {
+    @Override
+    public int getRetentionDays( ) {
+      return CloudWatchConfigProperties.METRIC_DATA_1H_RETENTION_DAYS;
+    }
+
+    @Override
+    public MetricEntity newMetricEntity( ) {
+      return new MetricRollupEntity1Hour( );
+    }
+  },
+  ;
+
+  private final int period;
+  private final Class<? extends MetricEntity> entityClass;
+
+  MetricDataTier( final int period, final Class<? extends MetricEntity> entityClass ) {
+    this.period = period;
+    this.entityClass = entityClass;
+  }
+
+  /**
+   * The period for the tier in seconds
+   */
+  public int getPeriod( ) {
+    return period;
+  }
+
+  public long getPeriodMillis( ) {
+    return 1000L * period;
+  }
+
+  public Class<? extends MetricEntity> getEntityClass( ) {
+    return entityClass;
+  }
+
+  public abstract int getRetentionDays( );
+
+  public abstract MetricEntity newMetricEntity( );
+
+  /**
+   * The tier this tier is compacted from, null for raw metric data.
+   */
+  public MetricDataTier getSource( ) {
+    return ordinal( ) == 0 ? null : values( )[ ordinal( ) - 1 ];
+  }
+
+  /**
+   * Start of the tier period containing the given time.
+   */
+  public Date getPeriodStart( final Date time ) {
+    return new Date( time.getTime( ) - time.getTime( ) % getPeriodMillis( ) );
+  }
+
+  /**
+   * Can statistics for the given start time and period be computed from this tier.
+   *
+   * <p>Each tier period must fall into a single statistics period, so the
+   * period must be a multiple of the tier period and the start time must
+   * be aligned to the tier period.</p>
+   */
+  public boolean supports( final Date startTime, final Integer period ) {
+    return period != null &&
+        period % this.period == 0 &&
+        startTime.getTime( ) % getPeriodMillis( ) == 0;
+  }
+
+  @Entity
+  @PersistenceContext(name = "eucalyptus_cloudwatch_backend")
+  @RemotablePersistence
+  @Table(name = "metric_data_rollup_5m", indexes = {
+      @Index( name = "metric_data_rollup_5m_timestamp_idx", columnList = "timestamp" ),
+      @Index( name = "metric_data_rollup_5m_metric_idx", columnList = "account_id, namespace, metric_name, dimension_hash, timestamp" )
+  } )
+  public static class MetricRollupEntity5Minute extends MetricEntity {
+    public MetricRollupEntity5Minute() {
+      super();
+    }
+  }
+
+  @Entity
+  @PersistenceContext(name = "eucalyptus_cloudwatch_backend")
+  @RemotablePersistence
+  @Table(name = "metric_data_rollup_1h", indexes = {
+      @Index( name = "metric_data_rollup_1h_timestamp_idx", columnList = "timestamp" ),
+      @Index( name = "metric_data_rollup_1h_metric_idx", columnList = "account_id, namespace, metric_name, dimension_hash, timestamp" )
+  } )
+  public static class MetricRollupEntity1Hour extends MetricEntity {
+    public MetricRollupEntity1Hour() {
+      super();
+    }
+  }
+
+  /**
+   * The time up to which (exclusive) a tier has been compacted.
+   */
+  @Entity
+  @PersistenceContext(name = "eucalyptus_cloudwatch_backend")
+  @RemotablePersistence
+  @Table(name = "metric_data_rollup_watermark")
+  public static class MetricRollupWatermark {
+    @Id
+    @Column(name = "tier")
+    private String tier;
+    @Column(name = "watermark", nullable = false)
+    private Date watermark;
+
+    public MetricRollupWatermark() {
+    }
+
+    public MetricRollupWatermark(final MetricDataTier tier, final Date watermark) {
+      this.tier = tier.name();
+      this.watermark = watermark;
+    }
+
+    public String getTier() {
+      return tier;
+    }
+
+    public void setTier(String tier) {
+      this.tier = tier;
+    }
+
+    public Date getWatermark() {
+      return watermark;
+    }
+
+    public void setWatermark(Date watermark) {
+      this.watermark = watermark;
+    }
+  }
+
+  /**
+   * A compacted tier period that received late data and must be compacted
+   * again. The marker changes each time the period is marked so compaction
+   * only clears the marks it has processed.
+   */
+  @Entity
+  @PersistenceContext(name = "eucalyptus_cloudwatch_backend")
+  @RemotablePersistence
+  @Table(name = "metric_data_rollup_dirty", indexes = {
+      @Index( name = "metric_data_rollup_dirty_tier_idx", columnList = "tier, period_start" )
+  } )
+  public static class MetricRollupDirtyPeriod {
+    @Id
+    @Column(name = "period_id")
+    private String periodId;
+    @Column(name = "tier", nullable = false)
+    private String tier;
+    @Column(name = "period_start", nullable = false)
+    private Date periodStart;
+    @Column(name = "marker", nullable = false)
+    private String marker;
+
+    public MetricRollupDirtyPeriod() {
+    }
+
+    public MetricRollupDirtyPeriod(final MetricDataTier tier, final Date periodStart) {
+      this.periodId = tier.name() + ":" + periodStart.getTime();
+      this.tier = tier.name();
+      this.periodStart = periodStart;
+      this.marker = UUID.randomUUID().toString();
+    }
+
+    public String getPeriodId() {
+      return periodId;
+    }
+
+    public void setPeriodId(String periodId) {
+      this.periodId = periodId;
+    }
+
+    public String getTier() {
+      return tier;
+    }
+
+    public void setTier(String tier) {
+      this.tier = tier;
+    }
+
+    public Date getPeriodStart() {
+      return periodStart;
+    }
+
+    public void setPeriodStart(Date periodStart) {
+      this.periodStart = periodStart;
+    }
+
+    public String getMarker() {
+      return marker;
+    }
+
+    public void setMarker(String marker) {
+      this.marker = marker;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -30,14 +31,22 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityTransaction;
 
+import com.eucalyptus.cloudwatch.common.config.CloudWatchConfigProperties;
 import com.eucalyptus.cloudwatch.common.internal.domain.AbstractPersistentWithDimensions;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricDataTier.MetricRollupDirtyPeriod;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricDataTier.MetricRollupWatermark;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.configurable.PropertyChangeListeners;
 import com.eucalyptus.entities.TransactionResource;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedListMultimap;
 import org.apache.log4j.Logger;
@@ -53,7 +62,7 @@ import org.hibernate.criterion.Restrictions;
 
 import com.eucalyptus.cloudwatch.common.internal.domain.DimensionEntity;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricEntity.MetricType;
-import com.eucalyptus.cloudwatch.common.internal.hashing.HashUtils;
+import com.eucalyptus.cloudwatch.common.internal.hashing.DimensionSetRegistry;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
 import com.google.common.collect.ArrayListMultimap;
@@ -68,6 +77,16 @@ public class MetricManager {
   public static volatile Integer METRIC_DATA_NUM_DB_OPERATIONS_UNTIL_SESSION_FLUSH = 50;
 
   public static final Logger LOG = Logger.getLogger(MetricManager.class);
+
+  private static final LoadingCache<MetricDataTier, Optional<Date>> rollupWatermarks = CacheBuilder.newBuilder()
+      .expireAfterWrite(1, TimeUnit.MINUTES)
+      .build(new CacheLoader<MetricDataTier, Optional<Date>>() {
+        @Override
+        public Optional<Date> load(MetricDataTier tier) {
+          return Optional.fromNullable(loadRollupWatermark(tier));
+        }
+      });
+
   public static void addMetric(String accountId, 
       String metricName, String namespace, Map<String, String> dimensionMap,
       MetricType metricType, Units units, Date timestamp, Double sampleSize,
@@ -85,7 +104,9 @@ public class MetricManager {
     simpleMetricEntity.setTimestamp(timestamp);
     simpleMetricEntity.setUnits(units);
     validateMetricQueueItem(simpleMetricEntity);
-    addManyMetrics(makeMetricMap(hash(simpleMetricEntity)));
+    List<MetricEntity> metricEntities = hash(simpleMetricEntity);
+    addManyMetrics(makeMetricMap(metricEntities));
+    markLateMetrics(metricEntities);
   }
   
   private static Multimap<Class, MetricEntity> makeMetricMap(Collection<MetricEntity> entities) {
@@ -102,15 +123,8 @@ public class MetricManager {
 
   private static List<MetricEntity> hash(SimpleMetricEntity simpleMetricEntity) {
     if (simpleMetricEntity == null) return new ArrayList<MetricEntity>();
-    TreeSet<DimensionEntity> dimensions = new TreeSet<DimensionEntity>();
-    for (Map.Entry<String, String> entry : simpleMetricEntity.getDimensionMap().entrySet()) {
-      DimensionEntity d = new DimensionEntity();
-      d.setName(entry.getKey());
-      d.setValue(entry.getValue());
-      dimensions.add(d);
-    }
     ArrayList<MetricEntity> returnValue = new ArrayList<MetricEntity>();
-    String dimensionHash = hash(dimensions);
+    String dimensionHash = hash(simpleMetricEntity.getDimensionMap());
     MetricEntity metric = MetricEntityFactory.getNewMetricEntity(simpleMetricEntity.getMetricType(),
           dimensionHash);
     metric.setAccountId(simpleMetricEntity.getAccountId());
@@ -148,23 +162,11 @@ public class MetricManager {
   }
 
   public static String hash(Map<String, String> dimensionMap) {
-    TreeMap<String, String> sortedDimensionMap = Maps.newTreeMap();
-    if (dimensionMap != null) {
-      sortedDimensionMap.putAll(dimensionMap);
-    }
-    StringBuilder sb = new StringBuilder();
-    for (Map.Entry<String, String> entry : sortedDimensionMap.entrySet()) {
-      sb.append(entry.getKey() + "|" + entry.getValue() + "|");
-    }
-    return HashUtils.hash(sb);
+    return DimensionSetRegistry.id(dimensionMap);
   }
 
   public static String hash(Collection<DimensionEntity> dimensions) {
-    StringBuilder sb = new StringBuilder();
-    for (DimensionEntity dimension : dimensions) {
-      sb.append(dimension.getName() + "|" + dimension.getValue() + "|");
-    }
-    return HashUtils.hash(sb);
+    return DimensionSetRegistry.id(dimensions);
   }
 
   public static void deleteAllMetrics() {
@@ -194,6 +196,24 @@ public class MetricManager {
   }
 
 
+  /**
+   * Delete all compacted metrics for a tier before a certain date
+   *
+   * @param tier
+   *          the tier to delete from
+   * @param before
+   *          the date to delete before (inclusive)
+   */
+  public static void deleteMetrics(MetricDataTier tier, Date before) {
+    Class c = tier.getEntityClass();
+    try (final TransactionResource db = Entities.transactionFor(c)) {
+      Map<String, Date> criteria = new HashMap<String, Date>();
+      criteria.put("before", before);
+      Entities.deleteAllMatching(c, "WHERE timestamp < :before", criteria);
+      db.commit();
+    }
+  }
+
   public static class GetMetricStatisticsParams {
     String accountId;
     String metricName;
@@ -337,101 +357,159 @@ public class MetricManager {
   public static List<Collection<MetricStatistics>> getManyMetricStatistics(List<GetMetricStatisticsParams> getMetricStatisticsParamses) {
     if (getMetricStatisticsParamses == null) throw new IllegalArgumentException("getMetricStatisticsParamses can not be null");
     Date now = new Date();
-    Map<GetMetricStatisticsParams, Collection<MetricStatistics>> resultMap = Maps.newHashMap();
+    Map<GetMetricStatisticsParams, Map<GetMetricStatisticsAggregationKey, MetricStatistics>> resultMap = Maps.newHashMap();
     Multimap<Class, GetMetricStatisticsParams> hashGroupMap = LinkedListMultimap.create();
+    Multimap<Class, GetMetricStatisticsParams> rollupGroupMap = LinkedListMultimap.create();
+    Map<GetMetricStatisticsParams, Date> startTimes = Maps.newHashMap();
+    Map<GetMetricStatisticsParams, Date> rawStartTimes = Maps.newHashMap();
+    Map<GetMetricStatisticsParams, Date> cacheStartTimes = Maps.newHashMap();
+    Date cacheCoverageStart = MetricStatisticsCache.getInstance().getCoverageStart();
     for (GetMetricStatisticsParams getMetricStatisticsParams : getMetricStatisticsParamses) {
       if (getMetricStatisticsParams == null) throw new IllegalArgumentException("getMetricStatisticsParams can not be null");
       getMetricStatisticsParams.validate(now);
-      Class metricEntityClass = MetricEntityFactory.getClassForEntitiesGet(getMetricStatisticsParams.getMetricType(), getMetricStatisticsParams.getDimensionHash());
-      hashGroupMap.put(metricEntityClass, getMetricStatisticsParams);
+      MetricDataTier rollupTier = getRollupTier(getMetricStatisticsParams);
+      Date rawStartTime = getRollupEndTime(getMetricStatisticsParams, rollupTier);
+      Date cacheStartTime = latest(rawStartTime, getCacheStartTime(getMetricStatisticsParams, cacheCoverageStart));
+      resultMap.put(getMetricStatisticsParams, new TreeMap<GetMetricStatisticsAggregationKey, MetricStatistics>(GetMetricStatisticsAggregationKey.COMPARATOR_WITH_NULLS.INSTANCE));
+      startTimes.put(getMetricStatisticsParams, getMetricStatisticsParams.getStartTime());
+      rawStartTimes.put(getMetricStatisticsParams, rawStartTime);
+      cacheStartTimes.put(getMetricStatisticsParams, cacheStartTime);
+      if (rollupTier != null) {
+        rollupGroupMap.put(rollupTier.getEntityClass(), getMetricStatisticsParams);
+      }
+      if (cacheStartTime.after(rawStartTime)) {
+        Class metricEntityClass = MetricEntityFactory.getClassForEntitiesGet(getMetricStatisticsParams.getMetricType(), getMetricStatisticsParams.getDimensionHash());
+        hashGroupMap.put(metricEntityClass, getMetricStatisticsParams);
+      }
+    }
+    // rollup data is read from the start time up to the raw start time (the tier watermark)
+    for (Class rollupEntityClass: rollupGroupMap.keySet()) {
+      aggregateManyMetricData(resultMap, rollupEntityClass, rollupGroupMap.get(rollupEntityClass), startTimes, rawStartTimes);
     }
     for (Class metricEntityClass: hashGroupMap.keySet()) {
-      try (final TransactionResource db = Entities.transactionFor(metricEntityClass)) {
-        // set some global criteria to start (for narrowing?)
-        Date minDate = null;
-        Date maxDate = null;
-        Junction disjunction = Restrictions.disjunction();
-        Map<GetMetricStatisticsParams, TreeMap<GetMetricStatisticsAggregationKey, MetricStatistics>> multiAggregationMap = Maps.newHashMap();
-        for (GetMetricStatisticsParams getMetricStatisticsParams : hashGroupMap.get(metricEntityClass)) {
-          multiAggregationMap.put(getMetricStatisticsParams, new TreeMap<GetMetricStatisticsAggregationKey, MetricStatistics>(GetMetricStatisticsAggregationKey.COMPARATOR_WITH_NULLS.INSTANCE));
-          Junction conjunction = Restrictions.conjunction();
-          conjunction = conjunction.add(Restrictions.lt("timestamp", getMetricStatisticsParams.getEndTime()));
-          conjunction = conjunction.add(Restrictions.ge("timestamp", getMetricStatisticsParams.getStartTime()));
-          conjunction = conjunction.add(Restrictions.eq("accountId", getMetricStatisticsParams.getAccountId()));
-          conjunction = conjunction.add(Restrictions.eq("metricName", getMetricStatisticsParams.getMetricName()));
-          conjunction = conjunction.add(Restrictions.eq("namespace", getMetricStatisticsParams.getNamespace()));
-          conjunction = conjunction.add(Restrictions.eq("dimensionHash", hash(getMetricStatisticsParams.getDimensionMap())));
-          if (getMetricStatisticsParams.getUnits() != null) {
-            conjunction = conjunction.add(Restrictions.eq("units", getMetricStatisticsParams.getUnits()));
-          }
-          disjunction = disjunction.add(conjunction);
-          if (minDate == null || getMetricStatisticsParams.getStartTime().before(minDate)) {
-            minDate = getMetricStatisticsParams.getStartTime();
-          }
-          if (maxDate == null || getMetricStatisticsParams.getEndTime().after(maxDate)) {
-            maxDate = getMetricStatisticsParams.getEndTime();
-          }
+      aggregateManyMetricData(resultMap, metricEntityClass, hashGroupMap.get(metricEntityClass), rawStartTimes, cacheStartTimes);
+    }
+    List<Collection<MetricStatistics>> resultList = Lists.newArrayList();
+    for (GetMetricStatisticsParams getMetricStatisticsParams : getMetricStatisticsParamses) {
+      Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap = resultMap.get(getMetricStatisticsParams);
+      aggregateCachedMetricData(aggregationMap, getMetricStatisticsParams, cacheStartTimes.get(getMetricStatisticsParams));
+      resultList.add(aggregationMap.values());
+    }
+    return resultList;
+  }
+
+  /**
+   * Aggregate metric data for many statistics requests using a single query
+   * against the given entity class.
+   */
+  private static void aggregateManyMetricData(Map<GetMetricStatisticsParams, Map<GetMetricStatisticsAggregationKey, MetricStatistics>> resultMap,
+                                              Class metricEntityClass, Collection<GetMetricStatisticsParams> getMetricStatisticsParamses,
+                                              Map<GetMetricStatisticsParams, Date> startTimes, Map<GetMetricStatisticsParams, Date> endTimes) {
+    try (final TransactionResource db = Entities.transactionFor(metricEntityClass)) {
+      // set some global criteria to start (for narrowing?)
+      Date minDate = null;
+      Date maxDate = null;
+      Junction disjunction = Restrictions.disjunction();
+      for (GetMetricStatisticsParams getMetricStatisticsParams : getMetricStatisticsParamses) {
+        Junction conjunction = Restrictions.conjunction();
+        conjunction = conjunction.add(Restrictions.lt("timestamp", endTimes.get(getMetricStatisticsParams)));
+        conjunction = conjunction.add(Restrictions.ge("timestamp", startTimes.get(getMetricStatisticsParams)));
+        conjunction = conjunction.add(Restrictions.eq("accountId", getMetricStatisticsParams.getAccountId()));
+        conjunction = conjunction.add(Restrictions.eq("metricName", getMetricStatisticsParams.getMetricName()));
+        conjunction = conjunction.add(Restrictions.eq("namespace", getMetricStatisticsParams.getNamespace()));
+        conjunction = conjunction.add(Restrictions.eq("dimensionHash", hash(getMetricStatisticsParams.getDimensionMap())));
+        if (getMetricStatisticsParams.getUnits() != null) {
+          conjunction = conjunction.add(Restrictions.eq("units", getMetricStatisticsParams.getUnits()));
+        }
+        disjunction = disjunction.add(conjunction);
+        if (minDate == null || startTimes.get(getMetricStatisticsParams).before(minDate)) {
+          minDate = startTimes.get(getMetricStatisticsParams);
+        }
+        if (maxDate == null || endTimes.get(getMetricStatisticsParams).after(maxDate)) {
+          maxDate = endTimes.get(getMetricStatisticsParams);
         }
-        Criteria criteria = Entities.createCriteria(metricEntityClass);
-        criteria = criteria.add(Restrictions.lt("timestamp", maxDate));
-        criteria = criteria.add(Restrictions.ge("timestamp", minDate));
-        criteria = criteria.add(disjunction);
+      }
+      Criteria criteria = Entities.createCriteria(metricEntityClass);
+      criteria = criteria.add(Restrictions.lt("timestamp", maxDate));
+      criteria = criteria.add(Restrictions.ge("timestamp", minDate));
+      criteria = criteria.add(disjunction);
 
-        ProjectionList projectionList = Projections.projectionList();
-        projectionList.add(Projections.max("sampleMax"));
-        projectionList.add(Projections.min("sampleMin"));
-        projectionList.add(Projections.sum("sampleSize"));
-        projectionList.add(Projections.sum("sampleSum"));
-        projectionList.add(Projections.groupProperty("units"));
-        projectionList.add(Projections.groupProperty("timestamp"));
-        projectionList.add(Projections.groupProperty("accountId"));
-        projectionList.add(Projections.groupProperty("metricName"));
-        projectionList.add(Projections.groupProperty("metricType"));
-        projectionList.add(Projections.groupProperty("namespace"));
-        projectionList.add(Projections.groupProperty("dimensionHash"));
-        criteria.setProjection(projectionList);
-        criteria.addOrder(Order.asc("timestamp"));
+      ProjectionList projectionList = Projections.projectionList();
+      projectionList.add(Projections.max("sampleMax"));
+      projectionList.add(Projections.min("sampleMin"));
+      projectionList.add(Projections.sum("sampleSize"));
+      projectionList.add(Projections.sum("sampleSum"));
+      projectionList.add(Projections.groupProperty("units"));
+      projectionList.add(Projections.groupProperty("timestamp"));
+      projectionList.add(Projections.groupProperty("accountId"));
+      projectionList.add(Projections.groupProperty("metricName"));
+      projectionList.add(Projections.groupProperty("metricType"));
+      projectionList.add(Projections.groupProperty("namespace"));
+      projectionList.add(Projections.groupProperty("dimensionHash"));
+      criteria.setProjection(projectionList);
+      criteria.addOrder(Order.asc("timestamp"));
 
-        ScrollableResults results = criteria.setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
-        while (results.next()) {
-          MetricEntity me = getMetricEntity(results);
-          for (GetMetricStatisticsParams getMetricStatisticsParams : hashGroupMap.get(metricEntityClass)) {
-            if (metricDataMatches(getMetricStatisticsParams, me)) {
-              Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap = multiAggregationMap.get(getMetricStatisticsParams);
-              GetMetricStatisticsAggregationKey key = new GetMetricStatisticsAggregationKey(me, getMetricStatisticsParams.getStartTime(), getMetricStatisticsParams.getPeriod(), getMetricStatisticsParams.getDimensionHash());
-              MetricStatistics item = new MetricStatistics(me, getMetricStatisticsParams.getStartTime(), getMetricStatisticsParams.getPeriod(), getMetricStatisticsParams.getDimensions());
-              if (!aggregationMap.containsKey(key)) {
-                aggregationMap.put(key, item);
-              } else {
-                MetricStatistics totalSoFar = aggregationMap.get(key);
-                totalSoFar.setSampleMax(Math.max(item.getSampleMax(), totalSoFar.getSampleMax()));
-                totalSoFar.setSampleMin(Math.min(item.getSampleMin(), totalSoFar.getSampleMin()));
-                totalSoFar.setSampleSize(totalSoFar.getSampleSize() + item.getSampleSize());
-                totalSoFar.setSampleSum(totalSoFar.getSampleSum() + item.getSampleSum());
-              }
-            }
+      ScrollableResults results = criteria.setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
+      while (results.next()) {
+        MetricEntity me = getMetricEntity(results);
+        for (GetMetricStatisticsParams getMetricStatisticsParams : getMetricStatisticsParamses) {
+          if (metricDataMatches(getMetricStatisticsParams, startTimes.get(getMetricStatisticsParams), endTimes.get(getMetricStatisticsParams), me)) {
+            aggregate(resultMap.get(getMetricStatisticsParams), getMetricStatisticsParams, me);
           }
         }
-        for (GetMetricStatisticsParams getMetricStatisticsParams : multiAggregationMap.keySet()) {
-          resultMap.put(getMetricStatisticsParams, multiAggregationMap.get(getMetricStatisticsParams).values());
-        }
       }
     }
-    List<Collection<MetricStatistics>> resultList = Lists.newArrayList();
-    for (GetMetricStatisticsParams getMetricStatisticsParams : getMetricStatisticsParamses) {
-      if (resultMap.get(getMetricStatisticsParams) == null) {
-        resultList.add(new ArrayList<MetricStatistics>());
-      } else {
-        resultList.add(resultMap.get(getMetricStatisticsParams));
-      }
+  }
+
+  /**
+   * Get the time from which statistics can be read from the cache, this is
+   * the first period start at or after the cache coverage start.
+   */
+  private static Date getCacheStartTime(GetMetricStatisticsParams getMetricStatisticsParams, Date cacheCoverageStart) {
+    Date startTime = getMetricStatisticsParams.getStartTime();
+    Date endTime = getMetricStatisticsParams.getEndTime();
+    if (cacheCoverageStart == null || !cacheCoverageStart.before(endTime)) {
+      return endTime;
+    }
+    if (!cacheCoverageStart.after(startTime)) {
+      return startTime;
+    }
+    long periodMs = 1000L * getMetricStatisticsParams.getPeriod();
+    long periods = (cacheCoverageStart.getTime() - startTime.getTime() + periodMs - 1) / periodMs;
+    Date cacheStartTime = new Date(startTime.getTime() + periods * periodMs);
+    return cacheStartTime.before(endTime) ? cacheStartTime : endTime;
+  }
+
+  private static void aggregateCachedMetricData(Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap,
+                                                GetMetricStatisticsParams getMetricStatisticsParams, Date cacheStartTime) {
+    if (!cacheStartTime.before(getMetricStatisticsParams.getEndTime())) return;
+    for (MetricEntity me : MetricStatisticsCache.getInstance().getMetricData(getMetricStatisticsParams.getAccountId(),
+        getMetricStatisticsParams.getNamespace(), getMetricStatisticsParams.getMetricName(),
+        getMetricStatisticsParams.getMetricType(), getMetricStatisticsParams.getDimensionHash(),
+        getMetricStatisticsParams.getUnits(), cacheStartTime, getMetricStatisticsParams.getEndTime())) {
+      aggregate(aggregationMap, getMetricStatisticsParams, me);
+    }
+  }
+
+  private static void aggregate(Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap,
+                                GetMetricStatisticsParams getMetricStatisticsParams, MetricEntity me) {
+    GetMetricStatisticsAggregationKey key = new GetMetricStatisticsAggregationKey(me, getMetricStatisticsParams.getStartTime(), getMetricStatisticsParams.getPeriod(), getMetricStatisticsParams.getDimensionHash());
+    MetricStatistics item = new MetricStatistics(me, getMetricStatisticsParams.getStartTime(), getMetricStatisticsParams.getPeriod(), getMetricStatisticsParams.getDimensions());
+    if (!aggregationMap.containsKey(key)) {
+      aggregationMap.put(key, item);
+    } else {
+      MetricStatistics totalSoFar = aggregationMap.get(key);
+      totalSoFar.setSampleMax(Math.max(item.getSampleMax(), totalSoFar.getSampleMax()));
+      totalSoFar.setSampleMin(Math.min(item.getSampleMin(), totalSoFar.getSampleMin()));
+      totalSoFar.setSampleSize(totalSoFar.getSampleSize() + item.getSampleSize());
+      totalSoFar.setSampleSum(totalSoFar.getSampleSum() + item.getSampleSum());
     }
-    return resultList;
   }
 
-  private static boolean metricDataMatches(GetMetricStatisticsParams getMetricStatisticsParams, MetricEntity metricEntity) {
+  private static boolean metricDataMatches(GetMetricStatisticsParams getMetricStatisticsParams, Date startTime, Date endTime, MetricEntity metricEntity) {
     if (getMetricStatisticsParams == null || metricEntity == null) return false;
-    if (getMetricStatisticsParams.getStartTime() == null || getMetricStatisticsParams.getStartTime().after(metricEntity.getTimestamp())) return false;
-    if (metricEntity.getTimestamp() == null || !metricEntity.getTimestamp().before(getMetricStatisticsParams.getEndTime())) return false;
+    if (startTime == null || startTime.after(metricEntity.getTimestamp())) return false;
+    if (metricEntity.getTimestamp() == null || !metricEntity.getTimestamp().before(endTime)) return false;
     if (getMetricStatisticsParams.getAccountId() == null || !getMetricStatisticsParams.getAccountId().equals(metricEntity.getAccountId())) return false;
     if (getMetricStatisticsParams.getMetricName() == null || !getMetricStatisticsParams.getMetricName().equals(metricEntity.getMetricName())) return false;
     if (getMetricStatisticsParams.getNamespace() == null || !getMetricStatisticsParams.getNamespace().equals(metricEntity.getNamespace())) return false;
@@ -446,13 +524,29 @@ public class MetricManager {
     getMetricStatisticsParams.validate(now);
     Class metricEntityClass = MetricEntityFactory.getClassForEntitiesGet(getMetricStatisticsParams.getMetricType(), getMetricStatisticsParams.getDimensionHash());
     Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap = new TreeMap<GetMetricStatisticsAggregationKey, MetricStatistics>(GetMetricStatisticsAggregationKey.COMPARATOR_WITH_NULLS.INSTANCE);
+    MetricDataTier rollupTier = getRollupTier(getMetricStatisticsParams);
+    Date rawStartTime = getRollupEndTime(getMetricStatisticsParams, rollupTier);
+    Date cacheStartTime = latest(rawStartTime, getCacheStartTime(getMetricStatisticsParams, MetricStatisticsCache.getInstance().getCoverageStart()));
+    if (rollupTier != null) {
+      aggregateMetricData(aggregationMap, getMetricStatisticsParams, rollupTier.getEntityClass(), getMetricStatisticsParams.getStartTime(), rawStartTime);
+    }
+    if (cacheStartTime.after(rawStartTime)) {
+      aggregateMetricData(aggregationMap, getMetricStatisticsParams, metricEntityClass, rawStartTime, cacheStartTime);
+    }
+    aggregateCachedMetricData(aggregationMap, getMetricStatisticsParams, cacheStartTime);
+    return Lists.newArrayList(aggregationMap.values());
+  }
+
+  private static void aggregateMetricData(Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap,
+                                          GetMetricStatisticsParams getMetricStatisticsParams, Class metricEntityClass,
+                                          Date startTime, Date endTime) {
     try (final TransactionResource db = Entities.transactionFor(metricEntityClass)) {
       Criteria criteria = Entities.createCriteria(metricEntityClass);
       criteria = criteria.add(Restrictions.eq("accountId", getMetricStatisticsParams.getAccountId()));
       criteria = criteria.add(Restrictions.eq("metricName", getMetricStatisticsParams.getMetricName()));
       criteria = criteria.add(Restrictions.eq("namespace", getMetricStatisticsParams.getNamespace()));
-      criteria = criteria.add(Restrictions.lt("timestamp", getMetricStatisticsParams.getEndTime()));
-      criteria = criteria.add(Restrictions.ge("timestamp", getMetricStatisticsParams.getStartTime()));
+      criteria = criteria.add(Restrictions.lt("timestamp", endTime));
+      criteria = criteria.add(Restrictions.ge("timestamp", startTime));
       criteria = criteria.add(Restrictions.eq("dimensionHash", getMetricStatisticsParams.getDimensionHash()));
       if (getMetricStatisticsParams.getUnits() != null) {
         criteria = criteria.add(Restrictions.eq("units", getMetricStatisticsParams.getUnits()));
@@ -470,20 +564,246 @@ public class MetricManager {
       ScrollableResults results = criteria.setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
       while (results.next()) {
         MetricEntity me = getMetricEntity(getMetricStatisticsParams.getAccountId(), getMetricStatisticsParams.getMetricName(), getMetricStatisticsParams.getNamespace(), getMetricStatisticsParams.getMetricType(), getMetricStatisticsParams.getDimensionHash(), results);
-        GetMetricStatisticsAggregationKey key = new GetMetricStatisticsAggregationKey(me, getMetricStatisticsParams.getStartTime(), getMetricStatisticsParams.getPeriod(), getMetricStatisticsParams.getDimensionHash());
-        MetricStatistics item = new MetricStatistics(me, getMetricStatisticsParams.getStartTime(), getMetricStatisticsParams.getPeriod(), getMetricStatisticsParams.getDimensions());
-        if (!aggregationMap.containsKey(key)) {
-          aggregationMap.put(key, item);
-        } else {
-          MetricStatistics totalSoFar = aggregationMap.get(key);
-          totalSoFar.setSampleMax(Math.max(item.getSampleMax(), totalSoFar.getSampleMax()));
-          totalSoFar.setSampleMin(Math.min(item.getSampleMin(), totalSoFar.getSampleMin()));
-          totalSoFar.setSampleSize(totalSoFar.getSampleSize() + item.getSampleSize());
-          totalSoFar.setSampleSum(totalSoFar.getSampleSum() + item.getSampleSum());
+        aggregate(aggregationMap, getMetricStatisticsParams, me);
+      }
+    }
+  }
+
+  /**
+   * Get the coarsest compacted tier that can be used for the statistics.
+   *
+   * @return The tier or null if only per minute data can be used
+   */
+  private static MetricDataTier getRollupTier(GetMetricStatisticsParams getMetricStatisticsParams) {
+    MetricDataTier[] tiers = MetricDataTier.values();
+    for (int i = tiers.length - 1; i >= 0; i--) {
+      if (tiers[i].supports(getMetricStatisticsParams.getStartTime(), getMetricStatisticsParams.getPeriod())) {
+        Date watermark = getRollupWatermark(tiers[i], true);
+        if (watermark != null && watermark.after(getMetricStatisticsParams.getStartTime())) {
+          return tiers[i];
         }
       }
     }
-    return Lists.newArrayList(aggregationMap.values());
+    return null;
+  }
+
+  /**
+   * Get the time up to which statistics are read from the given tier.
+   */
+  private static Date getRollupEndTime(GetMetricStatisticsParams getMetricStatisticsParams, MetricDataTier rollupTier) {
+    if (rollupTier == null) {
+      return getMetricStatisticsParams.getStartTime();
+    }
+    Date watermark = getRollupWatermark(rollupTier, true);
+    if (watermark == null || !watermark.after(getMetricStatisticsParams.getStartTime())) {
+      return getMetricStatisticsParams.getStartTime();
+    }
+    return watermark.before(getMetricStatisticsParams.getEndTime()) ? watermark : getMetricStatisticsParams.getEndTime();
+  }
+
+  private static Date latest(Date date1, Date date2) {
+    return date1.after(date2) ? date1 : date2;
+  }
+
+  private static Date getRollupWatermark(MetricDataTier tier, boolean cached) {
+    if (!cached) {
+      rollupWatermarks.invalidate(tier);
+    }
+    return rollupWatermarks.getUnchecked(tier).orNull();
+  }
+
+  private static Date loadRollupWatermark(MetricDataTier tier) {
+    try (final TransactionResource db = Entities.transactionFor(MetricRollupWatermark.class)) {
+      MetricRollupWatermark watermark = (MetricRollupWatermark) Entities.createCriteria(MetricRollupWatermark.class)
+          .add(Restrictions.idEq(tier.name()))
+          .uniqueResult();
+      return watermark == null ? null : watermark.getWatermark();
+    }
+  }
+
+  /**
+   * Compact metric data from the source of the given tier into the tier.
+   *
+   * <p>Only complete tier periods older than the compaction delay are
+   * compacted. Data put with an earlier timestamp after compaction marks the
+   * period dirty and it is compacted again by recompactMetrics.</p>
+   *
+   * @param tier The tier to compact
+   * @param now The current time
+   * @return The number of tier periods compacted
+   */
+  public static int compactMetrics(MetricDataTier tier, Date now) {
+    MetricDataTier source = tier.getSource();
+    Date endTime = tier.getPeriodStart(new Date(now.getTime() -
+        CloudWatchConfigProperties.METRIC_DATA_COMPACTION_DELAY_MINUTES * 60 * 1000L));
+    Collection<Class> sourceClasses = getSourceClasses(tier);
+    if (source != null) {
+      Date sourceWatermark = getRollupWatermark(source, false);
+      if (sourceWatermark == null) return 0;
+      Date sourceEndTime = tier.getPeriodStart(sourceWatermark);
+      if (sourceEndTime.before(endTime)) endTime = sourceEndTime;
+    }
+    Date startTime = getRollupWatermark(tier, false);
+    if (startTime == null) {
+      startTime = tier.getPeriodStart(new Date(now.getTime() -
+          CloudWatchConfigProperties.METRIC_DATA_RAW_RETENTION_DAYS * 24 * 60 * 60 * 1000L));
+    }
+    int periods = 0;
+    for (Date periodStart = startTime;
+         periodStart.before(endTime) && periods < CloudWatchConfigProperties.METRIC_DATA_COMPACTION_MAX_PERIODS;
+         periodStart = new Date(periodStart.getTime() + tier.getPeriodMillis())) {
+      compactPeriod(tier, sourceClasses, periodStart, null);
+      periods++;
+    }
+    return periods;
+  }
+
+  /**
+   * Compact again tier periods that received data after they were compacted.
+   *
+   * <p>Each recompacted period marks the enclosing period of the next
+   * coarser tier dirty.</p>
+   *
+   * @param tier The tier to compact
+   * @param now The current time
+   * @return The number of tier periods compacted
+   */
+  public static int recompactMetrics(MetricDataTier tier, Date now) {
+    Date watermark = getRollupWatermark(tier, false);
+    if (watermark == null) return 0;
+    MetricDataTier source = tier.getSource();
+    Date sourceRetention = new Date(now.getTime() - 24 * 60 * 60 * 1000L * (source == null ?
+        CloudWatchConfigProperties.METRIC_DATA_RAW_RETENTION_DAYS :
+        source.getRetentionDays()));
+    List<MetricRollupDirtyPeriod> dirtyPeriods;
+    try (final TransactionResource db = Entities.transactionFor(MetricRollupDirtyPeriod.class)) {
+      @SuppressWarnings("unchecked")
+      List<MetricRollupDirtyPeriod> list = (List<MetricRollupDirtyPeriod>) Entities.createCriteria(MetricRollupDirtyPeriod.class)
+          .add(Restrictions.eq("tier", tier.name()))
+          .add(Restrictions.lt("periodStart", watermark))
+          .addOrder(Order.asc("periodStart"))
+          .setMaxResults(CloudWatchConfigProperties.METRIC_DATA_COMPACTION_MAX_PERIODS)
+          .list();
+      dirtyPeriods = list;
+    }
+    Collection<Class> sourceClasses = getSourceClasses(tier);
+    int periods = 0;
+    for (MetricRollupDirtyPeriod dirtyPeriod : dirtyPeriods) {
+      if (dirtyPeriod.getPeriodStart().before(sourceRetention)) {
+        // source data has been (partially) deleted, keep the existing rollup
+        clearDirty(dirtyPeriod);
+      } else {
+        compactPeriod(tier, sourceClasses, dirtyPeriod.getPeriodStart(), dirtyPeriod);
+        periods++;
+      }
+    }
+    return periods;
+  }
+
+  private static Collection<Class> getSourceClasses(MetricDataTier tier) {
+    MetricDataTier source = tier.getSource();
+    return source == null ?
+        MetricEntityFactory.getAllClassesForEntitiesGet() :
+        Collections.<Class>singleton(source.getEntityClass());
+  }
+
+  private static void clearDirty(MetricRollupDirtyPeriod dirtyPeriod) {
+    try (final TransactionResource db = Entities.transactionFor(MetricRollupDirtyPeriod.class)) {
+      deleteDirty(dirtyPeriod);
+      db.commit();
+    }
+  }
+
+  private static void deleteDirty(MetricRollupDirtyPeriod dirtyPeriod) {
+    // only clear the mark if the period has not been marked again since it was read
+    Map<String, String> criteria = new HashMap<String, String>();
+    criteria.put("periodId", dirtyPeriod.getPeriodId());
+    criteria.put("marker", dirtyPeriod.getMarker());
+    Entities.deleteAllMatching(MetricRollupDirtyPeriod.class, "WHERE periodId = :periodId AND marker = :marker", criteria);
+  }
+
+  private static void compactPeriod(MetricDataTier tier, Collection<Class> sourceClasses, Date periodStart,
+                                    MetricRollupDirtyPeriod dirtyPeriod) {
+    Date periodEnd = new Date(periodStart.getTime() + tier.getPeriodMillis());
+    Map<GetMetricStatisticsAggregationKey, MetricEntity> rollupMap = Maps.newHashMap();
+    for (Class sourceClass : sourceClasses) {
+      try (final TransactionResource db = Entities.transactionFor(sourceClass)) {
+        Criteria criteria = Entities.createCriteria(sourceClass);
+        criteria = criteria.add(Restrictions.ge("timestamp", periodStart));
+        criteria = criteria.add(Restrictions.lt("timestamp", periodEnd));
+
+        ProjectionList projectionList = Projections.projectionList();
+        projectionList.add(Projections.max("sampleMax"));
+        projectionList.add(Projections.min("sampleMin"));
+        projectionList.add(Projections.sum("sampleSize"));
+        projectionList.add(Projections.sum("sampleSum"));
+        projectionList.add(Projections.groupProperty("units"));
+        projectionList.add(Projections.groupProperty("timestamp"));
+        projectionList.add(Projections.groupProperty("accountId"));
+        projectionList.add(Projections.groupProperty("metricName"));
+        projectionList.add(Projections.groupProperty("metricType"));
+        projectionList.add(Projections.groupProperty("namespace"));
+        projectionList.add(Projections.groupProperty("dimensionHash"));
+        criteria.setProjection(projectionList);
+
+        ScrollableResults results = criteria.setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
+        while (results.next()) {
+          MetricEntity me = getMetricEntity(results);
+          GetMetricStatisticsAggregationKey key = new GetMetricStatisticsAggregationKey(me, periodStart, tier.getPeriod(), me.getDimensionHash());
+          MetricEntity rollup = rollupMap.get(key);
+          if (rollup == null) {
+            rollup = tier.newMetricEntity();
+            rollup.setAccountId(me.getAccountId());
+            rollup.setNamespace(me.getNamespace());
+            rollup.setMetricName(me.getMetricName());
+            rollup.setMetricType(me.getMetricType());
+            rollup.setDimensionHash(me.getDimensionHash());
+            rollup.setUnits(me.getUnits());
+            rollup.setTimestamp(periodStart);
+            rollup.setSampleMax(me.getSampleMax());
+            rollup.setSampleMin(me.getSampleMin());
+            rollup.setSampleSize(me.getSampleSize());
+            rollup.setSampleSum(me.getSampleSum());
+            rollupMap.put(key, rollup);
+          } else {
+            rollup.setSampleMax(Math.max(me.getSampleMax(), rollup.getSampleMax()));
+            rollup.setSampleMin(Math.min(me.getSampleMin(), rollup.getSampleMin()));
+            rollup.setSampleSize(rollup.getSampleSize() + me.getSampleSize());
+            rollup.setSampleSum(rollup.getSampleSum() + me.getSampleSum());
+          }
+        }
+      }
+    }
+    // rollup data and watermark (or dirty mark) are committed together so a period is compacted exactly once
+    Class rollupClass = tier.getEntityClass();
+    try (final TransactionResource db = Entities.transactionFor(rollupClass)) {
+      if (dirtyPeriod != null) {
+        Map<String, Date> criteria = new HashMap<String, Date>();
+        criteria.put("periodStart", periodStart);
+        criteria.put("periodEnd", periodEnd);
+        Entities.deleteAllMatching(rollupClass, "WHERE timestamp >= :periodStart AND timestamp < :periodEnd", criteria);
+      }
+      int numOperations = 0;
+      for (MetricEntity rollup : rollupMap.values()) {
+        numOperations++;
+        if (numOperations % METRIC_DATA_NUM_DB_OPERATIONS_UNTIL_SESSION_FLUSH == 0) {
+          Entities.flushSession(rollupClass);
+          Entities.clearSession(rollupClass);
+        }
+        Entities.persist(rollup);
+      }
+      if (dirtyPeriod == null) {
+        Entities.mergeDirect(new MetricRollupWatermark(tier, periodEnd));
+      } else {
+        deleteDirty(dirtyPeriod);
+        MetricDataTier[] tiers = MetricDataTier.values();
+        if (tier.ordinal() + 1 < tiers.length) {
+          MetricDataTier next = tiers[tier.ordinal() + 1];
+          Entities.mergeDirect(new MetricRollupDirtyPeriod(next, next.getPeriodStart(periodStart)));
+        }
+      }
+      db.commit();
+    }
   }
 
   private static MetricEntity getMetricEntity(ScrollableResults results) {
@@ -559,6 +879,49 @@ public class MetricManager {
       metricEntities.addAll(hash(simpleMetricEntity));
     }
     addManyMetrics(makeMetricMap(metricEntities));
+    markLateMetrics(metricEntities);
+  }
+
+  /**
+   * Mark tier periods that may already be compacted and have received data
+   * so they are compacted again.
+   *
+   * <p>Marks are written after the data is committed so a compaction that
+   * sees a mark also sees the data.</p>
+   */
+  private static void markLateMetrics(Collection<MetricEntity> metricEntities) {
+    MetricDataTier tier = MetricDataTier.values()[0];
+    // one extra tier period allows for clock differences with the compacting host
+    long compactedBefore = System.currentTimeMillis() + tier.getPeriodMillis() -
+        CloudWatchConfigProperties.METRIC_DATA_COMPACTION_DELAY_MINUTES * 60 * 1000L;
+    Set<Date> periods = Sets.newTreeSet();
+    for (MetricEntity me : metricEntities) {
+      if (me.getTimestamp().getTime() < compactedBefore) {
+        periods.add(tier.getPeriodStart(me.getTimestamp()));
+      }
+    }
+    if (!periods.isEmpty()) {
+      markDirty(tier, periods);
+    }
+  }
+
+  private static void markDirty(MetricDataTier tier, Collection<Date> periods) {
+    for (int attempt = 1; ; attempt++) {
+      try (final TransactionResource db = Entities.transactionFor(MetricRollupDirtyPeriod.class)) {
+        for (Date periodStart : periods) {
+          Entities.mergeDirect(new MetricRollupDirtyPeriod(tier, periodStart));
+        }
+        db.commit();
+        return;
+      } catch (RuntimeException ex) {
+        // a concurrent mark for the same period can fail the insert, the retry updates
+        if (attempt >= 2) {
+          LOG.error("Failed to mark " + periods.size() + " period(s) of tier " + tier +
+              " for compaction, late metric data will not be visible in the tier", ex);
+          return;
+        }
+      }
+    }
   }
 
   private static void validateMetricQueueItem(SimpleMetricEntity simpleMetricEntity) {
@@ -0,0 +1,329 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.common.internal.domain.metricdata;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.eucalyptus.cloudwatch.common.CloudWatch;
+import com.eucalyptus.cloudwatch.common.CloudWatchBackend;
+import com.eucalyptus.cloudwatch.common.config.CloudWatchConfigProperties;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.component.Topology;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+/**
+ * Time bucketed cache of recent metric data.
+ *
+ * <p>The cache holds per minute aggregates for each metric series (account,
+ * namespace, metric name, dimension hash and units) for a configurable window.
+ * Statistics for any period are derived from the minute buckets when read.</p>
+ *
+ * <p>The cache is filled when put metric data is written and read for alarm
+ * evaluation so it is only used when this host runs the only enabled
+ * CloudWatch service and the only enabled CloudWatch backend. In any other
+ * topology the cache is emptied and all statistics are read from the
+ * database. The coverage start is the earliest time for which the cache is
+ * known to hold all data, anything earlier must be read from the
+ * database.</p>
+ *
+ * <p>Memory use is bounded by the series limit and by a percentage of the
+ * maximum heap, data that does not fit advances the coverage start.</p>
+ */
+public class MetricStatisticsCache {
+
+  private static final Logger LOG = Logger.getLogger( MetricStatisticsCache.class );
+
+  private static final long MINUTE = 60000L;
+
+  // approximate heap use per minute bucket (map entry, boxed key, sample array)
+  private static final long BUCKET_BYTES = 128L;
+
+  private static final MetricStatisticsCache instance = new MetricStatisticsCache( );
+
+  private final ConcurrentMap<SeriesKey, Series> seriesMap = new ConcurrentHashMap<SeriesKey, Series>( );
+  private final AtomicLong coverageStart = new AtomicLong( nextMinute( System.currentTimeMillis( ) ) );
+  private final AtomicLong lastSweep = new AtomicLong( System.currentTimeMillis( ) );
+  private final AtomicLong bucketCount = new AtomicLong( );
+
+  public static MetricStatisticsCache getInstance( ) {
+    return instance;
+  }
+
+  /**
+   * Add data that has been committed to the database.
+   */
+  public void addAll( final Collection<SimpleMetricEntity> dataBatch ) {
+    final long now = System.currentTimeMillis( );
+    if ( !isAuthoritative( ) ) {
+      if ( !seriesMap.isEmpty( ) ) sweep( Long.MAX_VALUE );
+      return;
+    }
+    final long windowStart = windowStart( now );
+    final long maxBuckets = maxBuckets( );
+    for ( final SimpleMetricEntity item : dataBatch ) {
+      final long timestamp = MetricUtils.stripSeconds( item.getTimestamp( ) ).getTime( );
+      if ( timestamp < windowStart ) continue;
+      final SeriesKey key = new SeriesKey( item );
+      while ( true ) {
+        Series series = seriesMap.get( key );
+        if ( series == null ) {
+          if ( seriesMap.size( ) >= CloudWatchConfigProperties.METRIC_STATISTICS_CACHE_MAX_SERIES ) {
+            // data for this series is not cached, so the cache no longer covers it
+            advanceCoverage( timestamp + MINUTE );
+            break;
+          }
+          final Series newSeries = new Series( );
+          series = seriesMap.putIfAbsent( key, newSeries );
+          if ( series == null ) series = newSeries;
+        }
+        final Boolean added = series.add( timestamp, item, bucketCount, maxBuckets );
+        if ( added == null ) continue; // series removed by sweep
+        if ( !added ) {
+          // no room for a new bucket, so the cache no longer covers it
+          advanceCoverage( timestamp + MINUTE );
+        }
+        break;
+      }
+    }
+    sweepIfRequired( now );
+  }
+
+  /**
+   * Data that may or may not have been committed, the cache no longer covers
+   * the given data.
+   */
+  public void invalidate( final Collection<SimpleMetricEntity> dataBatch ) {
+    long latest = 0;
+    for ( final SimpleMetricEntity item : dataBatch ) {
+      latest = Math.max( latest, MetricUtils.stripSeconds( item.getTimestamp( ) ).getTime( ) );
+    }
+    advanceCoverage( Math.max( latest + MINUTE, nextMinute( System.currentTimeMillis( ) ) ) );
+  }
+
+  /**
+   * Get the time from which the cache holds all data.
+   *
+   * @return The coverage start or null if the cache can not be used
+   */
+  public Date getCoverageStart( ) {
+    if ( !isAuthoritative( ) ) return null;
+    return new Date( Math.max( coverageStart.get( ), windowStart( System.currentTimeMillis( ) ) ) );
+  }
+
+  /**
+   * Get per minute data for the given series from the start time (inclusive)
+   * to the end time (exclusive)
+   */
+  public List<MetricEntity> getMetricData( final String accountId,
+                                           final String namespace,
+                                           final String metricName,
+                                           final MetricType metricType,
+                                           final String dimensionHash,
+                                           final Units units,
+                                           final Date startTime,
+                                           final Date endTime ) {
+    final List<MetricEntity> metricData = Lists.newArrayList( );
+    for ( final Units seriesUnits : units == null ? Units.values( ) : new Units[]{ units } ) {
+      final SeriesKey key = new SeriesKey( accountId, namespace, metricName, metricType, dimensionHash, seriesUnits );
+      final Series series = seriesMap.get( key );
+      if ( series != null ) {
+        series.get( startTime.getTime( ), endTime.getTime( ), key, metricData );
+      }
+    }
+    return metricData;
+  }
+
+  private boolean isAuthoritative( ) {
+    final boolean authoritative = CloudWatchConfigProperties.METRIC_STATISTICS_CACHE_ENABLED &&
+        Topology.isEnabledLocally( CloudWatch.class ) &&
+        Topology.enabledServices( CloudWatch.class ).size( ) == 1 &&
+        Topology.isEnabledLocally( CloudWatchBackend.class ) &&
+        Topology.enabledServices( CloudWatchBackend.class ).size( ) == 1;
+    if ( !authoritative ) {
+      // data may be written elsewhere, coverage restarts once authoritative
+      advanceCoverage( nextMinute( System.currentTimeMillis( ) ) );
+    }
+    return authoritative;
+  }
+
+  private void advanceCoverage( final long time ) {
+    long current;
+    while ( ( current = coverageStart.get( ) ) < time ) {
+      if ( coverageStart.compareAndSet( current, time ) ) {
+        LOG.debug( "Metric statistics cache coverage starts at " + new Date( time ) );
+        break;
+      }
+    }
+  }
+
+  private void sweepIfRequired( final long now ) {
+    final long last = lastSweep.get( );
+    if ( now - last > MINUTE && lastSweep.compareAndSet( last, now ) ) {
+      sweep( windowStart( now ) );
+    }
+  }
+
+  private void sweep( final long windowStart ) {
+    for ( final Map.Entry<SeriesKey, Series> entry : seriesMap.entrySet( ) ) {
+      if ( entry.getValue( ).prune( windowStart, bucketCount ) ) {
+        seriesMap.remove( entry.getKey( ), entry.getValue( ) );
+      }
+    }
+  }
+
+  private static long maxBuckets( ) {
+    final long seriesBuckets = (long) Math.max( 0, CloudWatchConfigProperties.METRIC_STATISTICS_CACHE_MAX_SERIES ) *
+        Math.max( 1, CloudWatchConfigProperties.METRIC_STATISTICS_CACHE_MINUTES );
+    final long heapBuckets = Runtime.getRuntime( ).maxMemory( ) / 100L *
+        Math.max( 0, Math.min( 100, CloudWatchConfigProperties.METRIC_STATISTICS_CACHE_MAX_HEAP_PERCENT ) ) /
+        BUCKET_BYTES;
+    return Math.min( seriesBuckets, heapBuckets );
+  }
+
+  private static long windowStart( final long now ) {
+    return MetricUtils.stripSeconds( new Date( now ) ).getTime( ) -
+        ( Math.max( 1, CloudWatchConfigProperties.METRIC_STATISTICS_CACHE_MINUTES ) - 1 ) * MINUTE;
+  }
+
+  private static long nextMinute( final long time ) {
+    return MetricUtils.stripSeconds( new Date( time ) ).getTime( ) + MINUTE;
+  }
+
+  private static final class Series {
+    // timestamp -> sampleMax, sampleMin, sampleSize, sampleSum
+    private final TreeMap<Long, double[]> buckets = new TreeMap<Long, double[]>( );
+    private boolean removed = false;
+
+    /**
+     * @return true if added, false if there is no room for a new bucket, null if the series was removed
+     */
+    private synchronized Boolean add( final long timestamp,
+                                      final SimpleMetricEntity item,
+                                      final AtomicLong bucketCount,
+                                      final long maxBuckets ) {
+      if ( removed ) return null;
+      final double[] bucket = buckets.get( timestamp );
+      if ( bucket == null ) {
+        if ( bucketCount.incrementAndGet( ) > maxBuckets ) {
+          bucketCount.decrementAndGet( );
+          return false;
+        }
+        buckets.put( timestamp, new double[]{
+            item.getSampleMax( ), item.getSampleMin( ), item.getSampleSize( ), item.getSampleSum( ) } );
+      } else {
+        bucket[0] = Math.max( bucket[0], item.getSampleMax( ) );
+        bucket[1] = Math.min( bucket[1], item.getSampleMin( ) );
+        bucket[2] = bucket[2] + item.getSampleSize( );
+        bucket[3] = bucket[3] + item.getSampleSum( );
+      }
+      return true;
+    }
+
+    private synchronized void get( final long startTime,
+                                   final long endTime,
+                                   final SeriesKey key,
+                                   final List<MetricEntity> metricData ) {
+      if ( startTime >= endTime ) return;
+      for ( final Map.Entry<Long, double[]> entry : buckets.subMap( startTime, endTime ).entrySet( ) ) {
+        final double[] bucket = entry.getValue( );
+        final MetricEntity me = MetricEntityFactory.getNewMetricEntity( key.metricType, key.dimensionHash );
+        me.setAccountId( key.accountId );
+        me.setNamespace( key.namespace );
+        me.setMetricName( key.metricName );
+        me.setMetricType( key.metricType );
+        me.setDimensionHash( key.dimensionHash );
+        me.setUnits( key.units );
+        me.setTimestamp( new Date( entry.getKey( ) ) );
+        me.setSampleMax( bucket[0] );
+        me.setSampleMin( bucket[1] );
+        me.setSampleSize( bucket[2] );
+        me.setSampleSum( bucket[3] );
+        metricData.add( me );
+      }
+    }
+
+    /**
+     * @return true if the series is empty and was removed
+     */
+    private synchronized boolean prune( final long windowStart, final AtomicLong bucketCount ) {
+      final Map<Long, double[]> expired = buckets.headMap( windowStart );
+      bucketCount.addAndGet( -expired.size( ) );
+      expired.clear( );
+      removed = buckets.isEmpty( );
+      return removed;
+    }
+  }
+
+  private static final class SeriesKey {
+    private final String accountId;
+    private final String namespace;
+    private final String metricName;
+    private final MetricType metricType;
+    private final String dimensionHash;
+    private final Units units;
+
+    private SeriesKey( final SimpleMetricEntity item ) {
+      this( item.getAccountId( ), item.getNamespace( ), item.getMetricName( ), item.getMetricType( ),
+          MetricManager.hash( item.getDimensionMap( ) ), item.getUnits( ) );
+    }
+
+    private SeriesKey( final String accountId,
+                       final String namespace,
+                       final String metricName,
+                       final MetricType metricType,
+                       final String dimensionHash,
+                       final Units units ) {
+      this.accountId = accountId;
+      this.namespace = namespace;
+      this.metricName = metricName;
+      this.metricType = metricType;
+      this.dimensionHash = dimensionHash;
+      this.units = units;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final SeriesKey that = (SeriesKey) o;
+      return Objects.equal( accountId, that.accountId ) &&
+          Objects.equal( namespace, that.namespace ) &&
+          Objects.equal( metricName, that.metricName ) &&
+          metricType == that.metricType &&
+          Objects.equal( dimensionHash, that.dimensionHash ) &&
+          units == that.units;
+    }
+
+    @Override
+    public int hashCode( ) {
+      return Objects.hashCode( accountId, namespace, metricName, metricType, dimensionHash, units );
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.common.internal.hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.eucalyptus.cloudwatch.common.internal.domain.DimensionEntity;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Registry of interned dimension sets.
+ *
+ * <p>Each distinct set of dimensions is identified by a 64 bit murmur3 hash
+ * of the sorted dimensions, rendered as 16 (zero padded) lower case hex
+ * characters. The leading hex character is uniformly distributed so it is
+ * used to select the metric data table as for the previous SHA-1 hash.</p>
+ *
+ * <p>Recently used dimension sets are interned so the identifier is only
+ * computed once for each distinct set.</p>
+ */
+public class DimensionSetRegistry {
+
+  private static final long MAX_DIMENSION_SETS = 100_000L;
+
+  private static final HashFunction hashFunction = Hashing.murmur3_128( );
+
+  private static final Cache<Map<String, String>, DimensionSet> dimensionSets = CacheBuilder.newBuilder( )
+      .maximumSize( MAX_DIMENSION_SETS )
+      .build( );
+
+  private static final DimensionSet EMPTY = new DimensionSet( ImmutableSortedMap.<String, String>of( ) );
+
+  /**
+   * Get the interned dimension set for the given dimensions.
+   */
+  public static DimensionSet intern( final Map<String, String> dimensionMap ) {
+    if ( dimensionMap == null || dimensionMap.isEmpty( ) ) {
+      return EMPTY;
+    }
+    DimensionSet dimensionSet = dimensionSets.getIfPresent( dimensionMap );
+    if ( dimensionSet == null ) {
+      dimensionSet = new DimensionSet( canonical( dimensionMap ) );
+      final DimensionSet existing = dimensionSets.asMap( ).putIfAbsent( dimensionSet.getDimensions( ), dimensionSet );
+      if ( existing != null ) {
+        dimensionSet = existing;
+      }
+    }
+    return dimensionSet;
+  }
+
+  /**
+   * Get the identifier for the given dimensions.
+   */
+  public static String id( final Map<String, String> dimensionMap ) {
+    return intern( dimensionMap ).getId( );
+  }
+
+  /**
+   * Get the identifier for the given dimensions.
+   */
+  public static String id( final Collection<DimensionEntity> dimensions ) {
+    final ImmutableMap.Builder<String, String> dimensionMapBuilder = ImmutableMap.builder( );
+    if ( dimensions != null ) for ( final DimensionEntity dimension : dimensions ) {
+      dimensionMapBuilder.put( Strings.nullToEmpty( dimension.getName( ) ), Strings.nullToEmpty( dimension.getValue( ) ) );
+    }
+    return id( dimensionMapBuilder.build( ) );
+  }
+
+  private static ImmutableSortedMap<String, String> canonical( final Map<String, String> dimensionMap ) {
+    final ImmutableSortedMap.Builder<String, String> dimensionMapBuilder = ImmutableSortedMap.naturalOrder( );
+    for ( final Map.Entry<String, String> entry : dimensionMap.entrySet( ) ) {
+      dimensionMapBuilder.put( Strings.nullToEmpty( entry.getKey( ) ), Strings.nullToEmpty( entry.getValue( ) ) );
+    }
+    return dimensionMapBuilder.build( );
+  }
+
+  private static String computeId( final SortedMap<String, String> dimensionMap ) {
+    final Hasher hasher = hashFunction.newHasher( );
+    for ( final Map.Entry<String, String> entry : dimensionMap.entrySet( ) ) {
+      final String name = entry.getKey( );
+      final String value = entry.getValue( );
+      hasher.putInt( name.length( ) ).putString( name, StandardCharsets.UTF_8 );
+      hasher.putInt( value.length( ) ).putString( value, StandardCharsets.UTF_8 );
+    }
+    return Strings.padStart( Long.toHexString( hasher.hash( ).asLong( ) ), 16, '0' );
+  }
+
+  public static final class DimensionSet {
+    private final ImmutableSortedMap<String, String> dimensions;
+    private final String id;
+
+    private DimensionSet( final ImmutableSortedMap<String, String> dimensions ) {
+      this.dimensions = dimensions;
+      this.id = computeId( dimensions );
+    }
+
+    /**
+     * The sorted dimensions for the set
+     */
+    public ImmutableSortedMap<String, String> getDimensions( ) {
+      return dimensions;
+    }
+
+    /**
+     * The identifier for the set, used as the metric data dimension hash
+     */
+    public String getId( ) {
+      return id;
+    }
+  }
+}
@@ -22,6 +22,8 @@ package com.eucalyptus.cloudwatch.service.queue.listmetrics;
 import com.eucalyptus.cloudwatch.common.internal.domain.listmetrics.ListMetric;
 import com.eucalyptus.cloudwatch.common.internal.domain.listmetrics.ListMetricManager;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.SimpleMetricEntity;
+import com.eucalyptus.cloudwatch.common.internal.hashing.DimensionSetRegistry;
+import com.eucalyptus.cloudwatch.common.internal.hashing.DimensionSetRegistry.DimensionSet;
 import com.eucalyptus.util.metrics.MonitoredAction;
 import com.eucalyptus.util.metrics.ThruputMetrics;
 import com.google.common.collect.Lists;
@@ -141,7 +143,9 @@ public class ListMetricQueue {
       metricMetadata.setAccountId(item.getAccountId());
       metricMetadata.setNamespace(item.getNamespace());
       metricMetadata.setMetricName(item.getMetricName());
-      metricMetadata.setDimensionMap(item.getDimensionMap());
+      DimensionSet dimensionSet = DimensionSetRegistry.intern(item.getDimensionMap());
+      metricMetadata.setDimensionMap(dimensionSet.getDimensions());
+      metricMetadata.setDimensionHash(dimensionSet.getId());
       metricMetadata.setMetricType(item.getMetricType());
       queue(metricMetadata);
     }
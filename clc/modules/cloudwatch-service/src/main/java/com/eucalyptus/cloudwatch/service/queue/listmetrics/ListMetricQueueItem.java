@@ -31,6 +31,7 @@ public class ListMetricQueueItem {
   private String metricName;
   private MetricType metricType;
   private Map<String, String> dimensionMap;
+  private String dimensionHash;
 
   public ListMetricQueueItem() {
   }
@@ -75,6 +76,14 @@ public class ListMetricQueueItem {
     this.dimensionMap = dimensionMap;
   }
 
+  public String getDimensionHash() {
+    return dimensionHash;
+  }
+
+  public void setDimensionHash(String dimensionHash) {
+    this.dimensionHash = dimensionHash;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -83,7 +92,7 @@ public class ListMetricQueueItem {
     ListMetricQueueItem that = (ListMetricQueueItem) o;
 
     if (accountId != null ? !accountId.equals(that.accountId) : that.accountId != null) return false;
-    if (dimensionMap != null ? !dimensionMap.equals(that.dimensionMap) : that.dimensionMap != null) return false;
+    if (dimensionHash != null ? !dimensionHash.equals(that.dimensionHash) : that.dimensionHash != null) return false;
     if (metricName != null ? !metricName.equals(that.metricName) : that.metricName != null) return false;
     if (metricType != that.metricType) return false;
     if (namespace != null ? !namespace.equals(that.namespace) : that.namespace != null) return false;
@@ -97,7 +106,7 @@ public class ListMetricQueueItem {
     result = 31 * result + (namespace != null ? namespace.hashCode() : 0);
     result = 31 * result + (metricName != null ? metricName.hashCode() : 0);
     result = 31 * result + (metricType != null ? metricType.hashCode() : 0);
-    result = 31 * result + (dimensionMap != null ? dimensionMap.hashCode() : 0);
+    result = 31 * result + (dimensionHash != null ? dimensionHash.hashCode() : 0);
     return result;
   }
 }
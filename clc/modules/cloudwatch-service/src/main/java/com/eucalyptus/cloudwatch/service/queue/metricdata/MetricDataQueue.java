@@ -19,20 +19,26 @@
  ************************************************************************/
 package com.eucalyptus.cloudwatch.service.queue.metricdata;
 
-import com.eucalyptus.cloudwatch.common.internal.domain.listmetrics.ListMetricManager;
+import com.eucalyptus.cloudwatch.common.config.CloudWatchConfigProperties;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricEntityFactory;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricManager;
+import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricStatisticsCache;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.MetricUtils;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.SimpleMetricEntity;
 import com.eucalyptus.cloudwatch.common.internal.domain.metricdata.Units;
 import com.eucalyptus.cloudwatch.common.msgs.Dimension;
 import com.eucalyptus.cloudwatch.common.msgs.MetricDatum;
+import com.eucalyptus.cloudwatch.service.ThrottlingException;
 import com.eucalyptus.cloudwatch.service.queue.listmetrics.ListMetricQueue;
 import com.eucalyptus.util.metrics.MonitoredAction;
 import com.eucalyptus.util.metrics.ThruputMetrics;
-import com.google.common.base.Supplier;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.log4j.Logger;
 
@@ -42,17 +48,27 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Sharded queue for put metric data.
+ *
+ * <p>Data is split into one shard per metric entity table (the dimension hash
+ * buckets from MetricEntityFactory) and each shard aggregates data as it
+ * arrives, writing to its own table when the flush interval elapses or when
+ * the flush size is reached. Shard queues are bounded, callers are throttled
+ * when a shard is full.</p>
+ */
 public class MetricDataQueue {
   private static final Logger LOG = Logger.getLogger(MetricDataQueue.class);
-  final static LinkedBlockingQueue<MetricQueueItem> dataQueue = new LinkedBlockingQueue<MetricQueueItem>();
 
-  private static final ScheduledExecutorService dataFlushTimer = Executors
-      .newSingleThreadScheduledExecutor();
+  private static final Map<Class, MetricDataShard> shards;
+
+  private static final ExecutorService shardExecutor;
 
   private static MetricDataQueue singleton = getInstance();
 
@@ -64,64 +80,143 @@ public class MetricDataQueue {
     return singleton;
   }
 
-  private void queue(Supplier<MetricQueueItem> metriMetaDataSupplier) {
-    final MetricQueueItem metricData = metriMetaDataSupplier.get();
-    dataQueue.offer(metricData);
+  static {
+    final ImmutableMap.Builder<Class, MetricDataShard> shardBuilder = ImmutableMap.builder();
+    for (Class metricEntityClass : MetricEntityFactory.getAllClassesForEntitiesGet()) {
+      shardBuilder.put(metricEntityClass, new MetricDataShard(metricEntityClass.getSimpleName()));
+    }
+    shards = shardBuilder.build();
+    shardExecutor = Executors.newFixedThreadPool(shards.size(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("PutMetricDataQueue-%d").build());
+    for (MetricDataShard shard : shards.values()) {
+      shardExecutor.submit(shard);
+    }
   }
 
-  private static Runnable safeRunner = new Runnable() {
+  private static class MetricDataShard implements Runnable {
+    private final String name;
+    private final LinkedBlockingQueue<SimpleMetricEntity> dataQueue = new LinkedBlockingQueue<SimpleMetricEntity>();
+    // items reserved or queued, capacity is reserved before offering so concurrent puts cannot overshoot
+    private final AtomicInteger queued = new AtomicInteger();
+    private final HashMap<PutMetricDataAggregationKey, SimpleMetricEntity> aggregationMap = Maps.newHashMap();
+    private long firstArrival = 0L;
+    private long lastFlush = System.currentTimeMillis();
+
+    private MetricDataShard(final String name) {
+      this.name = name;
+    }
+
+    private boolean tryReserve(final int count) {
+      while (true) {
+        final int current = queued.get();
+        if (current + count > CloudWatchConfigProperties.PUT_METRIC_DATA_SHARD_QUEUE_CAPACITY) {
+          return false;
+        }
+        if (queued.compareAndSet(current, current + count)) {
+          return true;
+        }
+      }
+    }
+
+    private void release(final int count) {
+      queued.addAndGet(-count);
+    }
+
+    private void offer(final SimpleMetricEntity item) {
+      dataQueue.offer(item);
+    }
+
     @Override
     public void run() {
+      final List<SimpleMetricEntity> drained = Lists.newArrayList();
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          final long flushIntervalMs = TimeUnit.SECONDS.toMillis(
+              Math.max(1, CloudWatchConfigProperties.PUT_METRIC_DATA_FLUSH_INTERVAL_SECONDS));
+          final int flushSize = Math.max(1, CloudWatchConfigProperties.PUT_METRIC_DATA_FLUSH_SIZE);
+          final long wait = lastFlush + flushIntervalMs - System.currentTimeMillis();
+          if (wait > 0) {
+            final SimpleMetricEntity item = dataQueue.poll(wait, TimeUnit.MILLISECONDS);
+            if (item != null) {
+              drained.add(item);
+              dataQueue.drainTo(drained, flushSize);
+              release(drained.size());
+              if (firstArrival == 0L) {
+                firstArrival = System.currentTimeMillis();
+              }
+              long t1 = System.currentTimeMillis();
+              for (SimpleMetricEntity drainedItem : drained) {
+                aggregate(aggregationMap, drainedItem);
+              }
+              ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_AGGREGATE, System.currentTimeMillis()-t1);
+              drained.clear();
+            }
+          }
+          if (aggregationMap.size() >= flushSize ||
+              System.currentTimeMillis() - lastFlush >= flushIntervalMs) {
+            flush();
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+          LOG.error("PutMetricDataQueue:" + name + ":error", ex);
+        }
+      }
+    }
+
+    private void flush() {
       long before = System.currentTimeMillis();
       try {
-        List<MetricQueueItem> dataBatch = Lists.newArrayList();
-        dataQueue.drainTo(dataBatch);
-        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_SIZE, dataBatch.size( ));
-        long t1 = System.currentTimeMillis();
-        List<SimpleMetricEntity> simpleDataBatch = convertToSimpleDataBatch(dataBatch);
-        long t2 = System.currentTimeMillis();
-        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_CONVERT, t2-t1);
-        simpleDataBatch = aggregate(simpleDataBatch);
+        if (aggregationMap.isEmpty()) return;
+        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_SHARD_QUEUE_DEPTH, dataQueue.size());
+        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_SHARD_LAG, before - firstArrival);
+        List<SimpleMetricEntity> simpleDataBatch = Lists.newArrayList(aggregationMap.values());
+        aggregationMap.clear();
+        firstArrival = 0L;
+        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_SIZE, simpleDataBatch.size());
         long t3 = System.currentTimeMillis();
-        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_AGGREGATE, t3-t2);
-        MetricManager.addMetricBatch(simpleDataBatch);
+        try {
+          MetricManager.addMetricBatch(simpleDataBatch);
+        } catch (RuntimeException ex) {
+          MetricStatisticsCache.getInstance().invalidate(simpleDataBatch);
+          throw ex;
+        }
+        MetricStatisticsCache.getInstance().addAll(simpleDataBatch);
         long t4 = System.currentTimeMillis();
         ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_MERTIC_ADD_BATCH, t4-t3);
         ListMetricQueue.getInstance().addAll(simpleDataBatch);
         long t5 = System.currentTimeMillis();
         ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_MERTIC_QUEUE_ADDALL, t5-t4);
-      } catch (Throwable ex) {
-        LOG.debug("PutMetricDataQueue:error");
-        ex.printStackTrace();
-        LOG.error(ex,ex);
+        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_TIMING, t5-before);
       } finally {
-        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_TIMING, System.currentTimeMillis()-before);
+        lastFlush = System.currentTimeMillis();
       }
     }
-  };
-
-  static {
-    dataFlushTimer.scheduleAtFixedRate(safeRunner, 0, 1, TimeUnit.MINUTES);
   }
 
   public static List<SimpleMetricEntity> aggregate(List<SimpleMetricEntity> dataBatch) {
     HashMap<PutMetricDataAggregationKey, SimpleMetricEntity> aggregationMap = Maps.newHashMap();
     for (SimpleMetricEntity item: dataBatch) {
-      item.setTimestamp(MetricUtils.stripSeconds(item.getTimestamp()));
-      PutMetricDataAggregationKey key = new PutMetricDataAggregationKey(item);
-      if (!aggregationMap.containsKey(key)) {
-        aggregationMap.put(key, new SimpleMetricEntity(item));
-      } else {
-        SimpleMetricEntity totalSoFar = aggregationMap.get(key);
-        totalSoFar.setSampleMax(Math.max(item.getSampleMax(), totalSoFar.getSampleMax()));
-        totalSoFar.setSampleMin(Math.min(item.getSampleMin(), totalSoFar.getSampleMin()));
-        totalSoFar.setSampleSize(totalSoFar.getSampleSize() + item.getSampleSize());
-        totalSoFar.setSampleSum(totalSoFar.getSampleSum() + item.getSampleSum());
-      }
+      aggregate(aggregationMap, item);
     }
     return Lists.newArrayList(aggregationMap.values());
   }
 
+  private static void aggregate(Map<PutMetricDataAggregationKey, SimpleMetricEntity> aggregationMap,
+                                SimpleMetricEntity item) {
+    item.setTimestamp(MetricUtils.stripSeconds(item.getTimestamp()));
+    PutMetricDataAggregationKey key = new PutMetricDataAggregationKey(item);
+    if (!aggregationMap.containsKey(key)) {
+      aggregationMap.put(key, new SimpleMetricEntity(item));
+    } else {
+      SimpleMetricEntity totalSoFar = aggregationMap.get(key);
+      totalSoFar.setSampleMax(Math.max(item.getSampleMax(), totalSoFar.getSampleMax()));
+      totalSoFar.setSampleMin(Math.min(item.getSampleMin(), totalSoFar.getSampleMin()));
+      totalSoFar.setSampleSize(totalSoFar.getSampleSize() + item.getSampleSize());
+      totalSoFar.setSampleSum(totalSoFar.getSampleSum() + item.getSampleSum());
+    }
+  }
+
   protected static List<SimpleMetricEntity> convertToSimpleDataBatch(
       List<MetricQueueItem> stupidDataBatch) {
     ArrayList<SimpleMetricEntity> returnValue = new ArrayList<SimpleMetricEntity>();
@@ -162,25 +257,54 @@ public class MetricDataQueue {
   }
 
   public void insertMetricData(final String ownerAccountId, final String nameSpace,
-                               final List<MetricDatum> metricDatum, final MetricType metricType) {
+                               final List<MetricDatum> metricDatum, final MetricType metricType)
+      throws ThrottlingException {
     // Some points do not actually go in.  If a data point represents an absolute value, the first one does not go in.
     // Also, some data points are added while we go through the list (derived metrics)
     Date now = new Date();
 
+    List<MetricQueueItem> dataBatch = Lists.newArrayList();
     for (final MetricDatum datum : metricDatum) {
       scrub(datum, now);
-      queue(new Supplier<MetricQueueItem>() {
-        @Override
-        public MetricQueueItem get() {
-          MetricQueueItem metricMetadata = new MetricQueueItem();
-          metricMetadata.setAccountId(ownerAccountId);
-          metricMetadata.setMetricDatum(datum);
-          metricMetadata.setNamespace(nameSpace);
-          metricMetadata.setMetricType(metricType);
-          return metricMetadata;
+      MetricQueueItem metricMetadata = new MetricQueueItem();
+      metricMetadata.setAccountId(ownerAccountId);
+      metricMetadata.setMetricDatum(datum);
+      metricMetadata.setNamespace(nameSpace);
+      metricMetadata.setMetricType(metricType);
+      dataBatch.add(metricMetadata);
+    }
+    long t1 = System.currentTimeMillis();
+    List<SimpleMetricEntity> simpleDataBatch = convertToSimpleDataBatch(dataBatch);
+    ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_QUEUE_CONVERT, System.currentTimeMillis()-t1);
+    Multimap<MetricDataShard, SimpleMetricEntity> shardedDataBatch = ArrayListMultimap.create();
+    for (SimpleMetricEntity item: simpleDataBatch) {
+      shardedDataBatch.put(shardFor(item), item);
+    }
+    // all or nothing, a request is either queued in full or throttled
+    final List<MetricDataShard> reserved = Lists.newArrayList();
+    for (MetricDataShard shard: shardedDataBatch.keySet()) {
+      if (!shard.tryReserve(shardedDataBatch.get(shard).size())) {
+        for (MetricDataShard reservedShard: reserved) {
+          reservedShard.release(shardedDataBatch.get(reservedShard).size());
         }
-      });
+        ThruputMetrics.addDataPoint(MonitoredAction.PUT_DATA_THROTTLED, simpleDataBatch.size());
+        throw new ThrottlingException("Rate exceeded");
+      }
+      reserved.add(shard);
+    }
+    for (Map.Entry<MetricDataShard, SimpleMetricEntity> entry: shardedDataBatch.entries()) {
+      entry.getKey().offer(entry.getValue());
+    }
+  }
+
+  private static MetricDataShard shardFor(SimpleMetricEntity item) {
+    Class metricEntityClass = MetricEntityFactory.getClassForEntitiesGet(item.getMetricType(),
+        MetricManager.hash(item.getDimensionMap()));
+    MetricDataShard shard = shards.get(metricEntityClass);
+    if (shard == null) {
+      throw new IllegalStateException("No put metric data shard for " + metricEntityClass);
     }
+    return shard;
   }
 
   private void scrub(MetricDatum datum, Date now) {
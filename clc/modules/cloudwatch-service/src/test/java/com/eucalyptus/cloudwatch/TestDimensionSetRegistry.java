@@ -0,0 +1,67 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.common.internal.domain.DimensionEntity;
+import com.eucalyptus.cloudwatch.common.internal.hashing.DimensionSetRegistry;
+
+public class TestDimensionSetRegistry {
+
+  @Test
+  public void testIdFormat() {
+    final Map<String,String> dimensionMap = new HashMap<String, String>();
+    dimensionMap.put("InstanceId", "i-12345678");
+    final String id = DimensionSetRegistry.id(dimensionMap);
+    assertEquals(16, id.length());
+    assertTrue(id.matches("[0-9a-f]{16}"));
+    assertEquals(16, DimensionSetRegistry.id((Map<String,String>) null).length());
+  }
+
+  @Test
+  public void testIdConsistent() {
+    final Map<String,String> dimensionMap = new HashMap<String, String>();
+    dimensionMap.put("dim2", "val2");
+    dimensionMap.put("dim1", "val1");
+    final TreeSet<DimensionEntity> dimensions = new TreeSet<DimensionEntity>();
+    dimensions.add(new DimensionEntity("dim1", "val1"));
+    dimensions.add(new DimensionEntity("dim2", "val2"));
+    assertEquals(DimensionSetRegistry.id(dimensionMap), DimensionSetRegistry.id(dimensions));
+    assertSame(DimensionSetRegistry.intern(dimensionMap), DimensionSetRegistry.intern(new HashMap<String, String>(dimensionMap)));
+  }
+
+  @Test
+  public void testIdDistinct() {
+    final Map<String,String> dimensionMap1 = new HashMap<String, String>();
+    dimensionMap1.put("a|b", "c");
+    final Map<String,String> dimensionMap2 = new HashMap<String, String>();
+    dimensionMap2.put("a", "b|c");
+    assertTrue(!DimensionSetRegistry.id(dimensionMap1).equals(DimensionSetRegistry.id(dimensionMap2)));
+  }
+}
@@ -71,6 +71,8 @@ import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.Nonnull;
 
 import com.eucalyptus.auth.principal.AccountFullName;
@@ -81,6 +83,7 @@ import com.eucalyptus.compute.common.internal.util.NotEnoughResourcesException;
 import com.eucalyptus.records.EventRecord;
 import com.eucalyptus.records.EventType;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.LockResource;
 import com.eucalyptus.util.LogUtil;
 import com.eucalyptus.auth.principal.OwnerFullName;
 import com.eucalyptus.compute.common.internal.vmtypes.VmType;
@@ -98,6 +101,16 @@ public class ResourceState {
   private NavigableSet<ResourceToken>                        submittedTokens;
   private NavigableSet<ResourceToken>                        redeemedTokens;
   private String                                             clusterName;
+  /**
+   * Guards availability and token state transitions. Availability of each vm type is
+   * derived from shared node capacity so all types for the cluster use the same lock,
+   * it is only held for the bookkeeping and not for token creation or logging.
+   */
+  private final ReentrantLock                                allocationLock = new ReentrantLock( );
+  /**
+   * Instances deducted from availability whose tokens are not yet pending.
+   */
+  private final AtomicInteger                                reservedCount = new AtomicInteger( );
 
   public static class NoSuchTokenException extends Exception {
     private static final long serialVersionUID = 1L;
@@ -130,52 +143,75 @@ public class ResourceState {
     } );
   }
   
-  public synchronized List<ResourceToken> requestResourceAllocation( Allocation allocInfo, int minAmount, int maxAmount ) throws NotEnoughResourcesException {
-    VmTypeAvailability vmTypeStatus = this.typeMap.get( allocInfo.getVmType( ).getName( ) );
-    Integer available = vmTypeStatus.getAvailable( );
-    NavigableSet<VmTypeAvailability> sorted = this.sorted( );
-    LOG.debug( LogUtil.header( "BEFORE ALLOCATE" ) );
-    LOG.debug( sorted );
-    //:: if not enough, then bail out :://
-    final Integer quantity;
-    if ( vmTypeStatus.getAvailable( ) < minAmount ) {
-      throw new NotEnoughResourcesException( "Not enough resources (" + available + " < " + minAmount + ": vm instances." );
-    } else {
-      quantity = ( maxAmount < available
-                                        ? maxAmount
-                                        : available );
-    }
-
-    Set<VmTypeAvailability> tailSet = sorted.tailSet( vmTypeStatus );
-    Set<VmTypeAvailability> headSet = sorted.headSet( vmTypeStatus );
-    LOG.debug( LogUtil.header( "DURING ALLOCATE" ) );
-    LOG.debug( LogUtil.subheader( "TAILSET: \n" + tailSet ) );
-    LOG.debug( LogUtil.subheader( "HEADSET: \n" + headSet ) );
-    //:: decrement available resources across the "active" partition :://
-    for ( VmTypeAvailability v : tailSet )
-      v.decrement( quantity );
-    for ( VmTypeAvailability v : headSet )
-      v.setAvailable( vmTypeStatus.getAvailable( ) );
-    LOG.debug( LogUtil.header( "AFTER ALLOCATE" ) );
-    LOG.debug( sorted );
+  public List<ResourceToken> requestResourceAllocation( Allocation allocInfo, int minAmount, int maxAmount ) throws NotEnoughResourcesException {
+    final int quantity = reserve( allocInfo.getVmType( ).getName( ), minAmount, maxAmount );
     List<ResourceToken> tokenList = Lists.newArrayList( );
-    for ( int i = 0; i < quantity; i++ ) {
-      try {
-        ResourceToken token = new ResourceToken( allocInfo, i );
-        LOG.debug( EventType.TOKEN_RESERVED.name( ) + ": " + token.toString( ) );
-        this.pendingTokens.add( token );
-        tokenList.add( token );
-      } catch ( Exception ex ) {
-        LOG.error( ex );
-        Logs.extreme( ).error( ex, ex );
-        for ( ResourceToken token : tokenList ) {
-          this.pendingTokens.remove( token );
+    List<ResourceToken> pendingList = Lists.newArrayList( );
+    try {
+      for ( int i = 0; i < quantity; i++ ) {
+        try {
+          ResourceToken token = new ResourceToken( allocInfo, i );
+          LOG.debug( EventType.TOKEN_RESERVED.name( ) + ": " + token.toString( ) );
+          pendingList.add( token );
+          tokenList.add( token );
+        } catch ( Exception ex ) {
+          LOG.error( ex );
+          Logs.extreme( ).error( ex, ex );
+          pendingList.clear( );
         }
       }
+    } finally {
+      // tokens become pending as the reservation is released so capacity is never counted twice
+      try ( final LockResource lock = LockResource.lock( this.allocationLock ) ) {
+        this.pendingTokens.addAll( pendingList );
+        this.reservedCount.addAndGet( -quantity );
+      }
     }
     return tokenList;
   }
 
+  /**
+   * Deduct the quantity to allocate from the availability of the requested type and the
+   * types sharing its capacity.
+   *
+   * @return The quantity reserved, counted in reservedCount until tokens are pending.
+   */
+  private int reserve( final String vmTypeName, final int minAmount, final int maxAmount ) throws NotEnoughResourcesException {
+    try ( final LockResource lock = LockResource.lock( this.allocationLock ) ) {
+      VmTypeAvailability vmTypeStatus = this.typeMap.get( vmTypeName );
+      Integer available = vmTypeStatus.getAvailable( );
+      //:: if not enough, then bail out :://
+      if ( available < minAmount ) {
+        throw new NotEnoughResourcesException( "Not enough resources (" + available + " < " + minAmount + ": vm instances." );
+      }
+      final int quantity = ( maxAmount < available
+                                               ? maxAmount
+                                               : available );
+
+      NavigableSet<VmTypeAvailability> sorted = this.sorted( );
+      Set<VmTypeAvailability> tailSet = sorted.tailSet( vmTypeStatus );
+      Set<VmTypeAvailability> headSet = sorted.headSet( vmTypeStatus );
+      if ( LOG.isDebugEnabled( ) ) {
+        LOG.debug( LogUtil.header( "BEFORE ALLOCATE" ) );
+        LOG.debug( sorted );
+        LOG.debug( LogUtil.header( "DURING ALLOCATE" ) );
+        LOG.debug( LogUtil.subheader( "TAILSET: \n" + tailSet ) );
+        LOG.debug( LogUtil.subheader( "HEADSET: \n" + headSet ) );
+      }
+      //:: decrement available resources across the "active" partition :://
+      for ( VmTypeAvailability v : tailSet )
+        v.decrement( quantity );
+      for ( VmTypeAvailability v : headSet )
+        v.setAvailable( vmTypeStatus.getAvailable( ) );
+      if ( LOG.isDebugEnabled( ) ) {
+        LOG.debug( LogUtil.header( "AFTER ALLOCATE" ) );
+        LOG.debug( sorted );
+      }
+      this.reservedCount.addAndGet( quantity );
+      return quantity;
+    }
+  }
+
   private static boolean tokenOwnerRepresentsOwnerFullName( final OwnerFullName tokenOwnerFullName, final OwnerFullName ownerFullName ) {
     if (tokenOwnerFullName == null || ownerFullName == null) return false;
     if (ownerFullName instanceof AccountFullName) {
@@ -237,8 +273,14 @@ public class ResourceState {
   }
 
 
-  public synchronized void releaseToken( ResourceToken token ) {
+  public void releaseToken( ResourceToken token ) {
     LOG.debug( EventType.TOKEN_RELEASED.name( ) + ": " + token.toString( ) );
+    try ( final LockResource lock = LockResource.lock( this.allocationLock ) ) {
+      releaseTokenLocked( token );
+    }
+  }
+
+  private void releaseTokenLocked( ResourceToken token ) {
     if ( this.pendingTokens.remove( token ) ) {
       // It is only safe to adjust availability for the vm type that was
       // allocated. We do not know if larger types had any availability
@@ -255,34 +297,44 @@ public class ResourceState {
     this.redeemedTokens.remove( token );
   }
   
-  public synchronized void submitToken( ResourceToken token ) throws NoSuchTokenException {
+  public void submitToken( ResourceToken token ) throws NoSuchTokenException {
     LOG.debug( EventType.TOKEN_SUBMITTED.name( ) + ": " + token.toString( ) );
-    if ( this.pendingTokens.remove( token ) ) {
-      this.submittedTokens.add( token );
-    } else {
-      throw new NoSuchTokenException( token.toString( ) );
+    try ( final LockResource lock = LockResource.lock( this.allocationLock ) ) {
+      if ( this.pendingTokens.remove( token ) ) {
+        this.submittedTokens.add( token );
+        return;
+      }
     }
+    throw new NoSuchTokenException( token.toString( ) );
   }
   
-  public synchronized void redeemToken( ResourceToken token ) throws NoSuchTokenException {
+  public void redeemToken( ResourceToken token ) throws NoSuchTokenException {
     LOG.debug( EventType.TOKEN_REDEEMED.name( ) + ": " + token.toString( ) );
-    if ( this.submittedTokens.remove( token ) || this.pendingTokens.remove( token ) ) {
-      this.redeemedTokens.add( token );
-    } else {
-      LOG.error(
-        "Failed to find token: "
-            + token
-            + "\n"
-            + Joiner.on( "\n" ).join( "pending", this.pendingTokens, "submitted", this.submittedTokens, "redeemed", this.redeemedTokens ),
-        new NoSuchTokenException( token.toString( ) ) );
+    try ( final LockResource lock = LockResource.lock( this.allocationLock ) ) {
+      if ( this.submittedTokens.remove( token ) || this.pendingTokens.remove( token ) ) {
+        this.redeemedTokens.add( token );
+        return;
+      }
     }
+    LOG.error(
+      "Failed to find token: "
+          + token
+          + "\n"
+          + Joiner.on( "\n" ).join( "pending", this.pendingTokens, "submitted", this.submittedTokens, "redeemed", this.redeemedTokens ),
+      new NoSuchTokenException( token.toString( ) ) );
   }
 
-  public synchronized boolean isPending( final ResourceToken token ) {
+  public boolean isPending( final ResourceToken token ) {
     return this.pendingTokens.contains( token );
   }
 
-  public synchronized void update( List<ResourceType> rscUpdate ) {
+  public void update( List<ResourceType> rscUpdate ) {
+    try ( final LockResource lock = LockResource.lock( this.allocationLock ) ) {
+      updateLocked( rscUpdate );
+    }
+  }
+
+  private void updateLocked( List<ResourceType> rscUpdate ) {
     long expiryAge = System.currentTimeMillis( ) - TimeUnit.MINUTES.toMillis( getExpiryMinutes( 15 ) );
     expirePendingTokens( expiryAge );
 
@@ -293,7 +345,7 @@ public class ResourceState {
       submitted += t.getAmount( );
     for ( ResourceToken t : this.redeemedTokens )
       redeemed += t.getAmount( );
-    final int outstandingCount = pending + submitted;
+    final int outstandingCount = pending + submitted + this.reservedCount.get( );
     EventRecord.here( ResourceState.class, EventType.CLUSTER_STATE_UPDATE, this.clusterName,
                       String.format( "outstanding=%d:pending=%d:submitted=%d:redeemed=%d", outstandingCount, pending, submitted, redeemed ) ).info( );
     this.redeemedTokens.clear( );
@@ -354,8 +406,8 @@ public class ResourceState {
   
   public static class VmTypeAvailability implements Comparable {
     private VmType type;
-    private int    max;
-    private int    available;
+    private volatile int max;
+    private volatile int available;
     
     public VmTypeAvailability( final VmType type, final int max, final int available ) {
       this.type = type;
@@ -79,6 +79,7 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -101,6 +102,7 @@ import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.CollectionUtils;
 import com.eucalyptus.util.Either;
 import com.eucalyptus.util.HasName;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.util.NonNullFunction;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableMap;
@@ -161,6 +163,12 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
           10,
           TimeUnit.SECONDS );
 
+  private static final StateReconciliationMetrics metrics = new StateReconciliationMetrics( );
+
+  static {
+    Mbeans.register( metrics );
+  }
+
   private final Supplier<Set<String>> initialInstances;
   
   public VmStateCallback( ) {
@@ -201,6 +209,7 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
       return;
     }
 
+    final long start = System.currentTimeMillis( );
     final Map<String,VmStateView> localState = ImmutableMap.copyOf( CollectionUtils.putAll(
         instanceViewSupplier.get( ),
         Maps.<String,VmStateView>newHashMapWithExpectedSize( reply.getVms( ).size( ) ),
@@ -209,16 +218,19 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
 
     reply.setOriginCluster( this.getSubject( ).getConfiguration( ).getName( ) );
     final Set<String> reportedInstances = Sets.newHashSetWithExpectedSize( reply.getVms( ).size( ) );
+    Map<String,String> vmTypeNames = null;
     for ( VmInfo vmInfo : reply.getVms( ) ) {
       reportedInstances.add( vmInfo.getInstanceId( ) );
       vmInfo.setPlacement( this.getSubject( ).getConfiguration( ).getName( ) );
       VmTypeInfo typeInfo = vmInfo.getInstanceType( );
       if ( typeInfo.getName( ) == null || "".equals( typeInfo.getName( ) ) ) {
-        for ( VmType t : VmTypes.list( ) ) {
-          if ( t.getCpu( ).equals( typeInfo.getCores( ) ) && t.getDisk( ).equals( typeInfo.getDisk( ) ) &&
-              t.getMemory( ).equals( typeInfo.getMemory( ) ) ) {
-            typeInfo.setName( t.getName( ) );
-          }
+        if ( vmTypeNames == null ) {
+          vmTypeNames = vmTypeNamesByResources( );
+        }
+        final String typeName =
+            vmTypeNames.get( vmTypeResourceKey( typeInfo.getCores( ), typeInfo.getDisk( ), typeInfo.getMemory( ) ) );
+        if ( typeName != null ) {
+          typeInfo.setName( typeName );
         }
       }
     }
@@ -233,14 +245,36 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
         Sets.newHashSet( Sets.difference( reportedInstances, this.initialInstances.get( ) ) );
 
     final List<Optional<Runnable>> taskList = Lists.newArrayList( );
+    final List<VmInfo> changedInstances = Lists.newArrayList( );
+    int unchanged = 0;
 
     for ( final VmInfo runVm : reply.getVms( ) ) {
       if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
-        taskList.add( UpdateTaskFunction.REPORTED.apply( context( localState, runVm ) ) );
+        final VmStateView vmView = localState.get( runVm.getInstanceId( ) );
+        switch ( reportedStateAction( vmView, runVm ) ) {
+          case UNKNOWN:
+            taskList.add( UpdateTaskFunction.UNKNOWN.apply( context( localState, runVm ) ) );
+            break;
+          case TEARDOWN:
+            taskList.add( UpdateTaskFunction.REPORTED.apply( context( localState, runVm ) ) );
+            break;
+          case UPDATE:
+            if ( isBatchUpdate( vmView ) ) {
+              changedInstances.add( runVm );
+            } else {
+              taskList.add( UpdateTaskFunction.REPORTED.apply( context( localState, runVm ) ) );
+            }
+            break;
+          default:
+            unchanged++;
+        }
       } else if ( unknownInstances.contains( runVm.getInstanceId( ) ) ) {
         taskList.add( UpdateTaskFunction.UNKNOWN.apply( context( localState, runVm ) ) );
       }
     }
+    for ( final List<VmInfo> batch : Lists.partition( changedInstances, Math.max( 1, VmInstances.STATE_UPDATE_BATCH_SIZE ) ) ) {
+      taskList.add( batchUpdateTask( localState, batch ) );
+    }
     for ( final String vmId : unreportedInstances ) {
       taskList.add( UpdateTaskFunction.UNREPORTED.apply( context( localState, vmId ) ) );
     }
@@ -262,8 +296,142 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
           Executors.callable( task )
       );
     }
+
+    metrics.poll(
+        this.getSubject( ).getName( ),
+        System.currentTimeMillis( ) - start,
+        reportedInstances.size( ),
+        unchanged,
+        changedInstances.size( ),
+        unreportedInstances.size( ),
+        unknownInstances.size( ) );
   }
-  
+
+  private static Map<String,String> vmTypeNamesByResources( ) {
+    final Map<String,String> vmTypeNames = Maps.newHashMap( );
+    for ( final VmType t : VmTypes.list( ) ) {
+      vmTypeNames.put( vmTypeResourceKey( t.getCpu( ), t.getDisk( ), t.getMemory( ) ), t.getName( ) );
+    }
+    return vmTypeNames;
+  }
+
+  private static String vmTypeResourceKey( final Integer cpu, final Integer disk, final Integer memory ) {
+    return cpu + ":" + disk + ":" + memory;
+  }
+
+  /**
+   * Instances are updated in a batch only if running and not expired locally,
+   * other updates can transition the instance so are applied individually.
+   */
+  private static boolean isBatchUpdate( final VmStateView vmView ) {
+    return vmView.inState( VmStateSet.RUN ) &&
+        !( vmView.getState( ) == VmState.RUNNING && System.currentTimeMillis( ) > vmView.getExpires( ) );
+  }
+
+  /**
+   * Task to apply reported state changes for a batch of instances in a single transaction.
+   *
+   * <p>Instances found to be expired are not transitioned in the batch, they
+   * are transitioned individually once the batch commits. If the batch fails
+   * no transitions have run so the changes are applied for each instance in
+   * a separate transaction.</p>
+   */
+  private static Optional<Runnable> batchUpdateTask( final Map<String,VmStateView> localState,
+                                                     final List<VmInfo> batch ) {
+    final List<VmInfo> claimed = Lists.newArrayListWithCapacity( batch.size( ) );
+    final Long now = System.currentTimeMillis( );
+    for ( final VmInfo runVm : batch ) {
+      if ( pendingUpdates.putIfAbsent( runVm.getInstanceId( ), now ) == null ) {
+        claimed.add( runVm );
+      }
+    }
+    if ( claimed.isEmpty( ) ) {
+      return Optional.absent( );
+    }
+    return Optional.<Runnable>of( new Runnable( ) {
+      @Override
+      public void run( ) {
+        try {
+          final List<String> expiredInstanceIds = Lists.newArrayList( );
+          if ( handleReportedStates( claimed, expiredInstanceIds ) ) {
+            for ( final String instanceId : expiredInstanceIds ) {
+              handleExpired( instanceId );
+            }
+          } else {
+            metrics.batchFallback( );
+            for ( final VmInfo runVm : claimed ) {
+              handleReportedState( context( localState, runVm ) );
+            }
+          }
+        } catch ( Exception e ) {
+          LOG.error( "Failed to handle reported instances because of " + e.getMessage( ) );
+        } finally {
+          for ( final VmInfo runVm : claimed ) {
+            pendingUpdates.remove( runVm.getInstanceId( ) );
+          }
+        }
+      }
+    } );
+  }
+
+  /**
+   * Apply reported state for instances requiring update in a single transaction.
+   *
+   * @param expiredInstanceIds Populated with instances to transition once the batch commits
+   * @return false if the changes were not applied
+   */
+  private static boolean handleReportedStates( final List<VmInfo> runVms,
+                                               final List<String> expiredInstanceIds ) {
+    final long start = System.currentTimeMillis( );
+    try ( final TransactionResource db = Entities.transactionFor( VmInstance.class ) ) {
+      for ( final VmInfo runVm : runVms ) try {
+        final VmInstance vm = VmInstances.lookupAny( runVm.getInstanceId( ) );
+        if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
+          expiredInstanceIds.add( runVm.getInstanceId( ) );
+        } else {
+          VmInstances.doUpdate( vm ).apply( runVm );
+        }
+      } catch ( TerminatedInstanceException ex ) {
+        LOG.trace( "Ignore state update to terminated instance: " + runVm.getInstanceId( ) );
+      } catch ( NoSuchElementException ex ) {
+        // instance removed since reported
+      }
+      Entities.commit( db );
+      metrics.batch( System.currentTimeMillis( ) - start, runVms.size( ) );
+      return true;
+    } catch ( Exception ex ) {
+      LOG.debug( "Batch update of " + runVms.size( ) + " reported instances failed, updating individually: " + ex.getMessage( ) );
+      Logs.extreme( ).error( ex, ex );
+      expiredInstanceIds.clear( );
+      return false;
+    }
+  }
+
+  /**
+   * Transition an expired instance, the instance is read again so there is no
+   * change if it was already transitioned.
+   */
+  private static void handleExpired( final String instanceId ) {
+    try ( final TransactionResource db = Entities.transactionFor( VmInstance.class ) ) {
+      final VmInstance vm = VmInstances.lookupAny( instanceId );
+      if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
+        if ( vm.isBlockStorage( ) ) {
+          VmInstances.stopped( vm );
+        } else {
+          VmInstances.shutDown( vm );
+        }
+      }
+      Entities.commit( db );
+    } catch ( TerminatedInstanceException ex ) {
+      LOG.trace( "Ignore state update to terminated instance: " + instanceId );
+    } catch ( NoSuchElementException ex ) {
+      // instance removed since reported
+    } catch ( Exception ex ) {
+      LOG.error( ex );
+      Logs.extreme( ).error( ex, ex );
+    }
+  }
+
   private static void handleUnreported( final VmStateContext vmStateContext ) {
     try {
       final String vmId = vmStateContext.input.getLeft( );
@@ -298,50 +466,93 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     }
   }
   
+  enum ReportedStateAction {
+    /**
+     * Reported state matches local state
+     */
+    NONE,
+
+    /**
+     * Reported instance is expired locally, handle as unknown
+     */
+    UNKNOWN,
+
+    /**
+     * Reported teardown of instance
+     */
+    TEARDOWN,
+
+    /**
+     * Local state requires update for reported state
+     */
+    UPDATE,
+  }
+
+  /**
+   * Determine the action for the reported state using the local state view.
+   *
+   * <p>This does not access the database so can be used to discard unchanged
+   * instances before any tasks are scheduled.</p>
+   */
+  private static ReportedStateAction reportedStateAction( @Nullable final VmStateView vmView,
+                                                          @Nonnull  final VmInfo runVm ) {
+    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+    final MigrationState migrationState = MigrationState.defaultValueOf( runVm.getMigrationStateName() );
+    boolean updateRequired = false;
+    if ( vmView != null ) {
+      if ( vmView.inState( VmStateSet.DONE ) ) {
+        if ( vmView.getReason( ) == VmInstance.Reason.EXPIRED ) {
+          return ReportedStateAction.UNKNOWN;
+        } else {
+          LOG.trace( "Ignore state update to terminated instance: " + runVm.getInstanceId( ) );
+        }
+        return ReportedStateAction.NONE;
+      } else if ( vmView.getState( ) == VmState.RUNNING && System.currentTimeMillis( ) > vmView.getExpires( )  ) {
+        updateRequired = true;
+      } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
+        updateRequired = true;
+      } else if ( !vmView.inState( VmStateSet.RUN ) && VmStateSet.RUN.contains( runVmState )
+          && ( System.currentTimeMillis( ) - vmView.getLastUpdated( ) ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
+        updateRequired = true;
+      } else if ( vmView.inState( VmStateSet.RUN ) ) {
+        updateRequired =
+                vmView.isBundling( ) ||
+                vmView.isMigrating( ) ||
+                migrationState.isMigrating( ) ||
+                runVmState != vmView.getState( ) ||
+                !Objects.equals( vmView.getGuestState( ), runVm.getGuestStateName( ) ) ||
+                !Objects.equals( vmView.getServiceTag( ), runVm.getServiceTag( ) ) ||
+                ( System.currentTimeMillis( ) - vmView.getLastUpdated( ) ) > VmInstances.Timeout.UNTOUCHED.getMilliseconds( ) || // for running and pending states
+                vmView.getReachabilityStatus( ) != ReachabilityStatus.Passed ||
+                ( vmView.getState( ) == VmState.RUNNING && !vmView.getVolumeAttachments( ).equals(
+                    runVm.getVolumes( ).stream( )
+                        .map( TypeMappers.lookupF( AttachedVolume.class, VmStateVolumeAttachmentView.class ) )
+                        .collect( Collectors.toMap( HasName.GET_NAME, volumeView -> volumeView ) ) ) ) ||
+                ( vmView.getState( ) == VmState.RUNNING && !vmView.getNetworkInterfaceAttachments( ).equals(
+                    runVm.getSecondaryNetConfigList( ).stream( )
+                        .map( TypeMappers.lookupF( NetworkConfigType.class, VmStateNetworkInterfaceAttachmentView.class ) )
+                        .collect( Collectors.toMap( HasName.GET_NAME, niView -> niView ) ) ) )
+        ;
+      }
+    }
+    if ( !updateRequired ) {
+      return ReportedStateAction.NONE;
+    } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
+      return ReportedStateAction.TEARDOWN;
+    } else {
+      return ReportedStateAction.UPDATE;
+    }
+  }
+
   private static void handleReportedState( final VmStateContext vmStateContext ) {
     final VmInfo runVm = vmStateContext.getInput( ).getRight( );
     final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
     try {
       final VmStateView vmView = vmStateContext.getLocalState( ).get( runVm.getInstanceId( ) );
-      MigrationState migrationState = MigrationState.defaultValueOf( runVm.getMigrationStateName() );
-      boolean updateRequired = false;
-      if ( vmView != null ) {
-        if ( vmView.inState( VmStateSet.DONE ) ) {
-          if ( vmView.getReason( ) == VmInstance.Reason.EXPIRED ) {
-            VmStateCallback.handleUnknown( vmStateContext );
-          } else {
-            LOG.trace( "Ignore state update to terminated instance: " + runVm.getInstanceId( ) );
-          }
-          return;
-        } else if ( vmView.getState( ) == VmState.RUNNING && System.currentTimeMillis( ) > vmView.getExpires( )  ) {
-          updateRequired = true;
-        } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
-          updateRequired = true;
-        } else if ( !vmView.inState( VmStateSet.RUN ) && VmStateSet.RUN.contains( runVmState )
-            && ( System.currentTimeMillis( ) - vmView.getLastUpdated( ) ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
-          updateRequired = true;
-        } else if ( vmView.inState( VmStateSet.RUN ) ) {
-          updateRequired =
-                  vmView.isBundling( ) ||
-                  vmView.isMigrating( ) ||
-                  migrationState.isMigrating( ) ||
-                  runVmState != vmView.getState( ) ||
-                  !Objects.equals( vmView.getGuestState( ), runVm.getGuestStateName( ) ) ||
-                  !Objects.equals( vmView.getServiceTag( ), runVm.getServiceTag( ) ) ||
-                  ( System.currentTimeMillis( ) - vmView.getLastUpdated( ) ) > VmInstances.Timeout.UNTOUCHED.getMilliseconds( ) || // for running and pending states
-                  vmView.getReachabilityStatus( ) != ReachabilityStatus.Passed ||
-                  ( vmView.getState( ) == VmState.RUNNING && !vmView.getVolumeAttachments( ).equals(
-                      runVm.getVolumes( ).stream( )
-                          .map( TypeMappers.lookupF( AttachedVolume.class, VmStateVolumeAttachmentView.class ) )
-                          .collect( Collectors.toMap( HasName.GET_NAME, volumeView -> volumeView ) ) ) ) ||
-                  ( vmView.getState( ) == VmState.RUNNING && !vmView.getNetworkInterfaceAttachments( ).equals(
-                      runVm.getSecondaryNetConfigList( ).stream( )
-                          .map( TypeMappers.lookupF( NetworkConfigType.class, VmStateNetworkInterfaceAttachmentView.class ) )
-                          .collect( Collectors.toMap( HasName.GET_NAME, niView -> niView ) ) ) )
-          ;
-        }
-      }
-      if ( updateRequired ) try ( final TransactionResource db = Entities.transactionFor( VmInstance.class ) ) {
+      final ReportedStateAction action = reportedStateAction( vmView, runVm );
+      if ( action == ReportedStateAction.UNKNOWN ) {
+        VmStateCallback.handleUnknown( vmStateContext );
+      } else if ( action != ReportedStateAction.NONE ) try ( final TransactionResource db = Entities.transactionFor( VmInstance.class ) ) {
         VmInstance vm = VmInstances.lookupAny( runVm.getInstanceId() );
         if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
           if ( vm.isBlockStorage( ) ) {
@@ -917,6 +1128,103 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     }
   }
 
+  /**
+   * Timings and change counts for reconciliation of reported instance state.
+   */
+  public static final class StateReconciliationMetrics {
+    private final AtomicLong polls = new AtomicLong( );
+    private final AtomicLong reported = new AtomicLong( );
+    private final AtomicLong unchanged = new AtomicLong( );
+    private final AtomicLong changed = new AtomicLong( );
+    private final AtomicLong unreported = new AtomicLong( );
+    private final AtomicLong unknown = new AtomicLong( );
+    private final AtomicLong batches = new AtomicLong( );
+    private final AtomicLong batchedInstances = new AtomicLong( );
+    private final AtomicLong batchFallbacks = new AtomicLong( );
+    private volatile long lastPollMillis;
+    private volatile long lastBatchMillis;
+
+    void poll( final String cluster,
+               final long millis,
+               final int reported,
+               final int unchanged,
+               final int changed,
+               final int unreported,
+               final int unknown ) {
+      this.polls.incrementAndGet( );
+      this.reported.addAndGet( reported );
+      this.unchanged.addAndGet( unchanged );
+      this.changed.addAndGet( changed );
+      this.unreported.addAndGet( unreported );
+      this.unknown.addAndGet( unknown );
+      this.lastPollMillis = millis;
+      if ( LOG.isDebugEnabled( ) ) {
+        LOG.debug( "Reconciled state for cluster " + cluster + " in " + millis + "ms, reported: " + reported +
+            ", unchanged: " + unchanged + ", changed: " + changed + ", unreported: " + unreported +
+            ", unknown: " + unknown );
+      }
+    }
+
+    void batch( final long millis, final int instances ) {
+      this.batches.incrementAndGet( );
+      this.batchedInstances.addAndGet( instances );
+      this.lastBatchMillis = millis;
+    }
+
+    void batchFallback( ) {
+      this.batchFallbacks.incrementAndGet( );
+    }
+
+    public long getPolls( ) {
+      return polls.get( );
+    }
+
+    public long getReported( ) {
+      return reported.get( );
+    }
+
+    public long getUnchanged( ) {
+      return unchanged.get( );
+    }
+
+    public long getChanged( ) {
+      return changed.get( );
+    }
+
+    public long getUnreported( ) {
+      return unreported.get( );
+    }
+
+    public long getUnknown( ) {
+      return unknown.get( );
+    }
+
+    public long getBatches( ) {
+      return batches.get( );
+    }
+
+    public long getBatchedInstances( ) {
+      return batchedInstances.get( );
+    }
+
+    public long getBatchFallbacks( ) {
+      return batchFallbacks.get( );
+    }
+
+    public long getLastPollMillis( ) {
+      return lastPollMillis;
+    }
+
+    public long getLastBatchMillis( ) {
+      return lastBatchMillis;
+    }
+
+    @Override
+    public String toString( ) {
+      return "Instance state reconciliation metrics";
+    }
+  }
+
   private static final class StateTaskExpiryEventListener implements EventListener<ClockTick> {
     public static void register( ){
       Listeners.register( ClockTick.class, new StateTaskExpiryEventListener( ) );
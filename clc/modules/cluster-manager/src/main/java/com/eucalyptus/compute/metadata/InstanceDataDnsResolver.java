@@ -141,6 +141,11 @@ public class InstanceDataDnsResolver extends DnsResolver {
     return null;
   }
   
+  @Override
+  public Object answerView( DnsRequest request ) {
+    return SHARED_VIEW;
+  }
+
   @Override
   public String toString( ) {
     return this.getClass( ).getSimpleName( );
@@ -30,18 +30,11 @@ import com.eucalyptus.auth.principal.UserFullName;
 import com.eucalyptus.cluster.Cluster;
 import com.eucalyptus.cluster.Clusters;
 import com.eucalyptus.compute.common.CloudMetadataLimitedType;
-import com.eucalyptus.entities.Entities;
-import com.eucalyptus.entities.TransactionResource;
 import com.eucalyptus.auth.principal.OwnerFullName;
 import com.eucalyptus.util.RestrictedTypes;
-import com.eucalyptus.compute.common.internal.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceQuotaCounts;
 import com.google.common.base.Function;
 import net.sf.json.JSONException;
-import org.hibernate.Criteria;
-import org.hibernate.criterion.Example;
-import org.hibernate.criterion.Restrictions;
-
-import java.util.List;
 
 /**
  * Created by ethomas on 3/8/15.
@@ -94,19 +87,7 @@ public class CpuTotalSizeQuotaKey extends QuotaKey {
     }
 
     private long measureFromPersistentInstances( final OwnerFullName ownerFullName ) {
-      long numCpus = 0L;
-      try ( TransactionResource tx = Entities.transactionFor( VmInstance.class ) ){
-        Criteria criteria = Entities.createCriteria(VmInstance.class)
-          .add(Example.create(VmInstance.named(ownerFullName, null)))
-          .add(Restrictions.not(Restrictions.in("state", VmInstance.VmStateSet.TORNDOWN.array())));
-        List<VmInstance> result = (List<VmInstance>) criteria.list();
-        if (result != null) {
-          for (VmInstance instance : result) {
-            numCpus += instance.getVmType().getCpu();
-          }
-        }
-      }
-      return numCpus;
+      return VmInstanceQuotaCounts.measureActiveCpus( ownerFullName );
     }
 
     private long measureFromPendingInstances( final OwnerFullName ownerFullName ) {
@@ -151,6 +151,8 @@ public class NetworkGroups extends com.eucalyptus.compute.common.internal.networ
   public static volatile Integer      MIN_BROADCAST_INTERVAL        = 5;
   @ConfigurableField( description = "Maximum time to apply network information (seconds)." )
   public static volatile Integer      MAX_BROADCAST_APPLY           = 120;
+  @ConfigurableField( description = "Maximum interval between broadcasts of unchanged network information to a cluster (seconds).", initial = "60" )
+  public static volatile Integer      MAX_BROADCAST_UNCHANGED_INTERVAL = 60;
 
   public static class NetworkRangeConfiguration {
     private Integer minNetworkTag   = GLOBAL_MIN_NETWORK_TAG;
@@ -71,7 +71,8 @@ import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.HashFunction;
@@ -84,6 +85,7 @@ import org.hibernate.criterion.Restrictions;
 
 import javax.annotation.Nullable;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -91,6 +93,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -106,30 +109,42 @@ public class NetworkInfoBroadcaster {
   private static final AtomicLong lastBroadcastTime = new AtomicLong( 0L );
   private static final Lock lastBroadcastTimeLock = new ReentrantLock( );
   private static final Semaphore activeBroadcastSemaphore = new Semaphore( 1 );
+  private static final AtomicReference<BroadcastSnapshot> lastBroadcastSnapshot = new AtomicReference<>( );
+  private static final long CACHE_FULL_REFRESH_MINS = 1;
   private static final EntityCache<VmInstance,NetworkInfoBroadcasts.VmInstanceNetworkView> instanceCache = new EntityCache<>(
       VmInstance.named(null),
       Restrictions.not( VmInstance.criterion( TORNDOWN.array( ) ) ),
       Sets.newHashSet( "networkGroups" ),
       Sets.newHashSet( "bootRecord.machineImage", "bootRecord.vmType" ),
-      TypeMappers.lookup( VmInstance.class, VmInstanceNetworkView.class )  );
+      TypeMappers.lookup( VmInstance.class, VmInstanceNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<NetworkGroup,NetworkGroupNetworkView> securityGroupCache =
-      new EntityCache<>( NetworkGroup.withNaturalId( null ), TypeMappers.lookup( NetworkGroup.class, NetworkGroupNetworkView.class )  );
+      new EntityCache<>( NetworkGroup.withNaturalId( null ), TypeMappers.lookup( NetworkGroup.class, NetworkGroupNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<Vpc,VpcNetworkView> vpcCache =
-      new EntityCache<>( Vpc.exampleWithOwner( null ), TypeMappers.lookup( Vpc.class, VpcNetworkView.class )  );
+      new EntityCache<>( Vpc.exampleWithOwner( null ), TypeMappers.lookup( Vpc.class, VpcNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<Subnet,SubnetNetworkView> subnetCache =
-      new EntityCache<>( Subnet.exampleWithOwner( null ), TypeMappers.lookup( Subnet.class, SubnetNetworkView.class )  );
+      new EntityCache<>( Subnet.exampleWithOwner( null ), TypeMappers.lookup( Subnet.class, SubnetNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<DhcpOptionSet,DhcpOptionSetNetworkView> dhcpOptionsCache =
-      new EntityCache<>( DhcpOptionSet.exampleWithOwner( null ), TypeMappers.lookup( DhcpOptionSet.class, DhcpOptionSetNetworkView.class )  );
+      new EntityCache<>( DhcpOptionSet.exampleWithOwner( null ), TypeMappers.lookup( DhcpOptionSet.class, DhcpOptionSetNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<NetworkAcl,NetworkAclNetworkView> networkAclCache =
-      new EntityCache<>( NetworkAcl.exampleWithOwner( null ), TypeMappers.lookup( NetworkAcl.class, NetworkAclNetworkView.class )  );
+      new EntityCache<>( NetworkAcl.exampleWithOwner( null ), TypeMappers.lookup( NetworkAcl.class, NetworkAclNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<RouteTable,RouteTableNetworkView> routeTableCache =
-      new EntityCache<>( RouteTable.exampleWithOwner( null ), TypeMappers.lookup( RouteTable.class, RouteTableNetworkView.class )  );
+      new EntityCache<>( RouteTable.exampleWithOwner( null ), TypeMappers.lookup( RouteTable.class, RouteTableNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<InternetGateway,InternetGatewayNetworkView> internetGatewayCache =
-      new EntityCache<>( InternetGateway.exampleWithOwner( null ), TypeMappers.lookup( InternetGateway.class, InternetGatewayNetworkView.class )  );
+      new EntityCache<>( InternetGateway.exampleWithOwner( null ), TypeMappers.lookup( InternetGateway.class, InternetGatewayNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<NetworkInterface,NetworkInterfaceNetworkView> networkInterfaceCache =
-      new EntityCache<>( NetworkInterface.exampleWithOwner( null ), TypeMappers.lookup( NetworkInterface.class, NetworkInterfaceNetworkView.class )  );
+      new EntityCache<>( NetworkInterface.exampleWithOwner( null ), TypeMappers.lookup( NetworkInterface.class, NetworkInterfaceNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final EntityCache<NatGateway,NatGatewayNetworkView> natGatewayCache =
-      new EntityCache<>( NatGateway.exampleWithOwner( null ), TypeMappers.lookup( NatGateway.class, NatGatewayNetworkView.class )  );
+      new EntityCache<>( NatGateway.exampleWithOwner( null ), TypeMappers.lookup( NatGateway.class, NatGatewayNetworkView.class ) )
+          .withChangeFeed( CACHE_FULL_REFRESH_MINS, TimeUnit.MINUTES );
   private static final VpcRouteStateInvalidator vpcRouteStateInvalidator = new EventFiringVpcRouteStateInvalidator( );
 
   private static NetworkInfoSource cacheSource( ) {
@@ -222,35 +237,43 @@ public class NetworkInfoBroadcaster {
 
       final NetworkInfoSource source = cacheSource( );
       final Set<String> dirtyPublicAddresses = PublicAddresses.dirtySnapshot( );
-      final Set<RouteKey> invalidStateRoutes = Sets.newHashSetWithExpectedSize( 50 );
-      final int sourceFingerprint = fingerprint( source, clusters, dirtyPublicAddresses, NetworkGroups.NETWORK_CONFIGURATION );
-      final NetworkInfo info = NetworkInfoBroadcasts.buildNetworkConfiguration(
-              networkConfiguration,
-              source,
-              Suppliers.ofInstance( clusters ),
-              new Supplier<String>( ) {
-                @Override
-                public String get() {
-                  return Topology.lookup( Eucalyptus.class ).getInetAddress( ).getHostAddress( );
-                }
-              },
-              new Function<List<String>, List<String>>( ) {
-                @Nullable
-                @Override
-                public List<String> apply( final List<String> defaultServers ) {
-                  return NetworkConfigurations.loadSystemNameservers( defaultServers );
-                }
-              },
-              dirtyPublicAddresses,
-              invalidStateRoutes
-          );
-          info.setVersion( BaseEncoding.base16( ).lowerCase( ).encode( Ints.toByteArray( sourceFingerprint ) ) );
+      final String clcHost = Topology.lookup( Eucalyptus.class ).getInetAddress( ).getHostAddress( );
+      final List<String> systemNameservers =
+          NetworkConfigurations.loadSystemNameservers( Collections.singletonList( "127.0.0.1" ) );
+      final int sourceFingerprint = fingerprint(
+          source, clusters, dirtyPublicAddresses, clcHost, systemNameservers, NetworkGroups.NETWORK_CONFIGURATION );
 
-      if ( !invalidStateRoutes.isEmpty( ) ) {
-        vpcRouteStateInvalidator.accept( invalidStateRoutes );
+      // rebuild only if the source views (or other inputs) changed since the last broadcast
+      BroadcastSnapshot snapshot = lastBroadcastSnapshot.get( );
+      if ( snapshot == null || snapshot.fingerprint != sourceFingerprint ) {
+        final Set<RouteKey> invalidStateRoutes = Sets.newHashSetWithExpectedSize( 50 );
+        final NetworkInfo info = NetworkInfoBroadcasts.buildNetworkConfiguration(
+            networkConfiguration,
+            source,
+            Suppliers.ofInstance( clusters ),
+            Suppliers.ofInstance( clcHost ),
+            new Function<List<String>, List<String>>( ) {
+              @Nullable
+              @Override
+              public List<String> apply( final List<String> defaultServers ) {
+                return systemNameservers;
+              }
+            },
+            dirtyPublicAddresses,
+            invalidStateRoutes
+        );
+        info.setVersion( BaseEncoding.base16( ).lowerCase( ).encode( Ints.toByteArray( sourceFingerprint ) ) );
+        snapshot = new BroadcastSnapshot( sourceFingerprint, info, ImmutableSet.copyOf( invalidStateRoutes ) );
+        lastBroadcastSnapshot.set( snapshot );
+      } else {
+        logger.trace( "Network information unchanged for version " + snapshot.info.getVersion( ) );
       }
 
-      Applicators.apply( clusters, info );
+      if ( !snapshot.invalidStateRoutes.isEmpty( ) ) {
+        vpcRouteStateInvalidator.accept( snapshot.invalidStateRoutes );
+      }
+
+      Applicators.apply( clusters, snapshot.info );
 
     } catch ( ApplicatorException e ) {
       logger.error( "Error during network broadcast", e );
@@ -261,6 +284,8 @@ public class NetworkInfoBroadcaster {
       final NetworkInfoSource source,
       final List<com.eucalyptus.cluster.Cluster> clusters,
       final Set<String> dirtyPublicAddresses,
+      final String clcHost,
+      final List<String> systemNameservers,
       final String networkConfiguration
   ) {
     final HashFunction hashFunction = goodFastHash( 32 );
@@ -279,12 +304,36 @@ public class NetworkInfoBroadcaster {
         hasher.putObject( item, versionedItemFunnel );
       }
     }
-    hasher.putString( Joiner.on( ',' ).join( Sets.newTreeSet( Iterables.transform( clusters, HasName.GET_NAME ) ) ), StandardCharsets.UTF_8 );
+    for ( final com.eucalyptus.cluster.Cluster cluster : Ordering.natural( ).onResultOf( HasName.GET_NAME ).sortedCopy( clusters ) ) {
+      hasher.putString( cluster.getName( ), StandardCharsets.UTF_8 );
+      hasher.putChar( '@' );
+      hasher.putString( String.valueOf( cluster.getHostName( ) ), StandardCharsets.UTF_8 );
+      hasher.putChar( '=' );
+      hasher.putString( Joiner.on( ',' ).join( cluster.getNodeMap( ).keySet( ) ), StandardCharsets.UTF_8 );
+      hasher.putChar( ';' );
+    }
     hasher.putString( Joiner.on( ',' ).join( Sets.newTreeSet( dirtyPublicAddresses ) ), StandardCharsets.UTF_8 );
+    hasher.putString( clcHost, StandardCharsets.UTF_8 );
+    hasher.putString( Joiner.on( ',' ).join( systemNameservers ), StandardCharsets.UTF_8 );
     hasher.putInt( networkConfiguration.hashCode( ) );
     return hasher.hash( ).asInt( );
   }
 
+  /**
+   * Network information built for a source fingerprint, reused while nothing changes.
+   */
+  private static final class BroadcastSnapshot {
+    private final int fingerprint;
+    private final NetworkInfo info;
+    private final Set<RouteKey> invalidStateRoutes;
+
+    private BroadcastSnapshot( final int fingerprint, final NetworkInfo info, final Set<RouteKey> invalidStateRoutes ) {
+      this.fingerprint = fingerprint;
+      this.info = info;
+      this.invalidStateRoutes = invalidStateRoutes;
+    }
+  }
+
   public static class NetworkInfoBroadcasterEventListener implements EventListener<ClockTick> {
     private final int intervalTicks = 3;
     private volatile int counter = 0;
@@ -29,6 +29,9 @@ import com.eucalyptus.crypto.util.B64;
 import com.eucalyptus.event.ClockTick;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.Listeners;
+import com.eucalyptus.network.NetworkGroups;
+import com.eucalyptus.util.Callback;
+import com.eucalyptus.util.Pair;
 import com.eucalyptus.util.async.AsyncRequests;
 import com.eucalyptus.util.async.UnconditionalCallback;
 import com.google.common.base.Charsets;
@@ -43,24 +46,43 @@ public class BroadcastingApplicator implements Applicator {
   private static final Logger logger = Logger.getLogger( BroadcastingApplicator.class );
 
   private static final ConcurrentMap<String,Long> activeBroadcastMap = Maps.newConcurrentMap( );
+  /**
+   * Partition to the last version (and applied version) the cluster acknowledged
+   */
+  private static final ConcurrentMap<String,Pair<String,Long>> acknowledgedBroadcastMap = Maps.newConcurrentMap( );
 
   @Override
   public void apply( final ApplicatorContext context, final ApplicatorChain chain ) throws ApplicatorException {
     final NetworkInfo netInfo = context.getNetworkInfo( );
-    final String networkInfo = MarshallingApplicatorHelper.getMarshalledNetworkInfo( context );
-    final String encodedNetworkInfo =
-        new String( B64.standard.enc( networkInfo.getBytes( Charsets.UTF_8 ) ), Charsets.UTF_8 );
+    final String broadcastVersion = netInfo.getVersion( ) + "/" + netInfo.getAppliedVersion( );
+    final long resendAfter = System.currentTimeMillis( ) - TimeUnit.SECONDS.toMillis( NetworkGroups.MAX_BROADCAST_UNCHANGED_INTERVAL );
 
-    final BroadcastNetworkInfoCallback callback = new BroadcastNetworkInfoCallback(
-        encodedNetworkInfo,
-        netInfo.getVersion( ),
-        netInfo.getAppliedVersion( )
-    );
+    BroadcastNetworkInfoCallback callback = null;
     for ( final com.eucalyptus.cluster.Cluster cluster : context.getClusters( ) ) {
+      final Pair<String,Long> acknowledged = acknowledgedBroadcastMap.get( cluster.getPartition( ) );
+      if ( acknowledged != null && broadcastVersion.equals( acknowledged.getLeft( ) ) && acknowledged.getRight( ) > resendAfter ) {
+        logger.trace( "Skipping unchanged network information broadcast for partition " + cluster.getPartition( ) );
+        continue;
+      }
+      if ( callback == null ) {
+        final String networkInfo = MarshallingApplicatorHelper.getMarshalledNetworkInfo( context );
+        final String encodedNetworkInfo =
+            new String( B64.standard.enc( networkInfo.getBytes( Charsets.UTF_8 ) ), Charsets.UTF_8 );
+        callback = new BroadcastNetworkInfoCallback(
+            encodedNetworkInfo,
+            netInfo.getVersion( ),
+            netInfo.getAppliedVersion( )
+        );
+      }
       final Long broadcastTime = System.currentTimeMillis( );
       if ( null == activeBroadcastMap.putIfAbsent( cluster.getPartition( ), broadcastTime ) ) {
         try {
-          AsyncRequests.newRequest( callback.newInstance( ) ).then( new UnconditionalCallback<BroadcastNetworkInfoResponseType>() {
+          AsyncRequests.newRequest( callback.newInstance( ) ).then( new Callback.Success<BroadcastNetworkInfoResponseType>() {
+            @Override
+            public void fire( final BroadcastNetworkInfoResponseType response ) {
+              acknowledgedBroadcastMap.put( cluster.getPartition( ), Pair.pair( broadcastVersion, broadcastTime ) );
+            }
+          } ).then( new UnconditionalCallback<BroadcastNetworkInfoResponseType>() {
             @Override
             public void fire( ) {
               activeBroadcastMap.remove( cluster.getPartition( ), broadcastTime );
@@ -20,6 +20,8 @@
 package com.eucalyptus.network.applicator;
 
 import java.io.StringWriter;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import org.apache.log4j.Logger;
@@ -34,6 +36,7 @@ class MarshallingApplicatorHelper {
   private static final Logger logger = Logger.getLogger( MarshallingApplicatorHelper.class );
 
   private static final TypedKey<String> MARSHALLED_INFO_KEY = TypedKey.create( "MarshalledNetworkInfo" );
+  private static final AtomicReference<MarshalledNetworkInfo> lastMarshalledInfo = new AtomicReference<>( );
 
   static void clearMarshalledNetworkInfoCache( final ApplicatorContext context ) {
     context.removeAttribute( MARSHALLED_INFO_KEY );
@@ -41,8 +44,13 @@ class MarshallingApplicatorHelper {
 
   static String getMarshalledNetworkInfo( final ApplicatorContext context ) throws ApplicatorException {
     String networkInfo = context.getAttribute( MARSHALLED_INFO_KEY );
+    final NetworkInfo info = context.getNetworkInfo( );
+    final MarshalledNetworkInfo lastMarshalled = lastMarshalledInfo.get( );
+    if ( networkInfo == null && lastMarshalled != null && lastMarshalled.isFor( info ) ) {
+      networkInfo = lastMarshalled.marshalled;
+      context.setAttribute( MARSHALLED_INFO_KEY, networkInfo );
+    }
     if ( networkInfo == null ) try {
-      final NetworkInfo info = context.getNetworkInfo( );
       final JAXBContext jc = JAXBContext.newInstance( "com.eucalyptus.cluster" );
       final StringWriter writer = new StringWriter( 8192 );
       jc.createMarshaller().marshal( info, writer );
@@ -52,10 +60,35 @@ class MarshallingApplicatorHelper {
         logger.trace( "Broadcasting network information:\n${networkInfo}" );
       }
       context.setAttribute( MARSHALLED_INFO_KEY, networkInfo );
+      lastMarshalledInfo.set( new MarshalledNetworkInfo( info, networkInfo ) );
     } catch ( final JAXBException e ) {
       throw new ApplicatorException( "Error marshalling network information", e );
     }
     return networkInfo;
   }
 
+  /**
+   * Marshalled form of an unchanged network information broadcast, the
+   * applied version and time are the only properties updated once built.
+   */
+  private static final class MarshalledNetworkInfo {
+    private final NetworkInfo info;
+    private final String appliedVersion;
+    private final String appliedTime;
+    private final String marshalled;
+
+    private MarshalledNetworkInfo( final NetworkInfo info, final String marshalled ) {
+      this.info = info;
+      this.appliedVersion = info.getAppliedVersion( );
+      this.appliedTime = info.getAppliedTime( );
+      this.marshalled = marshalled;
+    }
+
+    private boolean isFor( final NetworkInfo info ) {
+      return this.info == info &&
+          Objects.equals( appliedVersion, info.getAppliedVersion( ) ) &&
+          Objects.equals( appliedTime, info.getAppliedTime( ) );
+    }
+  }
+
 }
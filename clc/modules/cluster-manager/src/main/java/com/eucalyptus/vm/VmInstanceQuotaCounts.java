@@ -0,0 +1,416 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.vm;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import com.eucalyptus.auth.principal.AccountFullName;
+import com.eucalyptus.auth.principal.OwnerFullName;
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.component.Topology;
+import com.eucalyptus.component.id.Eucalyptus;
+import com.eucalyptus.compute.common.internal.vm.VmInstance;
+import com.eucalyptus.compute.common.internal.vm.VmInstance.VmState;
+import com.eucalyptus.compute.common.internal.vm.VmInstance.VmStateSet;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.entities.EntityChanges;
+import com.eucalyptus.entities.TransactionResource;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Hertz;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.util.LockResource;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Per account and per user instance counts for quota checks.
+ *
+ * <p>Counts are maintained from {@link EntityChanges} notifications by
+ * reloading only the changed instances and applying the difference. All
+ * instances are periodically reloaded and the counts rebuilt so that any
+ * changes that were not notified (e.g. from another host) cannot cause the
+ * counts to drift.</p>
+ *
+ * <p>Changes are applied every second by {@link QuotaCountsRefreshEventListener}
+ * and also by a read while changes are pending. An allocation stops counting
+ * its instances as pending once they are committed so a read must include
+ * them from then on. Additions are applied before removals so a count read
+ * during an update can be high but never low.</p>
+ */
+public class VmInstanceQuotaCounts {
+
+  private static final Logger logger = Logger.getLogger( VmInstanceQuotaCounts.class );
+  private static final int batchSize = 500;
+  private static final int maxPendingChanges = 10_000;
+
+  private static final VmInstanceQuotaCounts quotaCounts = new VmInstanceQuotaCounts(
+      new Function<Collection<String>,List<InstanceView>>( ) {
+        @Override
+        public List<InstanceView> apply( @Nullable final Collection<String> ids ) {
+          return load( ids );
+        }
+      },
+      maxPendingChanges );
+
+  private final Function<Collection<String>,List<InstanceView>> loader;
+  private final int pendingChangesLimit;
+  private final ReentrantLock refreshLock = new ReentrantLock( );
+  private final Set<String> pendingChanges = Sets.newConcurrentHashSet( );
+  private final AtomicBoolean changeFeedOverflow = new AtomicBoolean( false );
+  private final Map<String,InstanceView> instances = Maps.newHashMap( );
+  private volatile ConcurrentMap<String,Counts> counts = Maps.newConcurrentMap( );
+  private volatile long lastFullRefresh = 0L;
+
+  static {
+    EntityChanges.register( VmInstance.class, new EntityChanges.EntityChangeListener( ) {
+      @Override
+      public void changed( final Collection<String> ids ) {
+        quotaCounts.changed( ids );
+      }
+    } );
+  }
+
+  /**
+   * @param loader Loads views for the given instances, or all instances for null
+   */
+  VmInstanceQuotaCounts( final Function<Collection<String>,List<InstanceView>> loader,
+                         final int pendingChangesLimit ) {
+    this.loader = loader;
+    this.pendingChangesLimit = pendingChangesLimit;
+  }
+
+  /**
+   * Count of instances that are not terminated.
+   */
+  public static long countInstances( final OwnerFullName owner ) {
+    return quotaCounts.lookup( key( owner ) ).instances.get( );
+  }
+
+  /**
+   * Count of instances that are not stopped or terminated.
+   */
+  public static long countActiveInstances( final OwnerFullName owner ) {
+    return quotaCounts.lookup( key( owner ) ).active.get( );
+  }
+
+  /**
+   * Count of instances of the given type that are not stopped or terminated.
+   */
+  public static long countActiveInstances( final OwnerFullName owner, final String vmType ) {
+    final AtomicLong count = quotaCounts.lookup( key( owner ) ).activeByType.get( vmType );
+    return count == null ? 0L : count.get( );
+  }
+
+  public static long measureActiveCpus( final OwnerFullName owner ) {
+    return quotaCounts.lookup( key( owner ) ).cpus.get( );
+  }
+
+  public static long measureActiveMemory( final OwnerFullName owner ) {
+    return quotaCounts.lookup( key( owner ) ).memory.get( );
+  }
+
+  public static long measureActiveDisk( final OwnerFullName owner ) {
+    return quotaCounts.lookup( key( owner ) ).disk.get( );
+  }
+
+  void changed( final Collection<String> ids ) {
+    if ( pendingChanges.size( ) < pendingChangesLimit ) {
+      pendingChanges.addAll( ids );
+    } else {
+      changeFeedOverflow.set( true );
+    }
+  }
+
+  Counts lookup( final String key ) {
+    if ( lastFullRefresh == 0L || !pendingChanges.isEmpty( ) || changeFeedOverflow.get( ) ) {
+      // counts are not loaded until the first refresh, committed changes must be counted before use
+      try ( final LockResource lock = LockResource.lock( refreshLock ) ) {
+        refresh( System.currentTimeMillis( ), false );
+      }
+    }
+    final Counts ownerCounts = counts.get( key );
+    return ownerCounts == null ? Counts.EMPTY : ownerCounts;
+  }
+
+  private static String key( final OwnerFullName owner ) {
+    return owner instanceof AccountFullName ?
+        accountKey( owner.getAccountNumber( ) ) :
+        userKey( owner.getUserId( ) );
+  }
+
+  static String accountKey( final String accountNumber ) {
+    return "account:" + accountNumber;
+  }
+
+  static String userKey( final String userId ) {
+    return "user:" + userId;
+  }
+
+  /**
+   * Apply pending changes, or rebuild all counts if a full refresh is due or
+   * changes were lost.
+   */
+  void refresh( final long now, final long fullRefreshInterval ) {
+    try ( final LockResource lock = LockResource.lock( refreshLock ) ) {
+      refresh( now, lastFullRefresh + fullRefreshInterval <= now );
+    }
+  }
+
+  /**
+   * Caller must hold the refresh lock.
+   */
+  private void refresh( final long now, final boolean fullRefreshDue ) {
+    try {
+      if ( lastFullRefresh != 0L &&
+          !fullRefreshDue &&
+          !changeFeedOverflow.getAndSet( false ) ) {
+        refreshChanged( );
+      } else {
+        // changes committed from here on are reloaded on the next refresh
+        pendingChanges.clear( );
+        changeFeedOverflow.set( false );
+        refreshAll( );
+        lastFullRefresh = now;
+      }
+    } catch ( final RuntimeException e ) {
+      // consumed changes may not have been applied
+      lastFullRefresh = 0L;
+      throw e;
+    }
+  }
+
+  private void refreshAll( ) {
+    final List<InstanceView> views = loader.apply( null );
+    final ConcurrentMap<String,Counts> rebuiltCounts = Maps.newConcurrentMap( );
+    instances.clear( );
+    for ( final InstanceView view : views ) {
+      instances.put( view.id, view );
+      view.apply( rebuiltCounts, 1 );
+    }
+    counts = rebuiltCounts;
+    if ( logger.isDebugEnabled( ) ) {
+      logger.debug( "Reconciled quota counts for " + instances.size( ) + " instance(s)" );
+    }
+  }
+
+  private void refreshChanged( ) {
+    if ( pendingChanges.isEmpty( ) ) {
+      return;
+    }
+    final Set<String> changedIds = Sets.newLinkedHashSet( );
+    for ( final String id : Iterables.consumingIterable( pendingChanges ) ) {
+      changedIds.add( id );
+    }
+    final Map<String,InstanceView> loaded = Maps.newHashMap( );
+    for ( final List<String> idBatch : Iterables.partition( changedIds, batchSize ) ) {
+      for ( final InstanceView view : loader.apply( idBatch ) ) {
+        loaded.put( view.id, view );
+      }
+    }
+    final ConcurrentMap<String,Counts> currentCounts = counts;
+    final List<InstanceView> removed = Lists.newArrayList( );
+    for ( final String id : changedIds ) {
+      // changed instances that are not loaded were terminated or deleted
+      final InstanceView previous = instances.remove( id );
+      final InstanceView current = loaded.get( id );
+      if ( previous != null ) {
+        removed.add( previous );
+      }
+      if ( current != null ) {
+        instances.put( id, current );
+        current.apply( currentCounts, 1 );
+      }
+    }
+    for ( final InstanceView previous : removed ) {
+      previous.apply( currentCounts, -1 );
+    }
+  }
+
+  /**
+   * Load views for instances that are not terminated.
+   *
+   * @param ids The instances to load or null for all
+   */
+  @SuppressWarnings( "unchecked" )
+  private static List<InstanceView> load( final Collection<String> ids ) {
+    try ( final TransactionResource db = Entities.readOnlyDistinctTransactionFor( VmInstance.class ) ) {
+      final Criteria criteria = Entities.createCriteria( VmInstance.class )
+          .setReadOnly( true )
+          .setFetchSize( ids == null ? 25_000 : batchSize )
+          .createAlias( "bootRecord.vmType", "vmType" )
+          .add( Restrictions.not( VmInstance.criterion( VmStateSet.DONE.array( ) ) ) )
+          .setProjection( Projections.projectionList( )
+              .add( Projections.id( ) )
+              .add( Projections.property( "ownerAccountNumber" ) )
+              .add( Projections.property( "ownerUserId" ) )
+              .add( Projections.property( "state" ) )
+              .add( Projections.property( "vmType.name" ) )
+              .add( Projections.property( "vmType.cpu" ) )
+              .add( Projections.property( "vmType.memory" ) )
+              .add( Projections.property( "vmType.disk" ) ) );
+      if ( ids != null ) {
+        criteria.add( Restrictions.in( "id", ids ) );
+      }
+      final List<Object[]> results = (List<Object[]>) criteria.list( );
+      final List<InstanceView> views = Lists.newArrayListWithCapacity( results.size( ) );
+      for ( final Object[] result : results ) {
+        views.add( new InstanceView(
+            String.valueOf( result[ 0 ] ),
+            (String) result[ 1 ],
+            (String) result[ 2 ],
+            !VmStateSet.TORNDOWN.contains( (VmState) result[ 3 ] ),
+            (String) result[ 4 ],
+            toLong( result[ 5 ] ),
+            toLong( result[ 6 ] ),
+            toLong( result[ 7 ] ) ) );
+      }
+      return views;
+    }
+  }
+
+  private static long toLong( final Object value ) {
+    return value == null ? 0L : ( (Number) value ).longValue( );
+  }
+
+  static final class InstanceView {
+    private final String id;
+    private final String accountNumber;
+    private final String userId;
+    private final boolean active;
+    private final String vmType;
+    private final long cpus;
+    private final long memory;
+    private final long disk;
+
+    InstanceView( final String id,
+                  final String accountNumber,
+                  final String userId,
+                  final boolean active,
+                  final String vmType,
+                  final long cpus,
+                  final long memory,
+                  final long disk ) {
+      this.id = id;
+      this.accountNumber = accountNumber;
+      this.userId = userId;
+      this.active = active;
+      this.vmType = vmType;
+      this.cpus = cpus;
+      this.memory = memory;
+      this.disk = disk;
+    }
+
+    private void apply( final ConcurrentMap<String,Counts> counts, final int sign ) {
+      apply( counts, accountKey( accountNumber ), sign );
+      apply( counts, userKey( userId ), sign );
+    }
+
+    private void apply( final ConcurrentMap<String,Counts> counts, final String key, final int sign ) {
+      Counts ownerCounts = counts.get( key );
+      if ( ownerCounts == null ) {
+        counts.put( key, ownerCounts = new Counts( ) );
+      }
+      ownerCounts.instances.addAndGet( sign );
+      if ( active ) {
+        ownerCounts.active.addAndGet( sign );
+        ownerCounts.cpus.addAndGet( sign * cpus );
+        ownerCounts.memory.addAndGet( sign * memory );
+        ownerCounts.disk.addAndGet( sign * disk );
+        AtomicLong typeCount = ownerCounts.activeByType.get( vmType );
+        if ( typeCount == null ) {
+          ownerCounts.activeByType.put( vmType, typeCount = new AtomicLong( ) );
+        }
+        typeCount.addAndGet( sign );
+      }
+    }
+  }
+
+  /**
+   * Counts are only updated while holding the refresh lock.
+   */
+  static final class Counts {
+    private static final Counts EMPTY = new Counts( );
+
+    private final AtomicLong instances = new AtomicLong( );
+    private final AtomicLong active = new AtomicLong( );
+    private final AtomicLong cpus = new AtomicLong( );
+    private final AtomicLong memory = new AtomicLong( );
+    private final AtomicLong disk = new AtomicLong( );
+    private final ConcurrentMap<String,AtomicLong> activeByType = Maps.newConcurrentMap( );
+
+    long getInstances( ) {
+      return instances.get( );
+    }
+
+    long getActive( ) {
+      return active.get( );
+    }
+
+    long getCpus( ) {
+      return cpus.get( );
+    }
+
+    long getMemory( ) {
+      return memory.get( );
+    }
+
+    long getDisk( ) {
+      return disk.get( );
+    }
+
+    long getActive( final String vmType ) {
+      final AtomicLong count = activeByType.get( vmType );
+      return count == null ? 0L : count.get( );
+    }
+  }
+
+  public static class QuotaCountsRefreshEventListener implements EventListener<Hertz> {
+
+    public static void register( ) {
+      Listeners.register( Hertz.class, new QuotaCountsRefreshEventListener( ) );
+    }
+
+    @Override
+    public void fireEvent( final Hertz event ) {
+      if ( Bootstrap.isOperational( ) && Topology.isEnabledLocally( Eucalyptus.class ) ) {
+        try {
+          quotaCounts.refresh( System.currentTimeMillis( ), TimeUnit.MINUTES.toMillis( VmInstances.INSTANCE_COUNT_REFRESH_TIME ) );
+        } catch ( final RuntimeException e ) {
+          logger.error( "Error refreshing instance quota counts", e );
+        }
+      }
+    }
+  }
+}
@@ -593,6 +593,14 @@ public class VmInstances extends com.eucalyptus.compute.common.internal.vm.VmIns
                       initial = "16" )
   public static Integer   MAX_STATE_THREADS             = 16;
 
+  @ConfigurableField( description = "Maximum number of reported instance state changes to apply in a single transaction.",
+                      initial = "50", changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+  public static volatile Integer STATE_UPDATE_BATCH_SIZE = 50;
+
+  @ConfigurableField( description = "Amount of time (in minutes) between full reconciliation of the instance counts used for quotas.",
+                      initial = "5", changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+  public static volatile Integer INSTANCE_COUNT_REFRESH_TIME = 5;
+
   @ConfigurableField( description = "Amount of time (in minutes) before a EBS volume backing the instance is created",
                       initial = "30" )
   public static Integer   EBS_VOLUME_CREATION_TIMEOUT   = 30;
@@ -677,12 +685,7 @@ public class VmInstances extends com.eucalyptus.compute.common.internal.vm.VmIns
     }
 
     private long countPersistentInstances( final OwnerFullName ownerFullName ) {
-      try ( TransactionResource tx = Entities.transactionFor( VmInstance.class ) ){
-        return Entities.count(
-            VmInstance.named( ownerFullName, null ),
-            Restrictions.not(VmInstance.criterion(VmStateSet.DONE.array())),
-            Collections.<String,String>emptyMap() );
-      }
+      return VmInstanceQuotaCounts.countInstances( ownerFullName );
     }
 
     private long countPendingInstances( final OwnerFullName ownerFullName ) {
@@ -706,12 +709,7 @@ public class VmInstances extends com.eucalyptus.compute.common.internal.vm.VmIns
     }
 
     private long countPersistentInstances( final OwnerFullName ownerFullName ) {
-      try ( TransactionResource tx = Entities.transactionFor( VmInstance.class ) ){
-        return Entities.count(
-          VmInstance.named( ownerFullName, null ),
-          Restrictions.not( VmInstance.criterion( VmStateSet.TORNDOWN.array() ) ),
-          Collections.<String,String>emptyMap( ) );
-      }
+      return VmInstanceQuotaCounts.countActiveInstances( ownerFullName );
     }
 
     private long countPendingInstances( final OwnerFullName ownerFullName ) {
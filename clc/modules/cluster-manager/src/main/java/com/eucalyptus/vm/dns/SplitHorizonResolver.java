@@ -66,19 +66,24 @@ import static com.eucalyptus.util.dns.DnsResolvers.DnsRequest;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.log4j.Logger;
-import org.hibernate.criterion.Conjunction;
-import org.hibernate.criterion.Example;
-import org.hibernate.criterion.Restrictions;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
+import org.xbill.DNS.ReverseMap;
 
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.bootstrap.Databases;
@@ -86,7 +91,9 @@ import com.eucalyptus.cluster.ClusterConfiguration;
 import com.eucalyptus.component.ServiceConfiguration;
 import com.eucalyptus.component.ServiceConfigurations;
 import com.eucalyptus.component.id.ClusterController;
+import com.eucalyptus.component.id.Eucalyptus;
 import com.eucalyptus.compute.common.internal.vm.VmInstance;
+import com.eucalyptus.compute.common.internal.vm.VmNetworkConfig;
 import com.eucalyptus.compute.common.internal.vpc.Vpc;
 import com.eucalyptus.compute.common.internal.vpc.VpcMetadataNotFoundException;
 import com.eucalyptus.compute.common.internal.vpc.Vpcs;
@@ -95,13 +102,18 @@ import com.eucalyptus.compute.common.network.NetworkingFeature;
 import com.eucalyptus.compute.vpc.persist.PersistenceVpcs;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
-import com.eucalyptus.entities.Entities;
-import com.eucalyptus.entities.TransactionResource;
+import com.eucalyptus.entities.EntityCache;
+import com.eucalyptus.entities.EntityChanges;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
 import com.eucalyptus.network.IPRange;
 import com.eucalyptus.network.config.NetworkConfiguration;
 import com.eucalyptus.network.config.NetworkConfigurations;
+import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.Cidr;
 import com.eucalyptus.util.Classes;
+import com.eucalyptus.util.LockResource;
 import com.eucalyptus.util.Subnets;
 import com.eucalyptus.util.Subnets.SystemSubnetPredicate;
 import com.eucalyptus.util.dns.DnsResolvers;
@@ -120,8 +132,12 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.net.InetAddresses;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -144,15 +160,38 @@ public abstract class SplitHorizonResolver extends DnsResolver {
                                     + "Note: dns.enable must also be 'true'" )
   public static Boolean       enabled = Boolean.TRUE;
 
-  private static final LoadingCache<VmDnsCacheKey, Optional<VmDnsInfo>> instanceCache = CacheBuilder.newBuilder( )
-      .maximumSize( 25_000 )
-      .refreshAfterWrite( 5, TimeUnit.SECONDS )
-      .build( new VmDnsCacheLoader( ) );
+  private static final long INDEX_FULL_REFRESH_SECS = 10;
+
+  // running instances, reloaded on change and fully refreshed to catch changes made on other hosts
+  private static final EntityCache<VmInstance,VmDnsInfo> instanceCache = new EntityCache<>(
+      VmInstance.named( null ),
+      VmInstance.criterion( VmInstance.VmStateSet.RUN.array( ) ),
+      Collections.<String>emptySet( ),
+      Sets.newHashSet( "bootRecord.machineImage", "bootRecord.vmType" ),
+      VmDnsInfo.fromInstance( ) )
+          .withChangeFeed( INDEX_FULL_REFRESH_SECS, TimeUnit.SECONDS );
+
+  private static final AtomicReference<AddressIndex> addressIndex = new AtomicReference<>( );
+  private static final Lock addressIndexLock = new ReentrantLock( );
+  private static final AtomicBoolean addressIndexRefreshRequested = new AtomicBoolean( );
 
   private static final LoadingCache<String,Optional<VpcDnsInfo>> vpcCache = CacheBuilder.newBuilder( )
       .refreshAfterWrite( 1, TimeUnit.MINUTES )
       .build( new VpcDnsCacheLoader( ) );
 
+  /**
+   * Changes are only notified on the committing host, elsewhere the index is
+   * updated by the periodic refresh.
+   */
+  static {
+    EntityChanges.register( VmInstance.class, new EntityChanges.EntityChangeListener( ) {
+      @Override
+      public void changed( final Collection<String> ids ) {
+        requestAddressIndexRefresh( );
+      }
+    } );
+  }
+
   /**
    * Resolve the network (cidr) for an instance (i.e. a VPC or EC2-Classic)
    */
@@ -270,16 +309,90 @@ public abstract class SplitHorizonResolver extends DnsResolver {
     return false;
   }
 
+  /**
+   * Answers depend only on the query, instance changes invalidate cached answers for the instance addresses.
+   */
+  @Override
+  public Object answerView( final DnsRequest request ) {
+    return SHARED_VIEW;
+  }
+
+  /**
+   * Invalidate cached answers for the instance and reverse names of the address
+   */
+  private static void invalidateAnswers( final String address ) {
+    try {
+      final InetAddress ip = InetAddresses.forString( address );
+      for ( final InstanceDomainNames instanceDomain : InstanceDomainNames.values( ) ) {
+        DnsResolvers.invalidate( SplitHorizonResolver.class, InstanceDomainNames.fromInetAddress( instanceDomain, ip ) );
+      }
+      DnsResolvers.invalidate( SplitHorizonResolver.class, ReverseMap.fromAddress( ip ) );
+    } catch ( final Exception e ) {
+      LOG.debug( "Error invalidating cached answers for " + address, e );
+    }
+  }
+
   private static Optional<VmDnsInfo> lookupAny( InetAddress ip ) {
     return lookupPrivate( ip ).or( lookupPublic( ip ) );
   }
 
   private static Optional<VmDnsInfo> lookupPrivate( InetAddress ip ) {
-    return instanceCache.getUnchecked( VmDnsCacheKey.forPrivateAddress( ip ) );
+    return addressIndex( ).lookupPrivate( ip.getHostAddress( ) );
   }
 
   private static Optional<VmDnsInfo> lookupPublic( InetAddress ip ) {
-    return instanceCache.getUnchecked( VmDnsCacheKey.forPublicAddress( ip ) );
+    return addressIndex( ).lookupPublic( ip.getHostAddress( ) );
+  }
+
+  /**
+   * Get the address index, loading it if this is the first use.
+   */
+  private static AddressIndex addressIndex( ) {
+    final AddressIndex index = addressIndex.get( );
+    return index != null ? index : refreshAddressIndex( );
+  }
+
+  /**
+   * Refresh the index off the request path, requests made while a refresh is pending are coalesced.
+   */
+  private static void requestAddressIndexRefresh( ) {
+    if ( addressIndex.get( ) != null && addressIndexRefreshRequested.compareAndSet( false, true ) ) try {
+      Threads.enqueue( Eucalyptus.class, SplitHorizonResolver.class, new Callable<Void>( ) {
+        @Override
+        public Void call( ) {
+          addressIndexRefreshRequested.set( false );
+          try {
+            refreshAddressIndex( );
+          } catch ( final Exception e ) {
+            LOG.error( "Error refreshing instance address index", e );
+          }
+          return null;
+        }
+      } );
+    } catch ( final Exception e ) {
+      addressIndexRefreshRequested.set( false );
+      LOG.error( "Error requesting instance address index refresh", e );
+    }
+  }
+
+  /**
+   * Rebuild the index from the instance cache and invalidate cached answers for changed addresses.
+   */
+  private static AddressIndex refreshAddressIndex( ) {
+    try ( final LockResource lock = LockResource.lock( addressIndexLock ) ) {
+      final AddressIndex previous = addressIndex.get( );
+      if ( previous != null && Databases.isVolatile( ) ) {
+        return previous;
+      }
+      final AddressIndex index = AddressIndex.build( instanceCache.get( ) );
+      addressIndex.set( index );
+      if ( previous != null ) {
+        for ( final String address : index.changedAddresses( previous ) ) {
+          invalidateAnswers( address );
+        }
+      }
+      return index;
+    }
   }
 
   @Override
@@ -293,6 +406,22 @@ public abstract class SplitHorizonResolver extends DnsResolver {
     return this.getClass( ).equals( Objects.firstNonNull( Classes.typeOf( obj ), Object.class ) );
   }  
 
+  /**
+   * Periodically refresh the address index to pick up changes that were not notified.
+   */
+  public static class AddressIndexEventListener implements EventListener<ClockTick> {
+    public static void register( ) {
+      Listeners.register( ClockTick.class, new AddressIndexEventListener( ) );
+    }
+
+    @Override
+    public void fireEvent( final ClockTick event ) {
+      if ( Bootstrap.isOperational( ) && enabled ) {
+        requestAddressIndexRefresh( );
+      }
+    }
+  }
+
   public static class InternalARecordResolver extends SplitHorizonResolver {
     
     @Override
@@ -347,6 +476,16 @@ public abstract class SplitHorizonResolver extends DnsResolver {
             && query.getName( ).subdomain( InstanceDomainNames.EXTERNAL.get( ) );
     }
 
+    /**
+     * The address returned depends on the network of the requesting instance.
+     */
+    @Override
+    public Object answerView( final DnsRequest request ) {
+      return RequestType.PTR.apply( request.getQuery( ) ) ?
+          super.answerView( request ) :
+          lookupNetwork( request.getRemoteAddress( ) );
+    }
+
     @Override
     public DnsResponse lookupRecords( DnsRequest request ) {
       final Record query = request.getQuery( );
@@ -415,22 +554,6 @@ public abstract class SplitHorizonResolver extends DnsResolver {
     }
   }
   
-  private static final class VmDnsCacheLoader extends CacheLoader<VmDnsCacheKey, Optional<VmDnsInfo>> {
-    @Override
-    public Optional<VmDnsInfo> load( @Nonnull final VmDnsCacheKey key ) {
-      return key.load( Optional.<VmDnsInfo>absent( ) );
-    }
-
-    @Override
-    public ListenableFuture<Optional<VmDnsInfo>> reload( final VmDnsCacheKey key, final Optional<VmDnsInfo> oldValue ) {
-      if ( Databases.isVolatile( ) ) {
-        return Futures.immediateFuture( oldValue );
-      } else {
-        return Futures.immediateFuture( key.load( oldValue ) );
-      }
-    }
-  }
-
   private static final class VpcDnsCacheLoader extends CacheLoader<String, Optional<VpcDnsInfo>> {
     @Override
     public Optional<VpcDnsInfo> load( @Nonnull final String vpcId ) {
@@ -467,108 +590,74 @@ public abstract class SplitHorizonResolver extends DnsResolver {
     }
   }
 
-  private static abstract class VmDnsCacheKey {
-    @Nonnull public static VmDnsCacheKey forPublicAddress( InetAddress address ) {
-      return new VmPublicIpDnsCacheKey( address.getHostAddress( ) );
-    }
-
-    @Nonnull public static VmDnsCacheKey forPrivateAddress( InetAddress address ) {
-      return new VmPrivateIpDnsCacheKey( address.getHostAddress( ) );
-    }
-
-    Optional<VmDnsInfo> load( Optional<VmDnsInfo> currentValue ) {
-      try ( TransactionResource db = Entities.readOnlyDistinctTransactionFor( VmInstance.class ) ) {
-        final VmInstance example = example( );
-        final Conjunction conjunction = Restrictions.conjunction( );
-        if ( currentValue.isPresent( ) ) {
-          // Load either a different VM than the current one
-          // or the current one if it has been modified
-          conjunction.add( Restrictions.or(
-              Restrictions.and(
-                  Restrictions.eq( "naturalId", currentValue.get( ).uuid ),
-                  Restrictions.ne( "version", currentValue.get( ).version )
-              ),
-              Restrictions.ne( "naturalId", currentValue.get( ).uuid )
-          ) );
-        }
-        final VmInstance vm = ( VmInstance ) Entities.createCriteriaUnique( VmInstance.class )
-            .add( Example.create( example ) )
-            .add( conjunction )
-            .uniqueResult( );
-        if ( vm == null ) {
-          return currentValue;
-        } else if ( VmInstance.VmStateSet.RUN.apply( vm ) ) {
-          return Optional.of( new VmDnsInfo(
-              vm.getNaturalId( ),
-              vm.getDisplayName( ),
-              vm.getVersion( ),
-              vm.getPrivateAddress( ),
-              vm.hasPublicAddress( ) ? vm.getPublicAddress( ) : null,
-              vm.getVpcId( )
-          ) );
-        }
-      } catch ( Exception ex ) {
-        LOG.error( ex, ex );
+  /**
+   * Running instances by private and public address.
+   *
+   * <p>An address used by more than one instance (e.g. private addresses in
+   * different VPCs) is not indexed.</p>
+   */
+  static final class AddressIndex {
+    private final Map<String,VmDnsInfo> privateAddresses;
+    private final Map<String,VmDnsInfo> publicAddresses;
+
+    private AddressIndex( final Map<String,VmDnsInfo> privateAddresses,
+                          final Map<String,VmDnsInfo> publicAddresses ) {
+      this.privateAddresses = privateAddresses;
+      this.publicAddresses = publicAddresses;
+    }
+
+    static AddressIndex build( final Iterable<VmDnsInfo> instances ) {
+      final Map<String,VmDnsInfo> privateAddresses = Maps.newHashMap( );
+      final Map<String,VmDnsInfo> publicAddresses = Maps.newHashMap( );
+      final Set<String> duplicatePrivateAddresses = Sets.newHashSet( );
+      final Set<String> duplicatePublicAddresses = Sets.newHashSet( );
+      for ( final VmDnsInfo instance : instances ) {
+        index( privateAddresses, duplicatePrivateAddresses, instance.getPrivateIp( ), instance );
+        index( publicAddresses, duplicatePublicAddresses, instance.getPublicAddress( ), instance );
       }
-      return Optional.absent( );
-    }
-
-    abstract VmInstance example( );
-  }
-
-  private static final class VmPublicIpDnsCacheKey extends VmDnsCacheKey {
-    private final String ip;
-
-    public VmPublicIpDnsCacheKey( final String ip ) {
-      this.ip = ip;
+      privateAddresses.keySet( ).removeAll( duplicatePrivateAddresses );
+      publicAddresses.keySet( ).removeAll( duplicatePublicAddresses );
+      return new AddressIndex( ImmutableMap.copyOf( privateAddresses ), ImmutableMap.copyOf( publicAddresses ) );
     }
 
-    @Override
-    VmInstance example( ) {
-      return VmInstance.exampleWithPublicIp( ip );
-    }
-
-    @Override
-    public boolean equals( final Object o ) {
-      if ( this == o ) return true;
-      if ( o == null || getClass( ) != o.getClass( ) ) return false;
-      final VmPublicIpDnsCacheKey that = (VmPublicIpDnsCacheKey) o;
-      return java.util.Objects.equals( ip, that.ip );
+    private static void index( final Map<String,VmDnsInfo> addresses,
+                               final Set<String> duplicateAddresses,
+                               final String address,
+                               final VmDnsInfo instance ) {
+      if ( address != null && addresses.put( address, instance ) != null ) {
+        duplicateAddresses.add( address );
+      }
     }
 
-    @Override
-    public int hashCode() {
-      return java.util.Objects.hash( ip );
+    Optional<VmDnsInfo> lookupPrivate( final String address ) {
+      return Optional.fromNullable( privateAddresses.get( address ) );
     }
-  }
 
-  private static final class VmPrivateIpDnsCacheKey extends VmDnsCacheKey {
-    private final String ip;
-
-    public VmPrivateIpDnsCacheKey( final String ip ) {
-      this.ip = ip;
+    Optional<VmDnsInfo> lookupPublic( final String address ) {
+      return Optional.fromNullable( publicAddresses.get( address ) );
     }
 
-    @Override
-    VmInstance example( ) {
-      return VmInstance.exampleWithPrivateIp( ip );
-    }
-    
-    @Override
-    public boolean equals( final Object o ) {
-      if ( this == o ) return true;
-      if ( o == null || getClass( ) != o.getClass( ) ) return false;
-      final VmPrivateIpDnsCacheKey that = (VmPrivateIpDnsCacheKey) o;
-      return java.util.Objects.equals( ip, that.ip );
+    /**
+     * Get the addresses that are mapped differently in this index than in the given index.
+     */
+    Set<String> changedAddresses( final AddressIndex previous ) {
+      final Set<String> changed = Sets.newHashSet( );
+      changed( changed, privateAddresses, previous.privateAddresses );
+      changed( changed, publicAddresses, previous.publicAddresses );
+      return changed;
     }
 
-    @Override
-    public int hashCode() {
-      return java.util.Objects.hash( ip );
+    private static void changed( final Set<String> changed,
+                                 final Map<String,VmDnsInfo> current,
+                                 final Map<String,VmDnsInfo> previous ) {
+      final MapDifference<String,VmDnsInfo> difference = Maps.difference( current, previous );
+      changed.addAll( difference.entriesOnlyOnLeft( ).keySet( ) );
+      changed.addAll( difference.entriesOnlyOnRight( ).keySet( ) );
+      changed.addAll( difference.entriesDiffering( ).keySet( ) );
     }
   }
 
-  static final class VmDnsInfo {
+  static final class VmDnsInfo implements Comparable<VmDnsInfo> {
     private final String uuid;
     private final String id;
     private final Integer version;
@@ -576,6 +665,8 @@ public abstract class SplitHorizonResolver extends DnsResolver {
     @Nullable
     private final String publicIp;
     @Nullable
+    private final String publicAddress;
+    @Nullable
     private final String vpcId;
 
     public VmDnsInfo(
@@ -584,6 +675,7 @@ public abstract class SplitHorizonResolver extends DnsResolver {
         final Integer version,
         final String privateIp,
         final String publicIp,
+        final String publicAddress,
         final String vpcId
     ) {
       this.uuid = uuid;
@@ -591,9 +683,14 @@ public abstract class SplitHorizonResolver extends DnsResolver {
       this.version = version;
       this.privateIp = privateIp;
       this.publicIp = publicIp;
+      this.publicAddress = publicAddress;
       this.vpcId = vpcId;
     }
 
+    static Function<VmInstance,VmDnsInfo> fromInstance( ) {
+      return VmDnsInfoTransform.INSTANCE;
+    }
+
     public String getPrivateIp( ) {
       return privateIp;
     }
@@ -603,10 +700,59 @@ public abstract class SplitHorizonResolver extends DnsResolver {
       return publicIp;
     }
 
+    /**
+     * The public address as recorded for the instance, which may be the private address.
+     */
+    @Nullable
+    public String getPublicAddress( ) {
+      return publicAddress;
+    }
+
     @Nullable
     public String getVpcId( ) {
       return vpcId;
     }
+
+    @Override
+    public int compareTo( @Nonnull final VmDnsInfo o ) {
+      return uuid.compareTo( o.uuid );
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final VmDnsInfo that = (VmDnsInfo) o;
+      return java.util.Objects.equals( uuid, that.uuid ) &&
+          java.util.Objects.equals( version, that.version ) &&
+          java.util.Objects.equals( privateIp, that.privateIp ) &&
+          java.util.Objects.equals( publicIp, that.publicIp ) &&
+          java.util.Objects.equals( publicAddress, that.publicAddress ) &&
+          java.util.Objects.equals( vpcId, that.vpcId );
+    }
+
+    @Override
+    public int hashCode( ) {
+      return java.util.Objects.hash( uuid, version );
+    }
+
+    private enum VmDnsInfoTransform implements Function<VmInstance,VmDnsInfo> {
+      INSTANCE {
+        @Override
+        public VmDnsInfo apply( final VmInstance vm ) {
+          final String publicAddress = vm.getPublicAddress( );
+          return new VmDnsInfo(
+              vm.getNaturalId( ),
+              vm.getDisplayName( ),
+              vm.getVersion( ),
+              vm.getPrivateAddress( ),
+              vm.hasPublicAddress( ) ? publicAddress : null,
+              VmNetworkConfig.DEFAULT_IP.equals( publicAddress ) ? null : publicAddress,
+              vm.getVpcId( )
+          );
+        }
+      }
+    }
   }
 
   private static final class VpcDnsInfo {
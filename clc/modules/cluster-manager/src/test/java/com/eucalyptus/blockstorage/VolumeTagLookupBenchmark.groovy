@@ -0,0 +1,201 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage
+
+import com.eucalyptus.auth.principal.AccountFullName
+import com.eucalyptus.auth.principal.OwnerFullName
+import com.eucalyptus.compute.common.internal.blockstorage.State
+import com.eucalyptus.compute.common.internal.blockstorage.Volume
+import com.eucalyptus.compute.common.internal.blockstorage.VolumeTag
+import com.eucalyptus.compute.common.internal.tags.Filter
+import com.eucalyptus.compute.common.internal.tags.Tag
+import com.eucalyptus.entities.Entities
+import com.eucalyptus.entities.PersistenceContextConfiguration
+import com.eucalyptus.entities.PersistenceContexts
+import com.eucalyptus.entities.Transactions
+import com.google.common.base.Predicates
+import com.google.common.collect.ImmutableList
+
+import javax.persistence.EntityTransaction
+
+/**
+ * Timings for tag filtered volume lookups and tag map loading.
+ *
+ * Tags are seeded in stages up to 100k for one account, with a second
+ * account holding a further 20% so that account restrictions matter.
+ * Each stage times the describe filters (tag:Key, tag-key, tag-value) and
+ * getResourceTagMap for a range of request sizes.
+ *
+ * Each timing is also shown relative to the first stage. With indexed
+ * lookups, a filter or tag map request that returns the same number of
+ * tags grows by much less than the 10x growth in the number of tags.
+ *
+ * Run with the cluster-manager test classpath, using an in memory derby
+ * persistence context:
+ *
+ *   java -cp ... com.eucalyptus.blockstorage.VolumeTagLookupBenchmark
+ *
+ * The name does not match the junit batch pattern so it is not run by the
+ * junit target. Absolute times are only comparable between runs on the
+ * same host.
+ */
+class VolumeTagLookupBenchmark {
+
+  private static final int TAGS_PER_VOLUME = 4
+  private static final int WARMUP = 3
+  private static final int ITERATIONS = 10
+  private static final OwnerFullName owner = AccountFullName.getInstance( '000000000001' )
+  private static final OwnerFullName other = AccountFullName.getInstance( '000000000002' )
+
+  private static final List<Integer> STAGES = [ 10_000, 50_000, 100_000 ]
+
+  private static int volumes = 0
+  private static int otherVolumes = 0
+  private static final Map<String,Long> firstStageMicros = [:]
+
+  static void main( String[] args ) {
+    setup( )
+    try {
+      new VolumeTagLookupBenchmark( ).benchmark( )
+    } finally {
+      tearDown( )
+    }
+  }
+
+  static void setup( ) {
+    Map<String,String> props = [
+        'hibernate.ejb.interceptor.session_scoped': 'com.eucalyptus.entities.DelegatingInterceptor',
+        'hibernate.show_sql': 'false',
+        'hibernate.format_sql': 'false',
+        'hibernate.generate_statistics': 'false',
+        'hibernate.bytecode.use_reflection_optimizer': 'true',
+        'javax.persistence.jdbc.driver': 'org.apache.derby.jdbc.EmbeddedDriver',
+        'javax.persistence.jdbc.user': 'root',
+        'javax.persistence.jdbc.password': 'root',
+        'hibernate.hbm2ddl.auto': 'create',
+        'hibernate.cache.use_second_level_cache': 'false',
+        'hibernate.dialect': 'org.hibernate.dialect.DerbyDialect',
+        'hibernate.connection.url': 'jdbc:derby:memory:test;create=true',
+    ]
+    PersistenceContexts.registerPersistenceContext( new PersistenceContextConfiguration(
+        'eucalyptus_cloud',
+        ImmutableList.<Class<?>>of( Tag, VolumeTag, Volume ),
+        props
+    ) )
+  }
+
+  static void tearDown( ) {
+    PersistenceContexts.shutdown( )
+  }
+
+  void benchmark( ) {
+    for ( int tags : STAGES ) {
+      seed( tags )
+      println "${tags} tags, ${volumes} volumes (${otherVolumes} volumes for other account)"
+      benchmarkFilters( )
+      benchmarkTagMap( )
+    }
+  }
+
+  private static void benchmarkFilters( ) {
+    Volumes.VolumeFilterSupport filterSupport = new Volumes.VolumeFilterSupport( )
+    [
+        'tag:Name (1 match)'     : [ 'tag:Name': [ 'volume-1' ] as Set ],
+        'tag:env (10% match)'    : [ 'tag:env': [ 'env-0' ] as Set ],
+        'tag:team (1% match)'    : [ 'tag:team': [ 'team-0' ] as Set ],
+        'tag-key (all match)'    : [ 'tag-key': [ 'env' ] as Set ],
+        'tag-value (1% match)'   : [ 'tag-value': [ 'team-0' ] as Set ],
+        'tag:env and tag:team'   : [ 'tag:env': [ 'env-0' ] as Set, 'tag:team': [ 'team-0' ] as Set ],
+    ].each { String name, Map<String,Set<String>> filters ->
+      Filter filter = filterSupport.generate( filters, false, owner.accountNumber )
+      int matched = 0
+      long micros = time {
+        matched = Transactions.filter(
+            Volume.named( owner, null ),
+            Predicates.alwaysTrue( ),
+            filter.asCriterion( ),
+            filter.aliases ).size( )
+      }
+      println "  filter ${name}: ${matched} volumes in ${micros}us${scaling( "filter ${name}", micros )}"
+    }
+  }
+
+  private static void benchmarkTagMap( ) {
+    VolumeTag.VolumeTagSupport tagSupport = new VolumeTag.VolumeTagSupport( )
+    [ 100, 500, 1000, 2500 ].each { int size ->
+      List<String> ids = ( 0..<size ).collect{ int index -> "volume-${index}".toString( ) }
+      int loaded = 0
+      long micros = time {
+        loaded = tagSupport.getResourceTagMap( owner, ids ).values( )*.size( ).sum( ) as int
+      }
+      println "  tag map ${size} volumes: ${loaded} tags in ${micros}us${scaling( "tag map ${size}", micros )}"
+    }
+  }
+
+  private static void seed( int tags ) {
+    int targetVolumes = tags.intdiv( TAGS_PER_VOLUME )
+    int targetOtherVolumes = targetVolumes.intdiv( 5 )
+    while ( volumes < targetVolumes ) {
+      volumes = persistVolumes( owner, volumes, Math.min( volumes + 1000, targetVolumes ) )
+    }
+    while ( otherVolumes < targetOtherVolumes ) {
+      otherVolumes = persistVolumes( other, otherVolumes, Math.min( otherVolumes + 1000, targetOtherVolumes ) )
+    }
+  }
+
+  private static int persistVolumes( OwnerFullName volumeOwner, int from, int to ) {
+    EntityTransaction transaction = Entities.get( Volume )
+    try {
+      for ( int index = from; index < to; index++ ) {
+        Volume volume = Volume.named( volumeOwner, "volume-${index}".toString( ) )
+        volume.setState( State.EXTANT )
+        Entities.persist( volume )
+        Entities.persist( new VolumeTag( volume, volumeOwner, 'Name', "volume-${index}".toString( ) ) )
+        Entities.persist( new VolumeTag( volume, volumeOwner, 'env', "env-${index % 10}".toString( ) ) )
+        Entities.persist( new VolumeTag( volume, volumeOwner, 'team', "team-${index % 100}".toString( ) ) )
+        Entities.persist( new VolumeTag( volume, volumeOwner, 'cost-center', "cc-${index % 1000}".toString( ) ) )
+      }
+      transaction.commit( )
+    } finally {
+      if ( transaction.isActive( ) ) transaction.rollback( )
+    }
+    to
+  }
+
+  /**
+   * Growth of a timing since the first stage, for comparison with the growth in tags.
+   */
+  private static String scaling( String name, long micros ) {
+    Long first = firstStageMicros.putIfAbsent( name, micros )
+    first == null ?
+        '' :
+        String.format( ' (x%.1f for x%d tags)', micros / (double) Math.max( 1L, first ), volumes.intdiv( STAGES[0].intdiv( TAGS_PER_VOLUME ) ) )
+  }
+
+  /**
+   * Average time per lookup in microseconds
+   */
+  private static long time( Closure<?> lookup ) {
+    WARMUP.times{ lookup.call( ) }
+    long start = System.nanoTime( )
+    ITERATIONS.times{ lookup.call( ) }
+    ( System.nanoTime( ) - start ) / ITERATIONS / 1_000L as long
+  }
+}
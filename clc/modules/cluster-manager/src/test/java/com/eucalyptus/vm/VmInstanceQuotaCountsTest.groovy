@@ -0,0 +1,189 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.vm
+
+import com.eucalyptus.vm.VmInstanceQuotaCounts.InstanceView
+import com.google.common.base.Function
+import com.google.common.collect.Lists
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.fail
+
+/**
+ *
+ */
+class VmInstanceQuotaCountsTest {
+
+  private static final long FULL_REFRESH = 300_000L
+
+  private final Map<String,InstanceView> stored = [:]
+  private final List<Collection<String>> loads = []
+  private boolean failLoad = false
+
+  private VmInstanceQuotaCounts counts( int pendingChangesLimit = 100 ) {
+    new VmInstanceQuotaCounts( new Function<Collection<String>,List<InstanceView>>( ) {
+      @Override
+      List<InstanceView> apply( final Collection<String> ids ) {
+        if ( failLoad ) throw new RuntimeException( 'load failed' )
+        loads << ids
+        ids == null ?
+            Lists.newArrayList( stored.values( ) ) :
+            ids.findResults{ String id -> stored[ id ] }
+      }
+    }, pendingChangesLimit )
+  }
+
+  private void store( String id, String account, String user, boolean active, String type = 'm1.small', long cpus = 1 ) {
+    stored[ id ] = new InstanceView( id, account, user, active, type, cpus, 256L * cpus, 5L * cpus )
+  }
+
+  private static void assertCounts( VmInstanceQuotaCounts quotaCounts, String key, long instances, long active, long cpus ) {
+    VmInstanceQuotaCounts.Counts counts = quotaCounts.lookup( key )
+    assertEquals( "instances for ${key}", instances, counts.getInstances( ) )
+    assertEquals( "active for ${key}", active, counts.getActive( ) )
+    assertEquals( "cpus for ${key}", cpus, counts.getCpus( ) )
+    assertEquals( "memory for ${key}", 256L * cpus, counts.getMemory( ) )
+    assertEquals( "disk for ${key}", 5L * cpus, counts.getDisk( ) )
+  }
+
+  @Test
+  void testFullRefresh( ) {
+    store( 'i-1', '000000000001', 'u1', true )
+    store( 'i-2', '000000000001', 'u2', true, 'm1.large', 2 )
+    store( 'i-3', '000000000002', 'u3', false )
+    VmInstanceQuotaCounts quotaCounts = counts( )
+    quotaCounts.refresh( 1000L, FULL_REFRESH )
+
+    assertEquals( 'loads', [ null ], loads )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 2, 2, 3 )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.userKey( 'u2' ), 1, 1, 2 )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000002' ), 1, 0, 0 )
+    assertEquals( 'm1.large', 1L, quotaCounts.lookup( VmInstanceQuotaCounts.accountKey( '000000000001' ) ).getActive( 'm1.large' ) )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000003' ), 0, 0, 0 )
+  }
+
+  @Test
+  void testChangesApplied( ) {
+    store( 'i-1', '000000000001', 'u1', true )
+    store( 'i-2', '000000000001', 'u1', true, 'm1.large', 2 )
+    VmInstanceQuotaCounts quotaCounts = counts( )
+    quotaCounts.refresh( 1000L, FULL_REFRESH )
+
+    // stop one, terminate one and launch one
+    store( 'i-1', '000000000001', 'u1', false )
+    stored.remove( 'i-2' )
+    store( 'i-3', '000000000001', 'u2', true, 'm1.large', 2 )
+    quotaCounts.changed( [ 'i-1', 'i-2', 'i-3' ] )
+    quotaCounts.refresh( 2000L, FULL_REFRESH )
+
+    assertEquals( 'loads', [ null, [ 'i-1', 'i-2', 'i-3' ] ], loads )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 2, 1, 2 )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.userKey( 'u1' ), 1, 0, 0 )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.userKey( 'u2' ), 1, 1, 2 )
+    assertEquals( 'm1.large', 1L, quotaCounts.lookup( VmInstanceQuotaCounts.accountKey( '000000000001' ) ).getActive( 'm1.large' ) )
+    assertEquals( 'm1.small', 0L, quotaCounts.lookup( VmInstanceQuotaCounts.accountKey( '000000000001' ) ).getActive( 'm1.small' ) )
+  }
+
+  @Test
+  void testChangesAppliedOnLookup( ) {
+    store( 'i-1', '000000000001', 'u1', true )
+    VmInstanceQuotaCounts quotaCounts = counts( )
+    quotaCounts.refresh( 1000L, FULL_REFRESH )
+
+    // instances committed for an allocation are counted before the next refresh
+    store( 'i-2', '000000000001', 'u1', true, 'm1.large', 2 )
+    quotaCounts.changed( [ 'i-2' ] )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 2, 2, 3 )
+    assertEquals( 'loads', [ null, [ 'i-2' ] ], loads )
+
+    // nothing pending so lookup does not load
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.userKey( 'u1' ), 2, 2, 3 )
+    quotaCounts.refresh( 2000L, FULL_REFRESH )
+    assertEquals( 'loads', [ null, [ 'i-2' ] ], loads )
+  }
+
+  @Test
+  void testNoChanges( ) {
+    store( 'i-1', '000000000001', 'u1', true )
+    VmInstanceQuotaCounts quotaCounts = counts( )
+    quotaCounts.refresh( 1000L, FULL_REFRESH )
+    quotaCounts.refresh( 2000L, FULL_REFRESH )
+
+    assertEquals( 'loads', [ null ], loads )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 1, 1, 1 )
+  }
+
+  @Test
+  void testChangeFeedOverflow( ) {
+    store( 'i-1', '000000000001', 'u1', true )
+    VmInstanceQuotaCounts quotaCounts = counts( 2 )
+    quotaCounts.refresh( 1000L, FULL_REFRESH )
+
+    store( 'i-2', '000000000001', 'u1', true )
+    store( 'i-3', '000000000001', 'u1', true )
+    quotaCounts.changed( [ 'i-1', 'i-2' ] )
+    quotaCounts.changed( [ 'i-3' ] ) // dropped, pending changes are at the limit
+    quotaCounts.refresh( 2000L, FULL_REFRESH )
+
+    assertEquals( 'loads', [ null, null ], loads )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 3, 3, 3 )
+
+    // pending changes were discarded by the full refresh
+    quotaCounts.refresh( 3000L, FULL_REFRESH )
+    assertEquals( 'loads', [ null, null ], loads )
+  }
+
+  @Test
+  void testPeriodicFullRefresh( ) {
+    store( 'i-1', '000000000001', 'u1', true )
+    VmInstanceQuotaCounts quotaCounts = counts( )
+    quotaCounts.refresh( 1000L, FULL_REFRESH )
+
+    // a change that was not notified is picked up by the next full refresh
+    store( 'i-2', '000000000001', 'u1', true )
+    quotaCounts.refresh( 1000L + FULL_REFRESH - 1, FULL_REFRESH )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 1, 1, 1 )
+    quotaCounts.refresh( 1000L + FULL_REFRESH, FULL_REFRESH )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 2, 2, 2 )
+  }
+
+  @Test
+  void testFailedRefreshReloadsAll( ) {
+    store( 'i-1', '000000000001', 'u1', true )
+    VmInstanceQuotaCounts quotaCounts = counts( )
+    quotaCounts.refresh( 1000L, FULL_REFRESH )
+
+    store( 'i-2', '000000000001', 'u1', true )
+    quotaCounts.changed( [ 'i-2' ] )
+    failLoad = true
+    try {
+      quotaCounts.refresh( 2000L, FULL_REFRESH )
+      fail( 'Expected load failure' )
+    } catch ( RuntimeException e ) {
+      // expected, the change is consumed but not applied
+    }
+    failLoad = false
+    quotaCounts.refresh( 3000L, FULL_REFRESH )
+
+    assertEquals( 'loads', [ null, null ], loads )
+    assertCounts( quotaCounts, VmInstanceQuotaCounts.accountKey( '000000000001' ), 2, 2, 2 )
+  }
+}
@@ -0,0 +1,80 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.vm.dns
+
+import com.eucalyptus.vm.dns.SplitHorizonResolver.AddressIndex
+import com.eucalyptus.vm.dns.SplitHorizonResolver.VmDnsInfo
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+/**
+ *
+ */
+class AddressIndexTest {
+
+  private static VmDnsInfo instance( String uuid, int version, String privateIp, String publicIp, String vpcId = null ) {
+    new VmDnsInfo( uuid, "i-${uuid}", version, privateIp, publicIp, publicIp, vpcId )
+  }
+
+  @Test
+  void testLookup( ) {
+    AddressIndex index = AddressIndex.build( [
+        instance( '1', 1, '10.0.0.1', '1.1.1.1' ),
+        instance( '2', 1, '10.0.0.2', null ),
+    ] )
+    assertEquals( 'Private lookup', '10.0.0.1', index.lookupPrivate( '10.0.0.1' ).get( ).privateIp )
+    assertEquals( 'Public lookup', '10.0.0.1', index.lookupPublic( '1.1.1.1' ).get( ).privateIp )
+    assertTrue( 'Private lookup without public', index.lookupPrivate( '10.0.0.2' ).isPresent( ) )
+    assertFalse( 'Public lookup by private address', index.lookupPublic( '10.0.0.1' ).isPresent( ) )
+    assertFalse( 'Unknown address', index.lookupPrivate( '10.0.0.3' ).isPresent( ) )
+  }
+
+  @Test
+  void testDuplicateAddressNotIndexed( ) {
+    AddressIndex index = AddressIndex.build( [
+        instance( '1', 1, '10.0.0.1', null, 'vpc-1' ),
+        instance( '2', 1, '10.0.0.1', null, 'vpc-2' ),
+        instance( '3', 1, '10.0.0.3', null, 'vpc-2' ),
+    ] )
+    assertFalse( 'Duplicate private address', index.lookupPrivate( '10.0.0.1' ).isPresent( ) )
+    assertTrue( 'Unique private address', index.lookupPrivate( '10.0.0.3' ).isPresent( ) )
+  }
+
+  @Test
+  void testChangedAddresses( ) {
+    AddressIndex previous = AddressIndex.build( [
+        instance( '1', 1, '10.0.0.1', '1.1.1.1' ),
+        instance( '2', 1, '10.0.0.2', '1.1.1.2' ),
+        instance( '3', 1, '10.0.0.3', null ),
+    ] )
+    AddressIndex current = AddressIndex.build( [
+        instance( '1', 1, '10.0.0.1', '1.1.1.1' ), // unchanged
+        instance( '2', 2, '10.0.0.2', '1.1.1.5' ), // public address moved
+        instance( '4', 1, '10.0.0.4', null ),      // launched, 3 terminated
+    ] )
+    assertEquals( 'Changed addresses',
+        [ '10.0.0.2', '1.1.1.2', '1.1.1.5', '10.0.0.3', '10.0.0.4' ] as Set,
+        current.changedAddresses( previous ) )
+    assertEquals( 'No changes', [] as Set, current.changedAddresses( current ) )
+  }
+}
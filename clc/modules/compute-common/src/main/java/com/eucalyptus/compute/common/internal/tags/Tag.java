@@ -26,6 +26,7 @@ import javax.persistence.Column;
 import javax.persistence.DiscriminatorColumn;
 import javax.persistence.DiscriminatorType;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.PersistenceContext;
@@ -48,7 +49,11 @@ import com.google.common.base.Preconditions;
  */
 @Entity
 @PersistenceContext( name = "eucalyptus_cloud" )
-@Table( name = "metadata_tags" )
+@Table( name = "metadata_tags", indexes = {
+    @Index( name = "metadata_tags_account_key_value_idx", columnList = "metadata_account_id, metadata_display_name, metadata_tag_value" ),
+    @Index( name = "metadata_tags_account_value_idx", columnList = "metadata_account_id, metadata_tag_value" ),
+    @Index( name = "metadata_tags_resource_id_idx", columnList = "metadata_resource_id" ),
+} )
 @Inheritance( strategy = InheritanceType.JOINED )
 @DiscriminatorColumn( name="metadata_tag_resource_type", discriminatorType = DiscriminatorType.STRING, length = 32) // ignored by Hibernate (for JOINED)
 @AttributeOverride(name = "displayName", column = @Column(name = "metadata_display_name", updatable = false, nullable = false, length = 128))
@@ -27,10 +27,6 @@ import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.log4j.Logger;
-import org.hibernate.criterion.Criterion;
-import org.hibernate.criterion.DetachedCriteria;
-import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
 import com.eucalyptus.compute.common.CloudMetadata;
 import com.eucalyptus.entities.AbstractPersistent;
@@ -56,6 +52,7 @@ public abstract class TagSupport {
   private static final ConcurrentMap<String,TagSupport> supportByIdentifierPrefix = Maps.newConcurrentMap();
   private static final ConcurrentMap<Class<? extends CloudMetadata>,TagSupport> supportByClass = Maps.newConcurrentMap();
   private static final Splitter idSplitter = Splitter.on( '-' ).limit( 2 );
+  private static final int RESOURCE_TAG_BATCH_SIZE = 500;
 
   private final Class<? extends AbstractPersistent> resourceClass;
   private final Class<? extends CloudMetadata> cloudMetadataClass;
@@ -146,17 +143,19 @@ public abstract class TagSupport {
     }
     if ( !tagMap.isEmpty() ) {
       final Tag example = example( owner );
-      final Criterion idRestriction = identifiersSize < 1000 ?
-          Property.forName( tagClassResourceField ).in( DetachedCriteria.forClass( resourceClass )
-              .add( Restrictions.in( resourceClassIdField, Lists.newArrayList( identifiers ) ) )
-              .setProjection( Projections.id( ) ) ) :
-          Restrictions.conjunction( );
       try {
-        final List<Tag> tags = Tags.list( example, Predicates.alwaysTrue(), idRestriction, Collections.<String,String>emptyMap()  );
-        for ( final Tag tag : tags ) {
-          final List<Tag> keyTags = tagMap.get( tag.getResourceId( ) );
-          if ( keyTags != null ) {
-            keyTags.add( tag );
+        // batch the identifiers using the resource id index rather than loading every tag for the account
+        for ( final List<String> identifierBatch : Iterables.partition( tagMap.keySet( ), RESOURCE_TAG_BATCH_SIZE ) ) {
+          final List<Tag> tags = Tags.list(
+              example,
+              Predicates.alwaysTrue(),
+              Restrictions.in( "resourceId", identifierBatch ),
+              Collections.<String,String>emptyMap() );
+          for ( final Tag tag : tags ) {
+            final List<Tag> keyTags = tagMap.get( tag.getResourceId( ) );
+            if ( keyTags != null ) {
+              keyTags.add( tag );
+            }
           }
         }
       } catch ( Exception e ) {
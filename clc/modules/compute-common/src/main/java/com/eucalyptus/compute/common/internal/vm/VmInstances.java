@@ -73,6 +73,7 @@ import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Example;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projection;
 import org.hibernate.criterion.Restrictions;
 import com.eucalyptus.compute.common.CloudMetadata;
@@ -230,6 +231,62 @@ public class VmInstances {
     );
   }
 
+  /**
+   * List a page of instances in any state that match the given parameters.
+   *
+   * <p>Instances are ordered by identifier and loaded in batches, instances
+   * that do not match the predicate are evicted so the session holds at most
+   * a batch and a page of instances. Must be called in a transaction.</p>
+   *
+   * @param afterInstanceId Identifier of the last instance on the previous page, null for the first page
+   * @param pageSize The maximum number of instances to return
+   * @return The matching instances, one more than the page size if there are further pages
+   */
+  @SuppressWarnings( "unchecked" )
+  public static List<VmInstance> listPage( @Nullable final OwnerFullName ownerFullName,
+                                           final Criterion criterion,
+                                           final Map<String,String> aliases,
+                                           @Nullable final Predicate<? super VmInstance> predicate,
+                                           @Nullable final String afterInstanceId,
+                                           final int pageSize ) {
+    final Predicate<? super VmInstance> pagePredicate = Predicates.<VmInstance>and(
+        RestrictedTypes.filterByOwner( ownerFullName ),
+        checkPredicate( predicate )
+    );
+    final int batchSize = Math.max( pageSize + 1, 100 );
+    final List<VmInstance> instances = Lists.newArrayListWithCapacity( pageSize + 1 );
+    String lastInstanceId = afterInstanceId;
+    while ( instances.size( ) <= pageSize ) {
+      final Criteria criteria = Entities.createCriteria( VmInstance.class )
+          .setReadOnly( true )
+          .setResultTransformer( Criteria.DISTINCT_ROOT_ENTITY )
+          .setMaxResults( batchSize )
+          .setFetchSize( batchSize )
+          .add( Example.create( VmInstance.named( ownerFullName, null ) ) )
+          .add( criterion )
+          .addOrder( Order.asc( "displayName" ) );
+      if ( lastInstanceId != null ) {
+        criteria.add( Restrictions.gt( "displayName", lastInstanceId ) );
+      }
+      for ( final Map.Entry<String,String> aliasEntry : aliases.entrySet( ) ) {
+        criteria.createAlias( aliasEntry.getKey( ), aliasEntry.getValue( ) );
+      }
+      final List<VmInstance> batch = ( List<VmInstance> ) criteria.list( );
+      if ( batch.isEmpty( ) ) {
+        break;
+      }
+      for ( final VmInstance instance : batch ) {
+        lastInstanceId = instance.getDisplayName( );
+        if ( instances.size( ) <= pageSize && pagePredicate.apply( instance ) ) {
+          instances.add( instance );
+        } else {
+          Entities.evict( instance );
+        }
+      }
+    }
+    return instances;
+  }
+
   /**
    * List instances in any state that match the given parameters.
    */
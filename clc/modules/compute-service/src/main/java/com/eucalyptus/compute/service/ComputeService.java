@@ -154,6 +154,8 @@ import edu.ucsb.eucalyptus.msgs.BaseMessages;
 @ComponentNamed
 public class ComputeService implements Callable {
   private static Logger LOG = Logger.getLogger( ComputeService.class );
+  private static final int MIN_INSTANCES_PAGE_SIZE = 5;
+  private static final int MAX_INSTANCES_PAGE_SIZE = 1000;
 
   private final DhcpOptionSets dhcpOptionSets;
   private final InternetGateways internetGateways;
@@ -448,13 +450,42 @@ public class ComputeService implements Callable {
     final OwnerFullName ownerFullName = ( ctx.isAdministrator( ) && showAll )
         ? null
         : ctx.getUserFullName( ).asAccountFullName( );
+    final boolean paged = msg.getMaxResults( ) != null || msg.getNextToken( ) != null;
+    if ( paged && !identifiers.isEmpty( ) ) {
+      throw new ComputeServiceClientException( "InvalidParameterCombination", "The parameter instancesSet cannot be used with the parameter maxResults" );
+    }
+    final int pageSize = Objects.firstNonNull( msg.getMaxResults( ), MAX_INSTANCES_PAGE_SIZE );
+    if ( pageSize < MIN_INSTANCES_PAGE_SIZE || pageSize > MAX_INSTANCES_PAGE_SIZE ) {
+      throw new ComputeServiceClientException( "InvalidParameterValue", "Value ( "+pageSize+" ) for parameter maxResults is invalid. Expecting a value between "+MIN_INSTANCES_PAGE_SIZE+" and "+MAX_INSTANCES_PAGE_SIZE+"." );
+    }
+    final String afterInstanceId = msg.getNextToken( ) == null ? null : normalizeInstancesNextToken( msg.getNextToken( ) );
     try ( final TransactionResource db = Entities.readOnlyDistinctTransactionFor( VmInstance.class ) ) {
-      final List<VmInstance> instances = VmInstances.list(
-          ownerFullName,
-          persistenceFilter.asCriterionWithConjunction( Restrictions.not( VmInstance.criterion( VmInstance.VmState.BURIED ) ) ),
-          persistenceFilter.getAliases( ),
-          Predicates.and( new TrackingPredicate<VmInstance>( identifiers ), requestedAndAccessible ) );
-      errorIfNotFound( "InvalidInstanceID.NotFound", "instance ID", identifiers );
+      final Criterion criterion =
+          persistenceFilter.asCriterionWithConjunction( Restrictions.not( VmInstance.criterion( VmInstance.VmState.BURIED ) ) );
+      final List<VmInstance> instances;
+      if ( paged ) {
+        // query is ordered and limited by instance id, so only a page of instances is loaded
+        final List<VmInstance> page = VmInstances.listPage(
+            ownerFullName,
+            criterion,
+            persistenceFilter.getAliases( ),
+            requestedAndAccessible,
+            afterInstanceId,
+            pageSize );
+        if ( page.size( ) > pageSize ) {
+          instances = page.subList( 0, pageSize );
+          reply.setNextToken( instances.get( pageSize - 1 ).getDisplayName( ) );
+        } else {
+          instances = page;
+        }
+      } else {
+        instances = VmInstances.list(
+            ownerFullName,
+            criterion,
+            persistenceFilter.getAliases( ),
+            Predicates.and( new TrackingPredicate<VmInstance>( identifiers ), requestedAndAccessible ) );
+        errorIfNotFound( "InvalidInstanceID.NotFound", "instance ID", identifiers );
+      }
       final Map<String,List<Tag>> tagsMap = TagSupport.forResourceClass( VmInstance.class )
           .getResourceTagMap( AccountFullName.getInstance( ctx.getAccountNumber() ),
               Iterables.transform( instances, CloudMetadatas.toDisplayName() ) );
@@ -1479,6 +1510,14 @@ public class ComputeService implements Callable {
     }
   }
 
+  private static String normalizeInstancesNextToken( final String nextToken ) throws EucalyptusCloudException {
+    try {
+      return ResourceIdentifiers.parse( VmInstance.ID_PREFIX, nextToken ).getIdentifier( );
+    } catch ( final InvalidResourceIdentifier e ) {
+      throw new ComputeServiceClientException( "InvalidParameterValue", "Invalid value for nextToken: \""+nextToken+"\"" );
+    }
+  }
+
   private static List<String> normalizeInstanceIdentifiers( final List<String> identifiers ) throws EucalyptusCloudException {
     try {
       return ResourceIdentifiers.normalize( VmInstance.ID_PREFIX, identifiers );
@@ -0,0 +1,173 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.compute.service.ws
+
+import com.eucalyptus.binding.Binding
+import com.eucalyptus.compute.common.DescribeInstancesType
+import com.eucalyptus.compute.common.RunInstancesType
+import com.eucalyptus.ws.protocol.BaseQueryBinding
+import com.eucalyptus.ws.protocol.QueryBindingTestSupport
+import edu.ucsb.eucalyptus.msgs.BaseMessage
+import java.lang.reflect.Field
+import java.util.concurrent.ConcurrentMap
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+/**
+ * Timings for query binding of DescribeInstances with filters and of
+ * RunInstances with block device mappings and network interfaces.
+ *
+ * Each request is bound with the binding plan cache cleared beforehand, as
+ * before the plan cache was added, and with the cached plans. The test
+ * binding is built once per operation so binding xml parsing is not timed.
+ *
+ * Run with the compute-service test classpath:
+ *
+ *   java -cp ... com.eucalyptus.compute.service.ws.ComputeQueryBindingBenchmark [iterations]
+ *
+ * The name does not match the junit batch pattern so it is not run by the
+ * junit target.
+ */
+class ComputeQueryBindingBenchmark extends QueryBindingTestSupport {
+
+  private static final int WARMUP = 2_000
+
+  private static final Map<String,String> DESCRIBE_INSTANCES = [
+      'InstanceId.1' : 'i-00000001',
+      'InstanceId.2' : 'i-00000002',
+      'Filter.1.Name' : 'instance-state-name',
+      'Filter.1.Value.1' : 'running',
+      'Filter.1.Value.2' : 'pending',
+      'Filter.2.Name' : 'tag:env',
+      'Filter.2.Value.1' : 'prod',
+      'Filter.3.Name' : 'availability-zone',
+      'Filter.3.Value.1' : 'zone-1',
+  ]
+
+  private static final Map<String,String> RUN_INSTANCES = [
+      'ImageId' : 'emi-00000001',
+      'MinCount' : '1',
+      'MaxCount' : '2',
+      'InstanceType' : 'm1.large',
+      'KeyName' : 'key',
+      'Placement.AvailabilityZone' : 'zone-1',
+      'BlockDeviceMapping.1.DeviceName' : '/dev/sda1',
+      'BlockDeviceMapping.1.Ebs.VolumeSize' : '20',
+      'BlockDeviceMapping.1.Ebs.DeleteOnTermination' : 'true',
+      'BlockDeviceMapping.2.DeviceName' : '/dev/sdb',
+      'BlockDeviceMapping.2.VirtualName' : 'ephemeral0',
+      'BlockDeviceMapping.3.DeviceName' : '/dev/sdc',
+      'BlockDeviceMapping.3.Ebs.SnapshotId' : 'snap-00000001',
+      'BlockDeviceMapping.3.Ebs.VolumeType' : 'gp2',
+      'NetworkInterface.1.DeviceIndex' : '0',
+      'NetworkInterface.1.SubnetId' : 'subnet-00000001',
+      'NetworkInterface.1.SecurityGroupId.1' : 'sg-00000001',
+      'NetworkInterface.1.SecurityGroupId.2' : 'sg-00000002',
+      'NetworkInterface.1.PrivateIpAddresses.1.PrivateIpAddress' : '10.0.0.10',
+      'NetworkInterface.1.PrivateIpAddresses.1.Primary' : 'true',
+      'NetworkInterface.1.AssociatePublicIpAddress' : 'true',
+      'NetworkInterface.2.DeviceIndex' : '1',
+      'NetworkInterface.2.NetworkInterfaceId' : 'eni-00000001',
+  ]
+
+  private final int iterations
+
+  ComputeQueryBindingBenchmark( int iterations ) {
+    this.iterations = iterations
+  }
+
+  static void main( String[] args ) {
+    setup( )
+    new ComputeQueryBindingBenchmark( args.length > 0 ? Integer.parseInt( args[0] ) : 20_000 ).benchmark( )
+  }
+
+  void benchmark( ) {
+    BaseQueryBinding binding = binding( ComputeQueryBindingBenchmark.getResource( '/ec2-instances-14-05-01.xml' ), '2014-05-01' )
+    assertBinding( binding )
+    [
+        'DescribeInstances, 3 filters' : [ 'DescribeInstances', DESCRIBE_INSTANCES ],
+        'RunInstances, 3 block devices and 2 network interfaces' : [ 'RunInstances', RUN_INSTANCES ],
+    ].each{ String name, List<?> request ->
+      String action = (String) request[0]
+      Map<String,String> parameters = (Map<String,String>) request[1]
+      long uncachedNanos = time{ bindingPlans( ).clear( ); bind( binding, action, parameters ) }
+      long cachedNanos = time{ bind( binding, action, parameters ) }
+      println "${name}"
+      println "  plan cache cleared ${uncachedNanos}ns/request"
+      println "  plan cache         ${cachedNanos}ns/request"
+      println "  ratio              ${String.format( '%.2f', uncachedNanos / (double) Math.max( 1L, cachedNanos ) )}"
+    }
+  }
+
+  private void assertBinding( BaseQueryBinding binding ) {
+    DescribeInstancesType describe = (DescribeInstancesType) bind( binding, 'DescribeInstances', DESCRIBE_INSTANCES )
+    assertEquals( 'Filters', 3, describe.filterSet.size( ) )
+    assertEquals( 'Filter values', [ 'running', 'pending' ], describe.filterSet[0].valueSet )
+    RunInstancesType run = (RunInstancesType) bind( binding, 'RunInstances', RUN_INSTANCES )
+    assertEquals( 'Block device mappings', 3, run.blockDeviceMapping.size( ) )
+    assertEquals( 'Volume size', 20, run.blockDeviceMapping[0].ebs.volumeSize )
+    assertEquals( 'Network interfaces', 2, run.networkInterfaceSet.item.size( ) )
+    assertEquals( 'Security groups', 2, run.networkInterfaceSet.item[0].groupSet.item.size( ) )
+    assertTrue( 'Primary address', run.networkInterfaceSet.item[0].privateIpAddressesSet.item[0].primary )
+  }
+
+  private BaseQueryBinding binding( URL resource, String version ) {
+    Map<String,Binding> bindings = [:]
+    new ComputeQueryBinding() {
+      @Override
+      protected Binding getBindingWithElementClass( final String operationName ) {
+        if ( !bindings.containsKey( operationName ) ) {
+          bindings.put( operationName, createTestBindingFromXml( resource, operationName ) )
+        }
+        bindings.get( operationName )
+      }
+
+      @Override
+      String getNamespace( ) {
+        return getNamespaceForVersion( version );
+      }
+
+      @Override
+      protected void validateBinding( final Binding currentBinding,
+                                      final String operationName,
+                                      final Map<String, String> params,
+                                      final BaseMessage eucaMsg ) {
+        // Validation requires compiled bindings
+      }
+    }
+  }
+
+  private static ConcurrentMap<?,?> bindingPlans( ) {
+    Field field = BaseQueryBinding.getDeclaredField( 'bindingPlans' )
+    field.setAccessible( true )
+    (ConcurrentMap<?,?>) field.get( null )
+  }
+
+  /**
+   * Average time per request in nanoseconds
+   */
+  private long time( Closure<?> request ) {
+    WARMUP.times{ request.call( ) }
+    long start = System.nanoTime( )
+    iterations.times{ request.call( ) }
+    ( System.nanoTime( ) - start ) / iterations as long
+  }
+}
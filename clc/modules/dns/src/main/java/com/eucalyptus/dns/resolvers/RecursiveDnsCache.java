@@ -0,0 +1,348 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.dns.resolvers;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.xbill.DNS.Cache;
+import org.xbill.DNS.Credibility;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SetResponse;
+
+import com.eucalyptus.component.id.Dns;
+import com.eucalyptus.system.Threads;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Process wide cache for recursive DNS lookups.
+ *
+ * <p>Positive and negative responses are cached by a shared dnsjava cache
+ * that honours record TTLs. Concurrent lookups for the same name and type
+ * that miss the cache share a single upstream query and names that are
+ * frequently requested are refreshed shortly before their records
+ * expire.</p>
+ */
+public class RecursiveDnsCache {
+  private static final Logger LOG = Logger.getLogger( RecursiveDnsCache.class );
+
+  private static final RecursiveDnsCache instance = new RecursiveDnsCache( );
+
+  private static final int PREFETCH_WINDOW_PERCENT = 10;
+  private static final long PREFETCH_WINDOW_MIN_MILLIS = TimeUnit.SECONDS.toMillis( 1 );
+
+  private final Cache cache = new Cache( );
+  private final ConcurrentMap<LookupKey,Future<LookupResult>> inflight = Maps.newConcurrentMap( );
+  private volatile com.google.common.cache.Cache<LookupKey,Usage> usage;
+  private volatile int usageSize;
+  private final AtomicLong hits = new AtomicLong( );
+  private final AtomicLong misses = new AtomicLong( );
+  private final AtomicLong coalesced = new AtomicLong( );
+  private final AtomicLong prefetches = new AtomicLong( );
+
+  static {
+    Mbeans.register( instance );
+  }
+
+  RecursiveDnsCache( ) {
+    usageSize = RecursiveDnsResolver.CACHE_SIZE;
+    usage = CacheBuilder.newBuilder( ).maximumSize( usageSize ).build( );
+  }
+
+  public static RecursiveDnsCache get( ) {
+    return instance;
+  }
+
+  /**
+   * The shared cache, for lookup of records cached by a previous call to lookup.
+   */
+  Cache getCache( ) {
+    return cache;
+  }
+
+  /**
+   * Lookup records using the cache.
+   */
+  LookupResult lookup( final Name name, final int type ) {
+    configure( );
+    final LookupKey key = new LookupKey( name, type );
+    if ( isCached( key ) ) {
+      hits.incrementAndGet( );
+      maybePrefetch( key );
+      return runLookup( key );
+    } else {
+      misses.incrementAndGet( );
+      return lookup( key, false );
+    }
+  }
+
+  /**
+   * Remove all cached records.
+   */
+  public void clear( ) {
+    cache.clearCache( );
+    usage.invalidateAll( );
+  }
+
+  public long getHits( ) {
+    return hits.get( );
+  }
+
+  public long getMisses( ) {
+    return misses.get( );
+  }
+
+  public long getCoalesced( ) {
+    return coalesced.get( );
+  }
+
+  public long getPrefetches( ) {
+    return prefetches.get( );
+  }
+
+  public int getSize( ) {
+    return cache.getSize( );
+  }
+
+  @Override
+  public String toString( ) {
+    return "RecursiveDnsCache hits=" + getHits( ) + " misses=" + getMisses( ) + " coalesced=" + getCoalesced( ) +
+        " prefetches=" + getPrefetches( ) + " size=" + getSize( );
+  }
+
+  private void configure( ) {
+    final int cacheSize = RecursiveDnsResolver.CACHE_SIZE;
+    if ( cache.getMaxEntries( ) != cacheSize ) {
+      cache.setMaxEntries( cacheSize );
+    }
+    if ( usageSize != cacheSize ) {
+      resizeUsage( cacheSize );
+    }
+    if ( cache.getMaxNCache( ) != RecursiveDnsResolver.NEGATIVE_CACHE_TTL ) {
+      cache.setMaxNCache( RecursiveDnsResolver.NEGATIVE_CACHE_TTL );
+    }
+  }
+
+  /**
+   * Rebuild the usage tracker when the configured cache size changes.
+   */
+  private synchronized void resizeUsage( final int cacheSize ) {
+    if ( usageSize != cacheSize ) {
+      final com.google.common.cache.Cache<LookupKey,Usage> resized =
+          CacheBuilder.newBuilder( ).maximumSize( cacheSize ).build( );
+      resized.putAll( usage.asMap( ) );
+      usage = resized;
+      usageSize = cacheSize;
+    }
+  }
+
+  /**
+   * Number of lookups tracked for prefetch.
+   */
+  long getUsageSize( ) {
+    return usage.size( );
+  }
+
+  private boolean isCached( final LookupKey key ) {
+    final SetResponse response = cache.lookupRecords( key.name, key.type, Credibility.NORMAL );
+    return response.isSuccessful( ) || response.isCNAME( ) || response.isNXDOMAIN( ) || response.isNXRRSET( );
+  }
+
+  /**
+   * Lookup upstream, sharing any lookup already in progress for the key.
+   */
+  private LookupResult lookup( final LookupKey key, final boolean refresh ) {
+    final FutureTask<LookupResult> task = new FutureTask<>( new Callable<LookupResult>( ) {
+      @Override
+      public LookupResult call( ) {
+        if ( refresh ) {
+          final Usage keyUsage = usage.getIfPresent( key );
+          if ( keyUsage != null ) for ( final Name name : keyUsage.names ) {
+            cache.flushSet( name, key.type );
+          }
+        }
+        final LookupResult result = runLookup( key );
+        recordUsage( key, result );
+        return result;
+      }
+    } );
+    final Future<LookupResult> existing = inflight.putIfAbsent( key, task );
+    if ( existing != null ) {
+      coalesced.incrementAndGet( );
+      return getResult( existing );
+    }
+    try {
+      task.run( );
+      return getResult( task );
+    } finally {
+      inflight.remove( key, task );
+    }
+  }
+
+  /**
+   * Run the lookup using the cache, upstream servers are queried for records not cached.
+   */
+  LookupResult runLookup( final LookupKey key ) {
+    final Lookup lookup = new Lookup( key.name, key.type );
+    lookup.setCache( cache );
+    final Record[] answers = lookup.run( );
+    return new LookupResult( answers, lookup.getAliases( ), lookup.getResult( ) );
+  }
+
+  private void recordUsage( final LookupKey key, final LookupResult result ) {
+    if ( result.getResult( ) == Lookup.SUCCESSFUL && result.getAnswers( ).length > 0 ) {
+      long ttl = Long.MAX_VALUE;
+      final ImmutableSet.Builder<Name> names = ImmutableSet.builder( );
+      names.add( key.name );
+      for ( final Record record : result.getAnswers( ) ) {
+        ttl = Math.min( ttl, record.getTTL( ) );
+        names.add( record.getName( ) );
+      }
+      usage.put( key, new Usage( TimeUnit.SECONDS.toMillis( ttl ), names.build( ) ) );
+    } else {
+      usage.invalidate( key );
+    }
+  }
+
+  private void maybePrefetch( final LookupKey key ) {
+    final int prefetchHits = RecursiveDnsResolver.PREFETCH_HITS;
+    final Usage keyUsage = usage.getIfPresent( key );
+    if ( prefetchHits > 0 && keyUsage != null &&
+        keyUsage.hits.incrementAndGet( ) >= prefetchHits &&
+        keyUsage.isExpiring( ) &&
+        keyUsage.prefetching.compareAndSet( false, true ) ) {
+      prefetches.incrementAndGet( );
+      try {
+        prefetch( new Runnable( ) {
+          @Override
+          public void run( ) {
+            lookup( key, true );
+          }
+        } );
+      } catch ( final RuntimeException e ) {
+        keyUsage.prefetching.set( false );
+        LOG.warn( "Unable to prefetch " + key + ": " + e.getMessage( ) );
+      }
+    }
+  }
+
+  void prefetch( final Runnable refresh ) {
+    Threads.lookup( Dns.class, RecursiveDnsCache.class, "prefetch" ).limitTo( 2 ).submit( refresh );
+  }
+
+  private static LookupResult getResult( final Future<LookupResult> future ) {
+    try {
+      return Uninterruptibles.getUninterruptibly( future );
+    } catch ( final ExecutionException e ) {
+      throw Throwables.propagate( e.getCause( ) );
+    }
+  }
+
+  /**
+   * Result of a lookup, the answers, aliases and result code from Lookup.
+   */
+  static final class LookupResult {
+    private static final Record[] NO_RECORDS = new Record[0];
+    private final Record[] answers;
+    private final Name[] aliases;
+    private final int result;
+
+    LookupResult( final Record[] answers, final Name[] aliases, final int result ) {
+      this.answers = answers == null ? NO_RECORDS : answers;
+      this.aliases = aliases;
+      this.result = result;
+    }
+
+    Record[] getAnswers( ) {
+      return answers;
+    }
+
+    Name[] getAliases( ) {
+      return aliases;
+    }
+
+    int getResult( ) {
+      return result;
+    }
+  }
+
+  static final class LookupKey {
+    private final Name name;
+    private final int type;
+
+    LookupKey( final Name name, final int type ) {
+      this.name = name;
+      this.type = type;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final LookupKey that = (LookupKey) o;
+      return type == that.type && name.equals( that.name );
+    }
+
+    @Override
+    public int hashCode( ) {
+      return Objects.hashCode( name, type );
+    }
+
+    @Override
+    public String toString( ) {
+      return name + "/" + type;
+    }
+  }
+
+  private static final class Usage {
+    private final long expires;
+    private final long window;
+    private final Set<Name> names;
+    private final AtomicInteger hits = new AtomicInteger( );
+    private final AtomicBoolean prefetching = new AtomicBoolean( );
+
+    Usage( final long ttlMillis, final Set<Name> names ) {
+      this.expires = System.currentTimeMillis( ) + ttlMillis;
+      this.window = Math.max( PREFETCH_WINDOW_MIN_MILLIS, ttlMillis * PREFETCH_WINDOW_PERCENT / 100 );
+      this.names = names;
+    }
+
+    boolean isExpiring( ) {
+      return System.currentTimeMillis( ) >= expires - window;
+    }
+  }
+}
@@ -84,6 +84,7 @@ import org.xbill.DNS.Type;
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.dns.resolvers.RecursiveDnsCache.LookupResult;
 import com.eucalyptus.util.Subnets;
 import com.eucalyptus.util.dns.DnsResolvers.DnsResolver;
 import com.eucalyptus.util.dns.DnsResolvers.DnsResponse;
@@ -93,6 +94,7 @@ import com.eucalyptus.util.dns.DomainNames;
 import com.eucalyptus.compute.common.internal.vm.VmInstance;
 import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.vm.dns.InstanceDomainNames;
+import com.eucalyptus.ws.WebServices;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -119,6 +121,18 @@ public class RecursiveDnsResolver extends DnsResolver {
   private static Logger LOG = Logger.getLogger( RecursiveDnsResolver.class );
   @ConfigurableField( description = "Enable the recursive DNS resolver.  Note: dns.enable must also be 'true'" )
   public static Boolean enabled = Boolean.TRUE;
+
+  @ConfigurableField( description = "Maximum number of record sets cached for recursive DNS resolution.",
+      changeListener = WebServices.CheckNonNegativeIntegerPropertyChangeListener.class )
+  public static Integer CACHE_SIZE = 50000;
+
+  @ConfigurableField( description = "Maximum time in seconds to cache negative responses for recursive DNS resolution.",
+      changeListener = WebServices.CheckNonNegativeIntegerPropertyChangeListener.class )
+  public static Integer NEGATIVE_CACHE_TTL = 300;
+
+  @ConfigurableField( description = "Number of cache hits after which records are refreshed before they expire, 0 to disable.",
+      changeListener = WebServices.CheckNonNegativeIntegerPropertyChangeListener.class )
+  public static Integer PREFETCH_HITS = 5;
   
   private static List<Name> subdomainsForName( Name name ) {
     final List<Name> names = Lists.newArrayList( name );
@@ -135,13 +149,11 @@ public class RecursiveDnsResolver extends DnsResolver {
     return name.toString( ).replaceAll( "\\A[^\\.]+\\.", "" );
   }
   
-  private static List<Record> lookupNSRecords( Name name, Cache cache ) {
+  private static List<Record> lookupNSRecords( Name name, RecursiveDnsCache cache ) {
     List<Name> subdomains = subdomainsForName( name );
     for ( Name sub : subdomains ) {
-      Lookup aLookup = new Lookup( sub, Type.NS );
-      aLookup.setCache( cache );
-      Record[] answers = aLookup.run( );
-      if ( answers != null && answers.length != 0 ) {
+      Record[] answers = cache.lookup( sub, Type.NS ).getAnswers( );
+      if ( answers.length != 0 ) {
         return Arrays.asList( answers );
       }
     }
@@ -159,12 +171,10 @@ public class RecursiveDnsResolver extends DnsResolver {
       .recursive( )
       .refused();
     
-    final Cache cache = new Cache( );
-    Lookup aLookup = new Lookup( name, type );
-    aLookup.setCache( cache );
-    Record[] found = aLookup.run( );
-    List<Record> queriedrrs = Arrays.asList( found != null
-      ? found : new Record[] {} );
+    final RecursiveDnsCache recursiveCache = RecursiveDnsCache.get( );
+    final Cache cache = recursiveCache.getCache( );
+    final LookupResult aLookup = recursiveCache.lookup( name, type );
+    List<Record> queriedrrs = Arrays.asList( aLookup.getAnswers( ) );
     List<Name> cnames = ( List<Name> ) ( aLookup.getAliases( ).length > 0
       ? Arrays.asList( aLookup.getAliases( ) ) : Lists.newArrayList( ) );
     final Set<Record> answer = Sets.newLinkedHashSet( );
@@ -173,17 +183,13 @@ public class RecursiveDnsResolver extends DnsResolver {
     
     boolean iamAuthority = false;
     for ( Record aRec : queriedrrs ) {
-      List<Record> nsRecs = lookupNSRecords( aRec.getName( ), cache );
+      List<Record> nsRecs = lookupNSRecords( aRec.getName( ), recursiveCache );
       for ( Record nsRec : nsRecs ) {
         if(nsRec.getName().equals(DomainNames.externalSubdomain()))
           iamAuthority = true;
         authority.add( nsRec );        
-        Lookup nsLookup = new Lookup( ( ( NSRecord ) nsRec ).getTarget( ), type );
-        nsLookup.setCache( cache );
-        Record[] nsAnswers = nsLookup.run( );
-        if ( nsAnswers != null ) {
-          additional.addAll( Arrays.asList( nsAnswers ) );
-        }
+        Record[] nsAnswers = recursiveCache.lookup( ( ( NSRecord ) nsRec ).getTarget( ), type ).getAnswers( );
+        additional.addAll( Arrays.asList( nsAnswers ) );
       }
     }
      
@@ -235,7 +241,7 @@ public class RecursiveDnsResolver extends DnsResolver {
     if((aLookup.getResult() == Lookup.SUCCESSFUL 
         || aLookup.getResult() == Lookup.TYPE_NOT_FOUND ) 
         && queriedrrs.size()==0){
-      List<Record> nsRecs = lookupNSRecords( name, cache );
+      List<Record> nsRecs = lookupNSRecords( name, recursiveCache );
       for ( Record nsRec : nsRecs ) {
         authority.add( nsRec );
       }
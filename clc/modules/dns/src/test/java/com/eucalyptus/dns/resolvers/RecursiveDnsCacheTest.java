@@ -0,0 +1,173 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.dns.resolvers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Credibility;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+
+/**
+ * Unit tests for recursive DNS lookup coalescing, prefetch and sizing.
+ */
+public class RecursiveDnsCacheTest {
+
+  private int cacheSize;
+  private int prefetchHits;
+
+  @Before
+  public void saveProperties( ) {
+    cacheSize = RecursiveDnsResolver.CACHE_SIZE;
+    prefetchHits = RecursiveDnsResolver.PREFETCH_HITS;
+  }
+
+  @After
+  public void restoreProperties( ) {
+    RecursiveDnsResolver.CACHE_SIZE = cacheSize;
+    RecursiveDnsResolver.PREFETCH_HITS = prefetchHits;
+  }
+
+  @Test
+  public void testCoalescedLookup( ) throws Exception {
+    final Name name = Name.fromString( "coalesce.example.com." );
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final AtomicInteger upstream = new AtomicInteger( );
+    final RecursiveDnsCache cache = new RecursiveDnsCache( ) {
+      @Override
+      LookupResult runLookup( final LookupKey key ) {
+        upstream.incrementAndGet( );
+        started.countDown( );
+        try {
+          release.await( 10, TimeUnit.SECONDS );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread( ).interrupt( );
+        }
+        return new LookupResult( null, null, Lookup.HOST_NOT_FOUND );
+      }
+    };
+
+    final Thread first = new Thread( new Runnable( ) {
+      @Override
+      public void run( ) {
+        cache.lookup( name, Type.A );
+      }
+    } );
+    first.start( );
+    assertTrue( "Lookup started", started.await( 10, TimeUnit.SECONDS ) );
+
+    final Thread second = new Thread( new Runnable( ) {
+      @Override
+      public void run( ) {
+        cache.lookup( name, Type.A );
+      }
+    } );
+    second.start( );
+    final long timeout = System.currentTimeMillis( ) + TimeUnit.SECONDS.toMillis( 10 );
+    while ( cache.getCoalesced( ) == 0 && System.currentTimeMillis( ) < timeout ) {
+      Thread.sleep( 10 );
+    }
+    release.countDown( );
+    first.join( TimeUnit.SECONDS.toMillis( 10 ) );
+    second.join( TimeUnit.SECONDS.toMillis( 10 ) );
+
+    assertEquals( "Upstream lookups", 1, upstream.get( ) );
+    assertEquals( "Coalesced lookups", 1, cache.getCoalesced( ) );
+    assertEquals( "Misses", 2, cache.getMisses( ) );
+  }
+
+  @Test
+  public void testPrefetch( ) throws Exception {
+    RecursiveDnsResolver.PREFETCH_HITS = 2;
+    final Name name = Name.fromString( "prefetch.example.com." );
+    final AtomicInteger lookups = new AtomicInteger( );
+    final RecursiveDnsCache cache = new RecursiveDnsCache( ) {
+      @Override
+      LookupResult runLookup( final LookupKey key ) {
+        lookups.incrementAndGet( );
+        final Record record;
+        try {
+          record = new ARecord( name, DClass.IN, 1, InetAddress.getByAddress( new byte[]{ 10, 0, 0, 1 } ) );
+        } catch ( Exception e ) {
+          throw new RuntimeException( e );
+        }
+        getCache( ).addRecord( record, Credibility.NORMAL, null );
+        return new LookupResult( new Record[]{ record }, new Name[0], Lookup.SUCCESSFUL );
+      }
+
+      @Override
+      void prefetch( final Runnable refresh ) {
+        refresh.run( );
+      }
+    };
+
+    cache.lookup( name, Type.A ); // miss, records usage
+    cache.lookup( name, Type.A ); // first hit
+    assertEquals( "Prefetches before threshold", 0, cache.getPrefetches( ) );
+    cache.lookup( name, Type.A ); // second hit, record within prefetch window
+
+    assertEquals( "Misses", 1, cache.getMisses( ) );
+    assertEquals( "Hits", 2, cache.getHits( ) );
+    assertEquals( "Prefetches", 1, cache.getPrefetches( ) );
+    assertEquals( "Lookups", 4, lookups.get( ) );
+  }
+
+  @Test
+  public void testUsageResizedWithCacheSize( ) throws Exception {
+    RecursiveDnsResolver.CACHE_SIZE = 100;
+    final RecursiveDnsCache cache = new RecursiveDnsCache( ) {
+      @Override
+      LookupResult runLookup( final LookupKey key ) {
+        final Record record;
+        try {
+          record = new ARecord( Name.fromString( "resize.example.com." ), DClass.IN, 60,
+              InetAddress.getByAddress( new byte[]{ 10, 0, 0, 1 } ) );
+        } catch ( Exception e ) {
+          throw new RuntimeException( e );
+        }
+        return new LookupResult( new Record[]{ record }, new Name[0], Lookup.SUCCESSFUL );
+      }
+    };
+
+    for ( int i = 0; i < 10; i++ ) {
+      cache.lookup( Name.fromString( "host" + i + ".resize.example.com." ), Type.A );
+    }
+    assertEquals( "Tracked usage", 10, cache.getUsageSize( ) );
+
+    RecursiveDnsResolver.CACHE_SIZE = 4;
+    for ( int i = 10; i < 20; i++ ) {
+      cache.lookup( Name.fromString( "host" + i + ".resize.example.com." ), Type.A );
+    }
+    assertTrue( "Tracked usage bounded by cache size", cache.getUsageSize( ) <= 4 );
+    assertEquals( "Cache size", 4, cache.getCache( ).getMaxEntries( ) );
+  }
+}
@@ -179,6 +179,16 @@ class ReserveNameResponseType extends IdentityMessage {
 class ReserveNameResult extends EucalyptusData {
 }
 
+class InvalidatePrincipalsType extends IdentityMessage {
+}
+
+class InvalidatePrincipalsResponseType extends IdentityMessage {
+  InvalidatePrincipalsResult invalidatePrincipalsResult
+}
+
+class InvalidatePrincipalsResult extends EucalyptusData {
+}
+
 class DescribeCertificateType extends IdentityMessage {
 }
 
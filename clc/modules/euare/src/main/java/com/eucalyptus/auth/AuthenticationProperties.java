@@ -131,6 +131,9 @@ public class AuthenticationProperties {
   @ConfigurableField( description = "Default expiry for cached authorization metadata", initial = "5s", changeListener = AuthenticationIntervalPropertyChangeListener.class )
   public static volatile String AUTHORIZATION_EXPIRY = "5s";
 
+  @ConfigurableField( description = "Age at which cached authorization metadata is refreshed in the background when used", initial = "4s", changeListener = AuthenticationIntervalPropertyChangeListener.class )
+  public static volatile String AUTHORIZATION_REFRESH = "4s";
+
   @ConfigurableField( description = "Default expiry for re-use of cached authorization metadata on failure", initial = "0s", changeListener = AuthenticationIntervalPropertyChangeListener.class )
   public static volatile String AUTHORIZATION_REUSE_EXPIRY = "0s";
 
@@ -141,6 +144,8 @@ public class AuthenticationProperties {
 
   private static AtomicLong AUTHORIZATION_EXPIRY_MILLIS = new AtomicLong( TimeUnit.SECONDS.toMillis( 5 ) );
 
+  private static AtomicLong AUTHORIZATION_REFRESH_MILLIS = new AtomicLong( TimeUnit.SECONDS.toMillis( 4 ) );
+
   private static AtomicLong AUTHORIZATION_REUSE_EXPIRY_MILLIS = new AtomicLong( 0 );
 
   private static volatile CredentialDownloadGenerateCertificateStrategy credentialDownloadGenerateCertificateStrategy =
@@ -170,6 +175,10 @@ public class AuthenticationProperties {
     return AUTHORIZATION_EXPIRY_MILLIS.get( );
   }
 
+  public static long getAuthorizationRefresh( ) {
+    return AUTHORIZATION_REFRESH_MILLIS.get( );
+  }
+
   public static long getAuthorizationReuseExpiry( ) {
     return AUTHORIZATION_REUSE_EXPIRY_MILLIS.get( );
   }
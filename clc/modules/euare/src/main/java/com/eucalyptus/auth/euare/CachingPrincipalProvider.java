@@ -22,29 +22,89 @@ package com.eucalyptus.auth.euare;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.text.IsEmptyString.isEmptyOrNullString;
+import java.util.Collection;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import org.apache.log4j.Logger;
 import com.eucalyptus.auth.AuthException;
 import com.eucalyptus.auth.AuthenticationProperties;
+import com.eucalyptus.auth.euare.common.identity.Identity;
+import com.eucalyptus.auth.euare.common.identity.InvalidatePrincipalsType;
+import com.eucalyptus.auth.euare.persist.entities.AccessKeyEntity;
+import com.eucalyptus.auth.euare.persist.entities.AccountEntity;
+import com.eucalyptus.auth.euare.persist.entities.CertificateEntity;
+import com.eucalyptus.auth.euare.persist.entities.GroupEntity;
+import com.eucalyptus.auth.euare.persist.entities.PolicyEntity;
+import com.eucalyptus.auth.euare.persist.entities.RoleEntity;
+import com.eucalyptus.auth.euare.persist.entities.UserEntity;
 import com.eucalyptus.auth.principal.UserPrincipal;
+import com.eucalyptus.component.ServiceConfiguration;
+import com.eucalyptus.component.ServiceConfigurations;
+import com.eucalyptus.component.Topology;
+import com.eucalyptus.component.id.Euare;
+import com.eucalyptus.entities.EntityChanges;
+import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.Pair;
 import com.eucalyptus.util.Parameters;
 import com.eucalyptus.util.async.AsyncExceptions;
+import com.eucalyptus.util.async.AsyncRequests;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheBuilderSpec;
 
 /**
+ * Principal provider caching lookups for the configured authorization expiry.
  *
+ * <p>Principals that are used after the refresh age are reloaded in the
+ * background so callers are not blocked at expiry. Cached principals are
+ * invalidated for all hosts in the region when local identity entities
+ * change.</p>
  */
 public class CachingPrincipalProvider extends RegionDelegatingPrincipalProvider {
 
+  private static final Logger logger = Logger.getLogger( CachingPrincipalProvider.class );
+
   private final static AtomicReference<Pair<String,Cache<PrincipalCacheKey,PrincipalCacheValue>>> cacheReference =
       new AtomicReference<>( );
 
+  private static final Set<PrincipalCacheKey> refreshing = ConcurrentHashMap.newKeySet( );
+
+  private static final AtomicBoolean broadcastPending = new AtomicBoolean( false );
+
+  static {
+    final EntityChanges.EntityChangeListener listener = new EntityChanges.EntityChangeListener( ) {
+      @Override
+      public void changed( final Collection<String> ids ) {
+        invalidate( );
+        broadcastInvalidate( );
+      }
+    };
+    EntityChanges.register( AccountEntity.class, listener );
+    EntityChanges.register( UserEntity.class, listener );
+    EntityChanges.register( GroupEntity.class, listener );
+    EntityChanges.register( RoleEntity.class, listener );
+    EntityChanges.register( PolicyEntity.class, listener );
+    EntityChanges.register( AccessKeyEntity.class, listener );
+    EntityChanges.register( CertificateEntity.class, listener );
+  }
+
+  /**
+   * Invalidate all principals cached on this host.
+   */
+  public static void invalidate( ) {
+    final Pair<String,Cache<PrincipalCacheKey,PrincipalCacheValue>> cachePair = cacheReference.get( );
+    if ( cachePair != null ) {
+      cachePair.getRight( ).invalidateAll( );
+    }
+  }
+
   @Override
   public UserPrincipal lookupCachedPrincipalByUserId( final UserPrincipal cached, final String userId, final String nonce ) throws AuthException {
     return cache( new UserIdPrincipalCacheKey( userId, nonce ), new PrincipalLoader( ) {
@@ -101,9 +161,12 @@ public class CachingPrincipalProvider extends RegionDelegatingPrincipalProvider
     final Cache<PrincipalCacheKey,PrincipalCacheValue> cache = cache( );
     try {
       principalValue = cache.get( key, loader.callable( null ) );
-      if ( principalValue.updated + AuthenticationProperties.getAuthorizationExpiry( ) < System.currentTimeMillis( ) ) {
+      final long now = System.currentTimeMillis( );
+      if ( principalValue.updated + AuthenticationProperties.getAuthorizationExpiry( ) < now ) {
         cache.invalidate( key ); // invalidate expired and refresh
         principalValue =  cache.get( key, loader.callable( principalValue.principal ) );
+      } else if ( principalValue.updated + AuthenticationProperties.getAuthorizationRefresh( ) < now ) {
+        refresh( cache, key, principalValue, loader );
       }
       return principalValue.principal;
     } catch ( final ExecutionException e ) {
@@ -122,6 +185,60 @@ public class CachingPrincipalProvider extends RegionDelegatingPrincipalProvider
     }
   }
 
+  /**
+   * Reload a principal in the background, the cached value is only replaced
+   * if it was not invalidated or refreshed while loading.
+   */
+  private static void refresh(
+      final Cache<PrincipalCacheKey,PrincipalCacheValue> cache,
+      final PrincipalCacheKey key,
+      final PrincipalCacheValue value,
+      final PrincipalLoader loader
+  ) {
+    if ( refreshing.add( key ) ) try {
+      Threads.lookup( Euare.class, CachingPrincipalProvider.class, "refresh" ).limitTo( 4 ).execute( new Runnable( ) {
+        @Override
+        public void run( ) {
+          try {
+            cache.asMap( ).replace( key, value, new PrincipalCacheValue( loader.load( value.principal ) ) );
+          } catch ( final Exception e ) {
+            logger.debug( "Error refreshing cached principal, will reload on expiry: " + e.getMessage( ) );
+          } finally {
+            refreshing.remove( key );
+          }
+        }
+      } );
+    } catch ( final RejectedExecutionException e ) {
+      refreshing.remove( key );
+    }
+  }
+
+  /**
+   * Notify identity services on other hosts to invalidate cached principals.
+   *
+   * <p>Notifications are coalesced so a burst of changes results in a single
+   * broadcast.</p>
+   */
+  private static void broadcastInvalidate( ) {
+    if ( broadcastPending.compareAndSet( false, true ) ) try {
+      Threads.lookup( Euare.class, CachingPrincipalProvider.class, "invalidate" ).limitTo( 1 ).execute( new Runnable( ) {
+        @Override
+        public void run( ) {
+          broadcastPending.set( false );
+          for ( final ServiceConfiguration configuration : Topology.enabledServices( Identity.class ) ) {
+            if ( !ServiceConfigurations.filterHostLocal( ).apply( configuration ) ) try {
+              AsyncRequests.dispatch( configuration, new InvalidatePrincipalsType( ) );
+            } catch ( final Exception e ) {
+              logger.warn( "Error notifying " + configuration.getHostName( ) + " of principal changes: " + e.getMessage( ) );
+            }
+          }
+        }
+      } );
+    } catch ( final RejectedExecutionException e ) {
+      broadcastPending.set( false );
+    }
+  }
+
   private static Cache<PrincipalCacheKey,PrincipalCacheValue> cache( ) {
     Cache<PrincipalCacheKey,PrincipalCacheValue> cache;
     final Pair<String,Cache<PrincipalCacheKey,PrincipalCacheValue>> cachePair = cacheReference.get( );
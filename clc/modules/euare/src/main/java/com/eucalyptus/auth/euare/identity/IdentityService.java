@@ -41,6 +41,7 @@ import com.eucalyptus.auth.Accounts;
 import com.eucalyptus.auth.AuthException;
 import com.eucalyptus.auth.InvalidAccessKeyAuthException;
 import com.eucalyptus.auth.api.PrincipalProvider;
+import com.eucalyptus.auth.euare.CachingPrincipalProvider;
 import com.eucalyptus.auth.euare.EuareException;
 import com.eucalyptus.auth.euare.EuareServerCertificateUtil;
 import com.eucalyptus.auth.euare.UserPrincipalImpl;
@@ -63,6 +64,9 @@ import com.eucalyptus.auth.euare.common.identity.DescribePrincipalType;
 import com.eucalyptus.auth.euare.common.identity.DescribeRoleResponseType;
 import com.eucalyptus.auth.euare.common.identity.DescribeRoleResult;
 import com.eucalyptus.auth.euare.common.identity.DescribeRoleType;
+import com.eucalyptus.auth.euare.common.identity.InvalidatePrincipalsResponseType;
+import com.eucalyptus.auth.euare.common.identity.InvalidatePrincipalsResult;
+import com.eucalyptus.auth.euare.common.identity.InvalidatePrincipalsType;
 import com.eucalyptus.auth.euare.common.identity.Policy;
 import com.eucalyptus.auth.euare.common.identity.Principal;
 import com.eucalyptus.auth.euare.common.identity.ReserveNameResponseType;
@@ -321,6 +325,13 @@ public class IdentityService {
     return response;
   }
 
+  public InvalidatePrincipalsResponseType invalidatePrincipals( final InvalidatePrincipalsType request ) {
+    final InvalidatePrincipalsResponseType response = request.getReply( );
+    CachingPrincipalProvider.invalidate( );
+    response.setInvalidatePrincipalsResult( new InvalidatePrincipalsResult( ) );
+    return response;
+  }
+
   public DescribeCertificateResponseType describeCertificate( final DescribeCertificateType request ) {
     final DescribeCertificateResponseType response = request.getReply( );
     final DescribeCertificateResult result = new DescribeCertificateResult( );
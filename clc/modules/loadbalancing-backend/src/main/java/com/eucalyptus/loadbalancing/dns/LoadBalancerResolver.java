@@ -25,8 +25,10 @@ import static com.eucalyptus.util.dns.DnsResolvers.DnsRequest;
 import static com.eucalyptus.util.dns.DnsResolvers.DnsResponse;
 
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -39,6 +41,7 @@ import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.entities.Entities;
+import com.eucalyptus.entities.EntityChanges;
 import com.eucalyptus.entities.TransactionResource;
 import com.eucalyptus.loadbalancing.LoadBalancer;
 import com.eucalyptus.loadbalancing.LoadBalancerDnsRecord;
@@ -50,6 +53,7 @@ import com.eucalyptus.util.dns.DomainNameRecords;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -92,6 +96,28 @@ public class LoadBalancerResolver extends DnsResolvers.DnsResolver {
         }
       });
   
+  /// load balancer entity identifier for each resolved name
+  private static final Cache<Name, String> loadBalancerIds = CacheBuilder.newBuilder()
+      .maximumSize(1000)
+      .expireAfterAccess(1, TimeUnit.HOURS)
+      .build();
+
+  // answers are rotated per query so are cached here rather than by DnsResolvers,
+  // changes are only notified on the committing host and servo changes are not
+  // mapped to names so answers also expire after a few seconds
+  static {
+    EntityChanges.register( LoadBalancer.class, new EntityChanges.EntityChangeListener( ) {
+      @Override
+      public void changed( final Collection<String> ids ) {
+        for ( final Map.Entry<Name, String> entry : loadBalancerIds.asMap( ).entrySet( ) ) {
+          if ( ids.contains( entry.getValue( ) ) ) {
+            cachedAnswers.invalidate( entry.getKey( ) );
+          }
+        }
+      }
+    } );
+  }
+
   @ConfigurableField( description = "Enable the load balancing DNS resolver.  Note: dns.enable must also be 'true'" )
   public static Boolean dns_resolver_enabled = Boolean.TRUE;
 
@@ -115,6 +141,7 @@ public class LoadBalancerResolver extends DnsResolvers.DnsResolver {
       try ( final TransactionResource tx = Entities.transactionFor( LoadBalancer.class ) ) {
         final LoadBalancer loadBalancer =
             LoadBalancers.getLoadbalancerCaseInsensitive( accountNamePair.getLeft( ), accountNamePair.getRight( ) );
+        loadBalancerIds.put( name, Entities.getIdentifier( loadBalancer ) );
         final Predicate<LoadBalancerServoInstanceCoreView> canResolve = 
             new Predicate<LoadBalancerServoInstanceCoreView>(){
           @Override
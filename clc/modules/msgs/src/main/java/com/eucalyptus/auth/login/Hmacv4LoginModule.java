@@ -29,10 +29,12 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.crypto.spec.SecretKeySpec;
 import org.apache.log4j.Logger;
@@ -47,14 +49,33 @@ import com.eucalyptus.crypto.util.SecurityParameter;
 import com.eucalyptus.crypto.util.Timestamps;
 import com.eucalyptus.ws.util.HmacUtils;
 import com.google.common.base.Function;
-import com.google.common.base.Joiner;
-import com.google.common.collect.Lists;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Ordering;
 import com.google.common.io.BaseEncoding;
 
 public class Hmacv4LoginModule extends HmacLoginModuleSupport {
   private static final Logger LOG = Logger.getLogger( Hmacv4LoginModule.class );
   private static final String V4_TERMINATOR = "aws4_request";
+  private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+
+  /**
+   * Derived signing keys by access key identifier and credential scope.
+   *
+   * <p>The secret key is held with the derived key so a cached key is never
+   * used if the secret for the access key differs.</p>
+   */
+  private static final Cache<String,SigningKey> signingKeyCache = CacheBuilder.newBuilder( )
+      .maximumSize( 10_000 )
+      .expireAfterWrite( 1, TimeUnit.DAYS )
+      .build( );
+
+  private static final ThreadLocal<CanonicalizationBuffers> buffers = new ThreadLocal<CanonicalizationBuffers>( ) {
+    @Override
+    protected CanonicalizationBuffers initialValue( ) {
+      return new CanonicalizationBuffers( );
+    }
+  };
 
   public Hmacv4LoginModule() {
     super(4);
@@ -77,15 +98,22 @@ public class Hmacv4LoginModule extends HmacLoginModuleSupport {
     final UserPrincipal user = accessKey.getPrincipal( );
     final String secretKey = accessKey.getSecretKey( );
     final byte[] signatureKey = getSignatureKey( secretKey, signatureCredential );
-    final CharSequence canonicalString = this.makeSubjectString( credentials, signatureCredential, authorizationParameters, date, false );
-    final byte[] computedSig = this.getHmacSHA256( signatureKey, canonicalString );
     final byte[] providedSig = BaseEncoding.base16( ).lowerCase( ).decode( sig );
-    if ( !MessageDigest.isEqual( computedSig, providedSig ) ) {
-      final CharSequence canonicalStringNoPath = this.makeSubjectString( credentials, signatureCredential, authorizationParameters, date, true );
-      final byte[] computedSigNoPath = this.getHmacSHA256( signatureKey, canonicalStringNoPath );
-      if( !MessageDigest.isEqual( computedSigNoPath, providedSig ) ) {
-        throw new InvalidSignatureAuthException( "Signature validation failed" );
+    final CanonicalizationBuffers buffers = Hmacv4LoginModule.buffers.get( );
+    try {
+      final CharSequence canonicalQueryAndHeaders = makeCanonicalQueryAndHeaders( buffers.queryAndHeaders, credentials, authorizationParameters );
+      final String path = canonicalizePath( credentials.getServicePath( ) );
+      final byte[] computedSig = this.getHmacSHA256( signatureKey,
+          this.makeSubjectString( buffers, credentials, signatureCredential, canonicalQueryAndHeaders, date, path ) );
+      if ( !MessageDigest.isEqual( computedSig, providedSig ) ) {
+        // AWS Java SDK always uses "/", no need to check again if the path is "/"
+        if ( "/".equals( path ) || !MessageDigest.isEqual( this.getHmacSHA256( signatureKey,
+            this.makeSubjectString( buffers, credentials, signatureCredential, canonicalQueryAndHeaders, date, "/" ) ), providedSig ) ) {
+          throw new InvalidSignatureAuthException( "Signature validation failed" );
+        }
       }
+    } finally {
+      buffers.release( );
     }
     super.setCredential( credentials.getQueryIdCredential( AccessKeys.getKeyType( accessKey ) ) );
     super.setPrincipal( user );
@@ -93,71 +121,124 @@ public class Hmacv4LoginModule extends HmacLoginModuleSupport {
     return true;
   }
 
-  private CharSequence makeSubjectString( @Nonnull final HmacCredentials credentials,
+  private CharSequence makeSubjectString( @Nonnull final CanonicalizationBuffers buffers,
+                                          @Nonnull final HmacCredentials credentials,
                                           @Nonnull final SignatureCredential signatureCredential,
-                                          @Nonnull final Map<String,String> authorizationParameters,
+                                          @Nonnull final CharSequence canonicalQueryAndHeaders,
                                           @Nonnull final Date date,
-                                          final boolean skipPath ) throws Exception {
-    final String timestamp = Timestamps.formatShortIso8601Timestamp( date );
-    final StringBuilder sb = new StringBuilder( 256 );
+                                          @Nonnull final String path ) throws Exception {
+    final StringBuilder sb = buffers.subject;
+    sb.setLength( 0 );
     sb.append( SecurityHeader.Value.AWS4_HMAC_SHA256.value() ).append( '\n' );
-    sb.append( timestamp ).append( '\n' );
+    sb.append( Timestamps.formatShortIso8601Timestamp( date ) ).append( '\n' );
     sb.append( signatureCredential.getCredentialScope() ).append( '\n' );
-    sb.append( digestUTF8( makeCanonicalRequest( credentials, authorizationParameters, skipPath ) ) );
+    sb.append( digestUTF8( makeCanonicalRequest( buffers.request, credentials, canonicalQueryAndHeaders, path ) ) );
     if ( signatureLogger.isTraceEnabled( ) ) signatureLogger.trace( "VERSION4: " + sb.toString( ) );
     return sb;
   }
 
-  private CharSequence makeCanonicalRequest( @Nonnull final HmacCredentials credentials,
-                                             @Nonnull final Map<String,String> authorizationParameters,
-                                             final boolean skipPath ) throws Exception {
-    final StringBuilder sb = new StringBuilder( 512 );
+  private CharSequence makeCanonicalRequest( @Nonnull final StringBuilder sb,
+                                             @Nonnull final HmacCredentials credentials,
+                                             @Nonnull final CharSequence canonicalQueryAndHeaders,
+                                             @Nonnull final String path ) throws Exception {
+    sb.setLength( 0 );
     sb.append( credentials.getVerb( ) );
     sb.append( '\n' );
-    sb.append( skipPath ? "/" : canonicalizePath( credentials.getServicePath( ) ) ); // AWS Java SDK always uses "/"
+    sb.append( path );
     sb.append( '\n' );
+    sb.append( canonicalQueryAndHeaders );
+    if ( signatureLogger.isTraceEnabled( ) ) signatureLogger.trace( "VERSION4: " + sb.toString( ) );
+    return sb;
+  }
+
+  /**
+   * Build the path independent portion of the canonical request, the query
+   * string, headers, signed headers and payload hash.
+   */
+  private CharSequence makeCanonicalQueryAndHeaders( @Nonnull final StringBuilder sb,
+                                                     @Nonnull final HmacCredentials credentials,
+                                                     @Nonnull final Map<String,String> authorizationParameters ) throws Exception {
+    sb.setLength( 0 );
+    final Map<String,List<String>> parameters = credentials.getParameters( );
+    final String[] parameterNames = parameters.keySet( ).toArray( new String[ parameters.size( ) ] );
+    Arrays.sort( parameterNames );
     boolean addedParam = false;
-    for ( final String parameter : Ordering.natural( ).sortedCopy( credentials.getParameters().keySet() ) ) {
+    for ( final String parameter : parameterNames ) {
       if ( credentials.getVariant() == HmacUtils.SignatureVariant.SignatureV4Query && SecurityParameter.X_Amz_Signature.parameter().equals( parameter ) ) {
         continue;
       }
-      for ( final String value : Ordering.natural().sortedCopy( credentials.getParameters().get( parameter ) ) ) {
-        sb.append( urlencode(parameter) );
+      final List<String> values = parameters.get( parameter );
+      for ( final String value : values.size( ) > 1 ? Ordering.natural( ).sortedCopy( values ) : values ) {
+        appendUrlencoded( sb, parameter );
         sb.append( '=' );
-        sb.append( urlencode(value) );
+        appendUrlencoded( sb, value );
         sb.append( '&' );
         addedParam = true;
       }
     }
     if ( addedParam ) sb.setLength( sb.length()-1 );
     sb.append( '\n' );
-    for ( final String header : authorizationParameters.get("SignedHeaders").split(";") ) {
-      final List<String> values = Lists.transform( credentials.getHeaders().get( header ), new Function<String, String>() {
-        @Override
-        public String apply( final String text ) {
-          return text.trim();
-        }
-      } );
+    final String signedHeaders = authorizationParameters.get( "SignedHeaders" );
+    for ( int start = 0, end; start < signedHeaders.length( ); start = end + 1 ) {
+      end = signedHeaders.indexOf( ';', start );
+      if ( end < 0 ) end = signedHeaders.length( );
+      final String header = signedHeaders.substring( start, end );
+      final List<String> values = credentials.getHeaders( ).get( header );
+      if ( values == null ) {
+        throw new InvalidSignatureAuthException( "Signed header not found: " + header );
+      }
       sb.append( header );
       sb.append( ':' );
-      sb.append( Joiner.on( ',' ).join( Ordering.<String>natural().sortedCopy( values ) ) );
+      if ( values.size( ) == 1 ) {
+        sb.append( values.get( 0 ).trim( ) );
+      } else {
+        final String[] trimmedValues = new String[ values.size( ) ];
+        for ( int i = 0; i < trimmedValues.length; i++ ) {
+          trimmedValues[ i ] = values.get( i ).trim( );
+        }
+        Arrays.sort( trimmedValues );
+        for ( int i = 0; i < trimmedValues.length; i++ ) {
+          if ( i > 0 ) sb.append( ',' );
+          sb.append( trimmedValues[ i ] );
+        }
+      }
       sb.append( '\n' );
     }
     sb.append( '\n' );
-    sb.append( authorizationParameters.get("SignedHeaders") );
+    sb.append( signedHeaders );
     sb.append( '\n' );
     sb.append( digestUTF8( credentials.getBody() ) );
-    if ( signatureLogger.isTraceEnabled( ) ) signatureLogger.trace( "VERSION4: " + sb.toString( ) );
     return sb;
   }
 
+  /**
+   * Append the url encoded text, avoiding encoding for text that is all safe characters.
+   */
+  private void appendUrlencoded( final StringBuilder sb, final String text ) {
+    if ( text != null ) {
+      for ( int i = 0; i < text.length( ); i++ ) {
+        final char character = text.charAt( i );
+        if ( character > 0x7f || !URL_SAFE_CHARACTERS.get( character ) ) {
+          sb.append( urlencode( text ) );
+          return;
+        }
+      }
+      sb.append( text );
+    }
+  }
+
   private String digestUTF8( final CharSequence text ) throws IOException {
     final ByteBuffer byteBuffer = StandardCharsets.UTF_8.encode( CharBuffer.wrap( text ) );
     return BaseEncoding.base16( ).lowerCase( ).encode( Digest.SHA256.digestBinary( byteBuffer ) );
   }
   
   private String canonicalizePath( final String servicePath ) throws URISyntaxException {
-    return servicePath.isEmpty() ? "/" : new URI("http", "0.0.0.0", servicePath, null).normalize().getPath(); //TODO encode path here when it becomes necessary
+    if ( servicePath.isEmpty( ) ) {
+      return "/";
+    } else if ( servicePath.charAt( 0 ) == '/' && !servicePath.contains( "/." ) && !servicePath.contains( "//" ) ) {
+      return servicePath; // already normal
+    }
+    return new URI("http", "0.0.0.0", servicePath, null).normalize().getPath(); //TODO encode path here when it becomes necessary
   }
 
   private byte[] getHmacSHA256( final byte[] signatureKey,
@@ -172,14 +253,46 @@ public class Hmacv4LoginModule extends HmacLoginModuleSupport {
     }
   }
 
-  private byte[] getSignatureKey( final String key,
-                                  final SignatureCredential credential ) throws Exception {
-    return getHmacSHA256(
+  byte[] getSignatureKey( final String key,
+                          final SignatureCredential credential ) throws Exception {
+    final String cacheKey = credential.getAccessKeyId( ) + '/' + credential.getCredentialScope( );
+    final SigningKey cached = signingKeyCache.getIfPresent( cacheKey );
+    if ( cached != null && cached.secretKey.equals( key ) ) {
+      return cached.signingKey;
+    }
+    final byte[] signingKey = getHmacSHA256(
         getHmacSHA256(
             getHmacSHA256(
                 getHmacSHA256( ("AWS4" + key).getBytes( StandardCharsets.UTF_8 ), credential.getDate() ),
                 credential.getRegion() ),
             credential.getServiceName() ),
         credential.getTerminator() );
+    signingKeyCache.put( cacheKey, new SigningKey( key, signingKey ) );
+    return signingKey;
+  }
+
+  private static final class SigningKey {
+    private final String secretKey;
+    private final byte[] signingKey;
+
+    private SigningKey( final String secretKey, final byte[] signingKey ) {
+      this.secretKey = secretKey;
+      this.signingKey = signingKey;
+    }
+  }
+
+  /**
+   * Per thread buffers for canonicalization, released if grown for a large request.
+   */
+  private static final class CanonicalizationBuffers {
+    private final StringBuilder queryAndHeaders = new StringBuilder( 512 );
+    private final StringBuilder request = new StringBuilder( 512 );
+    private final StringBuilder subject = new StringBuilder( 256 );
+
+    private void release( ) {
+      if ( queryAndHeaders.capacity( ) > MAX_RETAINED_BUFFER || request.capacity( ) > MAX_RETAINED_BUFFER ) {
+        buffers.remove( );
+      }
+    }
   }
 }
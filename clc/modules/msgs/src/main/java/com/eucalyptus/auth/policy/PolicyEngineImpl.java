@@ -110,12 +110,16 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * The implementation of policy engine, which evaluates a request against specified policies.
@@ -130,6 +134,16 @@ public class PolicyEngineImpl implements PolicyEngine {
       .expireAfterWrite( 1, TimeUnit.HOURS )
       .build( );
 
+  private static final LoadingCache<Authorization,CompiledAuthorization> compiledAuthorizationCache = CacheBuilder
+      .newBuilder( )
+      .weakKeys( )
+      .build( new CacheLoader<Authorization,CompiledAuthorization>( ) {
+        @Override
+        public CompiledAuthorization load( @Nonnull final Authorization authorization ) {
+          return new CompiledAuthorization( authorization );
+        }
+      } );
+
   @Nonnull
   private final Function<String,String> accountResolver;
 
@@ -152,11 +166,7 @@ public class PolicyEngineImpl implements PolicyEngine {
   private static final Matcher PATTERN_MATCHER = new Matcher( ) {
     @Override
     public boolean match( String pattern, String instance ) {
-      pattern = PolicyUtils.toJavaPattern( pattern );
-      if ( pattern == null ) {
-        return false;
-      }
-      return Pattern.matches( pattern, instance );
+      return PolicyPatternSet.matches( pattern, instance );
     }
   };
   
@@ -423,7 +433,7 @@ public class PolicyEngineImpl implements PolicyEngine {
       if ( !matchActions( auth, action ) ) {
         continue;
       }
-      if ( !matchPrincipal( auth.getPrincipal(), principalType, principalName ) ) {
+      if ( !matchPrincipal( auth, principalType, principalName ) ) {
         continue;
       }
       if ( authorizationMatch == AuthorizationMatch.Unconditional && auth.getEffect( ) == EffectType.Allow ) {
@@ -432,7 +442,7 @@ public class PolicyEngineImpl implements PolicyEngine {
       if ( !matchResources( auth, region, resourceAccountNumber, resourceType, resource ) ) {
         continue;
       }
-      if ( !evaluateConditions( auth.getPolicyVariables(), auth.getConditions( ), action, keyEval, contractEval ) ) {
+      if ( !evaluateConditions( auth.getPolicyVariables(), compiled( auth ).conditions.get( ), action, keyEval, contractEval ) ) {
         continue;
       }
       if ( auth.getEffect( ) == EffectType.Deny ) {
@@ -446,14 +456,15 @@ public class PolicyEngineImpl implements PolicyEngine {
   }
   
   private boolean matchActions( Authorization auth, String action ) throws AuthException {
-    return evaluateElement( matchOne( auth.getActions( ), action, PATTERN_MATCHER ), auth.isNotAction( ) );
+    return evaluateElement( compiled( auth ).actions.matches( action ), auth.isNotAction( ) );
   }
 
-  private boolean matchPrincipal( Principal principal, PrincipalType principalType, String principalName ) throws AuthException {
+  private boolean matchPrincipal( Authorization auth, PrincipalType principalType, String principalName ) throws AuthException {
+    final Principal principal = auth.getPrincipal( );
     return principalName == null || (
         principal != null &&
         principal.getType() == principalType &&
-        evaluateElement( matchOne( principalType.convertForUserMatching( principal.getValues() ), principalName, PATTERN_MATCHER ), principal.isNotPrincipal() ) );
+        evaluateElement( compiled( auth ).principals.get( ).matches( principalName ), principal.isNotPrincipal() ) );
   }
 
   private boolean matchResources( Authorization auth, String resourceType, String resource ) throws AuthException {
@@ -471,17 +482,27 @@ public class PolicyEngineImpl implements PolicyEngine {
       return auth.isNotResource( );
     } else if ( auth.getAccount() != null && resourceAccountNumber != null && !resolveAccount(auth.getAccount()).equals( resourceAccountNumber ) ) {
       return auth.isNotResource( );
-    } else if ( !matchOne( Collections.singleton( auth.getType( ) ), resourceType, PATTERN_MATCHER ) ) {
+    } else if ( !compiled( auth ).type.matches( resourceType ) ) {
       return auth.isNotResource( );
     } else  if ( PolicySpec.EC2_RESOURCE_ADDRESS.equals( auth.getType( ) ) ) {
       return evaluateElement( matchOne( auth.getResources( ), resource, ADDRESS_MATCHER ), auth.isNotResource( ) );
     } else if ( String.format("%s:%s", PolicySpec.VENDOR_IAM, PolicySpec.IAM_RESOURCE_SERVER_CERTIFICATE).equals ( auth.getType( ))){
       return evaluateElement( matchOne( auth.getResources( ), resource, SERVER_CERTIFICATE_MATCHER ), auth.isNotResource( ) );
-    }else {
+    } else if ( auth.getPolicyVariables( ).isEmpty( ) ) {
+      return evaluateElement( compiled( auth ).resources.matches( resource ), auth.isNotResource( ) );
+    } else {
       return evaluateElement( matchOne( auth.getPolicyVariables( ), auth.getResources( ), resource, PATTERN_MATCHER ), auth.isNotResource( ) );
     }
   }
   
+  private static CompiledAuthorization compiled( final Authorization auth ) {
+    try {
+      return compiledAuthorizationCache.getUnchecked( auth );
+    } catch ( final UncheckedExecutionException e ) {
+      throw Throwables.propagate( e.getCause( ) );
+    }
+  }
+
   private static boolean matchOne( Set<String> patterns, String instance, Matcher matcher ) throws AuthException {
     return matchOne( Collections.<String>emptySet( ), patterns, instance, matcher );
   }
@@ -522,14 +543,15 @@ public class PolicyEngineImpl implements PolicyEngine {
    */
   private boolean evaluateConditions( 
       final Set<String> policyVariables,
-      final List<? extends Condition> conditions, 
+      final List<BoundCondition> conditions,
       final String action, 
       final CachedKeyEvaluator keyEval, 
       final ContractKeyEvaluator contractEval 
   ) throws AuthException {
-    for ( Condition cond : conditions ) {
-      ConditionOp op = Conditions.getOpInstance( cond.getType( ) );
-      Key key = Keys.getKeyInstance( Keys.getKeyClass( cond.getKey( ) ) );
+    for ( BoundCondition boundCondition : conditions ) {
+      final Condition cond = boundCondition.condition;
+      final ConditionOp op = boundCondition.op;
+      final Key key = boundCondition.key;
       final boolean applies = key.canApply( action );
       if ( key instanceof ContractKey ) {
         if ( applies ) contractEval.addContract( ( ContractKey ) key, cond.getValues( ) );
@@ -580,8 +602,9 @@ public class PolicyEngineImpl implements PolicyEngine {
       }
       PolicyScope scope = policy.getPolicyScope();
       String principalId = getAuthorizationPrincipalId( scope, accountId, userId );
-      for ( Condition cond : auth.getConditions( ) ) {
-        Key key = Keys.getKeyInstance( Keys.getKeyClass( cond.getKey( ) ) );
+      for ( BoundCondition boundCondition : compiled( auth ).conditions.get( ) ) {
+        final Condition cond = boundCondition.condition;
+        final Key key = boundCondition.key;
         if ( !( key instanceof QuotaKey ) ) {
           LOG.debug( "Key " + cond.getKey( ) + " is not a quota" );
           continue;
@@ -624,6 +647,58 @@ public class PolicyEngineImpl implements PolicyEngine {
     throw new RuntimeException( "Should not reach here: unrecognized scope." );
   }
 
+  /**
+   * Authorization with precompiled patterns and bound conditions.
+   */
+  private static final class CompiledAuthorization {
+    private final PolicyPatternSet actions;
+    private final PolicyPatternSet type;
+    private final PolicyPatternSet resources;
+    // principals and conditions are bound on first use so any error is raised when evaluated
+    private final Supplier<PolicyPatternSet> principals;
+    private final Supplier<List<BoundCondition>> conditions;
+
+    CompiledAuthorization( final Authorization auth ) {
+      this.actions = PolicyPatternSet.of( auth.getActions( ) );
+      this.type = PolicyPatternSet.of( auth.getType( ) );
+      this.resources = PolicyPatternSet.of( auth.getResources( ) );
+      this.principals = Suppliers.memoize( new Supplier<PolicyPatternSet>( ) {
+        @Override
+        public PolicyPatternSet get( ) {
+          final Principal principal = auth.getPrincipal( );
+          return principal == null ?
+              PolicyPatternSet.of( Collections.<String>emptySet( ) ) :
+              PolicyPatternSet.of( principal.getType( ).convertForUserMatching( principal.getValues( ) ) );
+        }
+      } );
+      this.conditions = Suppliers.memoize( new Supplier<List<BoundCondition>>( ) {
+        @Override
+        public List<BoundCondition> get( ) {
+          final ImmutableList.Builder<BoundCondition> conditionsBuilder = ImmutableList.builder( );
+          for ( final Condition condition : auth.getConditions( ) ) {
+            conditionsBuilder.add( new BoundCondition( condition ) );
+          }
+          return conditionsBuilder.build( );
+        }
+      } );
+    }
+  }
+
+  /**
+   * Condition with operator and key instances, these are stateless so are shared.
+   */
+  private static final class BoundCondition {
+    private final Condition condition;
+    private final ConditionOp op;
+    private final Key key;
+
+    BoundCondition( final Condition condition ) {
+      this.condition = condition;
+      this.op = Conditions.getOpInstance( condition.getType( ) );
+      this.key = Keys.getKeyInstance( Keys.getKeyClass( condition.getKey( ) ) );
+    }
+  }
+
   static class AuthEvaluationContextImpl implements AuthEvaluationContext {
     @Nullable
     private final String resourceType;
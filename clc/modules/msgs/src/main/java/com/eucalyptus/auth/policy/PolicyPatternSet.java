@@ -0,0 +1,196 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * A compiled set of IAM policy patterns (with * and ?)
+ *
+ * <p>Patterns without wildcards are matched using a hash set, patterns with
+ * only trailing * wildcards using a prefix trie and any other patterns using
+ * a compiled regular expression. Matching is equivalent to matching each
+ * pattern converted using {@link PolicyUtils#toJavaPattern(String)}.</p>
+ */
+public final class PolicyPatternSet {
+
+  private static final PolicyPatternSet EMPTY = new PolicyPatternSet( Collections.<String>emptySet( ) );
+
+  private static final LoadingCache<String,PolicyPatternSet> patternCache = CacheBuilder.newBuilder( )
+      .maximumSize( 10_000 )
+      .build( new CacheLoader<String,PolicyPatternSet>( ) {
+        @Override
+        public PolicyPatternSet load( @Nonnull final String pattern ) {
+          return new PolicyPatternSet( Collections.singleton( pattern ) );
+        }
+      } );
+
+  private final Set<String> exact;
+  @Nullable
+  private final PrefixNode prefixes;
+  private final List<Pattern> patterns;
+
+  private PolicyPatternSet( final Collection<String> patterns ) {
+    final ImmutableSet.Builder<String> exactBuilder = ImmutableSet.builder( );
+    final ImmutableList.Builder<Pattern> patternBuilder = ImmutableList.builder( );
+    PrefixNode prefixRoot = null;
+    for ( final String pattern : patterns ) {
+      if ( pattern == null ) continue;
+      final int wildcard = firstWildcard( pattern );
+      if ( wildcard < 0 ) {
+        exactBuilder.add( pattern );
+      } else if ( isTrailingMultiple( pattern, wildcard ) ) {
+        if ( prefixRoot == null ) {
+          prefixRoot = new PrefixNode( );
+        }
+        prefixRoot.add( pattern.substring( 0, wildcard ) );
+      } else {
+        patternBuilder.add( Pattern.compile( PolicyUtils.toJavaPattern( pattern ) ) );
+      }
+    }
+    this.exact = exactBuilder.build( );
+    this.prefixes = prefixRoot;
+    this.patterns = patternBuilder.build( );
+  }
+
+  /**
+   * Get the (cached) compiled form of a single pattern.
+   */
+  @Nonnull
+  public static PolicyPatternSet of( @Nullable final String pattern ) {
+    return pattern == null ? EMPTY : patternCache.getUnchecked( pattern );
+  }
+
+  /**
+   * Compile the given patterns.
+   */
+  @Nonnull
+  public static PolicyPatternSet of( @Nonnull final Collection<String> patterns ) {
+    return patterns.isEmpty( ) ? EMPTY : new PolicyPatternSet( patterns );
+  }
+
+  /**
+   * Convenience for matching a single pattern.
+   */
+  public static boolean matches( @Nullable final String pattern, @Nullable final String instance ) {
+    return of( pattern ).matches( instance );
+  }
+
+  /**
+   * Does the instance match any pattern in the set.
+   */
+  public boolean matches( @Nullable final String instance ) {
+    if ( instance == null ) {
+      return false;
+    }
+    if ( exact.contains( instance ) ) {
+      return true;
+    }
+    if ( prefixes != null && prefixes.matchesPrefixOf( instance ) ) {
+      return true;
+    }
+    for ( final Pattern pattern : patterns ) {
+      if ( pattern.matcher( instance ).matches( ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int firstWildcard( final String pattern ) {
+    for ( int i = 0; i < pattern.length( ); i++ ) {
+      final char c = pattern.charAt( i );
+      if ( c == '*' || c == '?' ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isTrailingMultiple( final String pattern, final int from ) {
+    for ( int i = from; i < pattern.length( ); i++ ) {
+      if ( pattern.charAt( i ) != '*' ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Regular expression '.' does not match line terminators so neither does a wildcard.
+   */
+  private static boolean noLineTerminators( final String text, final int from ) {
+    for ( int i = from; i < text.length( ); i++ ) {
+      switch ( text.charAt( i ) ) {
+        case '\n':
+        case '\r':
+        case '\u0085':
+        case '\u2028':
+        case '\u2029':
+          return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class PrefixNode {
+    private final Map<Character,PrefixNode> children = Maps.newHashMap( );
+    private boolean terminal;
+
+    void add( final String prefix ) {
+      PrefixNode node = this;
+      for ( int i = 0; i < prefix.length( ); i++ ) {
+        PrefixNode child = node.children.get( prefix.charAt( i ) );
+        if ( child == null ) {
+          child = new PrefixNode( );
+          node.children.put( prefix.charAt( i ), child );
+        }
+        node = child;
+      }
+      node.terminal = true;
+    }
+
+    boolean matchesPrefixOf( final String instance ) {
+      PrefixNode node = this;
+      for ( int i = 0; node != null; i++ ) {
+        if ( node.terminal && noLineTerminators( instance, i ) ) {
+          return true;
+        }
+        node = i < instance.length( ) ? node.children.get( instance.charAt( i ) ) : null;
+      }
+      return false;
+    }
+  }
+}
@@ -519,6 +519,16 @@ public class Entities {
     getTransaction( object ).txState.getSession( ).clear( );
   }
 
+  /**
+   * Get the identifier of a persistent entity as used for {@link EntityChanges} notifications.
+   *
+   * @param entity The entity associated with the current transaction
+   * @return The identifier
+   */
+  public static String getIdentifier( final Object entity ) {
+    return String.valueOf( getTransaction( entity ).txState.getSession( ).getIdentifier( entity ) );
+  }
+
   /**
    * @see #query(T,QueryOptions)
    */
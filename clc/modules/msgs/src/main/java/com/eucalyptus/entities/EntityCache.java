@@ -21,10 +21,15 @@ package com.eucalyptus.entities;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.FetchMode;
 import org.hibernate.criterion.Criterion;
@@ -35,23 +40,34 @@ import com.eucalyptus.util.Pair;
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 
 /**
+ * Cache of immutable views of entities, refreshed on each access.
  *
+ * <p>By default the cache is refreshed by loading the id and version of every
+ * matching entity and then loading any added or updated entities. With a
+ * change feed the cache instead reloads only the entities reported as
+ * changed by {@link EntityChanges}, with a periodic full refresh to catch
+ * any changes that were not reported.</p>
  */
 public class EntityCache<E extends AbstractPersistent, TE extends Comparable<TE>> implements Supplier<Iterable<TE>> {
 
+  private static final Logger logger = Logger.getLogger( EntityCache.class );
   private static final int batchSize = 500;
+  private static final int maxPendingChanges = 10_000;
   private final E example;
   private final Criterion criterion;
   private final Set<String> eagerAssociationPaths;
   private final Set<String> lazyAssociationPaths;
   private final Function<? super E,TE> transformFunction;
-  private final ConcurrentMap<Pair<String,Integer>,TE> cache = Maps.newConcurrentMap( );
+  private final ConcurrentMap<String,Pair<Integer,TE>> cache = Maps.newConcurrentMap( );
+  private final Set<String> pendingChanges = Sets.newConcurrentHashSet( );
+  private final AtomicBoolean changeFeedOverflow = new AtomicBoolean( );
+  private volatile long changeFeedRefreshInterval = 0L;
+  private volatile long lastFullRefresh = 0L;
 
   /**
    * Create an entity cache for the given example.
@@ -90,8 +106,36 @@ public class EntityCache<E extends AbstractPersistent, TE extends Comparable<TE>
     this.transformFunction = transformFunction;
   }
 
+  /**
+   * Refresh the cache from entity change notifications.
+   *
+   * <p>Changes to associated entities are not notified, the cache should only
+   * use a change feed where the view depends on the entity version (as is
+   * the case for version based refresh.)</p>
+   *
+   * @param fullRefreshInterval The interval between full refreshes
+   * @param unit The unit for the interval
+   * @return This cache
+   */
+  public EntityCache<E,TE> withChangeFeed( final long fullRefreshInterval, final TimeUnit unit ) {
+    if ( changeFeedRefreshInterval == 0L ) {
+      EntityChanges.register( example.getClass( ), new EntityChanges.EntityChangeListener( ) {
+        @Override
+        public void changed( final Collection<String> ids ) {
+          if ( pendingChanges.size( ) < maxPendingChanges ) {
+            pendingChanges.addAll( ids );
+          } else {
+            changeFeedOverflow.set( true );
+          }
+        }
+      } );
+    }
+    changeFeedRefreshInterval = Math.max( 1L, unit.toMillis( fullRefreshInterval ) );
+    return this;
+  }
+
   @SuppressWarnings( "unchecked" )
-  private Collection<Pair<String,Integer>> loadVersionMap( ) {
+  private Map<String,Integer> loadVersionMap( ) {
     try ( final TransactionResource db = Entities.readOnlyDistinctTransactionFor( example ) ){
       final Criteria criteria = Entities.createCriteria( example.getClass( ) )
           .add( Example.create( example ) )
@@ -100,50 +144,94 @@ public class EntityCache<E extends AbstractPersistent, TE extends Comparable<TE>
               .add( Projections.property( "id" ) )
               .add( Projections.property( "version" ) ) );
       final List<Object[]> idVersionList = (List<Object[]>) criteria.list( );
-      final Set<Pair<String,Integer>> results = Sets.newLinkedHashSetWithExpectedSize( idVersionList.size( ) );
-      Iterables.addAll( results, Iterables.transform( idVersionList, ObjectArrayToStringIntPair.INSTANCE ) );
+      final Map<String,Integer> results = Maps.newHashMapWithExpectedSize( idVersionList.size( ) );
+      for ( final Object[] idVersion : idVersionList ) {
+        results.put( String.valueOf( idVersion[ 0 ] ), ( (Number) idVersion[ 1 ] ).intValue( ) );
+      }
       return results;
     }
   }
 
-  @SuppressWarnings( { "unchecked", "ConstantConditions" } )
   private void refresh( ) {
-    final Collection<Pair<String,Integer>> currentKeys = loadVersionMap( );
-    cache.keySet( ).retainAll( currentKeys );
-    currentKeys.removeAll( cache.keySet( ) );
-    for ( final List<Pair<String,Integer>> keyBatch : Iterables.partition( currentKeys, batchSize ) ) {
+    final long refreshInterval = changeFeedRefreshInterval;
+    final long now = System.currentTimeMillis( );
+    if ( refreshInterval > 0L &&
+        lastFullRefresh + refreshInterval > now &&
+        !changeFeedOverflow.getAndSet( false ) ) {
+      refreshChanged( );
+    } else {
+      // changes committed from here on are reloaded on the next refresh
+      pendingChanges.clear( );
+      changeFeedOverflow.set( false );
+      lastFullRefresh = now;
+      refreshAll( );
+    }
+  }
+
+  private void refreshAll( ) {
+    final Map<String,Integer> currentVersions = loadVersionMap( );
+    final Set<String> loadIds = Sets.newLinkedHashSet( );
+    for ( final Map.Entry<String,Integer> entry : currentVersions.entrySet( ) ) {
+      final Pair<Integer,TE> cached = cache.get( entry.getKey( ) );
+      if ( cached == null || !cached.getLeft( ).equals( entry.getValue( ) ) ) {
+        loadIds.add( entry.getKey( ) );
+      }
+    }
+    cache.keySet( ).retainAll( currentVersions.keySet( ) );
+    load( loadIds );
+  }
+
+  private void refreshChanged( ) {
+    if ( !pendingChanges.isEmpty( ) ) {
+      final Set<String> changedIds = Sets.newLinkedHashSet( );
+      for ( final Iterator<String> iterator = pendingChanges.iterator( ); iterator.hasNext( ); ) {
+        changedIds.add( iterator.next( ) );
+        iterator.remove( );
+      }
+      final Set<String> loadedIds = load( changedIds );
+      // changed entities that no longer match were deleted or filtered out
+      cache.keySet( ).removeAll( Sets.difference( changedIds, loadedIds ) );
+      if ( logger.isTraceEnabled( ) ) {
+        logger.trace( "Refreshed " + changedIds.size( ) + " changed " + example.getClass( ).getSimpleName( ) + "(s)" );
+      }
+    }
+  }
+
+  /**
+   * Load the given entities into the cache.
+   *
+   * @return The ids of the loaded entities
+   */
+  @SuppressWarnings( { "unchecked", "ConstantConditions" } )
+  private Set<String> load( final Collection<String> ids ) {
+    final Set<String> loadedIds = Sets.newHashSetWithExpectedSize( ids.size( ) );
+    for ( final List<String> idBatch : Iterables.partition( ids, batchSize ) ) {
       try ( final TransactionResource db = Entities.readOnlyDistinctTransactionFor( example ) ) {
         final Criteria criteria =  Entities.createCriteria( example.getClass( ) )
             .add( Example.create( example ) )
             .add( criterion )
             .setFetchSize( batchSize )
-            .add( Restrictions.in( "id", Lists.newArrayList( Iterables.transform( keyBatch, Pair.<String, Integer>left( ) ) ) ) );
+            .add( Restrictions.in( "id", idBatch ) );
         for ( final String path : eagerAssociationPaths ) criteria.setFetchMode( path, FetchMode.JOIN );
         for ( final String path : lazyAssociationPaths ) criteria.setFetchMode( path, FetchMode.SELECT );
         final List<E> entities = (List<E> ) criteria.list( );
         for ( final E entity : entities ) {
-          cache.put( Pair.pair( getId( entity ), entity.getVersion( ) ), transformFunction.apply( entity ) );
+          final String id = getId( entity );
+          cache.put( id, Pair.pair( entity.getVersion( ), transformFunction.apply( entity ) ) );
+          loadedIds.add( id );
         }
       }
     }
+    return loadedIds;
   }
 
   @Override
   public Iterable<TE> get( ) {
     refresh( );
-    return Ordering.natural( ).sortedCopy( cache.values( ) );
+    return Ordering.natural( ).sortedCopy( Iterables.transform( cache.values( ), Pair.<Integer,TE>right( ) ) );
   }
 
   private String getId( final E entity ) {
     return Objects.toString( Entities.resolvePrimaryKey( entity ) );
   }
-
-  private enum ObjectArrayToStringIntPair implements Function<Object[],Pair<String,Integer>> {
-    INSTANCE;
-
-    @Override
-    public Pair<String, Integer> apply( final Object[] objects ) {
-      return Pair.pair( String.valueOf( objects[ 0 ] ), ( (Number) objects[ 1 ] ).intValue() );
-    }
-  }
 }
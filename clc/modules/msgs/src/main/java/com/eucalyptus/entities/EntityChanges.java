@@ -0,0 +1,85 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.entities;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.log4j.Logger;
+import com.eucalyptus.util.Pair;
+import com.google.common.collect.Multimap;
+
+/**
+ * Notification of committed entity changes.
+ *
+ * <p>Changes are recorded by the session scoped {@link DelegatingInterceptor}
+ * for inserted, updated and deleted entities (and entities with updated
+ * collections) and are fired after the transaction commits.</p>
+ *
+ * <p>Changes made outside of a session (e.g. bulk updates or changes on
+ * another host) are not notified so listeners must not rely solely on
+ * notifications.</p>
+ */
+public class EntityChanges {
+
+  private static final Logger logger = Logger.getLogger( EntityChanges.class );
+
+  private static final List<Pair<Class<?>,EntityChangeListener>> listeners = new CopyOnWriteArrayList<>( );
+
+  public interface EntityChangeListener {
+    /**
+     * Invoked after commit with the identifiers of changed entities.
+     *
+     * <p>Listeners are invoked on the committing thread and must not block.</p>
+     *
+     * @param ids The identifiers of the inserted, updated or deleted entities
+     */
+    void changed( Collection<String> ids );
+  }
+
+  /**
+   * Register a listener for changes to entities of the given type (or subtypes)
+   */
+  public static void register( final Class<?> entityClass, final EntityChangeListener listener ) {
+    listeners.add( Pair.<Class<?>,EntityChangeListener>pair( entityClass, listener ) );
+  }
+
+  static boolean isTracked( final Class<?> entityClass ) {
+    for ( final Pair<Class<?>,EntityChangeListener> listener : listeners ) {
+      if ( listener.getLeft( ).isAssignableFrom( entityClass ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static void fire( final Multimap<Class<?>,String> changes ) {
+    for ( final Map.Entry<Class<?>,Collection<String>> entry : changes.asMap( ).entrySet( ) ) {
+      for ( final Pair<Class<?>,EntityChangeListener> listener : listeners ) {
+        if ( listener.getLeft( ).isAssignableFrom( entry.getKey( ) ) ) try {
+          listener.getRight( ).changed( entry.getValue( ) );
+        } catch ( final Exception e ) {
+          logger.error( "Error in entity change listener for " + entry.getKey( ).getSimpleName( ), e );
+        }
+      }
+    }
+  }
+}
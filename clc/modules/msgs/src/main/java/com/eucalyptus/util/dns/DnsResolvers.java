@@ -69,6 +69,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.springframework.core.OrderComparator;
@@ -85,14 +88,19 @@ import com.eucalyptus.bootstrap.ServiceJarDiscovery;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.util.Ordered;
+import com.eucalyptus.ws.WebServices;
+import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ClassToInstanceMap;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MutableClassToInstanceMap;
 
@@ -105,7 +113,15 @@ public class DnsResolvers extends ServiceJarDiscovery {
                                     + "Also, each resolver may need to be separately enabled."
                                     + "See 'euca-describe-properties dns'." )
   public static Boolean enabled = Boolean.TRUE;
+  @ConfigurableField( description = "Maximum time in seconds to use a cached answer from a resolver, 0 to disable answer caching.",
+                      changeListener = WebServices.CheckNonNegativeIntegerPropertyChangeListener.class )
+  public static Integer answer_cache_ttl = 5;
+  private static final int ANSWER_CACHE_SIZE = 50_000;
   private static final ClassToInstanceMap<DnsResolver> resolvers = MutableClassToInstanceMap.create( );
+  private static final ConcurrentMap<Class<?>, AtomicLong> generations = Maps.newConcurrentMap( );
+  private static final Cache<AnswerName, ConcurrentMap<AnswerKey, CachedAnswer>> answers = CacheBuilder.newBuilder( )
+      .maximumSize( ANSWER_CACHE_SIZE )
+      .build( );
   
   public enum RequestType implements Predicate<Record> {
     A( 1 ),
@@ -433,7 +449,24 @@ public class DnsResolvers extends ServiceJarDiscovery {
     public abstract boolean checkAccepts( DnsRequest request );
     
     public abstract DnsResponse lookupRecords( DnsRequest request );
-    
+
+    /**
+     * Get the view for a request, answers are cached by resolver, name, type and view.
+     *
+     * <p>The view must capture everything other than the query name and type
+     * that the answer depends on. Cached answers are used for at most
+     * dns.answer_cache_ttl seconds, resolvers should invalidate them using
+     * {@link DnsResolvers#invalidate(Class, Name)} when the underlying data
+     * changes. Only answers with records are cached, null, empty and NXDOMAIN
+     * responses always use the resolver.</p>
+     *
+     * @return The view or null if the answer must not be cached.
+     */
+    public Object answerView( DnsRequest request ) {
+      return null;
+    }
+
+    protected static final Object SHARED_VIEW = "shared";
     protected static final int DEFAULT_ORDER = 0;
     @Override
     public int getOrder( ) {
@@ -441,6 +474,70 @@ public class DnsResolvers extends ServiceJarDiscovery {
     }
   }
   
+  /**
+   * Invalidate cached answers for resolvers of the given type (or subtypes)
+   */
+  public static void invalidate( final Class<? extends DnsResolver> resolverType ) {
+    for ( final Map.Entry<Class<?>, AtomicLong> entry : generations.entrySet( ) ) {
+      if ( resolverType.isAssignableFrom( entry.getKey( ) ) ) {
+        entry.getValue( ).incrementAndGet( );
+      }
+    }
+  }
+
+  /**
+   * Invalidate cached answers for the name for resolvers of the given type (or subtypes)
+   */
+  public static void invalidate( final Class<? extends DnsResolver> resolverType, final Name name ) {
+    for ( final Class<?> resolverClass : generations.keySet( ) ) {
+      if ( resolverType.isAssignableFrom( resolverClass ) ) {
+        answers.invalidate( new AnswerName( resolverClass, name ) );
+      }
+    }
+  }
+
+  /**
+   * Lookup using the resolvers cached answer if available.
+   */
+  static DnsResponse lookupRecords( final DnsResolver resolver, final DnsRequest request ) {
+    final int ttl = answer_cache_ttl;
+    final Object view = ttl > 0 ? resolver.answerView( request ) : null;
+    final AtomicLong generation = generations.get( resolver.getClass( ) );
+    if ( view == null || generation == null ) {
+      return resolver.lookupRecords( request );
+    }
+    final Record query = request.getQuery( );
+    final AnswerName answerName = new AnswerName( resolver.getClass( ), query.getName( ) );
+    final AnswerKey key = new AnswerKey( query.getType( ), view );
+    final long currentGeneration = generation.get( );
+    // answers are added to the map for the name as it was before the lookup so
+    // an answer is discarded if the name is invalidated during the lookup
+    final ConcurrentMap<AnswerKey, CachedAnswer> nameAnswers = answersFor( answerName );
+    final CachedAnswer cached = nameAnswers.get( key );
+    if ( cached != null && cached.isValid( currentGeneration, ttl ) ) {
+      return cached.getResponse( );
+    }
+    final DnsResponse reply = resolver.lookupRecords( request );
+    // negative answers are not cached, a change that creates the name may not
+    // be mapped to the name by the resolver
+    if ( reply != null && reply.hasAnswer( ) && !reply.isNxdomain( ) ) {
+      nameAnswers.put( key, new CachedAnswer( reply, currentGeneration ) );
+    } else {
+      nameAnswers.remove( key );
+    }
+    return reply;
+  }
+
+  private static ConcurrentMap<AnswerKey, CachedAnswer> answersFor( final AnswerName answerName ) {
+    final ConcurrentMap<AnswerKey, CachedAnswer> nameAnswers = answers.getIfPresent( answerName );
+    if ( nameAnswers != null ) {
+      return nameAnswers;
+    }
+    final ConcurrentMap<AnswerKey, CachedAnswer> newAnswers = Maps.newConcurrentMap( );
+    final ConcurrentMap<AnswerKey, CachedAnswer> existingAnswers = answers.asMap( ).putIfAbsent( answerName, newAnswers );
+    return existingAnswers == null ? newAnswers : existingAnswers;
+  }
+
   /**
    * Returns the list of resolvers which accept the name from the given source address.
    */
@@ -470,7 +567,7 @@ public class DnsResolvers extends ServiceJarDiscovery {
     LOG.debug( "DnsResolver: " + RequestType.typeOf( type ) + " " + name );
     for ( final DnsResolver r : DnsResolvers.resolversFor( request ) ) {
       try {
-        final DnsResponse reply = r.lookupRecords( request );
+        final DnsResponse reply = lookupRecords( r, request );
         if ( reply == null ) {
           LOG.debug( "DnsResolver: returned null " + name + " using " + r );
           continue;
@@ -515,6 +612,7 @@ public class DnsResolvers extends ServiceJarDiscovery {
       try {
         final DnsResolver resolver = ( DnsResolver ) candidate.newInstance( );
         resolvers.putInstance( candidate, resolver );
+        generations.put( candidate, new AtomicLong( ) );
         return true;
       } catch ( final Exception ex ) {
         LOG.error( "Failed to create instance of DnsResolver: "
@@ -550,4 +648,75 @@ public class DnsResolvers extends ServiceJarDiscovery {
     }
     return SetResponse.ofType( SetResponse.UNKNOWN );
   }
+
+  private static final class AnswerName {
+    private final Class<?> resolver;
+    private final Name name;
+
+    AnswerName( final Class<?> resolver, final Name name ) {
+      this.resolver = resolver;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final AnswerName that = (AnswerName) o;
+      return resolver.equals( that.resolver ) &&
+          name.equals( that.name );
+    }
+
+    @Override
+    public int hashCode( ) {
+      return Objects.hashCode( resolver, name );
+    }
+  }
+
+  private static final class AnswerKey {
+    private final int type;
+    private final Object view;
+
+    AnswerKey( final int type, final Object view ) {
+      this.type = type;
+      this.view = view;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final AnswerKey that = (AnswerKey) o;
+      return type == that.type &&
+          view.equals( that.view );
+    }
+
+    @Override
+    public int hashCode( ) {
+      return Objects.hashCode( type, view );
+    }
+  }
+
+  private static final class CachedAnswer {
+    private final DnsResponse response;
+    private final long generation;
+    private final long created = System.currentTimeMillis( );
+
+    CachedAnswer( final DnsResponse response, final long generation ) {
+      this.response = response;
+      this.generation = generation;
+    }
+
+    /**
+     * The cached response
+     */
+    DnsResponse getResponse( ) {
+      return response;
+    }
+
+    boolean isValid( final long currentGeneration, final int ttl ) {
+      return generation == currentGeneration &&
+          System.currentTimeMillis( ) - created < TimeUnit.SECONDS.toMillis( ttl );
+    }
+  }
 }
@@ -0,0 +1,152 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed memory, lock-free histogram for non-negative long values.
+ *
+ * Values are stored in log-linear buckets: values below 32 are exact and
+ * larger values are kept with 5 significant bits, so a reported percentile
+ * is within ~3% of the recorded value. Values above 2^40 are clamped into
+ * the top bucket.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_MAGNITUDE = 40;
+  private static final int BUCKET_COUNT =
+      SUB_BUCKET_COUNT + ( MAX_MAGNITUDE - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * Record a value, negative values are ignored.
+   */
+  public void record(final long value) {
+    if (value < 0)
+      return;
+    counts.incrementAndGet(bucketIndex(value));
+    count.increment();
+    sum.add(value);
+    long current;
+    while (value < (current = min.get()) && !min.compareAndSet(current, value));
+    while (value > (current = max.get()) && !max.compareAndSet(current, value));
+  }
+
+  /**
+   * Copy of the current state, values recorded concurrently may or may not be included.
+   */
+  public Snapshot snapshot() {
+    final long[] bucketCounts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      bucketCounts[i] = counts.get(i);
+      total += bucketCounts[i];
+    }
+    return new Snapshot(bucketCounts, total, sum.sum(), min.get(), max.get());
+  }
+
+  static int bucketIndex(final long value) {
+    if (value < SUB_BUCKET_COUNT)
+      return (int) value;
+    final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    if (magnitude > MAX_MAGNITUDE)
+      return BUCKET_COUNT - 1;
+    final int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return SUB_BUCKET_COUNT + (magnitude - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * Highest value that maps to the given bucket.
+   */
+  static long bucketValue(final int index) {
+    if (index < SUB_BUCKET_COUNT)
+      return index;
+    final int magnitude = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+    final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    final long lowest = (1L << magnitude) | (subBucket << (magnitude - SUB_BUCKET_BITS));
+    return lowest + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+  }
+
+  public static class Snapshot {
+    private static final Snapshot EMPTY = new Snapshot(new long[0], 0, 0, 0, 0);
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+    private Snapshot(final long[] counts, final long count, final long sum, final long min, final long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.min = count == 0 ? 0 : min;
+      this.max = count == 0 ? 0 : max;
+    }
+
+    public static Snapshot empty() {
+      return EMPTY;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMin() {
+      return min;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public double getMean() {
+      return count == 0 ? 0.0d : sum / (double) count;
+    }
+
+    /**
+     * Value at the given percentile (0-100) using the nearest rank method,
+     * never more than the recorded maximum.
+     */
+    public long getValueAtPercentile(final double percentile) {
+      if (count == 0)
+        return 0;
+      final double clamped = Math.min(100.0d, Math.max(0.0d, percentile));
+      final long rank = Math.max(1, (long) Math.ceil(clamped / 100.0d * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank)
+          return Math.max(min, Math.min(max, bucketValue(i)));
+      }
+      return max;
+    }
+  }
+}
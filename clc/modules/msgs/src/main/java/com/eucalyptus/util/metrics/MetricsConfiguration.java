@@ -24,6 +24,7 @@ import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.configurable.ConfigurableProperty;
 import com.eucalyptus.configurable.ConfigurablePropertyException;
 import com.eucalyptus.configurable.PropertyChangeListener;
+import com.eucalyptus.configurable.PropertyChangeListeners;
 
 
 @ConfigurableClass( root = "cloud", description = "Parameters controlling internal metrics collection")
@@ -32,6 +33,10 @@ public class MetricsConfiguration {
         changeListener=CollectionSizeChangeListener.class)
     public static volatile int METRICS_COLLECTION_SIZE = 1000;
 
+    @ConfigurableField(initial = "60", description = "Interval in seconds for latency percentiles of performance metrics",
+        changeListener=PropertyChangeListeners.IsPositiveInteger.class)
+    public static volatile int METRICS_INTERVAL = 60;
+
     public static class CollectionSizeChangeListener implements PropertyChangeListener<String> {
       @Override
       public void fireChange(ConfigurableProperty t, String newValue)
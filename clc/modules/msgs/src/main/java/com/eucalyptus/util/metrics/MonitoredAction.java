@@ -34,6 +34,9 @@ public enum MonitoredAction {
   PUT_DATA_QUEUE_MERTIC_ADD_BATCH("PutMetricDataQueue:Timing:dataBatch.MetricManager.addMetricBatch():time"),
   PUT_DATA_QUEUE_MERTIC_QUEUE_ADDALL("PutMetricDataQueue:Timing:ListMetricQueue.addAll():time"),
   PUT_DATA_TIMING("PutMetricDataQueue:Timing:time"),
+  PUT_DATA_SHARD_QUEUE_DEPTH("PutMetricDataQueue:Shard:queue.size"),
+  PUT_DATA_SHARD_LAG("PutMetricDataQueue:Shard:lag:time"),
+  PUT_DATA_THROTTLED("PutMetricDataQueue:Shard:throttled.size"),
   LIST_METRIC_SIZE("ListMetricQueue:Timing:dataBatch.size"),
   LIST_METRIC_PRUNE("ListMetricQueue:Timing:dataBatch.pruneDuplicates:time"),
   LIST_METRIC_CONVERT("ListMetricQueue:Timing:convertToListMetrics:time"),
@@ -22,20 +22,34 @@ package com.eucalyptus.util.metrics;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
 
 import org.apache.log4j.Logger;
 
-import com.eucalyptus.component.id.Eucalyptus;
-import com.eucalyptus.system.Threads;
-import com.eucalyptus.util.LockResource;
-import com.google.common.collect.EvictingQueue;
-
-import org.apache.commons.collections.map.LRUMap;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Hertz;
+import com.eucalyptus.event.Listeners;
 
+/**
+ * Recent data points and latency histograms for monitored actions.
+ *
+ * Recording is lock-free and done on the calling thread. Each action keeps
+ * the last METRICS_COLLECTION_SIZE data points, a cumulative histogram and a
+ * histogram for the current interval which is rolled every METRICS_INTERVAL
+ * seconds.
+ */
 public class ThruputMetrics {
 
   public static class DataPoint {
@@ -70,41 +84,178 @@ public class ThruputMetrics {
   }
 
   private static final Logger LOG = Logger.getLogger(ThruputMetrics.class);
-  private static final Map<MonitoredAction, EvictingQueue<DataPoint>> data = new HashMap<MonitoredAction,EvictingQueue<DataPoint>>();
-  private static final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
-  private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd G 'at' HH:mm:ss z");
-  private static final LRUMap paritalOperations = new LRUMap(10000);
+  private static final int MAX_PARTIAL_OPERATIONS = 10000;
+  private static final Map<MonitoredAction, ActionMetrics> data = new EnumMap<>(MonitoredAction.class);
+  private static final ConcurrentMap<String, PartialOperation> partialOperations = new ConcurrentHashMap<>();
+  // partial operations in the order they were recorded, entries for matched operations remain until trimmed
+  private static final Queue<PartialOperation> partialOperationOrder = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger partialOperationOrderSize = new AtomicInteger();
+  private static final AtomicBoolean trimming = new AtomicBoolean(false);
+  private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      return new SimpleDateFormat("yyyy.MM.dd G 'at' HH:mm:ss z");
+    }
+  };
+
+  static {
+    // populated once so lookups need no locking
+    for (MonitoredAction action : MonitoredAction.values())
+      data.put(action, new ActionMetrics(MetricsConfiguration.METRICS_COLLECTION_SIZE));
+  }
+
+  /**
+   * Fixed size ring of the most recent data points. Under concurrent writes
+   * a reader may see a slot that is being replaced, which only affects the
+   * ordering of the newest entries.
+   */
+  private static final class DataPointRing {
+    private final AtomicReferenceArray<DataPoint> slots;
+    private final AtomicLong next = new AtomicLong();
+
+    DataPointRing(int size) {
+      slots = new AtomicReferenceArray<>(size);
+    }
+
+    void add(DataPoint dataPoint) {
+      slots.set((int) (next.getAndIncrement() % slots.length()), dataPoint);
+    }
+
+    DataPoint[] toArray() {
+      final long end = next.get();
+      final long start = Math.max(0, end - slots.length());
+      final DataPoint[] points = new DataPoint[(int) (end - start)];
+      int count = 0;
+      for (long i = start; i < end; i++) {
+        final DataPoint dataPoint = slots.get((int) (i % slots.length()));
+        if (dataPoint != null)
+          points[count++] = dataPoint;
+      }
+      return count == points.length ? points : Arrays.copyOf(points, count);
+    }
+  }
+
+  private static final class ActionMetrics {
+    private final AtomicReference<DataPointRing> recent;
+    private final AtomicReference<LatencyHistogram> cumulative = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicReference<LatencyHistogram> interval = new AtomicReference<>(new LatencyHistogram());
+    private volatile LatencyHistogram.Snapshot lastInterval = LatencyHistogram.Snapshot.empty();
+
+    ActionMetrics(int size) {
+      recent = new AtomicReference<>(new DataPointRing(size));
+    }
+
+    void add(long value) {
+      recent.get().add(new DataPoint(value));
+      cumulative.get().record(value);
+      interval.get().record(value);
+    }
+
+    void rollInterval() {
+      lastInterval = interval.getAndSet(new LatencyHistogram()).snapshot();
+    }
+
+    void clear() {
+      recent.set(new DataPointRing(recent.get().slots.length()));
+      cumulative.set(new LatencyHistogram());
+      interval.set(new LatencyHistogram());
+      lastInterval = LatencyHistogram.Snapshot.empty();
+    }
+
+    void resize(int newSize) {
+      final DataPoint[] values = recent.get().toArray();
+      final DataPointRing ring = new DataPointRing(newSize);
+      for (int i = values.length > newSize ? values.length - newSize : 0; i < values.length; i++)
+        ring.add(values[i]);
+      recent.set(ring);
+    }
+  }
 
-  private static String operationKey(MonitoredAction action, String id, boolean start) {
-    StringBuilder sb = new StringBuilder(start ? "S":"E");
+  private static final class PartialOperation {
+    private final String key;
+    private final boolean start;
+    private final long time;
+
+    PartialOperation(String key, boolean start, long time) {
+      this.key = key;
+      this.start = start;
+      this.time = time;
+    }
+  }
+
+  private static String operationKey(MonitoredAction action, String id) {
+    StringBuilder sb = new StringBuilder();
     // to make shorter keys
-    sb.append(" A:").append(action.ordinal()).append(" ID:").append(id);
+    sb.append("A:").append(action.ordinal()).append(" ID:").append(id);
     return sb.toString();
   }
-  
+
+  /**
+   * Records one side of an operation, or the elapsed time when the other side
+   * is already known. Matching is atomic per operation key.
+   */
+  private static void operation(final MonitoredAction action, final String id, final boolean start, final long time) {
+    final long[] elapsed = { -1 };
+    final PartialOperation pending = partialOperations.compute(operationKey(action, id),
+        new BiFunction<String, PartialOperation, PartialOperation>() {
+          @Override
+          public PartialOperation apply(String key, PartialOperation other) {
+            if (other != null && other.start != start) {
+              elapsed[0] = start ? other.time - time : time - other.time;
+              return null;
+            }
+            return new PartialOperation(key, start, time);
+          }
+        });
+    if (elapsed[0] > 0) {
+      addDataPointNoThread(action, elapsed[0]);
+    } else if (pending != null) {
+      partialOperationOrder.offer(pending);
+      if (partialOperationOrderSize.incrementAndGet() > 2 * MAX_PARTIAL_OPERATIONS
+          || partialOperations.size() > MAX_PARTIAL_OPERATIONS)
+        trimPartialOperations();
+    }
+  }
+
+  /**
+   * Drop the oldest partial operations once the limit is exceeded, these are
+   * operations where the other side was never reported. The oldest are taken
+   * from the head of the recording order. Entries for operations that were
+   * matched or replaced are removed from the order once it reaches twice the
+   * limit, so the amortized cost of trimming is constant per operation.
+   */
+  private static void trimPartialOperations() {
+    if (!trimming.compareAndSet(false, true))
+      return;
+    try {
+      if (partialOperationOrderSize.get() > 2 * MAX_PARTIAL_OPERATIONS) {
+        for (final Iterator<PartialOperation> it = partialOperationOrder.iterator(); it.hasNext();) {
+          final PartialOperation operation = it.next();
+          if (partialOperations.get(operation.key) != operation) {
+            it.remove();
+            partialOperationOrderSize.decrementAndGet();
+          }
+        }
+      }
+      while (partialOperations.size() > MAX_PARTIAL_OPERATIONS) {
+        final PartialOperation oldest = partialOperationOrder.poll();
+        if (oldest == null)
+          break;
+        partialOperationOrderSize.decrementAndGet();
+        partialOperations.remove(oldest.key, oldest);
+      }
+    } finally {
+      trimming.set(false);
+    }
+  }
+
   /**
    * Adds start time for monitored action that will be finished later.
    * If the same action was already recorded as ended due to asynchronous communication,
    * adds its execution time as a new data point.
    */
   public static void startOperation(final MonitoredAction action, final String id, final long startTime) {
-    Threads.enqueue(Eucalyptus.class, ThruputMetrics.class,
-      new Callable<Boolean>() {
-        @Override
-        public Boolean call() throws Exception {
-          String startKey = operationKey(action, id, true);
-          String endKey = operationKey(action, id, false);
-          Long endTime = (Long) paritalOperations.get(endKey);
-          if (endTime != null) {
-            paritalOperations.remove(endKey);
-            if (endTime - startTime > 0)
-              addDataPointNoThread(action, endTime - startTime);
-          } else {
-            paritalOperations.put(startKey, startTime);
-          }
-          return true;
-        }
-    });
+    operation(action, id, true, startTime);
   }
 
   /**
@@ -112,36 +263,12 @@ public class ThruputMetrics {
    * time as a new data point.
    */
   public static void endOperation(final MonitoredAction action, final String id, final long endTime) {
-    Threads.enqueue(Eucalyptus.class, ThruputMetrics.class,
-      new Callable<Boolean>() {
-        @Override
-        public Boolean call() throws Exception {
-          String startKey = operationKey(action, id, true);
-          String endKey = operationKey(action, id, false);
-          Long startTime = (Long) paritalOperations.get(startKey);
-          if (startTime != null) {
-            paritalOperations.remove(startKey);
-            if (endTime - startTime > 0)
-              addDataPointNoThread(action, endTime - startTime);
-          } else {
-            paritalOperations.put(endKey, endTime);
-          }
-          return true;
-        }
-    });
+    operation(action, id, false, endTime);
   }
 
   private static void addDataPointNoThread(MonitoredAction action, long newDataPoint) {
-    try ( final LockResource lock = LockResource.lock(storageLock.writeLock()) ) {
-      if (data.containsKey(action)) {
-        data.get(action).add(new DataPoint(newDataPoint));
-      } else {
-        EvictingQueue<DataPoint> newQ = EvictingQueue.create(MetricsConfiguration.METRICS_COLLECTION_SIZE);
-        newQ.add(new DataPoint(newDataPoint));
-        data.put(action, newQ);
-      }
-    }
-    
+    data.get(action).add(newDataPoint);
+
     if (LOG.isTraceEnabled()) {
       StringBuilder sb = new StringBuilder(action.name);
       sb.append("=");
@@ -157,53 +284,51 @@ public class ThruputMetrics {
   public static void addDataPoint(final MonitoredAction action, final long newDataPoint) {
     if (newDataPoint < 0)
       return;
-    Threads.enqueue(Eucalyptus.class, ThruputMetrics.class,
-        new Callable<Boolean>() {
-          @Override
-          public Boolean call() throws Exception {
-            if (newDataPoint < 0)
-              throw new IllegalArgumentException();
-            addDataPointNoThread(action, newDataPoint);
-            return true;
-          }
-    });
+    addDataPointNoThread(action, newDataPoint);
   }
 
   /**
    * Returns all known data point for an action.
    */
   public static DataPoint[] getDataPoints(MonitoredAction action) {
-    try ( final LockResource lock = LockResource.lock(storageLock.readLock()) ) {
-      DataPoint[] ret;
-      if (data.containsKey(action)) {
-        ret = data.get(action).toArray(new DataPoint[0]);
-      } else {
-        ret = new DataPoint[0];
-      }
-      return ret;
-    }
+    return data.get(action).recent.get().toArray();
   }
-  
+
+  /**
+   * Returns the histogram of all values recorded for an action.
+   */
+  public static LatencyHistogram.Snapshot getCumulativeSnapshot(MonitoredAction action) {
+    return data.get(action).cumulative.get().snapshot();
+  }
+
+  /**
+   * Returns the histogram for the last completed interval of an action.
+   */
+  public static LatencyHistogram.Snapshot getIntervalSnapshot(MonitoredAction action) {
+    return data.get(action).lastInterval;
+  }
+
+  /**
+   * Completes the current interval for all actions.
+   */
+  public static void rollIntervals() {
+    for (ActionMetrics metrics : data.values())
+      metrics.rollInterval();
+  }
+
   /**
    * Clean data points for a giving action
    */
   public static void clearDatapoints(MonitoredAction action) {
-    try ( final LockResource lock = LockResource.lock(storageLock.writeLock()) ) {
-      if (data.containsKey(action))
-        data.get(action).clear();
-    }
+    data.get(action).clear();
   }
 
   /**
    * Clean all data points
    */
   public static void clearAllDatapoints() {
-    try ( final LockResource lock = LockResource.lock(storageLock.writeLock()) ) {
-      for(MonitoredAction action : MonitoredAction.values()) {
-        if (data.containsKey(action))
-          data.get(action).clear();
-      }
-    }
+    for (MonitoredAction action : MonitoredAction.values())
+      clearDatapoints(action);
   }
 
   /**
@@ -243,31 +368,33 @@ public class ThruputMetrics {
    */
   public static String getDataPoints(int count) {
     StringBuilder sb = new StringBuilder();
-    try ( final LockResource lock = LockResource.lock(storageLock.readLock()) ) {
-      for(MonitoredAction action : MonitoredAction.values()){
-        DataPoint[] dataPoints = getDataPoints(action);
-        if (dataPoints.length == 0)
-          continue;
-        sb.append(action.name).append("\n");
-        for(int i = dataPoints.length > count ? dataPoints.length - count : 0; i < dataPoints.length; i++)
-          sb.append(dateFormat.format( new Date(dataPoints[i].collectionTimeMs) )).append("\t")
-          .append(dataPoints[i].value).append("\n");
-      }
+    SimpleDateFormat format = dateFormat.get();
+    for(MonitoredAction action : MonitoredAction.values()){
+      DataPoint[] dataPoints = getDataPoints(action);
+      if (dataPoints.length == 0)
+        continue;
+      sb.append(action.name).append("\n");
+      for(int i = dataPoints.length > count ? dataPoints.length - count : 0; i < dataPoints.length; i++)
+        sb.append(format.format( new Date(dataPoints[i].collectionTimeMs) )).append("\t")
+        .append(dataPoints[i].value).append("\n");
     }
     return sb.toString();
   }
 
   public static void changeSize(int newSize) {
-    try ( final LockResource lock = LockResource.lock(storageLock.writeLock()) ) {
-      for(MonitoredAction action : MonitoredAction.values()){
-        if (data.containsKey(action)) {
-          EvictingQueue<DataPoint> newQ = EvictingQueue.create(newSize);
-          DataPoint[] values = data.get(action).toArray(new DataPoint[0]);
-          for(int i = values.length > newSize ? values.length - newSize : 0; i < values.length; i++)
-            newQ.add(values[i]);
-          data.put(action, newQ);
-        }
-      }
+    for(MonitoredAction action : MonitoredAction.values())
+      data.get(action).resize(newSize);
+  }
+
+  public static class MetricsIntervalEventListener implements EventListener<Hertz> {
+    public static void register() {
+      Listeners.register(Hertz.class, new MetricsIntervalEventListener());
+    }
+
+    @Override
+    public void fireEvent(final Hertz event) {
+      if (event.isAsserted(MetricsConfiguration.METRICS_INTERVAL))
+        rollIntervals();
     }
   }
 }
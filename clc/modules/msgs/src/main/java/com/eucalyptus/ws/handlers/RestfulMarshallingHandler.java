@@ -163,6 +163,10 @@ public abstract class RestfulMarshallingHandler extends MessageStackHandler {
     this.binding = BindingManager.getBinding( this.namespace, component );
   }
 
+  protected String getNamespacePattern( ) {
+    return this.namespacePattern;
+  }
+
   protected String getNamespaceForVersion( String bindingVersion ) {
     return String.format( this.namespacePattern, bindingVersion );
   }
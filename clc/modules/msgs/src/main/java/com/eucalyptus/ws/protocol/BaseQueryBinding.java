@@ -66,6 +66,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -73,9 +74,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
 import org.apache.log4j.Logger;
 import com.eucalyptus.binding.Binding;
@@ -108,6 +109,7 @@ import groovy.lang.GroovyObject;
 
 public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandler {
   private static Logger LOG = Logger.getLogger( BaseQueryBinding.class );
+  private static final ConcurrentMap<BindingPlanKey, BindingPlan> bindingPlans = Maps.newConcurrentMap( );
   private final UnknownParameterStrategy unknownParameterStrategy;
   private final T       operationParam;
   private final List<T> altOperationParams;
@@ -206,7 +208,7 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
         //this will necessarily fault.
         targetType = this.getBinding( ).getElementClass( operationName );
       }
-      fieldMap = this.buildFieldMap( targetType );
+      fieldMap = this.planFor( targetType ).getFieldMap( );
       eucaMsg = ( BaseMessage ) targetType.newInstance( );
     } catch ( final BindingException e ) {
       LOG.debug(
@@ -283,53 +285,89 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
     if ( e == null ) throw new Exception("Class not supported: " + clazz);
     throw e;
   }
-  
+
+  /**
+   * Get the binding plan for the given type.
+   *
+   * <p>Plans depend on the namespace due to versioned annotations so are
+   * cached by binding type, namespace and target type.</p>
+   */
+  BindingPlan planFor( final Class<?> targetType ) {
+    final BindingPlanKey key =
+        new BindingPlanKey( getClass( ), getNamespacePattern( ), getNamespace( ), targetType );
+    BindingPlan plan = bindingPlans.get( key );
+    if ( plan == null ) {
+      final Map<String, String> fieldMap = this.buildFieldMap( targetType );
+      plan = new BindingPlan( fieldMap, this.buildFieldBindings( targetType, fieldMap ) );
+      final BindingPlan existing = bindingPlans.putIfAbsent( key, plan );
+      if ( existing != null ) {
+        plan = existing;
+      }
+    }
+    return plan;
+  }
+
+  private Map<String, FieldBinding> buildFieldBindings( final Class<?> targetType,
+                                                       final Map<String, String> fieldMap ) {
+    final Map<String, FieldBinding> fieldBindings = Maps.newHashMap( );
+    for ( final String fieldName : fieldMap.values( ) ) {
+      try {
+        final Field field = getRecursiveField( targetType, fieldName );
+        Class<?> listElementType = null;
+        if ( field.getGenericType( ) instanceof ParameterizedType ) {
+          final Type typeArgument = ( (ParameterizedType) field.getGenericType( ) ).getActualTypeArguments( )[0];
+          if ( typeArgument instanceof Class ) {
+            listElementType = (Class<?>) typeArgument;
+          }
+        }
+        final HttpEmbedded httpEmbedded =
+            field.isAnnotationPresent( HttpEmbedded.class ) || field.isAnnotationPresent( HttpEmbeddeds.class ) ?
+                getHttpEmbeddedAnnotation( field ) :
+                null;
+        fieldBindings.put( fieldName, new FieldBinding( field, listElementType, httpEmbedded ) );
+      } catch ( final Exception e ) {
+        LOG.debug( "Field not found: " + fieldName, e );
+      }
+    }
+    return fieldBindings;
+  }
+
   private List<String> populateObject( final GroovyObject obj, final Map<String, String> paramFieldMap, final Map<String, String> params ) {
     final List<String> failedMappings = new ArrayList<String>( );
+    final BindingPlan plan = planFor( obj.getClass( ) );
     for ( final Map.Entry<String, String> e : paramFieldMap.entrySet( ) ) {
-      try {
-        if ( getRecursiveField( obj.getClass( ), e.getValue( ) ).getType( ).equals( ArrayList.class ) ) {
-          failedMappings.addAll( this.populateObjectList( obj, e, params, params.size( ) ) );
-        }
-      } catch ( final Exception e1 ) {
-        LOG.debug( "Failed mapping : ", e1 );
+      final FieldBinding fieldBinding = plan.getFieldBinding( e.getValue( ) );
+      if ( fieldBinding == null ) {
+        LOG.debug( "Failed mapping : " + e.getValue( ) );
         failedMappings.add( e.getKey( ) );
+      } else if ( fieldBinding.getType( ).equals( ArrayList.class ) ) {
+        failedMappings.addAll( this.populateObjectList( obj, fieldBinding, e, params ) );
       }
     }
     
     for ( final Map.Entry<String, String> e : paramFieldMap.entrySet( ) ) {
-      Field field = null;
-      Class<?> declaredType = null;
-      try {
-        field = getRecursiveField( obj.getClass( ), e.getValue( ) );
-        declaredType = field.getType( );
-      } catch ( final Exception e2 ) {
-        LOG.debug( "Field not found: " + e.getValue(), e2 );
-      }
+      final FieldBinding fieldBinding = plan.getFieldBinding( e.getValue( ) );
+      final Class<?> declaredType = fieldBinding == null ? null : fieldBinding.getType( );
       
       if ( params.containsKey( e.getKey( ) )
            && ( declaredType == null || !EucalyptusData.class.isAssignableFrom( declaredType ) )
-           && !this.populateObjectField( obj, e, params ) ) {
+           && !this.populateObjectField( obj, declaredType, e, params ) ) {
         failedMappings.add( e.getKey( ) );
       } else if ( ( declaredType != null )
                   && EucalyptusData.class.isAssignableFrom( declaredType ) ) {
         try {
-          final Map<String, String> fieldMap = this.buildFieldMap( declaredType );
+          final Map<String, String> fieldMap = this.planFor( declaredType ).getFieldMap( );
           final Object newInstance = declaredType.newInstance( );
           Map<String, String> subParams = Maps.newHashMap( );
 
-          HttpEmbedded httpEmbedded = null;
-          if ( field != null && (
-              field.isAnnotationPresent( HttpEmbedded.class ) ||
-              field.isAnnotationPresent( HttpEmbeddeds.class ) ) ) {
-            httpEmbedded = getHttpEmbeddedAnnotation( field );
-          }
+          final HttpEmbedded httpEmbedded = fieldBinding.getHttpEmbedded( );
           if ( httpEmbedded != null && !httpEmbedded.multiple( ) ) {
             subParams = params;
           } else {
+            final String prefix = e.getKey( ) + ".";
             for ( final String item : Sets.newHashSet( params.keySet( ) ) ) {
-              if ( item.startsWith( e.getKey( ) + "." ) || item.equals( e.getKey( ) ) ) {
-                subParams.put( item.replace( e.getKey( ) + ".", "" ), params.remove( item ) );
+              if ( item.startsWith( prefix ) || item.equals( e.getKey( ) ) ) {
+                subParams.put( item.replace( prefix, "" ), params.remove( item ) );
               }
             }
           }
@@ -366,9 +404,11 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
   }
   
   @SuppressWarnings( "unchecked" )
-  private boolean populateObjectField( final GroovyObject obj, final Map.Entry<String, String> paramFieldPair, final Map<String, String> params ) {
+  private boolean populateObjectField( final GroovyObject obj, final Class<?> declaredType, final Map.Entry<String, String> paramFieldPair, final Map<String, String> params ) {
     try {
-      final Class<?> declaredType = getRecursiveField( obj.getClass( ), paramFieldPair.getValue( ) ).getType( );
+      if ( declaredType == null ) {
+        return false;
+      }
       final Object value = convertToType( new Supplier<String>(){
         @Override
         public String get() {
@@ -411,12 +451,11 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
   }
   
   @SuppressWarnings( "rawtypes" )
-  private List<String> populateObjectList( final GroovyObject obj, final Map.Entry<String, String> paramFieldPair, final Map<String, String> params, final int paramSize ) {
+  private List<String> populateObjectList( final GroovyObject obj, final FieldBinding fieldBinding, final Map.Entry<String, String> paramFieldPair, final Map<String, String> params ) {
     final List<String> failedMappings = new ArrayList<String>( );
     try {
-      final Field declaredField = getRecursiveField( obj.getClass( ), paramFieldPair.getValue( ) );
       final ArrayList theList = ( ArrayList ) obj.getProperty( paramFieldPair.getValue( ) );
-      final Class genericType = ( Class ) ( ( ParameterizedType ) declaredField.getGenericType( ) ).getActualTypeArguments( )[0];
+      final Class genericType = fieldBinding.getListElementType( );
       // :: simple case: FieldName.# :://
       if ( String.class.equals( genericType ) ||
            Boolean.class.equals( genericType ) ||
@@ -428,41 +467,36 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
           theList.add( convertToType( Suppliers.ofInstance(params.remove( paramFieldPair.getKey() )), genericType ) );
         } else {
           final List<String> keys = Lists.newArrayList( params.keySet( ) );
-          final Pattern paramPattern = Pattern.compile( Pattern.quote(paramFieldPair.getKey( )) + "\\.([0-9]{1,7})" );
           final Map<String,Object> indexToValueMap = new TreeMap<String,Object>( Ordering.natural().onResultOf( FunctionToInteger.INSTANCE ) );
           for ( final String k : keys ) {    
-            final Matcher matcher = paramPattern.matcher( k );
-            if ( matcher.matches() ) {
-              indexToValueMap.put( matcher.group(1), convertToType( Suppliers.ofInstance(params.remove( k )), genericType )  );
+            final IndexedParameter indexedParameter = IndexedParameter.parse( paramFieldPair.getKey( ), k );
+            if ( indexedParameter != null && indexedParameter.getSubKey( ) == null ) {
+              indexToValueMap.put( indexedParameter.getIndex( ), convertToType( Suppliers.ofInstance(params.remove( k )), genericType )  );
             }
           }
           theList.addAll( indexToValueMap.values() );
         }
-      } else if ( declaredField.isAnnotationPresent( HttpEmbedded.class ) ||
-                  declaredField.isAnnotationPresent( HttpEmbeddeds.class )) {
-        final HttpEmbedded annoteEmbedded = getHttpEmbeddedAnnotation( declaredField );
+      } else if ( fieldBinding.getHttpEmbedded( ) != null ) {
+        final HttpEmbedded annoteEmbedded = fieldBinding.getHttpEmbedded( );
         // :: build the parameter map and call populate object recursively :://
         if ( annoteEmbedded.multiple( ) ) {
           final List<String> keys = Lists.newArrayList( params.keySet( ) );
           final Map<String,Map<String,String>> subParamMaps = new TreeMap<>( Ordering.natural().onResultOf( FunctionToInteger.INSTANCE ) );
           final Map<String,String> valueMap = new TreeMap<>( Ordering.natural().onResultOf( FunctionToInteger.INSTANCE ) );
           for ( final String k : keys ) {
-            if ( k.matches( Pattern.quote( paramFieldPair.getKey( ) ) + "\\.[0-9]{1,7}\\..*" ) ) {
-              final String currentValue = params.remove( k );
-              final String setKey = k.replaceAll( "^"+ paramFieldPair.getKey( ) + "\\.([0-9]{1,7})\\..*", "$1" );
-              if ( setKey.length() > 7 ) continue;
-              final String subKey = k.replaceAll( "^"+ paramFieldPair.getKey( ) + "\\.[0-9]{1,7}\\." , "" );
-              Map<String,String> subMap = subParamMaps.get( setKey );
+            final IndexedParameter indexedParameter = IndexedParameter.parse( paramFieldPair.getKey( ), k );
+            if ( indexedParameter == null ) {
+              continue;
+            }
+            final String currentValue = params.remove( k );
+            if ( indexedParameter.getSubKey( ) != null ) {
+              Map<String,String> subMap = subParamMaps.get( indexedParameter.getIndex( ) );
               if ( subMap == null ) {
-                subParamMaps.put( setKey, subMap = Maps.newHashMap() );
+                subParamMaps.put( indexedParameter.getIndex( ), subMap = Maps.newHashMap() );
               }
-
-              subMap.put( subKey, currentValue );
-            } else if ( k.matches( Pattern.quote( paramFieldPair.getKey( ) ) + "\\.[0-9]{1,7}" ) ) {
-              final String currentValue = params.remove( k );
-              final String orderKey = k.replaceAll( "^"+ paramFieldPair.getKey( ) + "\\.([0-9]{1,7})", "$1" );
-              if ( orderKey.length() > 7 ) continue;
-              valueMap.put( orderKey, currentValue );
+              subMap.put( indexedParameter.getSubKey( ), currentValue );
+            } else {
+              valueMap.put( indexedParameter.getIndex( ), currentValue );
             }
           }
 
@@ -488,7 +522,7 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
 
   private List<String> populateEmbedded( final Class<?> genericType, final Map<String, String> params, @SuppressWarnings( "rawtypes" ) final ArrayList theList ) throws InstantiationException, IllegalAccessException {
     final GroovyObject embedded = ( GroovyObject ) genericType.newInstance( );
-    final Map<String, String> embeddedFields = this.buildFieldMap( genericType );
+    final Map<String, String> embeddedFields = this.planFor( genericType ).getFieldMap( );
     final int startSize = params.size( );
     final List<String> embeddedFailures = this.populateObject( embedded, embeddedFields, params );
     if ( embeddedFailures.isEmpty( ) && !( params.size( ) - startSize == 0 ) )
@@ -607,6 +641,146 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
     }
   }
 
+  /**
+   * Parameter name for a list item, e.g. Filter.1 or Filter.1.Name
+   */
+  static final class IndexedParameter {
+    private static final int MAX_INDEX_DIGITS = 7;
+    private final String index;
+    private final String subKey;
+
+    private IndexedParameter( final String index, @Nullable final String subKey ) {
+      this.index = index;
+      this.subKey = subKey;
+    }
+
+    /**
+     * Parse a parameter name of the form Prefix.N or Prefix.N.SubKey
+     *
+     * @return The parsed parameter or null if the name is not an item for the prefix
+     */
+    @Nullable
+    static IndexedParameter parse( final String prefix, final String name ) {
+      final int indexStart = prefix.length( ) + 1;
+      if ( name.length( ) <= indexStart || name.charAt( prefix.length( ) ) != '.' || !name.startsWith( prefix ) ) {
+        return null;
+      }
+      int indexEnd = indexStart;
+      while ( indexEnd < name.length( ) && indexEnd - indexStart <= MAX_INDEX_DIGITS &&
+          name.charAt( indexEnd ) >= '0' && name.charAt( indexEnd ) <= '9' ) {
+        indexEnd++;
+      }
+      final int digits = indexEnd - indexStart;
+      if ( digits < 1 || digits > MAX_INDEX_DIGITS ) {
+        return null;
+      } else if ( indexEnd == name.length( ) ) {
+        return new IndexedParameter( name.substring( indexStart ), null );
+      } else if ( name.charAt( indexEnd ) == '.' ) {
+        return new IndexedParameter( name.substring( indexStart, indexEnd ), name.substring( indexEnd + 1 ) );
+      } else {
+        return null;
+      }
+    }
+
+    String getIndex( ) {
+      return index;
+    }
+
+    @Nullable
+    String getSubKey( ) {
+      return subKey;
+    }
+  }
+
+  /**
+   * Field information for binding a message type, built once and reused
+   */
+  static final class BindingPlan {
+    private final Map<String, String> fieldMap;
+    private final Map<String, FieldBinding> fieldBindings;
+
+    private BindingPlan( final Map<String, String> fieldMap,
+                         final Map<String, FieldBinding> fieldBindings ) {
+      this.fieldMap = Collections.unmodifiableMap( fieldMap );
+      this.fieldBindings = fieldBindings;
+    }
+
+    /**
+     * Map of parameter name to field name
+     */
+    Map<String, String> getFieldMap( ) {
+      return fieldMap;
+    }
+
+    @Nullable
+    FieldBinding getFieldBinding( final String fieldName ) {
+      return fieldBindings.get( fieldName );
+    }
+  }
+
+  private static final class FieldBinding {
+    private final Field field;
+    private final Class<?> listElementType;
+    private final HttpEmbedded httpEmbedded;
+
+    private FieldBinding( final Field field,
+                          @Nullable final Class<?> listElementType,
+                          @Nullable final HttpEmbedded httpEmbedded ) {
+      this.field = field;
+      this.listElementType = listElementType;
+      this.httpEmbedded = httpEmbedded;
+    }
+
+    Class<?> getType( ) {
+      return field.getType( );
+    }
+
+    Class<?> getListElementType( ) {
+      if ( listElementType == null ) {
+        throw new IllegalStateException( "List element type not available for " + field.getName( ) );
+      }
+      return listElementType;
+    }
+
+    @Nullable
+    HttpEmbedded getHttpEmbedded( ) {
+      return httpEmbedded;
+    }
+  }
+
+  private static final class BindingPlanKey {
+    private final Class<?> bindingType;
+    private final String namespacePattern;
+    private final String namespace;
+    private final Class<?> targetType;
+
+    private BindingPlanKey( final Class<?> bindingType,
+                            final String namespacePattern,
+                            final String namespace,
+                            final Class<?> targetType ) {
+      this.bindingType = bindingType;
+      this.namespacePattern = namespacePattern;
+      this.namespace = namespace;
+      this.targetType = targetType;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final BindingPlanKey that = (BindingPlanKey) o;
+      return bindingType.equals( that.bindingType ) &&
+          Objects.equals( namespacePattern, that.namespacePattern ) &&
+          Objects.equals( namespace, that.namespace ) &&
+          targetType.equals( that.targetType );
+    }
+
+    @Override
+    public int hashCode( ) {
+      return Objects.hash( bindingType, namespacePattern, namespace, targetType );
+    }
+  }
+
   private enum FunctionToInteger implements Function<String,Integer> {
     INSTANCE {
       @Override
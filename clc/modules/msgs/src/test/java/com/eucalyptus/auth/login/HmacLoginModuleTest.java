@@ -67,6 +67,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -98,6 +99,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
 
@@ -666,6 +668,59 @@ public class HmacLoginModuleTest {
     assertTrue("Authentication successful", hmacV4LoginModule("vNhDy9ERZQP5WXCdmPR7ZbbzZwdlQXETeZ6wM64i").authenticate(creds));
   }
 
+  /**
+   * Cached signing keys must not be used for a different secret key
+   */
+  @Test( expected = InvalidSignatureAuthException.class )
+  public void testSigV4CachedSigningKeySecretMismatch() throws Exception {
+    final HmacCredentials creds = new HmacCredentials(
+        "1234567890",
+        HmacUtils.SignatureVariant.SignatureV4Standard,
+        ImmutableMap.<String,List<String>>builder()
+            .put( "Action", Lists.newArrayList( "ListMetrics" ) )
+            .put( "Version", Lists.newArrayList( "2010-08-01" ) )
+            .build(),
+        ImmutableMap.<String,List<String>>builder()
+            .put( "host", Lists.newArrayList( "cloudwatch.g-12-03.autoqa.qa1.eucalyptus-systems.com:8773" ) )
+            .put( "x-amz-date", Lists.newArrayList( "20140507T202657Z" ) )
+            .put( "authorization", Lists.newArrayList( "AWS4-HMAC-SHA256 Credential=AKI67CCVBS1XAL7UG9KE/20140507/g-12-03/cloudwatch/aws4_request, SignedHeaders=host;x-amz-date, Signature=1a74acf1bf2b22bddad7314cc44eef6fe562a50373ca239113d2c1942a677739" ) )
+            .build(),
+        "GET",
+        "/",
+        ""
+    );
+    assertTrue("Authentication successful", hmacV4LoginModule("vNhDy9ERZQP5WXCdmPR7ZbbzZwdlQXETeZ6wM64i").authenticate(creds));
+    assertTrue("Authentication successful (cached)", hmacV4LoginModule("vNhDy9ERZQP5WXCdmPR7ZbbzZwdlQXETeZ6wM64i").authenticate(creds));
+    hmacV4LoginModule("wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY").authenticate(creds);
+  }
+
+  /**
+   * Signing keys are cached by access key and credential scope and derived again for a new secret key
+   */
+  @Test
+  public void testSigV4SigningKeyCache() throws Exception {
+    final Hmacv4LoginModule module = hmacV4LoginModule( );
+    final HmacUtils.SignatureCredential credential =
+        new HmacUtils.SignatureCredential( "AKIDSIGNINGKEYCACHE/20120215/us-east-1/iam/aws4_request" );
+    final byte[] signingKey = module.getSignatureKey( "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY", credential );
+    assertEquals( "Signing key",
+        "f4780e2d9f65fa895f9c67b32ce1baf0b0d8a43505a000a1a9e090d414db404d",
+        BaseEncoding.base16( ).lowerCase( ).encode( signingKey ) );
+    assertSame( "Cached signing key", signingKey,
+        module.getSignatureKey( "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY",
+            new HmacUtils.SignatureCredential( "AKIDSIGNINGKEYCACHE/20120215/us-east-1/iam/aws4_request" ) ) );
+
+    final byte[] otherScopeKey = module.getSignatureKey( "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY",
+        new HmacUtils.SignatureCredential( "AKIDSIGNINGKEYCACHE/20120216/us-east-1/iam/aws4_request" ) );
+    assertFalse( "Signing key for other scope", Arrays.equals( signingKey, otherScopeKey ) );
+
+    final byte[] otherSecretKey = module.getSignatureKey( "otherSecretKey", credential );
+    assertFalse( "Signing key for other secret key", Arrays.equals( signingKey, otherSecretKey ) );
+    final byte[] derivedSigningKey = module.getSignatureKey( "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY", credential );
+    assertNotSame( "Derived signing key", signingKey, derivedSigningKey );
+    assertArrayEquals( "Derived signing key", signingKey, derivedSigningKey );
+  }
+
   /**
    * EUCA-4748 sig v2
    */
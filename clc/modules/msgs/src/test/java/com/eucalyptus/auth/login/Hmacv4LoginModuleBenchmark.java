@@ -0,0 +1,130 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.login;
+
+import java.util.Date;
+import java.util.List;
+import com.eucalyptus.auth.AuthException;
+import com.eucalyptus.auth.principal.AccessKey;
+import com.eucalyptus.auth.principal.UserPrincipal;
+import com.eucalyptus.ws.util.HmacUtils;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Timings for SigV4 signature verification with a cached and with an uncached signing key.
+ *
+ * <p>The access key identifier is part of the signing key cache key but not of the string to sign, so
+ * a distinct identifier for each request misses the cache while the signature still verifies.</p>
+ *
+ * <p>Run with the msgs test classpath:</p>
+ *
+ * <pre>java -cp ... com.eucalyptus.auth.login.Hmacv4LoginModuleBenchmark</pre>
+ *
+ * <p>The name does not match the junit batch pattern so it is not run by the junit target.</p>
+ */
+public class Hmacv4LoginModuleBenchmark {
+  private static final int WARMUP = 20000;
+  private static final int ITERATIONS = 200000;
+  private static final String SECRET_KEY = "vNhDy9ERZQP5WXCdmPR7ZbbzZwdlQXETeZ6wM64i";
+
+  public static void main( final String[] args ) throws Exception {
+    new Hmacv4LoginModuleBenchmark( ).benchmark( );
+  }
+
+  private void benchmark() throws Exception {
+    final Hmacv4LoginModule loginModule = hmacV4LoginModule( );
+
+    final HmacCredentials cachedCreds = creds( "AKI67CCVBS1XAL7UG9KE" );
+    for ( int i = 0; i < WARMUP; i++ ) loginModule.authenticate( cachedCreds );
+    long start = System.nanoTime( );
+    for ( int i = 0; i < ITERATIONS; i++ ) loginModule.authenticate( cachedCreds );
+    final long cachedNanos = ( System.nanoTime( ) - start ) / ITERATIONS;
+
+    final List<HmacCredentials> uncachedCreds = Lists.newArrayListWithCapacity( WARMUP + ITERATIONS );
+    for ( int i = 0; i < WARMUP + ITERATIONS; i++ ) uncachedCreds.add( creds( String.format( "AKI%017d", i ) ) );
+    for ( int i = 0; i < WARMUP; i++ ) loginModule.authenticate( uncachedCreds.get( i ) );
+    start = System.nanoTime( );
+    for ( int i = WARMUP; i < WARMUP + ITERATIONS; i++ ) loginModule.authenticate( uncachedCreds.get( i ) );
+    final long uncachedNanos = ( System.nanoTime( ) - start ) / ITERATIONS;
+
+    System.out.println( "SigV4 verification, cached signing key:   " + cachedNanos + "ns/request" );
+    System.out.println( "SigV4 verification, uncached signing key: " + uncachedNanos + "ns/request" );
+  }
+
+  private static HmacCredentials creds( final String accessKeyId ) throws Exception {
+    return new HmacCredentials(
+        "1234567890",
+        HmacUtils.SignatureVariant.SignatureV4Standard,
+        ImmutableMap.<String,List<String>>builder()
+            .put( "Action", Lists.newArrayList( "ListMetrics" ) )
+            .put( "Version", Lists.newArrayList( "2010-08-01" ) )
+            .build(),
+        ImmutableMap.<String,List<String>>builder()
+            .put( "host", Lists.newArrayList( "cloudwatch.g-12-03.autoqa.qa1.eucalyptus-systems.com:8773" ) )
+            .put( "x-amz-date", Lists.newArrayList( "20140507T202657Z" ) )
+            .put( "authorization", Lists.newArrayList( "AWS4-HMAC-SHA256 Credential=" + accessKeyId + "/20140507/g-12-03/cloudwatch/aws4_request, SignedHeaders=host;x-amz-date, Signature=1a74acf1bf2b22bddad7314cc44eef6fe562a50373ca239113d2c1942a677739" ) )
+            .build(),
+        "GET",
+        "/",
+        ""
+    );
+  }
+
+  private static Hmacv4LoginModule hmacV4LoginModule( ) {
+    return new Hmacv4LoginModule(){
+      @Override
+      protected AccessKey lookupAccessKey( final HmacCredentials credentials ) throws AuthException {
+        return accessKey( );
+      }
+    };
+  }
+
+  private static AccessKey accessKey( ) {
+    return new AccessKey() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public Boolean isActive() {
+        return true;
+      }
+
+      @Override
+      public String getAccessKey() {
+        throw new IllegalStateException();
+      }
+
+      @Override
+      public String getSecretKey() {
+        return SECRET_KEY;
+      }
+
+      @Override
+      public Date getCreateDate() {
+        throw new IllegalStateException();
+      }
+
+      @Override
+      public UserPrincipal getPrincipal() throws AuthException {
+        return null;
+      }
+    };
+  }
+}
@@ -0,0 +1,265 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy
+
+import com.eucalyptus.auth.AuthException
+import com.eucalyptus.auth.api.PolicyEngine
+import com.eucalyptus.auth.policy.ern.Ern
+import com.eucalyptus.auth.policy.ern.EuareErnBuilder
+import com.eucalyptus.auth.policy.ern.ResourceNameSupport
+import com.eucalyptus.auth.policy.ern.ServiceErnBuilder
+import com.eucalyptus.auth.principal.Authorization
+import com.eucalyptus.auth.principal.PolicyScope
+import com.eucalyptus.auth.principal.PolicyVersion
+import com.eucalyptus.auth.principal.TestUser
+import com.eucalyptus.auth.principal.User
+import com.eucalyptus.crypto.Digest
+import com.eucalyptus.crypto.util.B64
+import com.eucalyptus.util.Strings
+import com.google.common.base.Function
+import com.google.common.base.Supplier
+import com.google.common.base.Suppliers
+import net.sf.json.JSONException
+
+import java.nio.charset.StandardCharsets
+import java.util.regex.Pattern
+
+import static com.eucalyptus.auth.api.PolicyEngine.AuthorizationMatch.All
+
+/**
+ * Timings for policy evaluation over account, user and role policy sets.
+ *
+ * Pattern matching is timed with the compiled pattern sets and with the
+ * previous per request regular expression conversion. Authorization is
+ * timed end to end through the policy engine for allowed and denied
+ * requests.
+ *
+ * Run with the msgs test classpath:
+ *
+ *   java -cp ... com.eucalyptus.auth.policy.PolicyEngineBenchmark
+ *
+ * The name does not match the junit batch pattern so it is not run by the
+ * junit target.
+ */
+class PolicyEngineBenchmark {
+
+  private static final int WARMUP = 20_000
+  private static final int ITERATIONS = 200_000
+
+  private static final String ACCOUNT_POLICY = '''\
+    {
+      "Statement":[ {
+        "Effect": "Allow",
+        "Action": "*",
+        "Resource": "*"
+      }, {
+        "Effect": "Deny",
+        "Action": [ "ec2:deletevolume", "ec2:detachvolume", "ec2:terminateinstances" ],
+        "Resource": "arn:aws:ec2:::volume/vol-prod*"
+      } ]
+    }
+    '''.stripIndent( )
+
+  private static final String USER_POLICY = '''\
+    {
+      "Statement":[ {
+        "Effect": "Allow",
+        "Action": [ "ec2:describe*", "ec2:get*" ],
+        "Resource": "*"
+      }, {
+        "Effect": "Allow",
+        "Action": [
+          "ec2:runinstances", "ec2:startinstances", "ec2:stopinstances", "ec2:rebootinstances",
+          "ec2:createtags", "ec2:deletetags", "ec2:attachvolume", "ec2:detachvolume"
+        ],
+        "Resource": [
+          "arn:aws:ec2:::instance/*",
+          "arn:aws:ec2:::volume/vol-dev*",
+          "arn:aws:ec2:::volume/vol-test*",
+          "arn:aws:ec2:::image/emi-????????"
+        ]
+      }, {
+        "Effect": "Allow",
+        "Action": [ "iam:get*", "iam:list*", "iam:*accesskey*", "iam:changepassword" ],
+        "Resource": "arn:aws:iam::123456789012:user/dev/*"
+      }, {
+        "Effect": "Deny",
+        "Action": "ec2:*",
+        "Resource": "arn:aws:ec2:::instance/i-*-prod"
+      } ]
+    }
+    '''.stripIndent( )
+
+  private static final String ROLE_POLICY = '''\
+    {
+      "Statement":[ {
+        "Effect": "Allow",
+        "NotAction": [ "iam:*", "sts:*" ],
+        "Resource": "*"
+      }, {
+        "Effect": "Deny",
+        "Action": [ "ec2:delete*", "ec2:terminate*" ],
+        "Resource": [ "arn:aws:ec2:::instance/*-prod", "arn:aws:ec2:::volume/vol-prod*" ]
+      } ]
+    }
+    '''.stripIndent( )
+
+  private static final List<List<String>> REQUESTS = [
+      [ 'ec2:instance', 'ec2:DescribeInstances', 'i-12345678' ],
+      [ 'ec2:instance', 'ec2:StopInstances', 'i-12345678' ],
+      [ 'ec2:instance', 'ec2:TerminateInstances', 'i-1234-prod' ],
+      [ 'ec2:volume', 'ec2:AttachVolume', 'vol-dev12345' ],
+      [ 'ec2:volume', 'ec2:DeleteVolume', 'vol-prod1234' ],
+      [ 'ec2:image', 'ec2:RunInstances', 'emi-12345678' ],
+      [ 'iam:user', 'iam:ListAccessKeys', '/dev/alice' ],
+      [ 'iam:user', 'iam:DeleteUser', '/admin/bob' ],
+  ]
+
+  static void main( String[] args ) {
+    setup( )
+    new PolicyEngineBenchmark( ).benchmark( )
+  }
+
+  static void setup( ){
+    Ern.registerServiceErnBuilder( new EuareErnBuilder( ) )
+    Ern.registerServiceErnBuilder( new ServiceErnBuilder( [ 'ec2' ] ) {
+      @Override
+      Ern build( String ern, String service, String region, String account, String resource ) throws JSONException {
+        return new ResourceNameSupport( service, region, account, Strings.substringBefore('/').apply(resource), Strings.substringAfter('/').apply(resource) ) { }
+      }
+    } )
+  }
+
+  void benchmark( ) {
+    [
+        'account'             : [ policy( PolicyScope.Account, ACCOUNT_POLICY ) ],
+        'user'                : [ policy( PolicyScope.User, USER_POLICY ) ],
+        'role'                : [ policy( PolicyScope.Role, ROLE_POLICY ) ],
+        'account, user, role' : [
+            policy( PolicyScope.Account, ACCOUNT_POLICY ),
+            policy( PolicyScope.User, USER_POLICY ),
+            policy( PolicyScope.Role, ROLE_POLICY ) ],
+    ].each{ String name, List<PolicyVersion> policies ->
+      println "${name} policies"
+      benchmarkPatterns( policies )
+      benchmarkAuthorization( policies )
+    }
+  }
+
+  private static void benchmarkPatterns( List<PolicyVersion> policies ) {
+    List<Authorization> authorizations = policies.collectMany{ PolicyVersion policy ->
+      PolicyParser.getInstance( ).parse( policy.policy ).authorizations
+    }
+    List<String> actions = REQUESTS.collect{ List<String> request -> request[1].toLowerCase( ) }
+    List<String> types = REQUESTS.collect{ List<String> request -> request[0] }
+    List<String> resources = REQUESTS.collect{ List<String> request -> PolicySpec.canonicalizeResourceName( request[0], request[2] ) }
+
+    List<PolicyPatternSet> compiledActions = authorizations.collect{ Authorization auth -> PolicyPatternSet.of( auth.actions ) }
+    List<PolicyPatternSet> compiledTypes = authorizations.collect{ Authorization auth -> PolicyPatternSet.of( auth.type ) }
+    List<PolicyPatternSet> compiledResources = authorizations.collect{ Authorization auth -> PolicyPatternSet.of( auth.resources ) }
+    long compiledNanos = time{
+      matchCompiled( compiledActions, actions ) + matchCompiled( compiledTypes, types ) + matchCompiled( compiledResources, resources )
+    }
+    println "  pattern sets          ${compiledNanos}ns/request"
+
+    List<Set<String>> actionPatterns = authorizations.collect{ Authorization auth -> auth.actions }
+    List<Set<String>> typePatterns = authorizations.collect{ Authorization auth -> auth.type == null ? [ ] as Set<String> : [ auth.type ] as Set<String> }
+    List<Set<String>> resourcePatterns = authorizations.collect{ Authorization auth -> auth.resources }
+    long regexNanos = time{
+      matchRegex( actionPatterns, actions ) + matchRegex( typePatterns, types ) + matchRegex( resourcePatterns, resources )
+    }
+    println "  regex per request     ${regexNanos}ns/request"
+  }
+
+  private static void benchmarkAuthorization( List<PolicyVersion> policies ) {
+    PolicyEngine engine = new PolicyEngineImpl( accountResolver( ), Suppliers.ofInstance( Boolean.FALSE ), { 'region-1' } as Supplier<String> )
+    User user = new TestUser( name: "test", accountNumber: "123456789012" ).activate( )
+    println "  evaluateAuthorization ${time{ evaluate( engine, user, policies ) }}ns/request"
+  }
+
+  private static int matchCompiled( List<PolicyPatternSet> patternSets, List<String> instances ) {
+    int matched = 0
+    for ( String instance : instances ) {
+      for ( PolicyPatternSet patternSet : patternSets ) {
+        if ( patternSet.matches( instance ) ) matched++
+      }
+    }
+    matched
+  }
+
+  private static int matchRegex( List<Set<String>> patternSets, List<String> instances ) {
+    int matched = 0
+    for ( String instance : instances ) {
+      for ( Set<String> patterns : patternSets ) {
+        for ( String pattern : patterns ) {
+          if ( Pattern.matches( PolicyUtils.toJavaPattern( pattern ), instance ) ) {
+            matched++
+            break
+          }
+        }
+      }
+    }
+    matched
+  }
+
+  private static int evaluate( PolicyEngine engine, User user, List<PolicyVersion> policies ) {
+    int allowed = 0
+    for ( List<String> request : REQUESTS ) {
+      PolicyEngineImpl.AuthEvaluationContextImpl context = new PolicyEngineImpl.AuthEvaluationContextImpl(
+          request[0], request[1], user, [:] as Map<String,String>, policies ){
+        @Override boolean isSystemUser() { false }
+      }
+      try {
+        engine.evaluateAuthorization( context, All, '123456789012', request[2], [:] )
+        allowed++
+      } catch ( AuthException e ) {
+        // denied
+      }
+    }
+    allowed
+  }
+
+  /**
+   * Average time per request in nanoseconds
+   */
+  private static long time( Closure<Integer> requests ) {
+    int result = 0
+    WARMUP.times{ result += requests.call( ) }
+    long start = System.nanoTime( )
+    ITERATIONS.times{ result += requests.call( ) }
+    long elapsed = System.nanoTime( ) - start
+    if ( result < 0 ) println result // use result
+    elapsed / ITERATIONS / REQUESTS.size( ) as long
+  }
+
+  private static PolicyVersion policy( PolicyScope scope, String policy ) {
+    new PolicyVersion(){
+      @Override String getPolicyVersionId( ) { '1234567890' }
+      @Override String getPolicyName( ) { scope.name( ).toLowerCase( ) }
+      @Override PolicyScope getPolicyScope() { scope }
+      @Override String getPolicy( ) { policy }
+      @Override String getPolicyHash() { B64.standard.encString( Digest.SHA256.digestBinary( getPolicy( ).getBytes( StandardCharsets.UTF_8 ) ) ) }
+    }
+  }
+
+  private static Function<String, String> accountResolver( ) {
+    { String account -> account } as Function<String, String>
+  }
+}
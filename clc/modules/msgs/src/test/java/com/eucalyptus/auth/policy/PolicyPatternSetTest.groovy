@@ -0,0 +1,90 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package com.eucalyptus.auth.policy
+
+import static org.junit.Assert.*
+import org.junit.Test
+import java.util.regex.Pattern
+
+class PolicyPatternSetTest {
+
+  @Test
+  void testSetMatch( ) {
+    PolicyPatternSet set = PolicyPatternSet.of( [ "ec2:describe*", "ec2:runinstances", "iam:*user", "s3:get?bject" ] )
+    assertTrue( set.matches( "ec2:describeinstances" ) )
+    assertTrue( set.matches( "ec2:describe" ) )
+    assertTrue( set.matches( "ec2:runinstances" ) )
+    assertTrue( set.matches( "iam:getuser" ) )
+    assertTrue( set.matches( "s3:getobject" ) )
+    assertFalse( set.matches( "ec2:runinstance" ) )
+    assertFalse( set.matches( "ec2:terminateinstances" ) )
+    assertFalse( set.matches( "iam:getusers" ) )
+    assertFalse( set.matches( null ) )
+  }
+
+  @Test
+  void testEmptyMatch( ) {
+    assertFalse( PolicyPatternSet.of( [ ] ).matches( "a" ) )
+    assertFalse( PolicyPatternSet.of( (String) null ).matches( "a" ) )
+    assertFalse( PolicyPatternSet.matches( "a", null ) )
+  }
+
+  @Test
+  void testExactMatch( ) {
+    assertEquivalent "a", "a", "aa", "", "A"
+    assertEquivalent "a-z", "a-z", "b"
+    assertEquivalent "<>,./;:'\"\\|}{][+=_-)(&^%\$#@!~`", "<>,./;:'\"\\|}{][+=_-)(&^%\$#@!~`", "<"
+    assertEquivalent ".", ".", "\\a", "a"
+  }
+
+  @Test
+  void testPrefixMatch( ) {
+    assertEquivalent "a*", "a", "ab", "b", "ba", "ab\nc"
+    assertEquivalent "a**", "a", "abc", "a\u2028"
+    assertEquivalent "*", "", "a", "\r", "\u0085"
+    assertEquivalent "a\n*", "a\nb", "a\n", "a"
+  }
+
+  @Test
+  void testPatternMatch( ) {
+    assertEquivalent "*a", "a", "ba", "ab", "b"
+    assertEquivalent "*a*", "bab", "bbb", "a\nb"
+    assertEquivalent "?b", "ab", "b", "\nb"
+    assertEquivalent "a?-", "ab-", "a-"
+    assertEquivalent "???", "aaa", "aa", "aaaa"
+  }
+
+  @Test
+  void testCachedPattern( ) {
+    assertSame( PolicyPatternSet.of( "ec2:*" ), PolicyPatternSet.of( "ec2:*" ) )
+  }
+
+  /**
+   * Compiled matching must agree with the regular expression conversion
+   */
+  void assertEquivalent( String pattern, String... values ) {
+    for ( String value : values ) {
+      boolean expected = Pattern.matches( PolicyUtils.toJavaPattern( pattern ), value )
+      assertEquals( pattern+"~="+value, expected, PolicyPatternSet.matches( pattern, value ) )
+      assertEquals( pattern+"~="+value+" (set)", expected, PolicyPatternSet.of( [ pattern, "zzz" ] ).matches( value ) )
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+import com.eucalyptus.util.dns.DnsResolvers.DnsRequest;
+import com.eucalyptus.util.dns.DnsResolvers.DnsResolver;
+import com.eucalyptus.util.dns.DnsResolvers.DnsResponse;
+
+/**
+ * Unit tests for resolver answer caching.
+ */
+public class DnsResolversTest {
+
+  private static TestResolver resolver;
+
+  @BeforeClass
+  public static void registerResolver( ) throws Exception {
+    new DnsResolvers( ).processClass( TestResolver.class );
+    resolver = new TestResolver( );
+  }
+
+  @Before
+  public void resetResolver( ) {
+    DnsResolvers.answer_cache_ttl = 5;
+    TestResolver.lookups.set( 0 );
+    TestResolver.nxdomain = false;
+    TestResolver.onLookup = null;
+  }
+
+  @Test
+  public void testCachedAnswer( ) throws Exception {
+    final DnsRequest request = request( "cached.example.com." );
+    final DnsResponse first = DnsResolvers.lookupRecords( resolver, request );
+    final DnsResponse second = DnsResolvers.lookupRecords( resolver, request );
+    assertEquals( "Resolver lookups", 1, TestResolver.lookups.get( ) );
+    assertSame( "Cached response", first, second );
+  }
+
+  @Test
+  public void testCachingDisabled( ) throws Exception {
+    DnsResolvers.answer_cache_ttl = 0;
+    final DnsRequest request = request( "uncached.example.com." );
+    DnsResolvers.lookupRecords( resolver, request );
+    DnsResolvers.lookupRecords( resolver, request );
+    assertEquals( "Resolver lookups", 2, TestResolver.lookups.get( ) );
+  }
+
+  @Test
+  public void testInvalidate( ) throws Exception {
+    final DnsRequest request = request( "invalidate.example.com." );
+    final DnsRequest otherRequest = request( "other.example.com." );
+    DnsResolvers.lookupRecords( resolver, request );
+    DnsResolvers.lookupRecords( resolver, otherRequest );
+    DnsResolvers.invalidate( TestResolver.class, request.getQuery( ).getName( ) );
+    DnsResolvers.lookupRecords( resolver, request );
+    DnsResolvers.lookupRecords( resolver, otherRequest );
+    assertEquals( "Resolver lookups", 3, TestResolver.lookups.get( ) );
+  }
+
+  @Test
+  public void testInvalidateDuringLookup( ) throws Exception {
+    final DnsRequest request = request( "racing.example.com." );
+    TestResolver.onLookup = new Runnable( ) {
+      @Override
+      public void run( ) {
+        TestResolver.onLookup = null;
+        DnsResolvers.invalidate( TestResolver.class, request.getQuery( ).getName( ) );
+      }
+    };
+    DnsResolvers.lookupRecords( resolver, request );
+    DnsResolvers.lookupRecords( resolver, request );
+    DnsResolvers.lookupRecords( resolver, request );
+    assertEquals( "Resolver lookups", 2, TestResolver.lookups.get( ) );
+  }
+
+  @Test
+  public void testNxdomainNotCached( ) throws Exception {
+    TestResolver.nxdomain = true;
+    final DnsRequest request = request( "nxdomain.example.com." );
+    assertTrue( "Nxdomain", DnsResolvers.lookupRecords( resolver, request ).isNxdomain( ) );
+    TestResolver.nxdomain = false;
+    assertTrue( "Answer", DnsResolvers.lookupRecords( resolver, request ).hasAnswer( ) );
+    assertEquals( "Resolver lookups", 2, TestResolver.lookups.get( ) );
+  }
+
+  private static DnsRequest request( final String name ) throws Exception {
+    final Record query = Record.newRecord( Name.fromString( name ), Type.A, DClass.IN );
+    final InetAddress remote = InetAddress.getByAddress( new byte[]{ 10, 0, 0, 2 } );
+    return new DnsRequest( ) {
+      @Override
+      public Record getQuery( ) {
+        return query;
+      }
+
+      @Override
+      public InetAddress getRemoteAddress( ) {
+        return remote;
+      }
+
+      @Override
+      public InetAddress getLocalAddress( ) {
+        return remote;
+      }
+    };
+  }
+
+  public static class TestResolver extends DnsResolver {
+    static final AtomicInteger lookups = new AtomicInteger( );
+    static volatile boolean nxdomain;
+    static volatile Runnable onLookup;
+
+    @Override
+    public boolean checkAccepts( final DnsRequest request ) {
+      return true;
+    }
+
+    @Override
+    public DnsResponse lookupRecords( final DnsRequest request ) {
+      lookups.incrementAndGet( );
+      final Runnable hook = onLookup;
+      if ( hook != null ) {
+        hook.run( );
+      }
+      final Name name = request.getQuery( ).getName( );
+      if ( nxdomain ) {
+        return DnsResponse.forName( name ).nxdomain( );
+      }
+      try {
+        return DnsResponse.forName( name ).answer(
+            new ARecord( name, DClass.IN, 60, InetAddress.getByAddress( new byte[]{ 10, 0, 0, 1 } ) ) );
+      } catch ( final Exception e ) {
+        throw new RuntimeException( e );
+      }
+    }
+
+    @Override
+    public Object answerView( final DnsRequest request ) {
+      return SHARED_VIEW;
+    }
+  }
+}
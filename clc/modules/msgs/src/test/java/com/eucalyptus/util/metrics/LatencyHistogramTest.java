@@ -0,0 +1,80 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMax());
+    assertEquals(0, snapshot.getValueAtPercentile(99));
+  }
+
+  @Test
+  public void testSmallValuesExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 20; i++)
+      histogram.record(i);
+    histogram.record(-5);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(20, snapshot.getCount());
+    assertEquals(1, snapshot.getMin());
+    assertEquals(20, snapshot.getMax());
+    assertEquals(10.5, snapshot.getMean(), 0.001);
+    assertEquals(10, snapshot.getValueAtPercentile(50));
+    assertEquals(19, snapshot.getValueAtPercentile(95));
+    assertEquals(20, snapshot.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testPercentileAccuracy() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 100000; i++)
+      histogram.record(i);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(50000, snapshot.getValueAtPercentile(50), 50000 * 0.04);
+    assertEquals(99000, snapshot.getValueAtPercentile(99), 99000 * 0.04);
+    assertEquals(99900, snapshot.getValueAtPercentile(99.9), 99900 * 0.04);
+    assertEquals(100000, snapshot.getMax());
+  }
+
+  @Test
+  public void testLargeValuesClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.snapshot().getValueAtPercentile(50));
+  }
+
+  @Test
+  public void testBucketBounds() {
+    for (long value : new long[] { 0, 31, 32, 33, 63, 64, 1000, 123456789L, 1L << 40 }) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(LatencyHistogram.bucketValue(index) >= value);
+      if (index > 0)
+        assertTrue(LatencyHistogram.bucketValue(index - 1) < value);
+    }
+  }
+}
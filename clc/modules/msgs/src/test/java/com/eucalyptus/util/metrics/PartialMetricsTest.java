@@ -53,4 +53,32 @@ public class PartialMetricsTest {
     assertEquals(0, res.length);
   }
 
+  @Test
+  public void testTrimPartialOperations() {
+    ThruputMetrics.clearDatapoints(MonitoredAction.DELETE_VOLUME);
+    long time = System.currentTimeMillis();
+    ThruputMetrics.startOperation(MonitoredAction.DELETE_VOLUME, "vol-long", time - 5000);
+    // matched operations do not count towards the limit
+    for (int i = 0; i < 30000; i++) {
+      ThruputMetrics.startOperation(MonitoredAction.DELETE_VOLUME, "vol-matched-" + i, time - 1);
+      ThruputMetrics.endOperation(MonitoredAction.DELETE_VOLUME, "vol-matched-" + i, time);
+    }
+    ThruputMetrics.endOperation(MonitoredAction.DELETE_VOLUME, "vol-long", time);
+    assertEquals(5000, lastValue(MonitoredAction.DELETE_VOLUME));
+
+    // oldest unmatched operations are dropped beyond the limit
+    for (int i = 0; i <= 10000; i++) {
+      ThruputMetrics.startOperation(MonitoredAction.DELETE_VOLUME, "vol-unmatched-" + i, time - 7000);
+    }
+    ThruputMetrics.endOperation(MonitoredAction.DELETE_VOLUME, "vol-unmatched-0", time - 3000);
+    assertEquals(5000, lastValue(MonitoredAction.DELETE_VOLUME));
+    ThruputMetrics.endOperation(MonitoredAction.DELETE_VOLUME, "vol-unmatched-10000", time);
+    assertEquals(7000, lastValue(MonitoredAction.DELETE_VOLUME));
+  }
+
+  private static long lastValue(MonitoredAction action) {
+    ThruputMetrics.DataPoint[] res = ThruputMetrics.getDataPoints(action);
+    return res[res.length - 1].value;
+  }
+
 }
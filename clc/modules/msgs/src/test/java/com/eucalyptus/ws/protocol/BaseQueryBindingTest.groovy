@@ -179,6 +179,52 @@ class BaseQueryBindingTest {
     assertEquals( "Data value", [ new HttpEmbeddedData( httpEmbeddedData2: new HttpEmbeddedData2( member: ["a","b","c"], ints: [3,2,1] ) ), new HttpEmbeddedData( httpEmbeddedData2: new HttpEmbeddedData2( member: ["z","y","x"], ints: [1,2,3] ) ) ], httpEmbeddedAnnotated.data )
   }
 
+  @Test
+  void testHttpEmbeddedVersionedAnnotationCachedPlans() {
+    BaseQueryBinding bindingA = new TestQueryBinding( new TestBinding() ){
+      @Override protected String getNamespaceForVersion(String bindingVersion) { bindingVersion }
+      @Override String getNamespace() { "A" }
+    };
+    BaseQueryBinding bindingB = new TestQueryBinding( new TestBinding() ){
+      @Override protected String getNamespaceForVersion(String bindingVersion) { bindingVersion }
+      @Override String getNamespace() { "B" }
+    };
+
+    2.times {
+      HttpEmbeddedVersioned boundA = (HttpEmbeddedVersioned) bind( bindingA, "/service?Operation=HttpEmbeddedVersioned&embeddedMember.1=a&embeddedInts.1=3")
+      assertEquals( "Data value A", [ new HttpEmbeddedData( httpEmbeddedData2: new HttpEmbeddedData2( member: ["a"], ints: [3] ) ) ], boundA.data )
+      HttpEmbeddedVersioned boundB = (HttpEmbeddedVersioned) bind( bindingB, "/service?Operation=HttpEmbeddedVersioned&Data.1.embeddedMember.1=z&Data.1.embeddedInts.1=1")
+      assertEquals( "Data value B", [ new HttpEmbeddedData( httpEmbeddedData2: new HttpEmbeddedData2( member: ["z"], ints: [1] ) ) ], boundB.data )
+    }
+  }
+
+  @Test
+  void testBindingPlanCached() {
+    BaseQueryBinding binding = new TestQueryBinding( new TestBinding() );
+
+    BaseQueryBinding.BindingPlan plan = binding.planFor( SingleSimpleTypes )
+    assertSame( "Cached plan", plan, binding.planFor( SingleSimpleTypes ) )
+    assertSame( "Cached plan for binding instance", plan, new TestQueryBinding( new TestBinding() ).planFor( SingleSimpleTypes ) )
+    assertNotSame( "Plan for other type", plan, binding.planFor( MultipleSimpleTypes ) )
+    assertEquals( "Field map", "stringValue", plan.fieldMap.get( "StringValue" ) )
+    assertNotNull( "Field binding", plan.getFieldBinding( "stringValue" ) )
+  }
+
+  @Test
+  void testIndexedParameterParsing() {
+    assertEquals( "Index", "1", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.1" ).index )
+    assertNull( "Sub key", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.1" ).subKey )
+    assertEquals( "Index", "0000001", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.0000001.Name.1" ).index )
+    assertEquals( "Sub key", "Name.1", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.0000001.Name.1" ).subKey )
+    assertEquals( "Empty sub key", "", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.2." ).subKey )
+    assertNull( "Index too long", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.12345678" ) )
+    assertNull( "Index too long", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.12345678.Name" ) )
+    assertNull( "Missing index", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.Name" ) )
+    assertNull( "Other prefix", BaseQueryBinding.IndexedParameter.parse( "Data", "DataX.1" ) )
+    assertNull( "Non-numeric index", BaseQueryBinding.IndexedParameter.parse( "Data", "Data.1a" ) )
+    assertNull( "Prefix only", BaseQueryBinding.IndexedParameter.parse( "Data", "Data" ) )
+  }
+
   @Test
   void testHttpValueMessageProperty() {
     BaseQueryBinding binding = new TestQueryBinding( new TestBinding( ) )
@@ -0,0 +1,122 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.objectstorage.entities;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Table;
+
+import com.eucalyptus.entities.AbstractPersistent;
+
+/**
+ * Change in usage for a bucket.
+ *
+ * Deltas are inserted in the same transaction as the object or part change so concurrent changes to a bucket do not
+ * contend on the usage record. Deltas are periodically folded into the bucket usage.
+ */
+@Entity
+@PersistenceContext(name = "eucalyptus_osg")
+@Table(name = "bucket_usage_delta", indexes = {
+    @Index(name = "IDX_bucket_usage_delta_bucket_uuid", columnList = "bucket_uuid"),
+    @Index(name = "IDX_bucket_usage_delta_owner", columnList = "owner_canonical_id"),
+    @Index(name = "IDX_bucket_usage_delta_user", columnList = "owner_iam_user_id")
+})
+public class BucketUsageDelta extends AbstractPersistent {
+  private static final long serialVersionUID = 1L;
+
+  @Column(name = "bucket_uuid", nullable = false)
+  private String bucketUuid;
+
+  @Column(name = "owner_canonical_id")
+  private String ownerCanonicalId;
+
+  @Column(name = "owner_iam_user_id")
+  private String ownerIamUserId;
+
+  @Column(name = "object_count", nullable = false)
+  private Long objectCount;
+
+  @Column(name = "object_bytes", nullable = false)
+  private Long objectBytes;
+
+  @Column(name = "mpu_bytes", nullable = false)
+  private Long mpuBytes;
+
+  public BucketUsageDelta() {}
+
+  public BucketUsageDelta(Bucket bucket, long objectCount, long objectBytes, long mpuBytes) {
+    this.bucketUuid = bucket.getBucketUuid();
+    this.ownerCanonicalId = bucket.getOwnerCanonicalId();
+    this.ownerIamUserId = bucket.getOwnerIamUserId();
+    this.objectCount = objectCount;
+    this.objectBytes = objectBytes;
+    this.mpuBytes = mpuBytes;
+  }
+
+  public String getBucketUuid() {
+    return bucketUuid;
+  }
+
+  public void setBucketUuid(String bucketUuid) {
+    this.bucketUuid = bucketUuid;
+  }
+
+  public String getOwnerCanonicalId() {
+    return ownerCanonicalId;
+  }
+
+  public void setOwnerCanonicalId(String ownerCanonicalId) {
+    this.ownerCanonicalId = ownerCanonicalId;
+  }
+
+  public String getOwnerIamUserId() {
+    return ownerIamUserId;
+  }
+
+  public void setOwnerIamUserId(String ownerIamUserId) {
+    this.ownerIamUserId = ownerIamUserId;
+  }
+
+  public Long getObjectCount() {
+    return objectCount;
+  }
+
+  public void setObjectCount(Long objectCount) {
+    this.objectCount = objectCount;
+  }
+
+  public Long getObjectBytes() {
+    return objectBytes;
+  }
+
+  public void setObjectBytes(Long objectBytes) {
+    this.objectBytes = objectBytes;
+  }
+
+  public Long getMpuBytes() {
+    return mpuBytes;
+  }
+
+  public void setMpuBytes(Long mpuBytes) {
+    this.mpuBytes = mpuBytes;
+  }
+}
@@ -35,6 +35,8 @@ import com.eucalyptus.entities.Entities;
 import com.eucalyptus.entities.PersistenceContextConfiguration;
 import com.eucalyptus.entities.PersistenceContexts;
 import com.eucalyptus.objectstorage.entities.Bucket;
+import com.eucalyptus.objectstorage.entities.BucketUsage;
+import com.eucalyptus.objectstorage.entities.BucketUsageDelta;
 import com.eucalyptus.objectstorage.entities.BucketTags;
 import com.eucalyptus.objectstorage.entities.LifecycleRule;
 import com.eucalyptus.objectstorage.entities.ObjectEntity;
@@ -68,7 +70,7 @@ public class UnitTestSupport {
 
     PersistenceContextConfiguration config = new PersistenceContextConfiguration(
         "eucalyptus_osg",
-        ImmutableList.<Class<?>>builder( ).add(Bucket.class).add(ObjectEntity.class)
+        ImmutableList.<Class<?>>builder( ).add(Bucket.class).add(BucketUsage.class).add(BucketUsageDelta.class).add(ObjectEntity.class)
             .add(PartEntity.class).add(TorrentInfo.class).add(BucketTags.class)
             .add(LifecycleRule.class).add(ScheduledJob.class).add(ObjectStorageGlobalConfiguration.class)
             .add( S3AccessControlledEntity.class ).add( S3ProviderConfiguration.class ).build( ),
@@ -133,6 +135,8 @@ public class UnitTestSupport {
   public static void flushBuckets() throws Exception {
     EntityTransaction trans = Entities.get(Bucket.class);
     try {
+      Entities.deleteAll(BucketUsageDelta.class);
+      Entities.deleteAll(BucketUsage.class);
       Entities.deleteAll(Bucket.class);
       trans.commit();
     } catch (Throwable f) {
@@ -0,0 +1,63 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.objectstorage.jobs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import com.eucalyptus.bootstrap.Databases;
+import com.eucalyptus.objectstorage.metadata.BucketUsages;
+
+/*
+ * Folds bucket usage deltas into bucket usage and periodically reconciles maintained bucket usage with object and part
+ * metadata
+ */
+public class BucketUsageReconcilerJob implements Job {
+
+  private static Logger LOG = Logger.getLogger(BucketUsageReconcilerJob.class);
+  private static final long RECONCILE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+  private static volatile long lastReconcile = 0;
+
+  @Override
+  public void execute(JobExecutionContext context) throws JobExecutionException {
+    if ( Databases.isVolatile( ) ) {
+      LOG.warn( "Skipping job due to database not available" );
+      return;
+    }
+    try {
+      final int folded = BucketUsages.foldDeltas();
+      LOG.debug("Folded " + folded + " bucket usage delta(s)");
+    } catch (Exception e) {
+      LOG.error("Error folding bucket usage deltas, will retry later", e);
+    }
+    if (System.currentTimeMillis() - lastReconcile >= RECONCILE_INTERVAL) {
+      try {
+        BucketUsages.reconcileAll();
+        lastReconcile = System.currentTimeMillis();
+      } catch (Exception e) {
+        LOG.error("Error reconciling bucket usage, will retry later", e);
+      }
+    }
+  }
+}
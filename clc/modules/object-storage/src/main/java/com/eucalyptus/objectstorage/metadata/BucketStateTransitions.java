@@ -52,7 +52,9 @@ public class BucketStateTransitions {
       } else {
         if (initializedBucket.getState() == null || BucketState.creating.equals(initializedBucket.getState())) {
           initializedBucket.setState(BucketState.creating);
-          return Entities.persist(initializedBucket);
+          final Bucket persistedBucket = Entities.persist(initializedBucket);
+          BucketUsages.create(persistedBucket);
+          return persistedBucket;
         } else {
           throw new IllegalResourceStateException(initializedBucket.getBucketName(), null, BucketState.creating.toString(), initializedBucket
               .getState().toString());
@@ -107,6 +109,7 @@ public class BucketStateTransitions {
           }
           foundBucket.setState(BucketState.deleting);
           foundBucket.setBucketName(null);
+          BucketUsages.remove(foundBucket);
           return foundBucket;
         } catch (NoSuchElementException e) {
           throw new NoSuchEntityException(searchBucket.getBucketUuid());
@@ -0,0 +1,374 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.objectstorage.metadata;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.LockMode;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.exception.ConstraintViolationException;
+
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.entities.TransactionResource;
+import com.eucalyptus.objectstorage.BucketMetadataManagers;
+import com.eucalyptus.objectstorage.BucketState;
+import com.eucalyptus.objectstorage.MpuPartMetadataManagers;
+import com.eucalyptus.objectstorage.ObjectMetadataManagers;
+import com.eucalyptus.objectstorage.ObjectState;
+import com.eucalyptus.objectstorage.entities.Bucket;
+import com.eucalyptus.objectstorage.entities.BucketUsage;
+import com.eucalyptus.objectstorage.entities.BucketUsageDelta;
+import com.eucalyptus.util.Exceptions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Maintained usage counters for buckets, used for quota checks.
+ *
+ * Usage changes are inserted as deltas in the same transaction as the state transition of an object or part so they
+ * are consistent with the metadata without locking the usage record. Usage is the usage record plus any deltas not
+ * yet folded into it. Any drift, for example for buckets created prior to usage being maintained, is corrected by
+ * periodic reconciliation.
+ */
+public class BucketUsages {
+  private static final Logger LOG = Logger.getLogger(BucketUsages.class);
+  private static final int FOLD_BATCH_SIZE = 1000;
+
+  /**
+   * Adjust usage for an object state transition. Must be called within a transaction.
+   */
+  static void objectTransition(final Bucket bucket, @Nullable final ObjectState fromState, @Nullable final Long fromSize,
+      @Nullable final ObjectState toState, @Nullable final Long toSize) {
+    final long countDelta = counted(toState) - counted(fromState);
+    final long sizeDelta = sized(toState, toSize) - sized(fromState, fromSize);
+    if (countDelta != 0 || sizeDelta != 0) {
+      adjust(bucket, countDelta, sizeDelta, 0);
+    }
+  }
+
+  /**
+   * Adjust usage for a part state transition. Must be called within a transaction.
+   */
+  static void partTransition(final Bucket bucket, @Nullable final ObjectState fromState, @Nullable final Long fromSize,
+      @Nullable final ObjectState toState, @Nullable final Long toSize) {
+    final long sizeDelta = sized(toState, toSize) - sized(fromState, fromSize);
+    if (sizeDelta != 0) {
+      adjust(bucket, 0, 0, sizeDelta);
+    }
+  }
+
+  /**
+   * Adjust usage for the bucket. Must be called within a transaction.
+   *
+   * The change is inserted as a delta, no usage record is read or locked. If there is no usage record the delta is
+   * discarded when the usage is created on reconciliation.
+   */
+  static void adjust(final Bucket bucket, final long objects, final long objectBytes, final long mpuBytes) {
+    Entities.persist(new BucketUsageDelta(bucket, objects, objectBytes, mpuBytes));
+  }
+
+  /**
+   * Create empty usage for a new bucket. Must be called within a transaction.
+   */
+  static void create(final Bucket bucket) {
+    if (lockUsage(bucket.getBucketUuid()) == null) {
+      Entities.persist(new BucketUsage(bucket));
+    }
+  }
+
+  /**
+   * Remove usage for a deleted bucket. Must be called within a transaction.
+   */
+  static void remove(final Bucket bucket) {
+    final BucketUsage usage = lockUsage(bucket.getBucketUuid());
+    if (usage != null) {
+      Entities.delete(usage);
+    }
+    deleteDeltas(bucket.getBucketUuid());
+  }
+
+  /**
+   * Get the usage for a bucket, the usage is reconciled if not present.
+   *
+   * @return The usage including any deltas, the returned usage is not persistent
+   */
+  public static BucketUsage lookup(final Bucket bucket) throws Exception {
+    final BucketUsage usage;
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      final BucketUsage found =
+          (BucketUsage) Entities.createCriteria(BucketUsage.class).add(Restrictions.eq("bucketUuid", bucket.getBucketUuid())).setReadOnly(true)
+              .uniqueResult();
+      if (found != null) {
+        final long[] deltas = deltaTotals(Restrictions.eq("bucketUuid", bucket.getBucketUuid()));
+        usage = new BucketUsage(bucket);
+        usage.setObjectCount(found.getObjectCount() + deltas[0]);
+        usage.setObjectBytes(found.getObjectBytes() + deltas[1]);
+        usage.setMpuBytes(found.getMpuBytes() + deltas[2]);
+      } else {
+        usage = null;
+      }
+      trans.commit();
+    }
+    return usage != null ? usage : reconcile(bucket);
+  }
+
+  /**
+   * Total size in bytes of objects and parts for buckets owned by the account.
+   */
+  public static long getTotalSizeByAccount(final String canonicalId) throws Exception {
+    final long buckets = BucketMetadataManagers.getInstance().countBucketsByAccount(canonicalId);
+    final long[] totals = totals(Restrictions.eq("ownerCanonicalId", canonicalId));
+    if (totals[0] == buckets) {
+      return totals[1];
+    }
+    return getTotalSize(BucketMetadataManagers.getInstance().lookupBucketsByOwner(canonicalId));
+  }
+
+  /**
+   * Total size in bytes of objects and parts for buckets owned by the user.
+   */
+  public static long getTotalSizeByUser(final String userId) throws Exception {
+    final long buckets = BucketMetadataManagers.getInstance().countBucketsByUser(userId);
+    final long[] totals = totals(Restrictions.eq("ownerIamUserId", userId));
+    if (totals[0] == buckets) {
+      return totals[1];
+    }
+    return getTotalSize(BucketMetadataManagers.getInstance().lookupBucketsByUser(userId));
+  }
+
+  /**
+   * Recalculate usage for the bucket from the object and part metadata.
+   *
+   * If usage is created concurrently for a bucket without usage the existing usage is reconciled.
+   *
+   * @return The usage, the returned usage is not persistent
+   */
+  public static BucketUsage reconcile(final Bucket bucket) throws Exception {
+    try {
+      return doReconcile(bucket);
+    } catch (final Exception e) {
+      if (Exceptions.isCausedBy(e, ConstraintViolationException.class)) {
+        LOG.debug("Usage created concurrently for bucket " + bucket.getBucketUuid() + ", reconciling existing usage");
+        return doReconcile(bucket);
+      }
+      throw e;
+    }
+  }
+
+  private static BucketUsage doReconcile(final Bucket bucket) throws Exception {
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      // Lock before calculating so concurrent reconciliation and folding wait
+      BucketUsage usage = lockUsage(bucket.getBucketUuid());
+      if (usage == null) {
+        usage = Entities.persist(new BucketUsage(bucket));
+        Entities.flush(usage);
+      }
+      // Deltas committed before calculating are included in the metadata totals. A delta committed between listing and
+      // calculating is counted twice until the next reconciliation, which errs on the side of enforcing quota.
+      final List<String> deltaIds = deltaIds(bucket.getBucketUuid(), Integer.MAX_VALUE);
+      usage.setObjectCount(ObjectMetadataManagers.getInstance().countValid(bucket));
+      usage.setObjectBytes(ObjectMetadataManagers.getInstance().getTotalSize(bucket));
+      usage.setMpuBytes(MpuPartMetadataManagers.getInstance().getTotalSize(bucket));
+      deleteDeltas(deltaIds);
+      trans.commit();
+      final BucketUsage reconciled = new BucketUsage(bucket);
+      reconciled.setObjectCount(usage.getObjectCount());
+      reconciled.setObjectBytes(usage.getObjectBytes());
+      reconciled.setMpuBytes(usage.getMpuBytes());
+      return reconciled;
+    }
+  }
+
+  /**
+   * Fold deltas into the usage for each bucket with deltas.
+   *
+   * @return The number of deltas folded
+   */
+  public static int foldDeltas() throws Exception {
+    final List<String> bucketUuids;
+    try (TransactionResource trans = Entities.transactionFor(BucketUsageDelta.class)) {
+      bucketUuids = (List<String>) Entities.createCriteria(BucketUsageDelta.class)
+          .setProjection(Projections.distinct(Projections.property("bucketUuid"))).setReadOnly(true).list();
+      trans.commit();
+    }
+    int folded = 0;
+    for (final String bucketUuid : bucketUuids) {
+      try {
+        folded += foldDeltas(bucketUuid);
+      } catch (Exception e) {
+        LOG.warn("Error folding usage deltas for bucket " + bucketUuid, e);
+      }
+    }
+    return folded;
+  }
+
+  /**
+   * Fold deltas for the bucket into its usage. Deltas for a bucket without usage are left for reconciliation.
+   */
+  static int foldDeltas(final String bucketUuid) throws Exception {
+    int folded = 0;
+    while (true) {
+      try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+        // The lock is only held by background folding and reconciliation, never by object or part transactions
+        final BucketUsage usage = lockUsage(bucketUuid);
+        if (usage == null) {
+          LOG.debug("No usage for bucket " + bucketUuid + ", deltas will be applied on reconciliation");
+          trans.commit();
+          return folded;
+        }
+        final List<String> deltaIds = deltaIds(bucketUuid, FOLD_BATCH_SIZE);
+        if (deltaIds.isEmpty()) {
+          trans.commit();
+          return folded;
+        }
+        final long[] deltas = deltaTotals(Restrictions.in("id", deltaIds));
+        usage.setObjectCount(usage.getObjectCount() + deltas[0]);
+        usage.setObjectBytes(usage.getObjectBytes() + deltas[1]);
+        usage.setMpuBytes(usage.getMpuBytes() + deltas[2]);
+        deleteDeltas(deltaIds);
+        trans.commit();
+        folded += deltaIds.size();
+        if (deltaIds.size() < FOLD_BATCH_SIZE) {
+          return folded;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reconcile usage for all buckets and remove usage for buckets that no longer exist.
+   */
+  public static void reconcileAll() throws Exception {
+    final List<Bucket> buckets = BucketMetadataManagers.getInstance().lookupBucketsByState(null);
+    final Set<String> bucketUuids = Sets.newHashSet();
+    for (final Bucket bucket : buckets) {
+      bucketUuids.add(bucket.getBucketUuid());
+    }
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      for (final BucketUsage usage : (List<BucketUsage>) Entities.createCriteria(BucketUsage.class).list()) {
+        if (!bucketUuids.contains(usage.getBucketUuid())) {
+          Entities.delete(usage);
+        }
+      }
+      for (final String deltaBucketUuid : (List<String>) Entities.createCriteria(BucketUsageDelta.class)
+          .setProjection(Projections.distinct(Projections.property("bucketUuid"))).list()) {
+        if (!bucketUuids.contains(deltaBucketUuid)) {
+          deleteDeltas(deltaBucketUuid);
+        }
+      }
+      trans.commit();
+    }
+    for (final Bucket bucket : buckets) {
+      if (BucketState.deleting.equals(bucket.getState())) {
+        try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+          remove(bucket);
+          trans.commit();
+        }
+      } else {
+        try {
+          reconcile(bucket);
+        } catch (Exception e) {
+          LOG.warn("Error reconciling usage for bucket " + bucket.getBucketUuid(), e);
+        }
+      }
+    }
+  }
+
+  private static long getTotalSize(final List<Bucket> buckets) throws Exception {
+    long size = 0;
+    for (final Bucket bucket : buckets) {
+      size += lookup(bucket).getTotalBytes();
+    }
+    return size;
+  }
+
+  /**
+   * @return The number of usage records and the total bytes for the records and deltas
+   */
+  private static long[] totals(final Criterion criterion) throws Exception {
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      final Criteria criteria =
+          Entities.createCriteria(BucketUsage.class).add(criterion).setProjection(
+              Projections.projectionList().add(Projections.rowCount()).add(Projections.sum("objectBytes")).add(Projections.sum("mpuBytes")));
+      final Object[] result = (Object[]) criteria.setReadOnly(true).uniqueResult();
+      final long[] deltas = deltaTotals(criterion);
+      trans.commit();
+      return new long[] {longValue(result[0]), longValue(result[1]) + longValue(result[2]) + deltas[1] + deltas[2]};
+    }
+  }
+
+  /**
+   * Must be called within a transaction.
+   *
+   * @return The object count, object bytes and part bytes for matching deltas
+   */
+  private static long[] deltaTotals(final Criterion criterion) {
+    final Object[] result =
+        (Object[]) Entities.createCriteria(BucketUsageDelta.class).add(criterion).setProjection(
+            Projections.projectionList().add(Projections.sum("objectCount")).add(Projections.sum("objectBytes")).add(Projections.sum("mpuBytes")))
+            .setReadOnly(true).uniqueResult();
+    return new long[] {longValue(result[0]), longValue(result[1]), longValue(result[2])};
+  }
+
+  private static List<String> deltaIds(final String bucketUuid, final int maxResults) {
+    return (List<String>) Entities.createCriteria(BucketUsageDelta.class).add(Restrictions.eq("bucketUuid", bucketUuid))
+        .setProjection(Projections.id()).setMaxResults(maxResults).setReadOnly(true).list();
+  }
+
+  private static void deleteDeltas(final String bucketUuid) {
+    final Map<String, Object> parameters = new HashMap<>();
+    parameters.put("bucketUuid", bucketUuid);
+    Entities.deleteAllMatching(BucketUsageDelta.class, "WHERE bucketUuid = :bucketUuid", parameters);
+  }
+
+  private static void deleteDeltas(final List<String> deltaIds) {
+    for (final List<String> batch : Lists.partition(deltaIds, FOLD_BATCH_SIZE)) {
+      Entities.deleteAllMatching(BucketUsageDelta.class, "WHERE id IN (:ids)", Collections.singletonMap("ids", batch));
+    }
+  }
+
+  @Nullable
+  private static BucketUsage lockUsage(final String bucketUuid) {
+    return (BucketUsage) Entities.createCriteria(BucketUsage.class).add(Restrictions.eq("bucketUuid", bucketUuid))
+        .setLockMode(LockMode.PESSIMISTIC_WRITE).uniqueResult();
+  }
+
+  private static long counted(@Nullable final ObjectState state) {
+    return ObjectState.extant.equals(state) ? 1 : 0;
+  }
+
+  private static long sized(@Nullable final ObjectState state, @Nullable final Long size) {
+    return (ObjectState.creating.equals(state) || ObjectState.extant.equals(state)) && size != null ? size : 0;
+  }
+
+  private static long longValue(@Nullable final Object value) {
+    return value == null ? 0 : ((Number) value).longValue();
+  }
+}
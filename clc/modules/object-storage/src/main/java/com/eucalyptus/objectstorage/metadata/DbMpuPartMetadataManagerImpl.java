@@ -252,11 +252,14 @@ public class DbMpuPartMetadataManagerImpl implements MpuPartMetadataManager {
       public boolean apply(String uploadId) {
         try (TransactionResource db = Entities.transactionFor(PartEntity.class)) {
           // Calculate the sum size of the parts to update the bucket size.
-          PartEntity searchExample = new PartEntity().withUploadId(uploadId).withState(ObjectState.extant);
+          PartEntity searchExample = new PartEntity().withUploadId(uploadId);
           long size =
               Objects.firstNonNull(
-                  (Number) Entities.createCriteria(PartEntity.class).add(Example.create(searchExample)).setProjection(Projections.sum("size"))
-                      .setReadOnly(true).uniqueResult(), 0).longValue();
+                  (Number) Entities.createCriteria(PartEntity.class).add(Example.create(searchExample))
+                      .add(Restrictions.or(Restrictions.eq("state", ObjectState.creating), Restrictions.eq("state", ObjectState.extant)))
+                      .add(Restrictions.isNotNull("partNumber")).setProjection(Projections.sum("size")).setReadOnly(true).uniqueResult(), 0)
+                  .longValue();
+          BucketUsages.adjust(bucket, 0, 0, -size);
 
           // Remove all part records with this upload id
           Entities.deleteAllMatching(PartEntity.class, "where part_number IS NOT NULL and upload_id=:uploadId",
@@ -283,6 +286,7 @@ public class DbMpuPartMetadataManagerImpl implements MpuPartMetadataManager {
       search = getSearchByBucket(search, bucket);
       List<PartEntity> uploads = search.list();
       for (PartEntity e : uploads) {
+        BucketUsages.partTransition(e.getBucket(), e.getState(), e.getSize(), null, null);
         Entities.delete(e);
       }
       db.commit();
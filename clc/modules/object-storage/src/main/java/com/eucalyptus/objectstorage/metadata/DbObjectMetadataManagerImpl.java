@@ -33,6 +33,7 @@ import javax.persistence.EntityTransaction;
 
 import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
+import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Example;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
@@ -45,7 +46,6 @@ import com.eucalyptus.auth.principal.UserPrincipal;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.entities.TransactionException;
 import com.eucalyptus.entities.TransactionResource;
-import com.eucalyptus.entities.Transactions;
 import com.eucalyptus.objectstorage.ObjectMetadataManagers;
 import com.eucalyptus.objectstorage.ObjectState;
 import com.eucalyptus.objectstorage.PaginatedResult;
@@ -369,7 +369,12 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
     try {
       // Delete markers can be just removed not state transitioned.
       if (objectToDelete.getIsDeleteMarker()) {
-        Transactions.delete(objectToDelete);
+        try (TransactionResource trans = Entities.transactionFor(ObjectEntity.class)) {
+          final ObjectEntity deleteMarker = Entities.uniqueResult(new ObjectEntity().withUuid(objectToDelete.getObjectUuid()));
+          BucketUsages.objectTransition(deleteMarker.getBucket(), deleteMarker.getState(), deleteMarker.getSize(), null, null);
+          Entities.delete(deleteMarker);
+          trans.commit();
+        }
         return;
       }
 
@@ -662,14 +667,7 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
           searchObj.setIsDeleteMarker(false);
         }
 
-        Criteria objCriteria = Entities.createCriteria(ObjectEntity.class);
-        objCriteria.setReadOnly(true);
-        objCriteria.setFetchSize(queryStrideSize);
-        objCriteria.add(Example.create(searchObj));
-        objCriteria.addOrder(Order.asc("objectKey"));
-        objCriteria.addOrder(Order.desc("objectModifiedTimestamp"));
-        objCriteria.setMaxResults(queryStrideSize);
-
+        Criterion markerCriterion = null;
         if (!Strings.isNullOrEmpty(fromKeyMarker)) {
           if (!Strings.isNullOrEmpty(fromVersionId)) {
             // Look for the key that matches the key-marker and version-id-marker
@@ -687,25 +685,18 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
 
             // The result set should be exclusive of the key with the key-marker version-id-marker pair. Look for keys that chronologically
             // follow the version-id-marker for the given key-marker and also the keys that follow the key-marker.
-            objCriteria.add(Restrictions.or(
-                Restrictions.and(Restrictions.eq("objectKey", fromKeyMarker),
-                    Restrictions.lt("objectModifiedTimestamp", matchingObject.getObjectModifiedTimestamp())),
-                Restrictions.gt("objectKey", fromKeyMarker)));
+            markerCriterion = after(fromKeyMarker, matchingObject.getObjectModifiedTimestamp());
           } else { // No version-id-marker, just set the criteria the key-marker
-            objCriteria.add(Restrictions.gt("objectKey", fromKeyMarker));
+            markerCriterion = Restrictions.gt("objectKey", fromKeyMarker);
           }
         } else {
           // No criteria to be set
         }
 
-        if (!Strings.isNullOrEmpty(prefix)) {
-          objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
-        } else {
+        if (Strings.isNullOrEmpty(prefix)) {
           prefix = "";
         }
 
-        objCriteria = getSearchByBucket(objCriteria, bucket);
-
         // Ensure not null.
         if (Strings.isNullOrEmpty(delimiter)) {
           delimiter = "";
@@ -716,17 +707,34 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
         String[] parts = null;
         String prefixString = null;
         boolean useDelimiter = !Strings.isNullOrEmpty(delimiter);
-        int pages = 0;
+        Criterion positionCriterion = null;
 
         // Iterate over result sets of size maxkeys + 1 since
         // commonPrefixes collapse the list, we may examine many more
-        // records than maxkeys + 1
+        // records than maxkeys + 1. Each page continues from the last
+        // record seen, or from the first key following the common prefix
+        // of the last record, so keys under a common prefix are not listed.
         do {
           parts = null;
           prefixString = null;
 
-          // Skip ahead the next page of 'queryStrideSize' results.
-          objCriteria.setFirstResult(pages++ * queryStrideSize);
+          Criteria objCriteria = Entities.createCriteria(ObjectEntity.class);
+          objCriteria.setReadOnly(true);
+          objCriteria.setFetchSize(queryStrideSize);
+          objCriteria.add(Example.create(searchObj));
+          objCriteria.addOrder(Order.asc("objectKey"));
+          objCriteria.addOrder(Order.desc("objectModifiedTimestamp"));
+          objCriteria.setMaxResults(queryStrideSize);
+          if (markerCriterion != null) {
+            objCriteria.add(markerCriterion);
+          }
+          if (positionCriterion != null) {
+            objCriteria.add(positionCriterion);
+          }
+          if (!prefix.isEmpty()) {
+            objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
+          }
+          objCriteria = getSearchByBucket(objCriteria, bucket);
 
           objectInfos = (List<ObjectEntity>) objCriteria.list();
           if (objectInfos == null) {
@@ -735,6 +743,7 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
           }
 
           for (ObjectEntity objectRecord : objectInfos) {
+            prefixString = null;
             if (useDelimiter) {
               // Check if it will get aggregated as a commonprefix
               // Split the substring with at least 2 matches as we need a result containing trailing strings. For instance
@@ -762,6 +771,7 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
                 } else {
                   // Already have this prefix, so skip
                 }
+                positionCriterion = afterPrefix(prefixString, objectRecord);
                 continue;
               }
             }
@@ -777,6 +787,7 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
             result.getEntityList().add(objectRecord);
             result.setLastEntry(objectRecord);
             resultKeyCount++;
+            positionCriterion = after(objectRecord.getObjectKey(), objectRecord.getObjectModifiedTimestamp());
           }
 
           if (resultKeyCount <= maxEntries && objectInfos.size() <= maxEntries) {
@@ -802,6 +813,33 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
     }
   }
 
+  /**
+   * Restriction for records following the given key and version in listing order (key ascending, newest first)
+   */
+  private static Criterion after(final String objectKey, final Date objectModifiedTimestamp) {
+    if (objectModifiedTimestamp == null) {
+      return Restrictions.gt("objectKey", objectKey);
+    }
+    return Restrictions.or(
+        Restrictions.and(Restrictions.eq("objectKey", objectKey),
+            Restrictions.lt("objectModifiedTimestamp", objectModifiedTimestamp)),
+        Restrictions.gt("objectKey", objectKey));
+  }
+
+  /**
+   * Restriction for records with keys following all keys with the given common prefix.
+   *
+   * The first key following the prefix is the prefix with the last character incremented, if that is not possible
+   * (or the record key does not start with the prefix) listing continues from the given record.
+   */
+  private static Criterion afterPrefix(final String commonPrefix, final ObjectEntity objectRecord) {
+    final char last = commonPrefix.isEmpty() ? Character.MAX_VALUE : commonPrefix.charAt(commonPrefix.length() - 1);
+    if (last == Character.MAX_VALUE || !objectRecord.getObjectKey().startsWith(commonPrefix)) {
+      return after(objectRecord.getObjectKey(), objectRecord.getObjectModifiedTimestamp());
+    }
+    return Restrictions.ge("objectKey", commonPrefix.substring(0, commonPrefix.length() - 1) + (char) (last + 1));
+  }
+
   @Override
   public long countValid(Bucket bucket) throws Exception {
     try (TransactionResource trans = Entities.transactionFor(ObjectEntity.class)) {
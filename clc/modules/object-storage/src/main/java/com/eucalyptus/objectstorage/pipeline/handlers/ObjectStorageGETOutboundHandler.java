@@ -83,6 +83,7 @@ import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
 
 import com.eucalyptus.context.Contexts;
+import com.eucalyptus.http.MappingHttpRequest;
 import com.eucalyptus.http.MappingHttpResponse;
 import com.eucalyptus.objectstorage.msgs.ObjectStorageDataGetResponseType;
 import com.eucalyptus.objectstorage.msgs.ObjectStorageDataResponseType;
@@ -93,6 +94,7 @@ import com.eucalyptus.storage.common.DateFormatter;
 import com.eucalyptus.storage.msgs.s3.MetaDataEntry;
 import com.eucalyptus.ws.WebServicesException;
 import com.eucalyptus.ws.server.MessageStatistics;
+import com.eucalyptus.ws.server.NioServerHandler;
 import com.google.common.base.Strings;
 
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
@@ -164,6 +166,10 @@ public class ObjectStorageGETOutboundHandler extends ObjectStorageBasicOutboundH
 
     final Channel channel = ctx.getChannel();
     if (channel.isConnected()) {
+      final boolean keepAlive = isKeepAlive(response);
+      if (keepAlive) {
+        httpResponse.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+      }
       ChannelFuture writeFuture = Channels.future(ctx.getChannel());
 
       if (response.getDataInputStream() != null) {
@@ -178,21 +184,50 @@ public class ObjectStorageGETOutboundHandler extends ObjectStorageBasicOutboundH
               @Override
               public void operationComplete(ChannelFuture future) throws Exception {
                 dataStream.close();
-                Contexts.clear(response.getCorrelationId()); // Do this on channel closure
-                // Close the channel
-                ChannelFutureListener.CLOSE.operationComplete(future);
+                Contexts.clear(response.getCorrelationId());
+                // Close the channel unless it can be reused for the next request
+                if (!keepAlive || !future.isSuccess()) {
+                  ChannelFutureListener.CLOSE.operationComplete(future);
+                }
               }
             });
             Channels.write(ctx, bodyWriteFuture, dataStream);
           }
         });
       } else {
-        writeFuture.addListener(ChannelFutureListener.CLOSE);
+        writeFuture.addListener(new ChannelFutureListener() {
+          @Override
+          public void operationComplete(ChannelFuture future) throws Exception {
+            Contexts.clear(response.getCorrelationId());
+            // Close the channel unless it can be reused for the next request
+            if (!keepAlive || !future.isSuccess()) {
+              ChannelFutureListener.CLOSE.operationComplete(future);
+            }
+          }
+        });
       }
       Channels.write(ctx, writeFuture, httpResponse);
     }
   }
 
+  /**
+   * The connection is kept open for the next request if the client asked for a persistent connection and the content
+   * length of the response is known so the end of the body can be found.
+   */
+  private static boolean isKeepAlive(final ObjectStorageDataGetResponseType response) {
+    if (Strings.isNullOrEmpty(response.getCorrelationId())
+        || (response.getDataInputStream() != null && response.getSize() == null)) {
+      return false;
+    }
+    try {
+      final MappingHttpRequest request = Contexts.lookup(response.getCorrelationId()).getHttpRequest();
+      return request != null && NioServerHandler.isPersistentConnection(request);
+    } catch (final Exception e) {
+      LOG.debug("Unable to determine connection persistence for request " + response.getCorrelationId() + ", closing connection");
+      return false;
+    }
+  }
+
   // TODO: zhill - this should all be done in bindings, just need 2-way bindings
   protected DefaultHttpResponse createHttpResponse(ObjectStorageDataGetResponseType reply) {
     DefaultHttpResponse httpResponse = null;
@@ -62,16 +62,12 @@
 
 package com.eucalyptus.objectstorage.policy;
 
-import java.util.List;
-
 import com.eucalyptus.auth.Accounts;
 import com.eucalyptus.auth.AuthException;
-import com.eucalyptus.entities.Entities;
-import com.eucalyptus.entities.TransactionResource;
 import com.eucalyptus.objectstorage.BucketMetadataManagers;
 import com.eucalyptus.objectstorage.MpuPartMetadataManagers;
 import com.eucalyptus.objectstorage.ObjectMetadataManagers;
-import com.eucalyptus.objectstorage.entities.Bucket;
+import com.eucalyptus.objectstorage.metadata.BucketUsages;
 
 public class ObjectStorageQuotaUtil {
 
@@ -93,18 +89,15 @@ public class ObjectStorageQuotaUtil {
 
   public static long countBucketObjects(String bucketName) throws AuthException {
     try {
-      return ObjectMetadataManagers.getInstance().countValid(BucketMetadataManagers.getInstance().lookupBucket(bucketName));
+      return BucketUsages.lookup(BucketMetadataManagers.getInstance().lookupBucket(bucketName)).getObjectCount();
     } catch (Exception e) {
       throw new AuthException("Failed to search object", e);
     }
   }
 
   public static long getBucketSize(String bucketName) throws AuthException {
-    try (TransactionResource db = Entities.transactionFor(Bucket.class)) {
-      Bucket bucket = BucketMetadataManagers.getInstance().lookupBucket(bucketName);
-      long objectSize = ObjectMetadataManagers.getInstance().getTotalSize(bucket);
-      long mpuPartsSize = MpuPartMetadataManagers.getInstance().getTotalSize(bucket);
-      return objectSize + mpuPartsSize;
+    try {
+      return BucketUsages.lookup(BucketMetadataManagers.getInstance().lookupBucket(bucketName)).getTotalBytes();
     } catch (Exception e) {
       throw new AuthException("Failed to get bucket total size", e);
     }
@@ -112,28 +105,16 @@ public class ObjectStorageQuotaUtil {
 
   public static long getTotalObjectsSizeByAccount(String accountId) throws AuthException {
     String canonicalId = Accounts.lookupCanonicalIdByAccountId(accountId);
-    try (TransactionResource db = Entities.transactionFor(Bucket.class)) {
-      List<Bucket> bucketList = BucketMetadataManagers.getInstance().lookupBucketsByOwner(canonicalId);
-      long size = 0;
-      for (Bucket b : bucketList) {
-        size += ObjectMetadataManagers.getInstance().getTotalSize(b);
-        size += MpuPartMetadataManagers.getInstance().getTotalSize(b);
-      }
-      return size;
+    try {
+      return BucketUsages.getTotalSizeByAccount(canonicalId);
     } catch (Exception e) {
       throw new AuthException("Failed to search bucket", e);
     }
   }
 
   public static long getTotalObjectsSizeByUser(String userId) throws AuthException {
-    try (TransactionResource db = Entities.transactionFor(Bucket.class)) {
-      List<Bucket> bucketList = BucketMetadataManagers.getInstance().lookupBucketsByUser(userId);
-      long size = 0;
-      for (Bucket b : bucketList) {
-        size += ObjectMetadataManagers.getInstance().getTotalSize(b);
-        size += MpuPartMetadataManagers.getInstance().getTotalSize(b);
-      }
-      return size;
+    try {
+      return BucketUsages.getTotalSizeByUser(userId);
     } catch (Exception e) {
       throw new AuthException("Failed to search bucket", e);
     }
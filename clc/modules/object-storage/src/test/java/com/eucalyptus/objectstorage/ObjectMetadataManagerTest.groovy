@@ -285,6 +285,30 @@ public class ObjectMetadataManagerTest {
     assert(verifyListingOrder(listing))
   }
 
+  @Test
+  public void testListPaginatedDelimiterMultiplePages() {
+    UserPrincipal usr = Accounts.lookupPrincipalByUserId(UnitTestSupport.getUsersByAccountName(UnitTestSupport.getTestAccounts().first()).first())
+    Bucket bucket = TestUtils.createTestBucket(mgr, 'bucket')
+    TestUtils.createNObjects(objMgr, 10, bucket, 'a/', 100, usr)
+    TestUtils.createNObjects(objMgr, 5, bucket, 'b', 100, usr)
+    TestUtils.createNObjects(objMgr, 10, bucket, 'c/', 100, usr)
+
+    PaginatedResult<ObjectEntity> listing = objMgr.listPaginated(bucket, 2, null, '/', null)
+    assert(listing.getCommonPrefixes() == ['a/'])
+    assert(listing.getEntityList().collect{ it.getObjectKey() } == ['b0'])
+    assert(listing.getIsTruncated())
+
+    listing = objMgr.listPaginated(bucket, 2, null, '/', 'a/')
+    assert(listing.getCommonPrefixes().isEmpty())
+    assert(listing.getEntityList().collect{ it.getObjectKey() } == ['b0', 'b1'])
+    assert(listing.getIsTruncated())
+
+    listing = objMgr.listPaginated(bucket, 5, null, '/', 'b1')
+    assert(listing.getCommonPrefixes() == ['c/'])
+    assert(listing.getEntityList().collect{ it.getObjectKey() } == ['b2', 'b3', 'b4'])
+    assert(!listing.getIsTruncated())
+  }
+
   private static boolean verifyListingOrder(PaginatedResult<ObjectEntity> listing) {
     ObjectEntity last = null;
     for(ObjectEntity e : listing.getEntityList()) {
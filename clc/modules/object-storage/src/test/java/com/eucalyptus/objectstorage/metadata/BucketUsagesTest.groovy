@@ -0,0 +1,207 @@
+/*
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ */
+
+package com.eucalyptus.objectstorage.metadata
+
+import com.eucalyptus.auth.Accounts
+import com.eucalyptus.auth.principal.AccountIdentifiers
+import com.eucalyptus.auth.principal.UserPrincipal
+import com.eucalyptus.entities.Entities
+import com.eucalyptus.entities.TransactionResource
+import com.eucalyptus.objectstorage.BucketMetadataManagers
+import com.eucalyptus.objectstorage.BucketState
+import com.eucalyptus.objectstorage.ObjectMetadataManagers
+import com.eucalyptus.objectstorage.ObjectState
+import com.eucalyptus.objectstorage.UnitTestSupport
+import com.eucalyptus.objectstorage.entities.Bucket
+import com.eucalyptus.objectstorage.entities.BucketUsage
+import com.eucalyptus.objectstorage.entities.BucketUsageDelta
+import com.eucalyptus.objectstorage.entities.ObjectEntity
+import org.hibernate.criterion.Projections
+import org.hibernate.criterion.Restrictions
+import org.junit.After
+import org.junit.AfterClass
+import org.junit.BeforeClass
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+
+class BucketUsagesTest {
+  static int size = 1024
+  static AccountIdentifiers account
+  static UserPrincipal user
+  int bucketIndex = 0
+
+  @BeforeClass
+  public static void setup() {
+    UnitTestSupport.setupAuthPersistenceContext()
+    UnitTestSupport.setupOsgPersistenceContext()
+    UnitTestSupport.initializeAuth(1, 1)
+    account = Accounts.lookupAccountIdentifiersByAlias(UnitTestSupport.getTestAccounts().first())
+    user = Accounts.lookupPrincipalByUserId(UnitTestSupport.getUsersByAccountName(UnitTestSupport.getTestAccounts().first()).first())
+  }
+
+  @AfterClass
+  public static void teardown() {
+    UnitTestSupport.tearDownOsgPersistenceContext()
+    UnitTestSupport.tearDownAuthPersistenceContext()
+  }
+
+  @After
+  public void postTest() {
+    UnitTestSupport.flushObjects()
+    UnitTestSupport.flushBuckets()
+  }
+
+  private Bucket createBucket() {
+    Bucket bucket = Bucket.getInitializedBucket("usagebucket" + (bucketIndex++), account.getCanonicalId(), account.getAccountAlias(),
+        user.getUserId(), "", "")
+    bucket = BucketMetadataManagers.getInstance().transitionBucketToState(bucket, BucketState.creating)
+    BucketMetadataManagers.getInstance().transitionBucketToState(bucket, BucketState.extant)
+  }
+
+  private ObjectEntity createObject(Bucket bucket, String key) {
+    ObjectEntity obj = ObjectEntity.newInitializedForCreate(bucket, key, size, user)
+    obj = ObjectMetadataManagers.getInstance().transitionObjectToState(obj, ObjectState.creating)
+    obj.setObjectModifiedTimestamp(new Date())
+    obj.seteTag("etag")
+    ObjectMetadataManagers.getInstance().transitionObjectToState(obj, ObjectState.extant)
+  }
+
+  private static long countDeltas(Bucket bucket) {
+    try (TransactionResource trans = Entities.transactionFor(BucketUsageDelta.class)) {
+      long count = ((Number) Entities.createCriteria(BucketUsageDelta.class)
+          .add(Restrictions.eq("bucketUuid", bucket.getBucketUuid()))
+          .setProjection(Projections.rowCount()).uniqueResult()).longValue()
+      trans.commit()
+      count
+    }
+  }
+
+  private static BucketUsage storedUsage(Bucket bucket) {
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      BucketUsage usage = Entities.query(new BucketUsage(bucketUuid: bucket.getBucketUuid()), true).find { true }
+      trans.commit()
+      usage
+    }
+  }
+
+  @Test
+  public void testDeltasIncludedInLookup() throws Exception {
+    Bucket bucket = createBucket()
+    createObject(bucket, "key1")
+    createObject(bucket, "key2")
+
+    assert countDeltas(bucket) > 0
+    assertEquals("stored usage is not updated by transitions", 0L, storedUsage(bucket).getObjectBytes())
+    BucketUsage usage = BucketUsages.lookup(bucket)
+    assertEquals(2L, usage.getObjectCount())
+    assertEquals(2L * size, usage.getTotalBytes())
+  }
+
+  @Test
+  public void testFoldDeltas() throws Exception {
+    Bucket bucket = createBucket()
+    createObject(bucket, "key1")
+    createObject(bucket, "key2")
+    createObject(bucket, "key3")
+
+    assert BucketUsages.foldDeltas() > 0
+    assertEquals(0L, countDeltas(bucket))
+    BucketUsage stored = storedUsage(bucket)
+    assertEquals(3L, stored.getObjectCount())
+    assertEquals(3L * size, stored.getObjectBytes())
+    BucketUsage usage = BucketUsages.lookup(bucket)
+    assertEquals(3L, usage.getObjectCount())
+    assertEquals(3L * size, usage.getTotalBytes())
+  }
+
+  @Test
+  public void testFoldWithoutUsageLeavesDeltas() throws Exception {
+    Bucket bucket = createBucket()
+    createObject(bucket, "key1")
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      Entities.delete(Entities.uniqueResult(new BucketUsage(bucketUuid: bucket.getBucketUuid())))
+      trans.commit()
+    }
+    long deltas = countDeltas(bucket)
+
+    BucketUsages.foldDeltas(bucket.getBucketUuid())
+    assertEquals(deltas, countDeltas(bucket))
+  }
+
+  @Test
+  public void testReconcileMissingUsage() throws Exception {
+    Bucket bucket = createBucket()
+    createObject(bucket, "key1")
+    createObject(bucket, "key2")
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      Entities.delete(Entities.uniqueResult(new BucketUsage(bucketUuid: bucket.getBucketUuid())))
+      trans.commit()
+    }
+
+    BucketUsage usage = BucketUsages.lookup(bucket)
+    assertEquals(2L, usage.getObjectCount())
+    assertEquals(2L * size, usage.getTotalBytes())
+    assertEquals("deltas included in reconciled usage are removed", 0L, countDeltas(bucket))
+    assertEquals(2L * size, storedUsage(bucket).getObjectBytes())
+  }
+
+  @Test
+  public void testReconcileCorrectsDrift() throws Exception {
+    Bucket bucket = createBucket()
+    createObject(bucket, "key1")
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      Entities.persist(new BucketUsageDelta(bucket, 5, 5 * size, size))
+      trans.commit()
+    }
+    assertEquals(6L, BucketUsages.lookup(bucket).getObjectCount())
+
+    BucketUsages.reconcile(bucket)
+    BucketUsage usage = BucketUsages.lookup(bucket)
+    assertEquals(1L, usage.getObjectCount())
+    assertEquals(1L * size, usage.getTotalBytes())
+  }
+
+  @Test
+  public void testTotalsIncludeDeltas() throws Exception {
+    Bucket bucket1 = createBucket()
+    Bucket bucket2 = createBucket()
+    createObject(bucket1, "key1")
+    createObject(bucket2, "key1")
+    createObject(bucket2, "key2")
+    BucketUsages.foldDeltas(bucket2.getBucketUuid())
+
+    assertEquals(3L * size, BucketUsages.getTotalSizeByAccount(account.getCanonicalId()))
+    assertEquals(3L * size, BucketUsages.getTotalSizeByUser(user.getUserId()))
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Bucket bucket = createBucket()
+    createObject(bucket, "key1")
+    try (TransactionResource trans = Entities.transactionFor(BucketUsage.class)) {
+      BucketUsages.remove(bucket)
+      trans.commit()
+    }
+    assert storedUsage(bucket) == null
+    assertEquals(0L, countDeltas(bucket))
+  }
+}
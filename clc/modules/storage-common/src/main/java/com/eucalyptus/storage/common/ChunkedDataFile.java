@@ -66,6 +66,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 
 import org.apache.log4j.Logger;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.handler.stream.ChunkedFile;
 
 import edu.ucsb.eucalyptus.constants.IsData;
@@ -73,7 +75,21 @@ import edu.ucsb.eucalyptus.constants.IsData;
 public class ChunkedDataFile extends ChunkedFile implements IsData {
   private static Logger LOG = Logger.getLogger(ChunkedDataFile.class);
 
+  private final RandomAccessFile file;
+
   public ChunkedDataFile(RandomAccessFile file, long offset, long length, int chunkSize) throws IOException {
     super(file, offset, length, chunkSize);
+    this.file = file;
+  }
+
+  /**
+   * Get a file region for the remaining (unread) data in this file.
+   *
+   * The region can be written to a channel without copying the data through the heap. It is only usable when no
+   * handler in the pipeline needs to transform the data (e.g. SSL), in which case the chunked input should be written
+   * instead. Releasing the region closes the underlying file.
+   */
+  public FileRegion toFileRegion() {
+    return new DefaultFileRegion(file.getChannel(), getCurrentOffset(), getEndOffset() - getCurrentOffset());
   }
 }
@@ -87,8 +87,16 @@ public class FileWriter extends FileIO {
   }
 
   public void write(byte[] bytes) throws IOException {
-    ByteBuffer buffer = ByteBuffer.wrap(bytes);
-    channel.write(buffer);
+    write(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Write the remaining content of the given buffer without copying it.
+   */
+  public void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
   }
 
   public ByteBuffer getBuffer() {
@@ -46,11 +46,16 @@ muleEventTtlSeconds = mulePollingIntervalSeconds + default_ext
 contextsIntervalSeconds = 60
 contextsEventTtlSeconds = contextsIntervalSeconds + default_ext
 
+//Should match cloud.metrics_interval
+latencyIntervalSeconds = 60
+latencyEventTtlSeconds = latencyIntervalSeconds + default_ext
+
 return [ ] +
         Sensors.JvmMemorySensors(memoryUsagePollingIntervalSeconds, memoryUsageTtlSeconds) +
         Sensors.JvmThreadSensors(threadPollingIntervalSeconds, threadTtlSeconds) +
         Sensors.DbConnectionPoolSensors(dbPollingIntervalSeconds, dbTtlSeconds) +
         Sensors.ComponentsSensor(componentsPollingIntervalSeconds, componentsCheckTtlSeconds) +
         Sensors.MuleSensors(mulePollingIntervalSeconds, muleEventTtlSeconds) +
-        Sensors.ContextSensor(contextsIntervalSeconds, contextsEventTtlSeconds)
+        Sensors.ContextSensor(contextsIntervalSeconds, contextsEventTtlSeconds) +
+        Sensors.ThruputMetricsSensors(latencyIntervalSeconds, latencyEventTtlSeconds)
 
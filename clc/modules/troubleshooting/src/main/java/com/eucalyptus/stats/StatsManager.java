@@ -21,6 +21,7 @@
 package com.eucalyptus.stats;
 
 import com.eucalyptus.bootstrap.OrderedShutdown;
+import com.eucalyptus.stats.beans.ActionLatency;
 import com.eucalyptus.stats.configuration.StatsConfiguration;
 import com.eucalyptus.stats.sensors.SensorManagers;
 import org.apache.log4j.Logger;
@@ -37,6 +38,7 @@ public class StatsManager {
     @SuppressWarnings("unchecked")
     public static void init() throws Exception {
         LOG.info("Initializing monitoring system");
+        ActionLatency.registerAll();
 
         if (!StatsConfiguration.isStatsReportingEnabled()) {
             LOG.warn("Skipping monitoring configuration because it is explicitly disabled");
@@ -0,0 +1,112 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.stats.beans;
+
+import com.eucalyptus.util.metrics.LatencyHistogram;
+import com.eucalyptus.util.metrics.MonitoredAction;
+import com.eucalyptus.util.metrics.ThruputMetrics;
+import org.apache.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exports ThruputMetrics interval histograms for each monitored action as
+ * com.eucalyptus.stats:type=ActionLatency,name=ACTION
+ */
+public class ActionLatency implements ActionLatencyMXBean {
+    private static final Logger LOG = Logger.getLogger(ActionLatency.class);
+    private static final String OBJECT_NAME_PREFIX = "com.eucalyptus.stats:type=ActionLatency,name=";
+
+    private final MonitoredAction action;
+
+    public ActionLatency(MonitoredAction action) {
+        this.action = action;
+    }
+
+    public static void registerAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (MonitoredAction action : MonitoredAction.values()) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + action.name());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(new ActionLatency(action), name);
+                }
+            } catch (Exception e) {
+                LOG.warn("Error registering latency bean for " + action.name(), e);
+            }
+        }
+    }
+
+    private LatencyHistogram.Snapshot snapshot() {
+        return ThruputMetrics.getIntervalSnapshot(action);
+    }
+
+    @Override
+    public String getState() {
+        return snapshot().getCount() > 0 ? "ACTIVE" : "IDLE";
+    }
+
+    @Override
+    public Double getMetricValue() {
+        return (double) getP99();
+    }
+
+    @Override
+    public String getName() {
+        return action.toString();
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    @Override
+    public double getMean() {
+        return snapshot().getMean();
+    }
+
+    @Override
+    public long getP50() {
+        return snapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getP90() {
+        return snapshot().getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getP99() {
+        return snapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getP999() {
+        return snapshot().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMax() {
+        return snapshot().getMax();
+    }
+}
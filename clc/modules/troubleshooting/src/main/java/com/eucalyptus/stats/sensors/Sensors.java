@@ -37,6 +37,7 @@ public class Sensors {
     private static final String MULE_APP_TOTAL_SENSOR_NAME = "euca.mule.total";
     private static final String MULE_SERVICES_SENSOR_NAME = "euca.mule.services";
     private static final String DB_POOL_SENSOR_NAME = "euca.db.connection_pools";
+    private static final String THRUPUT_LATENCY_SENSOR_NAME = "euca.metrics.latency";
     private static final String MEMORY_NAME_PREFIX = "euca.jvm.memory";
     private static final String THREAD_SENSOR_NAME = "euca.jvm.threads.state";
     private static final String MEMORY_GENERAL_SENSOR_NAME = MEMORY_NAME_PREFIX + ".general";
@@ -47,6 +48,7 @@ public class Sensors {
     private static final List<String> DEFAULT_MEM_HEAP_TAGS = Lists.newArrayList("memory", "jvm", "heap", "non-heap");
     private static final List<String> DEFAULT_THREAD_TAGS = Lists.newArrayList("threads", "jvm");
     private static final List<String> DEFAULT_DB_TAGS = Lists.newArrayList("db", "connection_count");
+    private static final List<String> DEFAULT_LATENCY_TAGS = Lists.newArrayList("metrics", "latency");
 
     public static String pollingIntervalTag(long intervalSec) {
         return "polling_interval: " + String.valueOf(intervalSec) + " sec";
@@ -222,4 +224,29 @@ public class Sensors {
         }
         return sensors;
     }
+
+    /**
+     * Sensor for latency percentiles of monitored actions over the last metrics interval
+     * @param pollingInterval
+     * @param ttl
+     * @return
+     */
+    public static List<SensorEntry> ThruputMetricsSensors(final int pollingInterval, final long ttl) {
+        List<SensorEntry> sensors = Lists.newArrayList();
+        List<String> tags = Lists.newArrayList();
+        tags.addAll(DEFAULT_LATENCY_TAGS);
+        tags.add(pollingIntervalTag(pollingInterval));
+        try {
+            sensors.add(new SensorEntry(BaseStatsSensor.buildSensor(THRUPUT_LATENCY_SENSOR_NAME,
+                    "Latency percentiles for monitored actions",
+                    tags,
+                    ttl,
+                    ThruputMetricsSensor.LATENCY),
+                    pollingInterval));
+        } catch (Exception e) {
+            LOG.error("Error loading latency sensor.");
+            throw Exceptions.toUndeclared(e);
+        }
+        return sensors;
+    }
 }
@@ -0,0 +1,56 @@
+/*************************************************************************
+ * Copyright 2009-2016 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.stats.sensors;
+
+import com.eucalyptus.util.metrics.LatencyHistogram;
+import com.eucalyptus.util.metrics.MonitoredAction;
+import com.eucalyptus.util.metrics.ThruputMetrics;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Latency percentiles for each monitored action over the last completed
+ * metrics interval. Actions with no values in the interval are omitted.
+ */
+public enum ThruputMetricsSensor implements Callable<Map<String, Object>> {
+    LATENCY {
+        @Override
+        public Map<String, Object> call() throws Exception {
+            Map<String, Object> result = Maps.newTreeMap();
+            for (MonitoredAction action : MonitoredAction.values()) {
+                LatencyHistogram.Snapshot snapshot = ThruputMetrics.getIntervalSnapshot(action);
+                if (snapshot.getCount() == 0) {
+                    continue;
+                }
+                String prefix = action.name() + ".";
+                result.put(prefix + "Count", snapshot.getCount());
+                result.put(prefix + "Mean", snapshot.getMean());
+                result.put(prefix + "P50", snapshot.getValueAtPercentile(50));
+                result.put(prefix + "P90", snapshot.getValueAtPercentile(90));
+                result.put(prefix + "P99", snapshot.getValueAtPercentile(99));
+                result.put(prefix + "P999", snapshot.getValueAtPercentile(99.9));
+                result.put(prefix + "Max", snapshot.getMax());
+            }
+            return result;
+        }
+    };
+}
@@ -67,6 +67,7 @@ import java.nio.ByteBuffer;
 public class WalrusDataMessage {
   private Header header;
   private byte[] payload;
+  private ByteBuffer buffer;
   private static final String DELIMITER = "/";
 
   public enum Header {
@@ -82,11 +83,29 @@ public class WalrusDataMessage {
   }
 
   public byte[] getPayload() {
+    if (payload == null && buffer != null) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return bytes;
+    }
     return payload;
   }
 
+  /**
+   * Get the payload as a buffer, this does not copy data messages created from a buffer.
+   *
+   * @return A buffer positioned at the start of the payload, independent of other callers
+   */
+  public ByteBuffer getBuffer() {
+    if (buffer != null) {
+      return buffer.duplicate();
+    }
+    return payload == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(payload);
+  }
+
   public void setPayload(byte[] payload) {
     this.payload = payload;
+    this.buffer = null;
   }
 
   public WalrusDataMessage(Header header, byte[] payload) {
@@ -94,6 +113,11 @@ public class WalrusDataMessage {
     this.payload = payload;
   }
 
+  public WalrusDataMessage(Header header, ByteBuffer buffer) {
+    this.header = header;
+    this.buffer = buffer;
+  }
+
   public WalrusDataMessage() {}
 
   public static WalrusDataMessage EOF() {
@@ -118,6 +142,15 @@ public class WalrusDataMessage {
     return new WalrusDataMessage(Header.DATA, bytes);
   }
 
+  /**
+   * Create a data message that shares the remaining content of the given buffer.
+   *
+   * The buffer content must not be modified after the message is queued.
+   */
+  public static WalrusDataMessage DataMessage(ByteBuffer buffer) {
+    return new WalrusDataMessage(Header.DATA, buffer.slice());
+  }
+
   public static WalrusDataMessage DataMessage(ByteBuffer buffer, int length) {
     byte[] bytes = new byte[length];
     buffer.get(bytes, 0, length);
@@ -548,7 +548,12 @@ public class WalrusFSManager extends WalrusManager {
           break;
         } else {
           assert (WalrusDataMessage.isData(dataMessage));
-          byte[] data = dataMessage.getPayload();
+          ByteBuffer data = dataMessage.getBuffer();
+          // calculate md5 on the fly
+          size += data.remaining();
+          if (digest != null) {
+            digest.update(data.duplicate());
+          }
           // start writing object (but do not commit yet)
           try {
             if (fileIO != null)
@@ -556,11 +561,6 @@ public class WalrusFSManager extends WalrusManager {
           } catch (IOException ex) {
             LOG.error(ex);
           }
-          // calculate md5 on the fly
-          size += data.length;
-          if (digest != null) {
-            digest.update(data);
-          }
         }
       }
       if (dataMessage == null) {
@@ -1653,7 +1653,12 @@ public class WalrusFSManager extends WalrusManager {
           break;
         } else {
           assert (WalrusDataMessage.isData(dataMessage));
-          byte[] data = dataMessage.getPayload();
+          ByteBuffer data = dataMessage.getBuffer();
+          // calculate md5 on the fly
+          size += data.remaining();
+          if (digest != null) {
+            digest.update(data.duplicate());
+          }
           // start writing object (but do not commit yet)
           try {
             if (fileIO != null)
@@ -1661,11 +1666,6 @@ public class WalrusFSManager extends WalrusManager {
           } catch (IOException ex) {
             LOG.error(ex);
           }
-          // calculate md5 on the fly
-          size += data.length;
-          if (digest != null) {
-            digest.update(data);
-          }
         }
       }
     } catch (InterruptedException e) {
@@ -1304,9 +1304,9 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
     ChannelBuffer buffer = httpChunk.getContent();
     try {
       buffer.markReaderIndex();
-      byte[] read = new byte[buffer.readableBytes()];
-      buffer.readBytes(read);
-      while ((putQueue != null) && (!putQueue.offer(WalrusDataMessage.DataMessage(read), 500, TimeUnit.MILLISECONDS)));
+      // the queue is bounded so a slow writer blocks this handler, throttling reads from the client
+      final WalrusDataMessage dataMessage = WalrusDataMessage.DataMessage(buffer.readSlice(buffer.readableBytes()).toByteBuffer());
+      while ((putQueue != null) && (!putQueue.offer(dataMessage, 500, TimeUnit.MILLISECONDS)));
       if (httpChunk.isLast()) {
         while ((putQueue != null) && (!putQueue.offer(WalrusDataMessage.EOF(), 1000, TimeUnit.MILLISECONDS)));
       }
@@ -1320,9 +1320,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
     try {
       putQueue.put(WalrusDataMessage.StartOfData(dataLength));
       buffer.markReaderIndex();
-      byte[] read = new byte[buffer.readableBytes()];
-      buffer.readBytes(read);
-      putQueue.put(WalrusDataMessage.DataMessage(read));
+      putQueue.put(WalrusDataMessage.DataMessage(buffer.readSlice(buffer.readableBytes()).toByteBuffer()));
       if (!httpRequest.isChunked())
         putQueue.put(WalrusDataMessage.EOF());
     } catch (Exception ex) {
@@ -1334,9 +1332,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
   private void handleFirstChunk(MappingHttpRequest httpRequest, ChannelBuffer firstChunk, long dataLength) throws Exception {
     try {
       putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-      byte[] read = new byte[firstChunk.readableBytes()];
-      firstChunk.readBytes(read);
-      putQueue.put(WalrusDataMessage.DataMessage(read));
+      putQueue.put(WalrusDataMessage.DataMessage(firstChunk.readSlice(firstChunk.readableBytes()).toByteBuffer()));
       if (!httpRequest.isChunked())
         putQueue.put(WalrusDataMessage.EOF());
     } catch (Exception ex) {
@@ -1370,9 +1366,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
         putQueue.put(WalrusDataMessage.StartOfData(dataLength));
 
         firstBuffer.markReaderIndex();
-        byte[] read = new byte[firstBuffer.readableBytes()];
-        firstBuffer.readBytes(read);
-        putQueue.put(WalrusDataMessage.DataMessage(read));
+        putQueue.put(WalrusDataMessage.DataMessage(firstBuffer.readSlice(firstBuffer.readableBytes()).toByteBuffer()));
         // putQueue.put(WalrusDataMessage.EOF());
 
       } catch (Exception ex) {
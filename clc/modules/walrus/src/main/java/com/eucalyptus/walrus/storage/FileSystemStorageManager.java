@@ -431,7 +431,7 @@ public class FileSystemStorageManager implements StorageManager {
       if (isCompressed) {
         file = new CompressedChunkedFile(raf, byteRangeStart, byteRangeEnd, (int) Math.min((byteRangeEnd - byteRangeStart), 8192));
       } else {
-        file = new ChunkedDataFile(raf, byteRangeStart, (int) (byteRangeEnd - byteRangeStart), (int) Math.min((byteRangeEnd - byteRangeStart), 8192));
+        file = new ChunkedDataFile(raf, byteRangeStart, byteRangeEnd - byteRangeStart, (int) Math.min((byteRangeEnd - byteRangeStart), 8192));
       }
       List<ChunkedInput> dataStreams = new ArrayList<>();
       dataStreams.add(file);